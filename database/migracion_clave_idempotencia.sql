@@ -0,0 +1,134 @@
+--
+-- Nova Farma - Migración: clave de idempotencia en comprobantes
+--
+-- PROBLEMA: si el commit llega al servidor pero la respuesta se pierde
+-- (timeout, caída de red), reintentar la venta la registraba dos veces.
+--
+-- AHORA:
+-- - comprobantes.clave_idempotencia: UUID generado por la caja para cada
+--   carrito, con restricción UNIQUE (NULL en los comprobantes anteriores)
+-- - La cabecera se inserta con ON CONFLICT DO NOTHING: un reintento con la
+--   misma clave no inserta nada y devuelve el comprobante ya registrado
+-- - registrar_venta recibe la clave (p_clave) y la comprueba antes de
+--   validar el stock (que ya fue descontado por el primer intento)
+--
+-- Requiere migracion_comprobantes.sql aplicada.
+--
+
+BEGIN;
+
+ALTER TABLE "public"."comprobantes"
+    ADD COLUMN "clave_idempotencia" uuid;
+
+ALTER TABLE ONLY "public"."comprobantes"
+    ADD CONSTRAINT "comprobantes_clave_idempotencia_key" UNIQUE ("clave_idempotencia");
+
+DROP FUNCTION IF EXISTS "public"."registrar_venta"(integer, integer[], integer[], numeric[],
+    character varying, character varying, character varying);
+
+CREATE FUNCTION "public"."registrar_venta"(
+    "p_usuario_id" integer,
+    "p_productos" integer[],
+    "p_cantidades" integer[],
+    "p_precios" numeric[],
+    "p_tipo" character varying DEFAULT 'BOLETA',
+    "p_cliente" character varying DEFAULT NULL,
+    "p_dni_ruc" character varying DEFAULT NULL,
+    "p_clave" uuid DEFAULT NULL
+) RETURNS TABLE ("linea_carrito" integer, "id_producto" integer, "mensaje_error" text, "id_comprobante" integer)
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_existente integer;
+BEGIN
+    -- Reintento de una venta ya registrada: devolver el mismo comprobante
+    IF p_clave IS NOT NULL THEN
+        SELECT c.id INTO v_existente FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+        IF FOUND THEN
+            RETURN QUERY SELECT NULL::integer, NULL::integer, NULL::text, v_existente;
+            RETURN;
+        END IF;
+    END IF;
+
+    IF p_productos IS NULL OR cardinality(p_productos) = 0 THEN
+        RETURN QUERY SELECT 0, 0, ''El carrito está vacío''::text, NULL::integer;
+        RETURN;
+    END IF;
+
+    IF cardinality(p_productos) <> cardinality(p_cantidades)
+       OR cardinality(p_productos) <> cardinality(p_precios) THEN
+        RAISE EXCEPTION ''Los arreglos del carrito tienen tamaños distintos'';
+    END IF;
+
+    -- Bloquear en orden de id: el stock validado no cambia hasta el INSERT
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) ORDER BY id FOR UPDATE;
+
+    RETURN QUERY
+    WITH carrito AS (
+        SELECT c.ord::integer AS linea, c.producto_id, c.cantidad
+        FROM unnest(p_productos, p_cantidades) WITH ORDINALITY AS c(producto_id, cantidad, ord)
+    ), solicitado AS (
+        SELECT c.producto_id, SUM(c.cantidad) AS cantidad
+        FROM carrito c
+        GROUP BY c.producto_id
+    ), validacion AS (
+        SELECT c.linea, c.producto_id,
+               CASE
+                   WHEN p.id IS NULL THEN
+                       ''Producto ID '' || c.producto_id || '' no existe''
+                   WHEN c.cantidad IS NULL OR c.cantidad <= 0 THEN
+                       p.nombre || '' - Cantidad inválida: '' || COALESCE(c.cantidad::text, ''vacía'')
+                   WHEN NOT p.activo THEN
+                       p.nombre || '' está inactivo''
+                   WHEN p.fecha_vencimiento < CURRENT_DATE THEN
+                       p.nombre || '' está VENCIDO. Debe retirarlo del carrito.''
+                   WHEN p.stock < s.cantidad THEN
+                       p.nombre || '' - Stock insuficiente. Disponible: '' || p.stock ||
+                       '', Solicitado: '' || s.cantidad
+               END AS error
+        FROM carrito c
+        JOIN solicitado s ON s.producto_id = c.producto_id
+        LEFT JOIN productos p ON p.id = c.producto_id
+    )
+    SELECT v.linea, v.producto_id, v.error, NULL::integer
+    FROM validacion v
+    WHERE v.error IS NOT NULL
+    ORDER BY v.linea;
+
+    -- Con errores no se registra ninguna línea
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    -- Cabecera y líneas en una sola sentencia
+    RETURN QUERY
+    WITH lineas AS (
+        SELECT c.producto_id, c.cantidad, c.precio, c.precio * c.cantidad AS total, c.ord
+        FROM unnest(p_productos, p_cantidades, p_precios) WITH ORDINALITY AS c(producto_id, cantidad, precio, ord)
+    ), cabecera AS (
+        INSERT INTO comprobantes (tipo, cliente, dni_ruc, usuario_id, lineas, unidades, total, clave_idempotencia)
+        SELECT COALESCE(p_tipo, ''BOLETA''), NULLIF(p_cliente, ''''), NULLIF(p_dni_ruc, ''''),
+               p_usuario_id, COUNT(*), SUM(l.cantidad), SUM(l.total), p_clave
+        FROM lineas l
+        ON CONFLICT (clave_idempotencia) DO NOTHING
+        RETURNING id
+    ), insertadas AS (
+        INSERT INTO ventas (comprobante_id, producto_id, usuario_id, cantidad, precio_unitario, total)
+        SELECT cab.id, l.producto_id, p_usuario_id, l.cantidad, l.precio, l.total
+        FROM cabecera cab, lineas l
+        ORDER BY l.ord
+        RETURNING comprobante_id
+    )
+    SELECT NULL::integer, NULL::integer, NULL::text, cab.id
+    FROM cabecera cab;
+
+    -- Otra transacción registró la misma clave mientras esta esperaba
+    IF NOT FOUND THEN
+        RETURN QUERY
+        SELECT NULL::integer, NULL::integer, NULL::text, c.id
+        FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+    END IF;
+END;
+';
+
+COMMIT;
@@ -0,0 +1,131 @@
+--
+-- Nova Farma - Migración: comprobantes (cabecera) + líneas de venta
+--
+-- ANTES: cada línea del carrito era una fila suelta de ventas; el tipo de
+-- comprobante (BOLETA/FACTURA), el cliente y el DNI/RUC se descartaban.
+--
+-- AHORA:
+-- - comprobantes: una fila por venta (cabecera) con tipo, cliente, DNI/RUC
+--   y los totales precalculados (líneas, unidades, total)
+-- - ventas.comprobante_id: cada línea apunta a su comprobante
+--   (NULL en las ventas anteriores a esta migración)
+--
+-- La cabecera y las líneas se escriben con UNA sentencia (INSERT con CTE).
+-- Los reportes de transacciones y ticket promedio leen solo comprobantes.
+--
+-- Requiere migracion_stock_por_sentencia.sql y migracion_registrar_venta.sql aplicadas.
+--
+
+BEGIN;
+
+CREATE TABLE "public"."comprobantes" (
+    "id" serial PRIMARY KEY,
+    "tipo" character varying(10) DEFAULT 'BOLETA' NOT NULL,
+    "cliente" character varying(150),
+    "dni_ruc" character varying(11),
+    "usuario_id" integer NOT NULL REFERENCES "public"."usuarios"("id"),
+    "lineas" integer NOT NULL,
+    "unidades" integer NOT NULL,
+    "total" numeric(12,2) NOT NULL,
+    "fecha_emision" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT "comprobantes_tipo_check" CHECK (("tipo" IN ('BOLETA', 'FACTURA'))),
+    CONSTRAINT "comprobantes_lineas_check" CHECK (("lineas" > 0))
+);
+
+CREATE INDEX "idx_comprobantes_fecha" ON "public"."comprobantes" USING "btree" ("fecha_emision");
+CREATE INDEX "idx_comprobantes_usuario" ON "public"."comprobantes" USING "btree" ("usuario_id");
+
+ALTER TABLE "public"."ventas"
+    ADD COLUMN "comprobante_id" integer REFERENCES "public"."comprobantes"("id");
+
+CREATE INDEX "idx_ventas_comprobante" ON "public"."ventas" USING "btree" ("comprobante_id");
+
+-- registrar_venta ahora recibe la cabecera y devuelve el id del comprobante
+DROP FUNCTION IF EXISTS "public"."registrar_venta"(integer, integer[], integer[], numeric[]);
+
+CREATE FUNCTION "public"."registrar_venta"(
+    "p_usuario_id" integer,
+    "p_productos" integer[],
+    "p_cantidades" integer[],
+    "p_precios" numeric[],
+    "p_tipo" character varying DEFAULT 'BOLETA',
+    "p_cliente" character varying DEFAULT NULL,
+    "p_dni_ruc" character varying DEFAULT NULL
+) RETURNS TABLE ("linea_carrito" integer, "id_producto" integer, "mensaje_error" text, "id_comprobante" integer)
+    LANGUAGE "plpgsql"
+    AS '
+BEGIN
+    IF p_productos IS NULL OR cardinality(p_productos) = 0 THEN
+        RETURN QUERY SELECT 0, 0, ''El carrito está vacío''::text, NULL::integer;
+        RETURN;
+    END IF;
+
+    IF cardinality(p_productos) <> cardinality(p_cantidades)
+       OR cardinality(p_productos) <> cardinality(p_precios) THEN
+        RAISE EXCEPTION ''Los arreglos del carrito tienen tamaños distintos'';
+    END IF;
+
+    -- Bloquear en orden de id: el stock validado no cambia hasta el INSERT
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) ORDER BY id FOR UPDATE;
+
+    RETURN QUERY
+    WITH carrito AS (
+        SELECT c.ord::integer AS linea, c.producto_id, c.cantidad
+        FROM unnest(p_productos, p_cantidades) WITH ORDINALITY AS c(producto_id, cantidad, ord)
+    ), solicitado AS (
+        SELECT c.producto_id, SUM(c.cantidad) AS cantidad
+        FROM carrito c
+        GROUP BY c.producto_id
+    ), validacion AS (
+        SELECT c.linea, c.producto_id,
+               CASE
+                   WHEN p.id IS NULL THEN
+                       ''Producto ID '' || c.producto_id || '' no existe''
+                   WHEN c.cantidad IS NULL OR c.cantidad <= 0 THEN
+                       p.nombre || '' - Cantidad inválida: '' || COALESCE(c.cantidad::text, ''vacía'')
+                   WHEN NOT p.activo THEN
+                       p.nombre || '' está inactivo''
+                   WHEN p.fecha_vencimiento < CURRENT_DATE THEN
+                       p.nombre || '' está VENCIDO. Debe retirarlo del carrito.''
+                   WHEN p.stock < s.cantidad THEN
+                       p.nombre || '' - Stock insuficiente. Disponible: '' || p.stock ||
+                       '', Solicitado: '' || s.cantidad
+               END AS error
+        FROM carrito c
+        JOIN solicitado s ON s.producto_id = c.producto_id
+        LEFT JOIN productos p ON p.id = c.producto_id
+    )
+    SELECT v.linea, v.producto_id, v.error, NULL::integer
+    FROM validacion v
+    WHERE v.error IS NOT NULL
+    ORDER BY v.linea;
+
+    -- Con errores no se registra ninguna línea
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    -- Cabecera y líneas en una sola sentencia
+    RETURN QUERY
+    WITH lineas AS (
+        SELECT c.producto_id, c.cantidad, c.precio, c.precio * c.cantidad AS total, c.ord
+        FROM unnest(p_productos, p_cantidades, p_precios) WITH ORDINALITY AS c(producto_id, cantidad, precio, ord)
+    ), cabecera AS (
+        INSERT INTO comprobantes (tipo, cliente, dni_ruc, usuario_id, lineas, unidades, total)
+        SELECT COALESCE(p_tipo, ''BOLETA''), NULLIF(p_cliente, ''''), NULLIF(p_dni_ruc, ''''),
+               p_usuario_id, COUNT(*), SUM(l.cantidad), SUM(l.total)
+        FROM lineas l
+        RETURNING id
+    ), insertadas AS (
+        INSERT INTO ventas (comprobante_id, producto_id, usuario_id, cantidad, precio_unitario, total)
+        SELECT cab.id, l.producto_id, p_usuario_id, l.cantidad, l.precio, l.total
+        FROM cabecera cab, lineas l
+        ORDER BY l.ord
+        RETURNING comprobante_id
+    )
+    SELECT NULL::integer, NULL::integer, NULL::text, cab.id
+    FROM cabecera cab;
+END;
+';
+
+COMMIT;
@@ -0,0 +1,72 @@
+--
+-- Nova Farma - Migración: cola de documentos electrónicos (boletas y facturas)
+--
+-- PROBLEMA: generar el XML de cada comprobante y enviarlo a SUNAT dentro de
+-- la venta haría esperar a la caja por la red de un tercero.
+--
+-- AHORA:
+-- - documentos_electronicos: un documento por comprobante con su estado
+--   (PENDIENTE, ACEPTADO, RECHAZADO, ERROR), intentos, XML y respuesta
+-- - El trigger trigger_encolar_documento crea el documento PENDIENTE en la
+--   misma transacción que el comprobante: la cola es tan durable como la venta
+--   y la caja no hace ningún viaje extra
+-- - ElectronicInvoiceQueue (Java) toma lotes con FOR UPDATE SKIP LOCKED,
+--   genera los XML y los envía en segundo plano. Tomar un lote solo adelanta
+--   proximo_intento (arriendo): si la aplicación se cae a medio lote, los
+--   documentos vuelven a estar disponibles al vencer el arriendo
+--
+-- ACTIVACIÓN: esta migración es la que activa la cola. nova_farma_schema.sql
+-- ya trae la tabla y la función pero NO el trigger, para que sin
+-- DatabaseConfig.DOCUMENTOS_ELECTRONICOS_HABILITADOS no se acumulen pendientes.
+-- Se puede aplicar sobre una base creada con ese esquema o sobre una anterior.
+--
+-- La cola empieza VACÍA: los comprobantes ya emitidos no se envían. Para
+-- enviar algunos (ej: los del día en que se activa), usar el INSERT comentado
+-- al final con un rango de fechas explícito.
+--
+-- Requiere migracion_comprobantes.sql aplicada.
+--
+
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS "public"."documentos_electronicos" (
+    "comprobante_id" integer PRIMARY KEY REFERENCES "public"."comprobantes"("id") ON DELETE CASCADE,
+    "estado" character varying(10) DEFAULT 'PENDIENTE' NOT NULL,
+    "intentos" integer DEFAULT 0 NOT NULL,
+    "proximo_intento" timestamp without time zone DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    "xml" text,
+    "codigo_respuesta" character varying(20),
+    "mensaje" text,
+    "fecha_creacion" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    "fecha_actualizacion" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT "documentos_electronicos_estado_check"
+        CHECK (("estado" IN ('PENDIENTE', 'ACEPTADO', 'RECHAZADO', 'ERROR')))
+);
+
+-- Solo los pendientes: el índice no crece con el historial aceptado
+CREATE INDEX IF NOT EXISTS "idx_documentos_pendientes" ON "public"."documentos_electronicos" USING "btree" ("proximo_intento")
+    WHERE "estado" = 'PENDIENTE';
+
+CREATE OR REPLACE FUNCTION "public"."encolar_documento_electronico"() RETURNS "trigger"
+    LANGUAGE "plpgsql"
+    AS '
+BEGIN
+    INSERT INTO documentos_electronicos (comprobante_id) VALUES (NEW.id);
+    RETURN NULL;
+END;
+';
+
+DROP TRIGGER IF EXISTS "trigger_encolar_documento" ON "public"."comprobantes";
+
+CREATE TRIGGER "trigger_encolar_documento" AFTER INSERT ON "public"."comprobantes"
+    FOR EACH ROW EXECUTE FUNCTION "public"."encolar_documento_electronico"();
+
+COMMIT;
+
+-- OPCIONAL: encolar comprobantes ya emitidos en un rango de fechas explícito
+-- (nunca todo el historial: se enviarían a SUNAT documentos de meses atrás)
+--
+-- INSERT INTO "public"."documentos_electronicos" ("comprobante_id")
+-- SELECT "id" FROM "public"."comprobantes"
+-- WHERE "fecha_emision" >= DATE '2026-10-16' AND "fecha_emision" < DATE '2026-10-17'
+-- ON CONFLICT DO NOTHING;
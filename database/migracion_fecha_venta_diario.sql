@@ -0,0 +1,142 @@
+--
+-- Nova Farma - Migración: fecha real de las ventas registradas sin conexión
+--
+-- PROBLEMA: una venta que quedó en el diario local (sin conexión con la base)
+-- recibía como fecha la hora en que se sincronizó. Si la caja estuvo horas o
+-- días sin conexión, la venta caía en el reporte de otro día y el documento
+-- electrónico salía con otra fecha de emisión.
+--
+-- AHORA:
+-- - registrar_venta recibe la fecha de la venta (p_fecha). Sin ella usa
+--   CURRENT_TIMESTAMP, como antes
+-- - La cabecera y sus líneas guardan la misma fecha (fecha_emision y fecha_venta)
+--
+-- La aplicación solo envía p_fecha (por nombre) al sincronizar el diario de
+-- ventas. Sin esta migración esa llamada no encuentra la función y la caja
+-- pasa a validar las ventas desde el cliente, que también guarda la fecha.
+--
+-- Requiere migracion_numeracion_comprobantes.sql aplicada.
+--
+
+BEGIN;
+
+DROP FUNCTION IF EXISTS "public"."registrar_venta"(integer, integer[], integer[], numeric[],
+    character varying, character varying, character varying, uuid, character varying, integer);
+
+CREATE FUNCTION "public"."registrar_venta"(
+    "p_usuario_id" integer,
+    "p_productos" integer[],
+    "p_cantidades" integer[],
+    "p_precios" numeric[],
+    "p_tipo" character varying DEFAULT 'BOLETA',
+    "p_cliente" character varying DEFAULT NULL,
+    "p_dni_ruc" character varying DEFAULT NULL,
+    "p_clave" uuid DEFAULT NULL,
+    "p_serie" character varying DEFAULT NULL,
+    "p_numero" integer DEFAULT NULL,
+    "p_fecha" timestamp without time zone DEFAULT NULL
+) RETURNS TABLE ("linea_carrito" integer, "id_producto" integer, "mensaje_error" text, "id_comprobante" integer)
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_existente integer;
+BEGIN
+    -- Reintento de una venta ya registrada: devolver el mismo comprobante
+    IF p_clave IS NOT NULL THEN
+        SELECT c.id INTO v_existente FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+        IF FOUND THEN
+            RETURN QUERY SELECT NULL::integer, NULL::integer, NULL::text, v_existente;
+            RETURN;
+        END IF;
+    END IF;
+
+    IF p_productos IS NULL OR cardinality(p_productos) = 0 THEN
+        RETURN QUERY SELECT 0, 0, ''El carrito está vacío''::text, NULL::integer;
+        RETURN;
+    END IF;
+
+    IF cardinality(p_productos) <> cardinality(p_cantidades)
+       OR cardinality(p_productos) <> cardinality(p_precios) THEN
+        RAISE EXCEPTION ''Los arreglos del carrito tienen tamaños distintos'';
+    END IF;
+
+    -- Bloquear en orden de id: el stock validado no cambia hasta el INSERT.
+    -- Los productos con franjas solo se comparten (FOR SHARE): el trigger
+    -- descuenta de una franja y las cajas no se esperan entre sí
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) AND NOT stock_fraccionado ORDER BY id FOR UPDATE;
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) AND stock_fraccionado ORDER BY id FOR SHARE;
+
+    RETURN QUERY
+    WITH carrito AS (
+        SELECT c.ord::integer AS linea, c.producto_id, c.cantidad
+        FROM unnest(p_productos, p_cantidades) WITH ORDINALITY AS c(producto_id, cantidad, ord)
+    ), solicitado AS (
+        SELECT c.producto_id, SUM(c.cantidad) AS cantidad
+        FROM carrito c
+        GROUP BY c.producto_id
+    ), validacion AS (
+        SELECT c.linea, c.producto_id,
+               CASE
+                   WHEN p.id IS NULL THEN
+                       ''Producto ID '' || c.producto_id || '' no existe''
+                   WHEN c.cantidad IS NULL OR c.cantidad <= 0 THEN
+                       p.nombre || '' - Cantidad inválida: '' || COALESCE(c.cantidad::text, ''vacía'')
+                   WHEN NOT p.activo THEN
+                       p.nombre || '' está inactivo''
+                   WHEN p.fecha_vencimiento < CURRENT_DATE THEN
+                       p.nombre || '' está VENCIDO. Debe retirarlo del carrito.''
+                   WHEN d.stock < s.cantidad THEN
+                       p.nombre || '' - Stock insuficiente. Disponible: '' || d.stock ||
+                       '', Solicitado: '' || s.cantidad
+               END AS error
+        FROM carrito c
+        JOIN solicitado s ON s.producto_id = c.producto_id
+        LEFT JOIN productos p ON p.id = c.producto_id
+        LEFT JOIN LATERAL (
+            SELECT CASE WHEN p.stock_fraccionado THEN stock_franjas(p.id) ELSE p.stock END AS stock
+        ) d ON true
+    )
+    SELECT v.linea, v.producto_id, v.error, NULL::integer
+    FROM validacion v
+    WHERE v.error IS NOT NULL
+    ORDER BY v.linea;
+
+    -- Con errores no se registra ninguna línea
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    -- Cabecera y líneas en una sola sentencia
+    RETURN QUERY
+    WITH lineas AS (
+        SELECT c.producto_id, c.cantidad, c.precio, c.precio * c.cantidad AS total, c.ord
+        FROM unnest(p_productos, p_cantidades, p_precios) WITH ORDINALITY AS c(producto_id, cantidad, precio, ord)
+    ), cabecera AS (
+        INSERT INTO comprobantes (tipo, cliente, dni_ruc, usuario_id, lineas, unidades, total, clave_idempotencia,
+                                  serie, numero, fecha_emision)
+        SELECT COALESCE(p_tipo, ''BOLETA''), NULLIF(p_cliente, ''''), NULLIF(p_dni_ruc, ''''),
+               p_usuario_id, COUNT(*), SUM(l.cantidad), SUM(l.total), p_clave, p_serie, p_numero,
+               COALESCE(p_fecha, CURRENT_TIMESTAMP)
+        FROM lineas l
+        ON CONFLICT (clave_idempotencia) DO NOTHING
+        RETURNING id, fecha_emision
+    ), insertadas AS (
+        INSERT INTO ventas (comprobante_id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta)
+        SELECT cab.id, l.producto_id, p_usuario_id, l.cantidad, l.precio, l.total, cab.fecha_emision
+        FROM cabecera cab, lineas l
+        ORDER BY l.ord
+        RETURNING comprobante_id
+    )
+    SELECT NULL::integer, NULL::integer, NULL::text, cab.id
+    FROM cabecera cab;
+
+    -- Otra transacción registró la misma clave mientras esta esperaba
+    IF NOT FOUND THEN
+        RETURN QUERY
+        SELECT NULL::integer, NULL::integer, NULL::text, c.id
+        FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+    END IF;
+END;
+';
+
+COMMIT;
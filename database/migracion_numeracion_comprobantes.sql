@@ -0,0 +1,259 @@
+--
+-- Nova Farma - Migración: numeración correlativa de comprobantes por serie
+--
+-- PROBLEMA: la caja elige BOLETA o FACTURA pero el comprobante no recibe
+-- número. Un contador por serie actualizado en cada venta encolaría a todas
+-- las cajas en la misma fila.
+--
+-- AHORA:
+-- - series: una fila por serie (B001 = BOLETA, F001 = FACTURA) con el
+--   siguiente número sin repartir
+-- - series_bloques: rangos de números entregados a cada caja. La caja
+--   reserva un bloque (reservar_numeros) y numera sus ventas en memoria:
+--   la fila de la serie solo se bloquea una vez por bloque, no por venta
+-- - comprobantes.serie / comprobantes.numero con UNIQUE (serie, numero)
+--
+-- SIN HUECOS: los números de un bloque que no llegaron a usarse (la caja se
+-- cerró o se cayó) se devuelven con reconciliar_bloques(terminal), que cada
+-- caja ejecuta al arrancar. Quedan como bloques sin terminal y se entregan
+-- antes que los números nuevos, así la serie no deja huecos aunque los
+-- números no salgan en orden cronológico.
+-- Si una caja no vuelve a arrancar, ejecutar a mano:
+--   SELECT reconciliar_bloques('CAJA-03');
+--
+-- registrar_venta recibe la serie y el número (p_serie, p_numero).
+--
+-- Requiere migracion_clave_idempotencia.sql aplicada
+-- (y migracion_stock_fraccionado.sql si se usa el stock fraccionado).
+--
+
+BEGIN;
+
+CREATE TABLE "public"."series" (
+    "serie" character varying(4) PRIMARY KEY,
+    "tipo" character varying(10) NOT NULL,
+    "siguiente" integer DEFAULT 1 NOT NULL,
+    CONSTRAINT "series_tipo_check" CHECK (("tipo" IN ('BOLETA', 'FACTURA'))),
+    CONSTRAINT "series_siguiente_check" CHECK (("siguiente" > 0))
+);
+
+INSERT INTO "public"."series" ("serie", "tipo") VALUES ('B001', 'BOLETA'), ('F001', 'FACTURA');
+
+CREATE TABLE "public"."series_bloques" (
+    "id" serial PRIMARY KEY,
+    "serie" character varying(4) NOT NULL REFERENCES "public"."series"("serie"),
+    "desde" integer NOT NULL,
+    "hasta" integer NOT NULL,
+    "terminal" character varying(50),
+    "abierto" boolean DEFAULT true NOT NULL,
+    "fecha_asignacion" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT "series_bloques_rango_check" CHECK (("desde" <= "hasta"))
+);
+
+CREATE INDEX "idx_series_bloques_abiertos" ON "public"."series_bloques" USING "btree" ("serie", "terminal") WHERE "abierto";
+
+ALTER TABLE "public"."comprobantes"
+    ADD COLUMN "serie" character varying(4),
+    ADD COLUMN "numero" integer;
+
+ALTER TABLE ONLY "public"."comprobantes"
+    ADD CONSTRAINT "comprobantes_serie_numero_key" UNIQUE ("serie", "numero");
+
+-- Entrega números a una caja: primero los devueltos, si no hay un bloque nuevo
+CREATE FUNCTION "public"."reservar_numeros"(
+    "p_serie" character varying,
+    "p_terminal" character varying,
+    "p_cantidad" integer
+) RETURNS TABLE ("numero_desde" integer, "numero_hasta" integer)
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_desde integer;
+BEGIN
+    -- Un bloqueo de la serie por bloque reservado, no por venta
+    PERFORM 1 FROM series s WHERE s.serie = p_serie FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION ''La serie % no existe'', p_serie;
+    END IF;
+
+    -- Números devueltos por cajas que no los usaron: mantienen la serie sin huecos
+    RETURN QUERY
+    UPDATE series_bloques b
+    SET terminal = p_terminal, fecha_asignacion = CURRENT_TIMESTAMP
+    WHERE b.serie = p_serie AND b.abierto AND b.terminal IS NULL
+    RETURNING b.desde, b.hasta;
+
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    UPDATE series s SET siguiente = s.siguiente + p_cantidad
+    WHERE s.serie = p_serie
+    RETURNING s.siguiente - p_cantidad INTO v_desde;
+
+    INSERT INTO series_bloques (serie, desde, hasta, terminal)
+    VALUES (p_serie, v_desde, v_desde + p_cantidad - 1, p_terminal);
+
+    RETURN QUERY SELECT v_desde, v_desde + p_cantidad - 1;
+END;
+';
+
+-- Cierra los bloques de una caja y devuelve sus números sin comprobante
+CREATE FUNCTION "public"."reconciliar_bloques"("p_terminal" character varying) RETURNS integer
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_bloque record;
+    v_libres integer;
+    v_devueltos integer := 0;
+BEGIN
+    FOR v_bloque IN
+        SELECT b.id, b.serie, b.desde, b.hasta
+        FROM series_bloques b
+        WHERE b.terminal = p_terminal AND b.abierto
+        ORDER BY b.id
+        FOR UPDATE
+    LOOP
+        -- Números sin usar, agrupados en rangos consecutivos
+        WITH libres AS (
+            SELECT n, n - ROW_NUMBER() OVER (ORDER BY n) AS grupo
+            FROM generate_series(v_bloque.desde, v_bloque.hasta) AS n
+            WHERE NOT EXISTS (
+                SELECT 1 FROM comprobantes c
+                WHERE c.serie = v_bloque.serie AND c.numero = n
+            )
+        ), devueltos AS (
+            INSERT INTO series_bloques (serie, desde, hasta, terminal)
+            SELECT v_bloque.serie, MIN(l.n), MAX(l.n)
+            FROM libres l
+            GROUP BY l.grupo
+            RETURNING hasta - desde + 1 AS cantidad
+        )
+        SELECT COALESCE(SUM(d.cantidad), 0) INTO v_libres FROM devueltos d;
+
+        UPDATE series_bloques SET abierto = false WHERE id = v_bloque.id;
+        v_devueltos := v_devueltos + v_libres;
+    END LOOP;
+
+    RETURN v_devueltos;
+END;
+';
+
+-- registrar_venta guarda la serie y el número asignados por la caja
+DROP FUNCTION IF EXISTS "public"."registrar_venta"(integer, integer[], integer[], numeric[],
+    character varying, character varying, character varying, uuid);
+
+CREATE FUNCTION "public"."registrar_venta"(
+    "p_usuario_id" integer,
+    "p_productos" integer[],
+    "p_cantidades" integer[],
+    "p_precios" numeric[],
+    "p_tipo" character varying DEFAULT 'BOLETA',
+    "p_cliente" character varying DEFAULT NULL,
+    "p_dni_ruc" character varying DEFAULT NULL,
+    "p_clave" uuid DEFAULT NULL,
+    "p_serie" character varying DEFAULT NULL,
+    "p_numero" integer DEFAULT NULL
+) RETURNS TABLE ("linea_carrito" integer, "id_producto" integer, "mensaje_error" text, "id_comprobante" integer)
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_existente integer;
+BEGIN
+    -- Reintento de una venta ya registrada: devolver el mismo comprobante
+    IF p_clave IS NOT NULL THEN
+        SELECT c.id INTO v_existente FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+        IF FOUND THEN
+            RETURN QUERY SELECT NULL::integer, NULL::integer, NULL::text, v_existente;
+            RETURN;
+        END IF;
+    END IF;
+
+    IF p_productos IS NULL OR cardinality(p_productos) = 0 THEN
+        RETURN QUERY SELECT 0, 0, ''El carrito está vacío''::text, NULL::integer;
+        RETURN;
+    END IF;
+
+    IF cardinality(p_productos) <> cardinality(p_cantidades)
+       OR cardinality(p_productos) <> cardinality(p_precios) THEN
+        RAISE EXCEPTION ''Los arreglos del carrito tienen tamaños distintos'';
+    END IF;
+
+    -- Bloquear en orden de id: el stock validado no cambia hasta el INSERT.
+    -- Los productos con franjas solo se comparten (FOR SHARE): el trigger
+    -- descuenta de una franja y las cajas no se esperan entre sí
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) AND NOT stock_fraccionado ORDER BY id FOR UPDATE;
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) AND stock_fraccionado ORDER BY id FOR SHARE;
+
+    RETURN QUERY
+    WITH carrito AS (
+        SELECT c.ord::integer AS linea, c.producto_id, c.cantidad
+        FROM unnest(p_productos, p_cantidades) WITH ORDINALITY AS c(producto_id, cantidad, ord)
+    ), solicitado AS (
+        SELECT c.producto_id, SUM(c.cantidad) AS cantidad
+        FROM carrito c
+        GROUP BY c.producto_id
+    ), validacion AS (
+        SELECT c.linea, c.producto_id,
+               CASE
+                   WHEN p.id IS NULL THEN
+                       ''Producto ID '' || c.producto_id || '' no existe''
+                   WHEN c.cantidad IS NULL OR c.cantidad <= 0 THEN
+                       p.nombre || '' - Cantidad inválida: '' || COALESCE(c.cantidad::text, ''vacía'')
+                   WHEN NOT p.activo THEN
+                       p.nombre || '' está inactivo''
+                   WHEN p.fecha_vencimiento < CURRENT_DATE THEN
+                       p.nombre || '' está VENCIDO. Debe retirarlo del carrito.''
+                   WHEN d.stock < s.cantidad THEN
+                       p.nombre || '' - Stock insuficiente. Disponible: '' || d.stock ||
+                       '', Solicitado: '' || s.cantidad
+               END AS error
+        FROM carrito c
+        JOIN solicitado s ON s.producto_id = c.producto_id
+        LEFT JOIN productos p ON p.id = c.producto_id
+        LEFT JOIN LATERAL (
+            SELECT CASE WHEN p.stock_fraccionado THEN stock_franjas(p.id) ELSE p.stock END AS stock
+        ) d ON true
+    )
+    SELECT v.linea, v.producto_id, v.error, NULL::integer
+    FROM validacion v
+    WHERE v.error IS NOT NULL
+    ORDER BY v.linea;
+
+    -- Con errores no se registra ninguna línea
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    -- Cabecera y líneas en una sola sentencia
+    RETURN QUERY
+    WITH lineas AS (
+        SELECT c.producto_id, c.cantidad, c.precio, c.precio * c.cantidad AS total, c.ord
+        FROM unnest(p_productos, p_cantidades, p_precios) WITH ORDINALITY AS c(producto_id, cantidad, precio, ord)
+    ), cabecera AS (
+        INSERT INTO comprobantes (tipo, cliente, dni_ruc, usuario_id, lineas, unidades, total, clave_idempotencia, serie, numero)
+        SELECT COALESCE(p_tipo, ''BOLETA''), NULLIF(p_cliente, ''''), NULLIF(p_dni_ruc, ''''),
+               p_usuario_id, COUNT(*), SUM(l.cantidad), SUM(l.total), p_clave, p_serie, p_numero
+        FROM lineas l
+        ON CONFLICT (clave_idempotencia) DO NOTHING
+        RETURNING id
+    ), insertadas AS (
+        INSERT INTO ventas (comprobante_id, producto_id, usuario_id, cantidad, precio_unitario, total)
+        SELECT cab.id, l.producto_id, p_usuario_id, l.cantidad, l.precio, l.total
+        FROM cabecera cab, lineas l
+        ORDER BY l.ord
+        RETURNING comprobante_id
+    )
+    SELECT NULL::integer, NULL::integer, NULL::text, cab.id
+    FROM cabecera cab;
+
+    -- Otra transacción registró la misma clave mientras esta esperaba
+    IF NOT FOUND THEN
+        RETURN QUERY
+        SELECT NULL::integer, NULL::integer, NULL::text, c.id
+        FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+    END IF;
+END;
+';
+
+COMMIT;
@@ -0,0 +1,90 @@
+--
+-- Nova Farma - Migración: función registrar_venta (venta en un solo viaje)
+--
+-- Recibe el carrito completo como arreglos paralelos (una posición por línea),
+-- valida y registra la venta dentro del servidor:
+--   1. Bloquea los productos del carrito en orden de id (FOR UPDATE):
+--      dos cajas que venden los mismos productos no se interbloquean
+--   2. Valida cada línea: producto existente, activo, no vencido,
+--      cantidad positiva y stock suficiente (sumando las líneas del mismo producto)
+--   3. Si hay errores los devuelve (una fila por línea con problema) y NO inserta nada
+--   4. Si todo está bien inserta las líneas en un solo INSERT
+--      (el trigger por sentencia descuenta el stock) y no devuelve filas
+--
+-- USO desde SaleDAO.registrarVentaEnServidor:
+--   SELECT * FROM registrar_venta(usuario_id, productos[], cantidades[], precios[])
+--
+-- Requiere migracion_stock_por_sentencia.sql aplicada.
+--
+
+BEGIN;
+
+CREATE OR REPLACE FUNCTION "public"."registrar_venta"(
+    "p_usuario_id" integer,
+    "p_productos" integer[],
+    "p_cantidades" integer[],
+    "p_precios" numeric[]
+) RETURNS TABLE ("linea_carrito" integer, "id_producto" integer, "mensaje_error" text)
+    LANGUAGE "plpgsql"
+    AS '
+BEGIN
+    IF p_productos IS NULL OR cardinality(p_productos) = 0 THEN
+        RETURN QUERY SELECT 0, 0, ''El carrito está vacío''::text;
+        RETURN;
+    END IF;
+
+    IF cardinality(p_productos) <> cardinality(p_cantidades)
+       OR cardinality(p_productos) <> cardinality(p_precios) THEN
+        RAISE EXCEPTION ''Los arreglos del carrito tienen tamaños distintos'';
+    END IF;
+
+    -- Bloquear en orden de id: el stock validado no cambia hasta el INSERT
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) ORDER BY id FOR UPDATE;
+
+    RETURN QUERY
+    WITH carrito AS (
+        SELECT c.ord::integer AS linea, c.producto_id, c.cantidad
+        FROM unnest(p_productos, p_cantidades) WITH ORDINALITY AS c(producto_id, cantidad, ord)
+    ), solicitado AS (
+        SELECT c.producto_id, SUM(c.cantidad) AS cantidad
+        FROM carrito c
+        GROUP BY c.producto_id
+    ), validacion AS (
+        SELECT c.linea, c.producto_id,
+               CASE
+                   WHEN p.id IS NULL THEN
+                       ''Producto ID '' || c.producto_id || '' no existe''
+                   WHEN c.cantidad IS NULL OR c.cantidad <= 0 THEN
+                       p.nombre || '' - Cantidad inválida: '' || COALESCE(c.cantidad::text, ''vacía'')
+                   WHEN NOT p.activo THEN
+                       p.nombre || '' está inactivo''
+                   WHEN p.fecha_vencimiento < CURRENT_DATE THEN
+                       p.nombre || '' está VENCIDO. Debe retirarlo del carrito.''
+                   WHEN p.stock < s.cantidad THEN
+                       p.nombre || '' - Stock insuficiente. Disponible: '' || p.stock ||
+                       '', Solicitado: '' || s.cantidad
+               END AS error
+        FROM carrito c
+        JOIN solicitado s ON s.producto_id = c.producto_id
+        LEFT JOIN productos p ON p.id = c.producto_id
+    )
+    SELECT v.linea, v.producto_id, v.error
+    FROM validacion v
+    WHERE v.error IS NOT NULL
+    ORDER BY v.linea;
+
+    -- Con errores no se registra ninguna línea
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    INSERT INTO ventas (producto_id, usuario_id, cantidad, precio_unitario, total)
+    SELECT c.producto_id, p_usuario_id, c.cantidad, c.precio, c.precio * c.cantidad
+    FROM unnest(p_productos, p_cantidades, p_precios) WITH ORDINALITY AS c(producto_id, cantidad, precio, ord)
+    ORDER BY c.ord;
+
+    RETURN;
+END;
+';
+
+COMMIT;
@@ -0,0 +1,328 @@
+--
+-- Nova Farma - Migración: stock fraccionado (franjas) para productos muy vendidos
+--
+-- PROBLEMA: cada venta de un producto estrella (ej: Paracetamol 500mg)
+-- actualiza la misma fila de productos. Todas las cajas se encolan en ese
+-- bloqueo y la fila acumula versiones muertas (churn de UPDATE).
+--
+-- AHORA (opcional, por producto):
+-- - productos_stock_franjas: N filas de stock por producto; el stock total
+--   es la suma de las franjas y productos.stock queda en 0
+-- - productos.stock_fraccionado: marca los productos con franjas
+-- - Una venta descuenta de UNA franja al azar con stock suficiente
+--   (FOR UPDATE SKIP LOCKED: si otra caja la tiene, toma otra). Si ninguna
+--   alcanza sola, descuenta de varias bloqueándolas en orden de franja
+-- - registrar_venta no bloquea con FOR UPDATE la fila de un producto con
+--   franjas (FOR SHARE: las cajas no se esperan entre sí)
+-- - Asignar productos.stock (editar producto, desactivarlo) reparte el nuevo
+--   total entre las franjas (trigger_stock_fraccionado)
+--
+-- USO:
+--   SELECT fraccionar_stock(1, 8);   -- Paracetamol en 8 franjas
+--   SELECT fraccionar_stock(1, 1);   -- volver a una sola fila
+--
+-- La aplicación suma las franjas al leer si DatabaseConfig.STOCK_FRACCIONADO_HABILITADO
+-- es true. SaleBulkImporter en modo reconciliar no descuenta productos con
+-- franjas (los reporta como stock insuficiente y cancela la importación).
+--
+-- Requiere migracion_clave_idempotencia.sql aplicada.
+--
+
+BEGIN;
+
+ALTER TABLE "public"."productos"
+    ADD COLUMN "stock_fraccionado" boolean DEFAULT false NOT NULL;
+
+CREATE TABLE "public"."productos_stock_franjas" (
+    "producto_id" integer NOT NULL REFERENCES "public"."productos"("id") ON DELETE CASCADE,
+    "franja" smallint NOT NULL,
+    "stock" integer DEFAULT 0 NOT NULL,
+    PRIMARY KEY ("producto_id", "franja"),
+    CONSTRAINT "productos_stock_franjas_stock_check" CHECK (("stock" >= 0))
+);
+
+-- Stock total de un producto con franjas
+CREATE FUNCTION "public"."stock_franjas"("p_producto" integer) RETURNS integer
+    LANGUAGE "sql" STABLE
+    AS '
+    SELECT COALESCE(SUM(stock), 0)::integer
+    FROM productos_stock_franjas
+    WHERE producto_id = p_producto;
+';
+
+-- Reparte un stock total entre las franjas existentes (las primeras reciben el resto)
+CREATE FUNCTION "public"."repartir_stock_franjas"("p_producto" integer, "p_stock" integer) RETURNS void
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_franjas integer;
+BEGIN
+    IF p_stock < 0 THEN
+        RAISE EXCEPTION ''Stock insuficiente para el producto ID %'', p_producto;
+    END IF;
+
+    -- Bloquear en orden de franja: espera a las ventas en curso
+    PERFORM 1 FROM productos_stock_franjas WHERE producto_id = p_producto ORDER BY franja FOR UPDATE;
+    GET DIAGNOSTICS v_franjas = ROW_COUNT;
+    IF v_franjas = 0 THEN
+        RETURN;
+    END IF;
+
+    UPDATE productos_stock_franjas
+    SET stock = p_stock / v_franjas + CASE WHEN franja < p_stock % v_franjas THEN 1 ELSE 0 END
+    WHERE producto_id = p_producto;
+END;
+';
+
+-- Divide el stock de un producto en p_franjas filas (1 o menos: vuelve a productos.stock)
+CREATE FUNCTION "public"."fraccionar_stock"("p_producto" integer, "p_franjas" integer) RETURNS void
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_fraccionado boolean;
+    v_total integer;
+BEGIN
+    SELECT stock_fraccionado INTO v_fraccionado FROM productos WHERE id = p_producto FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION ''Producto ID % no existe'', p_producto;
+    END IF;
+
+    -- Con las franjas bloqueadas ninguna venta cambia el total
+    PERFORM 1 FROM productos_stock_franjas WHERE producto_id = p_producto ORDER BY franja FOR UPDATE;
+    IF v_fraccionado THEN
+        v_total := stock_franjas(p_producto);
+    ELSE
+        SELECT stock INTO v_total FROM productos WHERE id = p_producto;
+    END IF;
+
+    DELETE FROM productos_stock_franjas WHERE producto_id = p_producto;
+
+    IF p_franjas <= 1 THEN
+        UPDATE productos SET stock = v_total, stock_fraccionado = false WHERE id = p_producto;
+        RETURN;
+    END IF;
+
+    INSERT INTO productos_stock_franjas (producto_id, franja, stock)
+    SELECT p_producto, f, v_total / p_franjas + CASE WHEN f < v_total % p_franjas THEN 1 ELSE 0 END
+    FROM generate_series(0, p_franjas - 1) AS f;
+
+    -- Si ya tenía franjas la fila no cambia (y el trigger no reparte de nuevo)
+    UPDATE productos SET stock = 0, stock_fraccionado = true
+    WHERE id = p_producto AND NOT stock_fraccionado;
+END;
+';
+
+-- Asignar stock a un producto con franjas: el valor es el nuevo total
+CREATE FUNCTION "public"."fijar_stock_fraccionado"() RETURNS "trigger"
+    LANGUAGE "plpgsql"
+    AS '
+BEGIN
+    PERFORM repartir_stock_franjas(NEW.id, NEW.stock);
+    NEW.stock := 0;
+    RETURN NEW;
+END;
+';
+
+CREATE TRIGGER "trigger_stock_fraccionado" BEFORE UPDATE OF "stock" ON "public"."productos"
+    FOR EACH ROW
+    WHEN ((OLD."stock_fraccionado" AND NEW."stock_fraccionado"))
+    EXECUTE FUNCTION "public"."fijar_stock_fraccionado"();
+
+CREATE OR REPLACE FUNCTION "public"."actualizar_stock_ventas"() RETURNS "trigger"
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    producto_sin_stock integer;
+    v_producto integer;
+    v_cantidad integer;
+    v_franja smallint;
+    v_disponible integer;
+    v_tomar integer;
+BEGIN
+    -- Productos sin franjas: cantidad total por producto y un único UPDATE.
+    -- Solo se descuenta donde alcanza el stock; el WHERE se reevalúa sobre la
+    -- versión más reciente de la fila si otra transacción la modificó.
+    WITH cantidades AS (
+        SELECT v.producto_id, SUM(v.cantidad) AS cantidad
+        FROM ventas_insertadas v
+        JOIN productos p ON p.id = v.producto_id
+        WHERE NOT p.stock_fraccionado
+        GROUP BY v.producto_id
+    ), actualizados AS (
+        UPDATE productos p
+        SET stock = p.stock - c.cantidad
+        FROM cantidades c
+        WHERE p.id = c.producto_id
+          AND p.stock >= c.cantidad
+        RETURNING p.id
+    )
+    SELECT c.producto_id INTO producto_sin_stock
+    FROM cantidades c
+    WHERE c.producto_id NOT IN (SELECT id FROM actualizados)
+    LIMIT 1;
+
+    -- Validar stock insuficiente (revierte la sentencia completa)
+    IF producto_sin_stock IS NOT NULL THEN
+        RAISE EXCEPTION ''Stock insuficiente para el producto ID %'', producto_sin_stock;
+    END IF;
+
+    -- Productos con franjas, en orden de id
+    FOR v_producto, v_cantidad IN
+        SELECT v.producto_id, SUM(v.cantidad)::integer
+        FROM ventas_insertadas v
+        JOIN productos p ON p.id = v.producto_id
+        WHERE p.stock_fraccionado
+        GROUP BY v.producto_id
+        ORDER BY v.producto_id
+    LOOP
+        -- Una franja al azar que alcance; las bloqueadas por otra caja se saltan
+        SELECT f.franja INTO v_franja
+        FROM productos_stock_franjas f
+        WHERE f.producto_id = v_producto AND f.stock >= v_cantidad
+        ORDER BY random()
+        LIMIT 1
+        FOR UPDATE SKIP LOCKED;
+
+        IF FOUND THEN
+            UPDATE productos_stock_franjas
+            SET stock = stock - v_cantidad
+            WHERE producto_id = v_producto AND franja = v_franja;
+        ELSE
+            -- Ninguna franja libre alcanza sola: tomar de varias en orden de franja
+            FOR v_franja, v_disponible IN
+                SELECT f.franja, f.stock
+                FROM productos_stock_franjas f
+                WHERE f.producto_id = v_producto AND f.stock > 0
+                ORDER BY f.franja
+                FOR UPDATE
+            LOOP
+                v_tomar := LEAST(v_disponible, v_cantidad);
+                UPDATE productos_stock_franjas
+                SET stock = stock - v_tomar
+                WHERE producto_id = v_producto AND franja = v_franja;
+                v_cantidad := v_cantidad - v_tomar;
+                EXIT WHEN v_cantidad = 0;
+            END LOOP;
+
+            IF v_cantidad > 0 THEN
+                RAISE EXCEPTION ''Stock insuficiente para el producto ID %'', v_producto;
+            END IF;
+        END IF;
+    END LOOP;
+
+    RETURN NULL;
+END;
+';
+
+CREATE OR REPLACE FUNCTION "public"."registrar_venta"(
+    "p_usuario_id" integer,
+    "p_productos" integer[],
+    "p_cantidades" integer[],
+    "p_precios" numeric[],
+    "p_tipo" character varying DEFAULT 'BOLETA',
+    "p_cliente" character varying DEFAULT NULL,
+    "p_dni_ruc" character varying DEFAULT NULL,
+    "p_clave" uuid DEFAULT NULL
+) RETURNS TABLE ("linea_carrito" integer, "id_producto" integer, "mensaje_error" text, "id_comprobante" integer)
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_existente integer;
+BEGIN
+    -- Reintento de una venta ya registrada: devolver el mismo comprobante
+    IF p_clave IS NOT NULL THEN
+        SELECT c.id INTO v_existente FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+        IF FOUND THEN
+            RETURN QUERY SELECT NULL::integer, NULL::integer, NULL::text, v_existente;
+            RETURN;
+        END IF;
+    END IF;
+
+    IF p_productos IS NULL OR cardinality(p_productos) = 0 THEN
+        RETURN QUERY SELECT 0, 0, ''El carrito está vacío''::text, NULL::integer;
+        RETURN;
+    END IF;
+
+    IF cardinality(p_productos) <> cardinality(p_cantidades)
+       OR cardinality(p_productos) <> cardinality(p_precios) THEN
+        RAISE EXCEPTION ''Los arreglos del carrito tienen tamaños distintos'';
+    END IF;
+
+    -- Bloquear en orden de id: el stock validado no cambia hasta el INSERT.
+    -- Los productos con franjas solo se comparten (FOR SHARE): el trigger
+    -- descuenta de una franja y las cajas no se esperan entre sí
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) AND NOT stock_fraccionado ORDER BY id FOR UPDATE;
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) AND stock_fraccionado ORDER BY id FOR SHARE;
+
+    RETURN QUERY
+    WITH carrito AS (
+        SELECT c.ord::integer AS linea, c.producto_id, c.cantidad
+        FROM unnest(p_productos, p_cantidades) WITH ORDINALITY AS c(producto_id, cantidad, ord)
+    ), solicitado AS (
+        SELECT c.producto_id, SUM(c.cantidad) AS cantidad
+        FROM carrito c
+        GROUP BY c.producto_id
+    ), validacion AS (
+        SELECT c.linea, c.producto_id,
+               CASE
+                   WHEN p.id IS NULL THEN
+                       ''Producto ID '' || c.producto_id || '' no existe''
+                   WHEN c.cantidad IS NULL OR c.cantidad <= 0 THEN
+                       p.nombre || '' - Cantidad inválida: '' || COALESCE(c.cantidad::text, ''vacía'')
+                   WHEN NOT p.activo THEN
+                       p.nombre || '' está inactivo''
+                   WHEN p.fecha_vencimiento < CURRENT_DATE THEN
+                       p.nombre || '' está VENCIDO. Debe retirarlo del carrito.''
+                   WHEN d.stock < s.cantidad THEN
+                       p.nombre || '' - Stock insuficiente. Disponible: '' || d.stock ||
+                       '', Solicitado: '' || s.cantidad
+               END AS error
+        FROM carrito c
+        JOIN solicitado s ON s.producto_id = c.producto_id
+        LEFT JOIN productos p ON p.id = c.producto_id
+        LEFT JOIN LATERAL (
+            SELECT CASE WHEN p.stock_fraccionado THEN stock_franjas(p.id) ELSE p.stock END AS stock
+        ) d ON true
+    )
+    SELECT v.linea, v.producto_id, v.error, NULL::integer
+    FROM validacion v
+    WHERE v.error IS NOT NULL
+    ORDER BY v.linea;
+
+    -- Con errores no se registra ninguna línea
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    -- Cabecera y líneas en una sola sentencia
+    RETURN QUERY
+    WITH lineas AS (
+        SELECT c.producto_id, c.cantidad, c.precio, c.precio * c.cantidad AS total, c.ord
+        FROM unnest(p_productos, p_cantidades, p_precios) WITH ORDINALITY AS c(producto_id, cantidad, precio, ord)
+    ), cabecera AS (
+        INSERT INTO comprobantes (tipo, cliente, dni_ruc, usuario_id, lineas, unidades, total, clave_idempotencia)
+        SELECT COALESCE(p_tipo, ''BOLETA''), NULLIF(p_cliente, ''''), NULLIF(p_dni_ruc, ''''),
+               p_usuario_id, COUNT(*), SUM(l.cantidad), SUM(l.total), p_clave
+        FROM lineas l
+        ON CONFLICT (clave_idempotencia) DO NOTHING
+        RETURNING id
+    ), insertadas AS (
+        INSERT INTO ventas (comprobante_id, producto_id, usuario_id, cantidad, precio_unitario, total)
+        SELECT cab.id, l.producto_id, p_usuario_id, l.cantidad, l.precio, l.total
+        FROM cabecera cab, lineas l
+        ORDER BY l.ord
+        RETURNING comprobante_id
+    )
+    SELECT NULL::integer, NULL::integer, NULL::text, cab.id
+    FROM cabecera cab;
+
+    -- Otra transacción registró la misma clave mientras esta esperaba
+    IF NOT FOUND THEN
+        RETURN QUERY
+        SELECT NULL::integer, NULL::integer, NULL::text, c.id
+        FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+    END IF;
+END;
+';
+
+COMMIT;
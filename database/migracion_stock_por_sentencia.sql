@@ -0,0 +1,64 @@
+--
+-- Nova Farma - Migración: descuento de stock por sentencia
+--
+-- ANTES: trigger_actualizar_stock (FOR EACH ROW) ejecutaba, por cada fila de
+-- ventas, un UPDATE de productos y un SELECT para validar el stock.
+-- Un carrito de N líneas = 2N sentencias dentro del INSERT.
+--
+-- AHORA: un trigger FOR EACH STATEMENT con tabla de transición. Todas las
+-- filas insertadas por una sentencia se agrupan por producto y el stock
+-- se descuenta con un único UPDATE ... FROM.
+--
+-- SaleDAO.guardarVentas inserta el carrito completo en una sola sentencia,
+-- así el trigger se ejecuta una vez por venta, no una vez por línea.
+--
+-- La función por fila actualizar_stock_venta() se conserva sin trigger:
+-- la usa StockTriggerBenchmark para comparar ambos caminos.
+--
+-- Requiere PostgreSQL 10 o superior (tablas de transición).
+--
+
+BEGIN;
+
+CREATE OR REPLACE FUNCTION "public"."actualizar_stock_ventas"() RETURNS "trigger"
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    producto_sin_stock integer;
+BEGIN
+    -- Cantidad total por producto (un producto puede aparecer en varias líneas).
+    -- Solo se descuenta donde alcanza el stock; el WHERE se reevalúa sobre la
+    -- versión más reciente de la fila si otra transacción la modificó.
+    WITH cantidades AS (
+        SELECT producto_id, SUM(cantidad) AS cantidad
+        FROM ventas_insertadas
+        GROUP BY producto_id
+    ), actualizados AS (
+        UPDATE productos p
+        SET stock = p.stock - c.cantidad
+        FROM cantidades c
+        WHERE p.id = c.producto_id
+          AND p.stock >= c.cantidad
+        RETURNING p.id
+    )
+    SELECT c.producto_id INTO producto_sin_stock
+    FROM cantidades c
+    WHERE c.producto_id NOT IN (SELECT id FROM actualizados)
+    LIMIT 1;
+
+    -- Validar stock insuficiente (revierte la sentencia completa)
+    IF producto_sin_stock IS NOT NULL THEN
+        RAISE EXCEPTION ''Stock insuficiente para el producto ID %'', producto_sin_stock;
+    END IF;
+
+    RETURN NULL;
+END;
+';
+
+DROP TRIGGER IF EXISTS "trigger_actualizar_stock" ON "public"."ventas";
+
+CREATE TRIGGER "trigger_actualizar_stock_sentencia" AFTER INSERT ON "public"."ventas"
+    REFERENCING NEW TABLE AS "ventas_insertadas"
+    FOR EACH STATEMENT EXECUTE FUNCTION "public"."actualizar_stock_ventas"();
+
+COMMIT;
@@ -88,6 +88,418 @@ END;
 ';
 
 
+--
+-- Name: actualizar_stock_ventas(); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."actualizar_stock_ventas"() RETURNS "trigger"
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    producto_sin_stock integer;
+    v_producto integer;
+    v_cantidad integer;
+    v_franja smallint;
+    v_disponible integer;
+    v_tomar integer;
+BEGIN
+    -- Productos sin franjas: cantidad total por producto y un único UPDATE.
+    -- Solo se descuenta donde alcanza el stock; el WHERE se reevalúa sobre la
+    -- versión más reciente de la fila si otra transacción la modificó.
+    WITH cantidades AS (
+        SELECT v.producto_id, SUM(v.cantidad) AS cantidad
+        FROM ventas_insertadas v
+        JOIN productos p ON p.id = v.producto_id
+        WHERE NOT p.stock_fraccionado
+        GROUP BY v.producto_id
+    ), actualizados AS (
+        UPDATE productos p
+        SET stock = p.stock - c.cantidad
+        FROM cantidades c
+        WHERE p.id = c.producto_id
+          AND p.stock >= c.cantidad
+        RETURNING p.id
+    )
+    SELECT c.producto_id INTO producto_sin_stock
+    FROM cantidades c
+    WHERE c.producto_id NOT IN (SELECT id FROM actualizados)
+    LIMIT 1;
+
+    -- Validar stock insuficiente (revierte la sentencia completa)
+    IF producto_sin_stock IS NOT NULL THEN
+        RAISE EXCEPTION ''Stock insuficiente para el producto ID %'', producto_sin_stock;
+    END IF;
+
+    -- Productos con franjas, en orden de id
+    FOR v_producto, v_cantidad IN
+        SELECT v.producto_id, SUM(v.cantidad)::integer
+        FROM ventas_insertadas v
+        JOIN productos p ON p.id = v.producto_id
+        WHERE p.stock_fraccionado
+        GROUP BY v.producto_id
+        ORDER BY v.producto_id
+    LOOP
+        -- Una franja al azar que alcance; las bloqueadas por otra caja se saltan
+        SELECT f.franja INTO v_franja
+        FROM productos_stock_franjas f
+        WHERE f.producto_id = v_producto AND f.stock >= v_cantidad
+        ORDER BY random()
+        LIMIT 1
+        FOR UPDATE SKIP LOCKED;
+
+        IF FOUND THEN
+            UPDATE productos_stock_franjas
+            SET stock = stock - v_cantidad
+            WHERE producto_id = v_producto AND franja = v_franja;
+        ELSE
+            -- Ninguna franja libre alcanza sola: tomar de varias en orden de franja
+            FOR v_franja, v_disponible IN
+                SELECT f.franja, f.stock
+                FROM productos_stock_franjas f
+                WHERE f.producto_id = v_producto AND f.stock > 0
+                ORDER BY f.franja
+                FOR UPDATE
+            LOOP
+                v_tomar := LEAST(v_disponible, v_cantidad);
+                UPDATE productos_stock_franjas
+                SET stock = stock - v_tomar
+                WHERE producto_id = v_producto AND franja = v_franja;
+                v_cantidad := v_cantidad - v_tomar;
+                EXIT WHEN v_cantidad = 0;
+            END LOOP;
+
+            IF v_cantidad > 0 THEN
+                RAISE EXCEPTION ''Stock insuficiente para el producto ID %'', v_producto;
+            END IF;
+        END IF;
+    END LOOP;
+
+    RETURN NULL;
+END;
+';
+
+
+--
+-- Name: registrar_venta(integer, integer[], integer[], numeric[], character varying, character varying, character varying, "uuid", character varying, integer, timestamp without time zone); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."registrar_venta"(
+    "p_usuario_id" integer,
+    "p_productos" integer[],
+    "p_cantidades" integer[],
+    "p_precios" numeric[],
+    "p_tipo" character varying DEFAULT 'BOLETA',
+    "p_cliente" character varying DEFAULT NULL,
+    "p_dni_ruc" character varying DEFAULT NULL,
+    "p_clave" uuid DEFAULT NULL,
+    "p_serie" character varying DEFAULT NULL,
+    "p_numero" integer DEFAULT NULL,
+    "p_fecha" timestamp without time zone DEFAULT NULL
+) RETURNS TABLE ("linea_carrito" integer, "id_producto" integer, "mensaje_error" text, "id_comprobante" integer)
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_existente integer;
+BEGIN
+    -- Reintento de una venta ya registrada: devolver el mismo comprobante
+    IF p_clave IS NOT NULL THEN
+        SELECT c.id INTO v_existente FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+        IF FOUND THEN
+            RETURN QUERY SELECT NULL::integer, NULL::integer, NULL::text, v_existente;
+            RETURN;
+        END IF;
+    END IF;
+
+    IF p_productos IS NULL OR cardinality(p_productos) = 0 THEN
+        RETURN QUERY SELECT 0, 0, ''El carrito está vacío''::text, NULL::integer;
+        RETURN;
+    END IF;
+
+    IF cardinality(p_productos) <> cardinality(p_cantidades)
+       OR cardinality(p_productos) <> cardinality(p_precios) THEN
+        RAISE EXCEPTION ''Los arreglos del carrito tienen tamaños distintos'';
+    END IF;
+
+    -- Bloquear en orden de id: el stock validado no cambia hasta el INSERT.
+    -- Los productos con franjas solo se comparten (FOR SHARE): el trigger
+    -- descuenta de una franja y las cajas no se esperan entre sí
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) AND NOT stock_fraccionado ORDER BY id FOR UPDATE;
+    PERFORM 1 FROM productos WHERE id = ANY(p_productos) AND stock_fraccionado ORDER BY id FOR SHARE;
+
+    RETURN QUERY
+    WITH carrito AS (
+        SELECT c.ord::integer AS linea, c.producto_id, c.cantidad
+        FROM unnest(p_productos, p_cantidades) WITH ORDINALITY AS c(producto_id, cantidad, ord)
+    ), solicitado AS (
+        SELECT c.producto_id, SUM(c.cantidad) AS cantidad
+        FROM carrito c
+        GROUP BY c.producto_id
+    ), validacion AS (
+        SELECT c.linea, c.producto_id,
+               CASE
+                   WHEN p.id IS NULL THEN
+                       ''Producto ID '' || c.producto_id || '' no existe''
+                   WHEN c.cantidad IS NULL OR c.cantidad <= 0 THEN
+                       p.nombre || '' - Cantidad inválida: '' || COALESCE(c.cantidad::text, ''vacía'')
+                   WHEN NOT p.activo THEN
+                       p.nombre || '' está inactivo''
+                   WHEN p.fecha_vencimiento < CURRENT_DATE THEN
+                       p.nombre || '' está VENCIDO. Debe retirarlo del carrito.''
+                   WHEN d.stock < s.cantidad THEN
+                       p.nombre || '' - Stock insuficiente. Disponible: '' || d.stock ||
+                       '', Solicitado: '' || s.cantidad
+               END AS error
+        FROM carrito c
+        JOIN solicitado s ON s.producto_id = c.producto_id
+        LEFT JOIN productos p ON p.id = c.producto_id
+        LEFT JOIN LATERAL (
+            SELECT CASE WHEN p.stock_fraccionado THEN stock_franjas(p.id) ELSE p.stock END AS stock
+        ) d ON true
+    )
+    SELECT v.linea, v.producto_id, v.error, NULL::integer
+    FROM validacion v
+    WHERE v.error IS NOT NULL
+    ORDER BY v.linea;
+
+    -- Con errores no se registra ninguna línea
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    -- Cabecera y líneas en una sola sentencia
+    RETURN QUERY
+    WITH lineas AS (
+        SELECT c.producto_id, c.cantidad, c.precio, c.precio * c.cantidad AS total, c.ord
+        FROM unnest(p_productos, p_cantidades, p_precios) WITH ORDINALITY AS c(producto_id, cantidad, precio, ord)
+    ), cabecera AS (
+        INSERT INTO comprobantes (tipo, cliente, dni_ruc, usuario_id, lineas, unidades, total, clave_idempotencia,
+                                  serie, numero, fecha_emision)
+        SELECT COALESCE(p_tipo, ''BOLETA''), NULLIF(p_cliente, ''''), NULLIF(p_dni_ruc, ''''),
+               p_usuario_id, COUNT(*), SUM(l.cantidad), SUM(l.total), p_clave, p_serie, p_numero,
+               COALESCE(p_fecha, CURRENT_TIMESTAMP)
+        FROM lineas l
+        ON CONFLICT (clave_idempotencia) DO NOTHING
+        RETURNING id, fecha_emision
+    ), insertadas AS (
+        INSERT INTO ventas (comprobante_id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta)
+        SELECT cab.id, l.producto_id, p_usuario_id, l.cantidad, l.precio, l.total, cab.fecha_emision
+        FROM cabecera cab, lineas l
+        ORDER BY l.ord
+        RETURNING comprobante_id
+    )
+    SELECT NULL::integer, NULL::integer, NULL::text, cab.id
+    FROM cabecera cab;
+
+    -- Otra transacción registró la misma clave mientras esta esperaba
+    IF NOT FOUND THEN
+        RETURN QUERY
+        SELECT NULL::integer, NULL::integer, NULL::text, c.id
+        FROM comprobantes c WHERE c.clave_idempotencia = p_clave;
+    END IF;
+END;
+';
+
+
+--
+-- Name: stock_franjas(integer); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."stock_franjas"("p_producto" integer) RETURNS integer
+    LANGUAGE "sql" STABLE
+    AS '
+    SELECT COALESCE(SUM(stock), 0)::integer
+    FROM productos_stock_franjas
+    WHERE producto_id = p_producto;
+';
+
+
+--
+-- Name: repartir_stock_franjas(integer, integer); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."repartir_stock_franjas"("p_producto" integer, "p_stock" integer) RETURNS void
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_franjas integer;
+BEGIN
+    IF p_stock < 0 THEN
+        RAISE EXCEPTION ''Stock insuficiente para el producto ID %'', p_producto;
+    END IF;
+
+    -- Bloquear en orden de franja: espera a las ventas en curso
+    PERFORM 1 FROM productos_stock_franjas WHERE producto_id = p_producto ORDER BY franja FOR UPDATE;
+    GET DIAGNOSTICS v_franjas = ROW_COUNT;
+    IF v_franjas = 0 THEN
+        RETURN;
+    END IF;
+
+    UPDATE productos_stock_franjas
+    SET stock = p_stock / v_franjas + CASE WHEN franja < p_stock % v_franjas THEN 1 ELSE 0 END
+    WHERE producto_id = p_producto;
+END;
+';
+
+
+--
+-- Name: fraccionar_stock(integer, integer); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."fraccionar_stock"("p_producto" integer, "p_franjas" integer) RETURNS void
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_fraccionado boolean;
+    v_total integer;
+BEGIN
+    SELECT stock_fraccionado INTO v_fraccionado FROM productos WHERE id = p_producto FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION ''Producto ID % no existe'', p_producto;
+    END IF;
+
+    -- Con las franjas bloqueadas ninguna venta cambia el total
+    PERFORM 1 FROM productos_stock_franjas WHERE producto_id = p_producto ORDER BY franja FOR UPDATE;
+    IF v_fraccionado THEN
+        v_total := stock_franjas(p_producto);
+    ELSE
+        SELECT stock INTO v_total FROM productos WHERE id = p_producto;
+    END IF;
+
+    DELETE FROM productos_stock_franjas WHERE producto_id = p_producto;
+
+    IF p_franjas <= 1 THEN
+        UPDATE productos SET stock = v_total, stock_fraccionado = false WHERE id = p_producto;
+        RETURN;
+    END IF;
+
+    INSERT INTO productos_stock_franjas (producto_id, franja, stock)
+    SELECT p_producto, f, v_total / p_franjas + CASE WHEN f < v_total % p_franjas THEN 1 ELSE 0 END
+    FROM generate_series(0, p_franjas - 1) AS f;
+
+    -- Si ya tenía franjas la fila no cambia (y el trigger no reparte de nuevo)
+    UPDATE productos SET stock = 0, stock_fraccionado = true
+    WHERE id = p_producto AND NOT stock_fraccionado;
+END;
+';
+
+
+--
+-- Name: fijar_stock_fraccionado(); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."fijar_stock_fraccionado"() RETURNS "trigger"
+    LANGUAGE "plpgsql"
+    AS '
+BEGIN
+    PERFORM repartir_stock_franjas(NEW.id, NEW.stock);
+    NEW.stock := 0;
+    RETURN NEW;
+END;
+';
+
+
+--
+-- Name: reservar_numeros(character varying, character varying, integer); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."reservar_numeros"(
+    "p_serie" character varying,
+    "p_terminal" character varying,
+    "p_cantidad" integer
+) RETURNS TABLE ("numero_desde" integer, "numero_hasta" integer)
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_desde integer;
+BEGIN
+    -- Un bloqueo de la serie por bloque reservado, no por venta
+    PERFORM 1 FROM series s WHERE s.serie = p_serie FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION ''La serie % no existe'', p_serie;
+    END IF;
+
+    -- Números devueltos por cajas que no los usaron: mantienen la serie sin huecos
+    RETURN QUERY
+    UPDATE series_bloques b
+    SET terminal = p_terminal, fecha_asignacion = CURRENT_TIMESTAMP
+    WHERE b.serie = p_serie AND b.abierto AND b.terminal IS NULL
+    RETURNING b.desde, b.hasta;
+
+    IF FOUND THEN
+        RETURN;
+    END IF;
+
+    UPDATE series s SET siguiente = s.siguiente + p_cantidad
+    WHERE s.serie = p_serie
+    RETURNING s.siguiente - p_cantidad INTO v_desde;
+
+    INSERT INTO series_bloques (serie, desde, hasta, terminal)
+    VALUES (p_serie, v_desde, v_desde + p_cantidad - 1, p_terminal);
+
+    RETURN QUERY SELECT v_desde, v_desde + p_cantidad - 1;
+END;
+';
+
+
+--
+-- Name: reconciliar_bloques(character varying); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."reconciliar_bloques"("p_terminal" character varying) RETURNS integer
+    LANGUAGE "plpgsql"
+    AS '
+DECLARE
+    v_bloque record;
+    v_libres integer;
+    v_devueltos integer := 0;
+BEGIN
+    FOR v_bloque IN
+        SELECT b.id, b.serie, b.desde, b.hasta
+        FROM series_bloques b
+        WHERE b.terminal = p_terminal AND b.abierto
+        ORDER BY b.id
+        FOR UPDATE
+    LOOP
+        -- Números sin usar, agrupados en rangos consecutivos
+        WITH libres AS (
+            SELECT n, n - ROW_NUMBER() OVER (ORDER BY n) AS grupo
+            FROM generate_series(v_bloque.desde, v_bloque.hasta) AS n
+            WHERE NOT EXISTS (
+                SELECT 1 FROM comprobantes c
+                WHERE c.serie = v_bloque.serie AND c.numero = n
+            )
+        ), devueltos AS (
+            INSERT INTO series_bloques (serie, desde, hasta, terminal)
+            SELECT v_bloque.serie, MIN(l.n), MAX(l.n)
+            FROM libres l
+            GROUP BY l.grupo
+            RETURNING hasta - desde + 1 AS cantidad
+        )
+        SELECT COALESCE(SUM(d.cantidad), 0) INTO v_libres FROM devueltos d;
+
+        UPDATE series_bloques SET abierto = false WHERE id = v_bloque.id;
+        v_devueltos := v_devueltos + v_libres;
+    END LOOP;
+
+    RETURN v_devueltos;
+END;
+';
+
+
+--
+-- Name: encolar_documento_electronico(); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION "public"."encolar_documento_electronico"() RETURNS "trigger"
+    LANGUAGE "plpgsql"
+    AS '
+BEGIN
+    INSERT INTO documentos_electronicos (comprobante_id) VALUES (NEW.id);
+    RETURN NULL;
+END;
+';
+
+
 SET default_tablespace = '';
 
 SET default_table_access_method = "heap";
@@ -107,6 +519,7 @@ CREATE TABLE "public"."productos" (
     "fecha_creacion" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
     "fecha_modificacion" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
     "activo" boolean DEFAULT true,
+    "stock_fraccionado" boolean DEFAULT false NOT NULL,
     CONSTRAINT "productos_precio_check" CHECK (("precio" >= (0)::numeric)),
     CONSTRAINT "productos_stock_check" CHECK (("stock" >= 0))
 );
@@ -191,6 +604,89 @@ CREATE SEQUENCE "public"."usuarios_id_seq"
 ALTER SEQUENCE "public"."usuarios_id_seq" OWNED BY "public"."usuarios"."id";
 
 
+--
+-- Name: comprobantes; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE "public"."comprobantes" (
+    "id" serial PRIMARY KEY,
+    "tipo" character varying(10) DEFAULT 'BOLETA' NOT NULL,
+    "cliente" character varying(150),
+    "dni_ruc" character varying(11),
+    "usuario_id" integer NOT NULL,
+    "lineas" integer NOT NULL,
+    "unidades" integer NOT NULL,
+    "total" numeric(12,2) NOT NULL,
+    "fecha_emision" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    "clave_idempotencia" "uuid",
+    "serie" character varying(4),
+    "numero" integer,
+    CONSTRAINT "comprobantes_tipo_check" CHECK (("tipo" IN ('BOLETA', 'FACTURA'))),
+    CONSTRAINT "comprobantes_lineas_check" CHECK (("lineas" > 0))
+);
+
+
+--
+-- Name: productos_stock_franjas; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE "public"."productos_stock_franjas" (
+    "producto_id" integer NOT NULL,
+    "franja" smallint NOT NULL,
+    "stock" integer DEFAULT 0 NOT NULL,
+    PRIMARY KEY ("producto_id", "franja"),
+    CONSTRAINT "productos_stock_franjas_stock_check" CHECK (("stock" >= 0))
+);
+
+
+--
+-- Name: series; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE "public"."series" (
+    "serie" character varying(4) PRIMARY KEY,
+    "tipo" character varying(10) NOT NULL,
+    "siguiente" integer DEFAULT 1 NOT NULL,
+    CONSTRAINT "series_tipo_check" CHECK (("tipo" IN ('BOLETA', 'FACTURA'))),
+    CONSTRAINT "series_siguiente_check" CHECK (("siguiente" > 0))
+);
+
+
+--
+-- Name: series_bloques; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE "public"."series_bloques" (
+    "id" serial PRIMARY KEY,
+    "serie" character varying(4) NOT NULL REFERENCES "public"."series"("serie"),
+    "desde" integer NOT NULL,
+    "hasta" integer NOT NULL,
+    "terminal" character varying(50),
+    "abierto" boolean DEFAULT true NOT NULL,
+    "fecha_asignacion" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT "series_bloques_rango_check" CHECK (("desde" <= "hasta"))
+);
+
+
+--
+-- Name: documentos_electronicos; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE "public"."documentos_electronicos" (
+    "comprobante_id" integer PRIMARY KEY REFERENCES "public"."comprobantes"("id") ON DELETE CASCADE,
+    "estado" character varying(10) DEFAULT 'PENDIENTE' NOT NULL,
+    "intentos" integer DEFAULT 0 NOT NULL,
+    "proximo_intento" timestamp without time zone DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    "xml" text,
+    "codigo_respuesta" character varying(20),
+    "mensaje" text,
+    "fecha_creacion" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    "fecha_actualizacion" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT "documentos_electronicos_estado_check"
+        CHECK (("estado" IN ('PENDIENTE', 'ACEPTADO', 'RECHAZADO', 'ERROR')))
+);
+
+
 --
 -- TOC entry 222 (class 1259 OID 16684)
 -- Name: ventas; Type: TABLE; Schema: public; Owner: postgres
@@ -204,6 +700,7 @@ CREATE TABLE "public"."ventas" (
     "precio_unitario" numeric(10,2) NOT NULL,
     "total" numeric(10,2) NOT NULL,
     "fecha_venta" timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    "comprobante_id" integer REFERENCES "public"."comprobantes"("id"),
     CONSTRAINT "ventas_cantidad_check" CHECK (("cantidad" > 0))
 );
 
@@ -334,6 +831,14 @@ INSERT INTO "public"."ventas" ("id", "producto_id", "usuario_id", "cantidad", "p
 INSERT INTO "public"."ventas" ("id", "producto_id", "usuario_id", "cantidad", "precio_unitario", "total", "fecha_venta") VALUES (13, 1, 7, 5, 5.50, 27.50, '2025-11-22 19:14:46.043614');
 
 
+--
+-- Data for Name: series; Type: TABLE DATA; Schema: public; Owner: postgres
+--
+
+INSERT INTO "public"."series" ("serie", "tipo", "siguiente") VALUES ('B001', 'BOLETA', 1);
+INSERT INTO "public"."series" ("serie", "tipo", "siguiente") VALUES ('F001', 'FACTURA', 1);
+
+
 --
 -- TOC entry 4948 (class 0 OID 0)
 -- Dependencies: 219
@@ -397,6 +902,22 @@ ALTER TABLE ONLY "public"."ventas"
     ADD CONSTRAINT "ventas_pkey" PRIMARY KEY ("id");
 
 
+--
+-- Name: comprobantes comprobantes_clave_idempotencia_key; Type: CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY "public"."comprobantes"
+    ADD CONSTRAINT "comprobantes_clave_idempotencia_key" UNIQUE ("clave_idempotencia");
+
+
+--
+-- Name: comprobantes comprobantes_serie_numero_key; Type: CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY "public"."comprobantes"
+    ADD CONSTRAINT "comprobantes_serie_numero_key" UNIQUE ("serie", "numero");
+
+
 --
 -- TOC entry 4775 (class 1259 OID 16730)
 -- Name: idx_productos_activo; Type: INDEX; Schema: public; Owner: postgres
@@ -429,6 +950,42 @@ CREATE INDEX "idx_productos_vencimiento" ON "public"."productos" USING "btree" (
 CREATE INDEX "idx_usuarios_username" ON "public"."usuarios" USING "btree" ("username");
 
 
+--
+-- Name: idx_comprobantes_fecha; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE INDEX "idx_comprobantes_fecha" ON "public"."comprobantes" USING "btree" ("fecha_emision");
+
+
+--
+-- Name: idx_comprobantes_usuario; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE INDEX "idx_comprobantes_usuario" ON "public"."comprobantes" USING "btree" ("usuario_id");
+
+
+--
+-- Name: idx_series_bloques_abiertos; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE INDEX "idx_series_bloques_abiertos" ON "public"."series_bloques" USING "btree" ("serie", "terminal") WHERE "abierto";
+
+
+--
+-- Name: idx_documentos_pendientes; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE INDEX "idx_documentos_pendientes" ON "public"."documentos_electronicos" USING "btree" ("proximo_intento")
+    WHERE "estado" = 'PENDIENTE';
+
+
+--
+-- Name: idx_ventas_comprobante; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE INDEX "idx_ventas_comprobante" ON "public"."ventas" USING "btree" ("comprobante_id");
+
+
 --
 -- TOC entry 4780 (class 1259 OID 16702)
 -- Name: idx_ventas_fecha; Type: INDEX; Schema: public; Owner: postgres
@@ -438,11 +995,20 @@ CREATE INDEX "idx_ventas_fecha" ON "public"."ventas" USING "btree" ("fecha_venta
 
 
 --
--- TOC entry 4785 (class 2620 OID 16708)
--- Name: ventas trigger_actualizar_stock; Type: TRIGGER; Schema: public; Owner: postgres
+-- Name: ventas trigger_actualizar_stock_sentencia; Type: TRIGGER; Schema: public; Owner: postgres
 --
 
-CREATE TRIGGER "trigger_actualizar_stock" AFTER INSERT ON "public"."ventas" FOR EACH ROW EXECUTE FUNCTION "public"."actualizar_stock_venta"();
+CREATE TRIGGER "trigger_actualizar_stock_sentencia" AFTER INSERT ON "public"."ventas" REFERENCING NEW TABLE AS "ventas_insertadas" FOR EACH STATEMENT EXECUTE FUNCTION "public"."actualizar_stock_ventas"();
+
+
+--
+-- Name: productos trigger_stock_fraccionado; Type: TRIGGER; Schema: public; Owner: postgres
+--
+
+CREATE TRIGGER "trigger_stock_fraccionado" BEFORE UPDATE OF "stock" ON "public"."productos"
+    FOR EACH ROW
+    WHEN ((OLD."stock_fraccionado" AND NEW."stock_fraccionado"))
+    EXECUTE FUNCTION "public"."fijar_stock_fraccionado"();
 
 
 --
@@ -463,6 +1029,22 @@ ALTER TABLE ONLY "public"."ventas"
     ADD CONSTRAINT "ventas_usuario_id_fkey" FOREIGN KEY ("usuario_id") REFERENCES "public"."usuarios"("id");
 
 
+--
+-- Name: comprobantes comprobantes_usuario_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY "public"."comprobantes"
+    ADD CONSTRAINT "comprobantes_usuario_id_fkey" FOREIGN KEY ("usuario_id") REFERENCES "public"."usuarios"("id");
+
+
+--
+-- Name: productos_stock_franjas productos_stock_franjas_producto_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY "public"."productos_stock_franjas"
+    ADD CONSTRAINT "productos_stock_franjas_producto_id_fkey" FOREIGN KEY ("producto_id") REFERENCES "public"."productos"("id") ON DELETE CASCADE;
+
+
 -- Completed on 2025-11-22 22:18:18
 
 --
@@ -1,5 +1,9 @@
 package com.novafarma;
 
+import com.novafarma.service.ElectronicInvoiceQueue;
+import com.novafarma.service.ReceiptNumberAllocator;
+import com.novafarma.service.SaleJournalReplayer;
+import com.novafarma.service.WarmupService;
 import com.novafarma.ui.LoginFrame;
 
 import javax.swing.*;
@@ -43,6 +47,18 @@ public class MainApp {
             e.printStackTrace();
         }
         
+        // Abrir el pool y preparar consultas mientras el usuario escribe sus credenciales
+        WarmupService.iniciar();
+        
+        // Sincronizar las ventas que quedaron en el diario local (si está activo)
+        SaleJournalReplayer.iniciar();
+        
+        // Devolver los números no usados de la sesión anterior y reservar un bloque por serie
+        ReceiptNumberAllocator.iniciar();
+        
+        // Generar y enviar en segundo plano los documentos electrónicos pendientes
+        ElectronicInvoiceQueue.iniciar();
+        
         SwingUtilities.invokeLater(() -> {
             try {
                 LoginFrame loginFrame = new LoginFrame();
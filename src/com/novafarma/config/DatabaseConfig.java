@@ -10,7 +10,7 @@ package com.novafarma.config;
  * IMPORTANTE: Modifica estos valores según tu instalación local de PostgreSQL
  * 
  * @author Nova Farma Development Team
- * @version 1.0
+ * @version 1.4 (Consultas con cursor)
  */
 public class DatabaseConfig {
     
@@ -32,16 +32,241 @@ public class DatabaseConfig {
     /** Contraseña de PostgreSQL */
     public static final String DB_PASSWORD = "postgres";
     
+    // ==================== RÉPLICA DE LECTURA ====================
+    
+    /** Activa el envío de consultas de solo lectura a la réplica */
+    public static final boolean REPLICA_HABILITADA = false;
+    
+    /** Host de la réplica de lectura de PostgreSQL */
+    public static final String REPLICA_HOST = "localhost";
+    
+    /** Puerto de la réplica de lectura */
+    public static final String REPLICA_PORT = "5433";
+    
+    /**
+     * Tras una escritura (ej: una venta), las lecturas se quedan en la primaria
+     * durante este tiempo para no ver datos atrasados de la réplica (ms)
+     */
+    public static final long REPLICA_VENTANA_LECTURA_PROPIA_MS = 10_000;
+    
+    // ==================== POOL DE CONEXIONES ====================
+    
+    /** Conexiones que el pool mantiene abiertas aunque no se usen */
+    public static final int POOL_MIN_CONEXIONES = 2;
+    
+    /** Máximo de conexiones físicas abiertas a la vez */
+    public static final int POOL_MAX_CONEXIONES = 10;
+    
+    /** Tiempo máximo que un hilo espera por una conexión libre (ms) */
+    public static final long POOL_ESPERA_MAXIMA_MS = 5_000;
+    
+    /** Conexiones inactivas más tiempo que esto se cierran (ms) */
+    public static final long POOL_TIEMPO_INACTIVIDAD_MS = 5 * 60_000;
+    
+    /** Una conexión prestada más tiempo que esto se reporta como posible fuga (ms) */
+    public static final long POOL_UMBRAL_FUGA_MS = 60_000;
+    
+    /** Tiempo máximo para validar una conexión al prestarla (segundos) */
+    public static final int POOL_TIMEOUT_VALIDACION_S = 2;
+    
+    /** Intervalo de la tarea de mantenimiento del pool (ms) */
+    public static final long POOL_INTERVALO_MANTENIMIENTO_MS = 30_000;
+    
+    // ==================== SENTENCIAS PREPARADAS ====================
+    
+    /** PreparedStatement cacheados por conexión (0 desactiva la caché) */
+    public static final int CACHE_SENTENCIAS_POR_CONEXION = 64;
+    
+    /**
+     * Ejecuciones de una misma sentencia tras las cuales el driver usa
+     * un plan preparado en el servidor (parámetro prepareThreshold de PgJDBC)
+     */
+    public static final int UMBRAL_PREPARACION_SERVIDOR = 3;
+    
+    /** Filas que trae cada viaje al servidor en las consultas con cursor */
+    public static final int TAMANO_BLOQUE_CURSOR = 500;
+    
+    // ==================== TIEMPOS MÁXIMOS DE CONSULTA ====================
+    // Al vencer, el driver cancela la sentencia en el servidor (SQLState 57014)
+    
+    /** Tiempo máximo por defecto de cualquier sentencia (segundos, 0 = sin límite) */
+    public static final int TIMEOUT_CONSULTA_S = 30;
+    
+    /** Búsqueda del catálogo mientras se escribe: debe responder rápido o ceder */
+    public static final int TIMEOUT_BUSQUEDA_S = 5;
+    
+    /** Recorridos con cursor (historial, exportaciones): pueden tardar más */
+    public static final int TIMEOUT_REPORTE_S = 300;
+    
+    // ==================== CAÍDAS DE LA BASE DE DATOS ====================
+    
+    /** Tiempo máximo para abrir una conexión TCP con el servidor (segundos, connectTimeout de PgJDBC) */
+    public static final int TIMEOUT_CONEXION_S = 3;
+    
+    /** Fallos seguidos al conectar que abren el circuito (fallar al instante) */
+    public static final int CIRCUITO_UMBRAL_FALLOS = 2;
+    
+    /** Espera antes del primer reintento con el circuito abierto (ms) */
+    public static final long CIRCUITO_ESPERA_INICIAL_MS = 1_000;
+    
+    /** La espera se duplica en cada reintento fallido hasta este máximo (ms) */
+    public static final long CIRCUITO_ESPERA_MAXIMA_MS = 30_000;
+    
+    // ==================== VENTAS ====================
+    
+    /**
+     * Registra los carritos con la función registrar_venta del servidor
+     * (validación e insert en un solo viaje). Requiere database/migracion_registrar_venta.sql;
+     * si la función no existe se vuelve a la validación desde el cliente
+     */
+    public static final boolean VENTA_EN_SERVIDOR = true;
+    
+    /**
+     * Agrupa las ventas que llegan casi a la vez en una sola transacción
+     * (un commit para varias cajas, ver SaleIngestionQueue). Desactivado por defecto
+     */
+    public static final boolean VENTA_AGRUPADA_HABILITADA = false;
+    
+    /** Tiempo que se espera a otras ventas antes de confirmar el grupo (ms) */
+    public static final long VENTA_AGRUPADA_ESPERA_MS = 3;
+    
+    /** Máximo de comprobantes por transacción agrupada */
+    public static final int VENTA_AGRUPADA_MAX_LOTE = 32;
+    
+    /**
+     * Intentos para registrar una venta ante errores transitorios (conexión
+     * perdida, deadlock, pool agotado). Es seguro reintentar: la clave de
+     * idempotencia del comprobante evita registrarlo dos veces
+     */
+    public static final int VENTA_MAX_INTENTOS = 3;
+    
+    /** Espera antes del primer reintento; se duplica en cada intento (ms) */
+    public static final long VENTA_REINTENTO_ESPERA_MS = 200;
+    
+    /**
+     * Al validar desde el cliente (y en las ventas agrupadas), bloquea los productos
+     * del carrito en orden de id con SELECT ... FOR UPDATE antes de insertar.
+     * Dos cajas con productos en común se esperan en lugar de caer en deadlock.
+     * registrar_venta del servidor ya bloquea en ese orden
+     */
+    public static final boolean VENTA_BLOQUEO_ORDENADO = true;
+    
+    /**
+     * Lee el stock de los productos con franjas como la suma de sus franjas
+     * (stock fraccionado para productos muy vendidos, ver database/migracion_stock_fraccionado.sql).
+     * Activar solo con esa migración aplicada; los productos se fraccionan con
+     * SELECT fraccionar_stock(id, franjas)
+     */
+    public static final boolean STOCK_FRACCIONADO_HABILITADO = false;
+    
+    /**
+     * Registra cada venta primero en un diario local en disco y la envía a la base
+     * en segundo plano (ver SaleJournal). La caja sigue vendiendo con la base caída
+     * o lenta; el stock se valida al sincronizar. Desactivado por defecto
+     */
+    public static final boolean DIARIO_VENTAS_HABILITADO = false;
+    
+    /** Carpeta del diario local de ventas */
+    public static final String DIARIO_VENTAS_DIRECTORIO =
+        System.getProperty("user.home") + java.io.File.separator + ".novafarma" +
+        java.io.File.separator + "diario-ventas";
+    
+    /** Tamaño de cada archivo de segmento del diario (bytes) */
+    public static final int DIARIO_TAMANO_SEGMENTO_BYTES = 4 * 1024 * 1024;
+    
+    /** Espera antes de reintentar la sincronización con la base caída (ms) */
+    public static final long DIARIO_REINTENTO_MS = 5_000;
+    
+    // ==================== NUMERACIÓN DE COMPROBANTES ====================
+    
+    /**
+     * Asigna a cada comprobante un número correlativo de su serie (B001, F001).
+     * La caja reserva bloques de números y numera en memoria (ver ReceiptNumberAllocator).
+     * Activar solo con database/migracion_numeracion_comprobantes.sql aplicada
+     */
+    public static final boolean NUMERACION_HABILITADA = false;
+    
+    /** Serie de las boletas */
+    public static final String SERIE_BOLETA = "B001";
+    
+    /** Serie de las facturas */
+    public static final String SERIE_FACTURA = "F001";
+    
+    /** Números que se reservan por viaje a la base */
+    public static final int NUMERACION_TAMANO_BLOQUE = 50;
+    
+    /** Con menos números libres que esto se reserva otro bloque en segundo plano */
+    public static final int NUMERACION_MINIMO_LIBRES = 10;
+    
+    /**
+     * Identificador de esta caja en series_bloques (-Dnovafarma.terminal=CAJA-01).
+     * Debe ser único y estable: al arrancar se devuelven los números no usados de esta caja
+     */
+    public static final String TERMINAL_ID =
+        System.getProperty("novafarma.terminal", "CAJA-" + System.getProperty("user.name"));
+    
+    // ==================== DOCUMENTOS ELECTRÓNICOS ====================
+    
+    /**
+     * Genera y envía el XML de cada comprobante en segundo plano (ver ElectronicInvoiceQueue).
+     * La venta no espera ni la generación ni el envío. Activar solo con
+     * database/migracion_documentos_electronicos.sql aplicada: instala el trigger
+     * que encola cada comprobante (el esquema base no lo trae)
+     */
+    public static final boolean DOCUMENTOS_ELECTRONICOS_HABILITADOS = false;
+    
+    /** Hilos que generan y envían documentos (cada uno procesa su propio lote) */
+    public static final int DOCUMENTOS_HILOS = 2;
+    
+    /** Documentos que toma cada hilo por consulta */
+    public static final int DOCUMENTOS_TAMANO_LOTE = 20;
+    
+    /** Espera entre consultas cuando la cola está vacía (ms); una venta nueva despierta a los hilos antes */
+    public static final long DOCUMENTOS_ESPERA_MS = 5_000;
+    
+    /**
+     * Tiempo que un lote tomado queda reservado para su hilo (ms). Si la aplicación
+     * se cae a medio lote, sus documentos vuelven a la cola al vencer
+     */
+    public static final long DOCUMENTOS_ARRIENDO_MS = 120_000;
+    
+    /** Envíos fallidos antes de pasar el documento a ERROR (se reintenta a mano) */
+    public static final int DOCUMENTOS_MAX_INTENTOS = 5;
+    
+    /** Espera antes del primer reintento de envío; se duplica en cada intento (ms) */
+    public static final long DOCUMENTOS_REINTENTO_ESPERA_MS = 30_000;
+    
+    /** RUC del emisor que va en los documentos */
+    public static final String EMISOR_RUC = "20000000001";
+    
+    /** Razón social del emisor que va en los documentos */
+    public static final String EMISOR_RAZON_SOCIAL = "NOVA FARMA S.A.C.";
+    
+    /** Carpeta donde el envío local (sin SUNAT) guarda los XML generados */
+    public static final String DOCUMENTOS_DIRECTORIO =
+        System.getProperty("user.home") + java.io.File.separator + ".novafarma" +
+        java.io.File.separator + "documentos-electronicos";
+    
     // ==================== URL DE CONEXIÓN ====================
     
     /**
      * Genera la URL completa de conexión JDBC
      * 
-     * @return URL en formato: jdbc:postgresql://host:port/database
+     * @return URL en formato: jdbc:postgresql://host:port/database?prepareThreshold=N&connectTimeout=S
      */
     public static String getConnectionUrl() {
-        return String.format("jdbc:postgresql://%s:%s/%s", 
-            DB_HOST, DB_PORT, DB_NAME);
+        return String.format("jdbc:postgresql://%s:%s/%s?prepareThreshold=%d&connectTimeout=%d", 
+            DB_HOST, DB_PORT, DB_NAME, UMBRAL_PREPARACION_SERVIDOR, TIMEOUT_CONEXION_S);
+    }
+    
+    /**
+     * Genera la URL JDBC de la réplica de lectura
+     * 
+     * @return URL en formato: jdbc:postgresql://host:port/database?prepareThreshold=N&connectTimeout=S
+     */
+    public static String getReplicaConnectionUrl() {
+        return String.format("jdbc:postgresql://%s:%s/%s?prepareThreshold=%d&connectTimeout=%d", 
+            REPLICA_HOST, REPLICA_PORT, DB_NAME, UMBRAL_PREPARACION_SERVIDOR, TIMEOUT_CONEXION_S);
     }
     
     /**
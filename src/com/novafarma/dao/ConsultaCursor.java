@@ -0,0 +1,83 @@
+package com.novafarma.dao;
+
+import com.novafarma.config.DatabaseConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Ejecuta consultas de lectura con un cursor del servidor
+ *
+ * PostgreSQL solo envía las filas por bloques (fetch size) si la conexión
+ * está dentro de una transacción; con autocommit activo manda todo el
+ * resultado antes de entregar la primera fila.
+ * Cada fila se entrega al procesador y se descarta: la memoria usada
+ * no depende del número de filas.
+ */
+class ConsultaCursor {
+
+    /** Asigna los parámetros de la consulta */
+    interface AsignadorParametros {
+        void asignar(PreparedStatement consultaPreparada) throws SQLException;
+    }
+
+    /** Convierte la fila actual del ResultSet en un objeto del modelo */
+    interface MapeadorFila<T> {
+        T mapear(ResultSet resultadoConsulta) throws SQLException;
+    }
+
+    private ConsultaCursor() {
+    }
+
+    /**
+     * Recorre el resultado fila por fila
+     *
+     * @param conexion Conexión (se deja en autocommit al terminar)
+     * @param consultaSQL Consulta SELECT
+     * @param parametros Asignación de parámetros (null si no tiene)
+     * @param mapeador Conversión de cada fila
+     * @param procesador Recibe cada objeto mapeado
+     * @return Número de filas procesadas
+     * @throws SQLException Si hay error en la consulta
+     */
+    static <T> long recorrer(Connection conexion, String consultaSQL, AsignadorParametros parametros,
+                             MapeadorFila<T> mapeador, Consumer<? super T> procesador) throws SQLException {
+        long filas = 0;
+        conexion.setAutoCommit(false);
+
+        try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+            consultaPreparada.setFetchSize(DatabaseConfig.TAMANO_BLOQUE_CURSOR);
+            consultaPreparada.setQueryTimeout(DatabaseConfig.TIMEOUT_REPORTE_S);
+            if (parametros != null) {
+                parametros.asignar(consultaPreparada);
+            }
+
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                while (resultadoConsulta.next()) {
+                    procesador.accept(mapeador.mapear(resultadoConsulta));
+                    filas++;
+                }
+            }
+
+            // Restaurar para el siguiente uso de la sentencia cacheada
+            consultaPreparada.setFetchSize(0);
+            conexion.commit();
+
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conexion.rollback();
+            } catch (SQLException excepcionRollback) {
+                excepcionRollback.printStackTrace();
+            }
+            throw e;
+
+        } finally {
+            conexion.setAutoCommit(true);
+        }
+
+        return filas;
+    }
+}
@@ -0,0 +1,132 @@
+package com.novafarma.dao;
+
+import com.novafarma.model.DashboardSnapshot;
+import com.novafarma.model.Product;
+import com.novafarma.model.User;
+import com.novafarma.util.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DAO de la carga inicial del Dashboard
+ *
+ * Envía varias consultas SELECT en un único PreparedStatement (separadas
+ * por ';'). PgJDBC las manda juntas con un solo Sync: un viaje de red en
+ * lugar de uno por consulta. Cada consulta devuelve su propio ResultSet,
+ * que se recorre con getMoreResults().
+ */
+public class DashboardDAO {
+
+    private static final String SQL_CONTEOS =
+        "SELECT (SELECT COUNT(*) FROM productos WHERE activo = TRUE) AS total_activos, " +
+        "(SELECT COUNT(*) FROM productos WHERE activo = TRUE AND " + ProductDAO.STOCK + " > 0) AS total_con_stock, " +
+        "(SELECT COUNT(*) FROM usuarios) AS total_usuarios";
+
+    // LIMIT NULL = sin límite: solo se recorta si también el catálogo de ventas
+    // (productos con stock, el conteo menor) supera el umbral de paginación
+    private static final String SQL_PRODUCTOS =
+        "SELECT " + ProductDAO.COLUMNAS + " " +
+        "FROM productos WHERE activo = TRUE ORDER BY id ASC " +
+        "LIMIT CASE WHEN (SELECT COUNT(*) FROM productos WHERE activo = TRUE AND " + ProductDAO.STOCK + " > 0) > ? THEN ? END";
+
+    private static final String SQL_POR_VENCER =
+        "SELECT " + ProductDAO.COLUMNAS + " " +
+        "FROM productos " +
+        "WHERE fecha_vencimiento IS NOT NULL " +
+        "  AND fecha_vencimiento <= CURRENT_DATE + INTERVAL '30 days' " +
+        "  AND activo = TRUE " +
+        "ORDER BY fecha_vencimiento ASC";
+
+    private static final String SQL_USUARIOS =
+        "SELECT u.id, u.username, u.password_hash, u.rol, COUNT(v.id) AS ventas_count " +
+        "FROM usuarios u " +
+        "LEFT JOIN ventas v ON u.id = v.usuario_id " +
+        "GROUP BY u.id, u.username, u.password_hash, u.rol " +
+        "ORDER BY u.id ASC " +
+        "LIMIT CASE WHEN (SELECT COUNT(*) FROM usuarios) > ? THEN ? END";
+
+    private final ProductDAO productDAO = new ProductDAO();
+    private final UserDAO userDAO = new UserDAO();
+
+    /**
+     * Obtiene todos los datos de la pantalla inicial en un solo viaje
+     *
+     * @param umbralPaginacion Con más registros que esto los paneles paginan
+     * @param tamanoPagina Registros de la primera página
+     * @param incluirUsuarios true para la pestaña de usuarios (administrador)
+     * @return Snapshot con conteos y listas
+     * @throws SQLException Si hay error en alguna de las consultas
+     */
+    public DashboardSnapshot obtenerSnapshot(int umbralPaginacion, int tamanoPagina,
+                                             boolean incluirUsuarios) throws SQLException {
+        String consultaSQL = SQL_CONTEOS + "; " + SQL_PRODUCTOS + "; " + SQL_POR_VENCER +
+            (incluirUsuarios ? "; " + SQL_USUARIOS : "");
+
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+
+            // Los parámetros se numeran a lo largo de todas las consultas
+            consultaPreparada.setInt(1, umbralPaginacion);
+            consultaPreparada.setInt(2, tamanoPagina);
+            if (incluirUsuarios) {
+                consultaPreparada.setInt(3, umbralPaginacion);
+                consultaPreparada.setInt(4, tamanoPagina);
+            }
+
+            if (!consultaPreparada.execute()) {
+                throw new SQLException("La consulta del Dashboard no devolvió resultados");
+            }
+
+            int totalActivos;
+            int totalConStock;
+            int totalUsuarios;
+            try (ResultSet resultadoConsulta = consultaPreparada.getResultSet()) {
+                resultadoConsulta.next();
+                totalActivos = resultadoConsulta.getInt("total_activos");
+                totalConStock = resultadoConsulta.getInt("total_con_stock");
+                totalUsuarios = resultadoConsulta.getInt("total_usuarios");
+            }
+
+            List<Product> productos = leerProductos(siguienteResultado(consultaPreparada));
+            List<Product> porVencer = leerProductos(siguienteResultado(consultaPreparada));
+
+            List<User> usuarios = null;
+            Map<Integer, Integer> ventasPorUsuario = null;
+            if (incluirUsuarios) {
+                usuarios = new ArrayList<>();
+                ventasPorUsuario = new HashMap<>();
+                try (ResultSet resultadoConsulta = siguienteResultado(consultaPreparada)) {
+                    while (resultadoConsulta.next()) {
+                        User usuario = userDAO.mapearResultadoAUsuario(resultadoConsulta);
+                        usuarios.add(usuario);
+                        ventasPorUsuario.put(usuario.getId(), resultadoConsulta.getInt("ventas_count"));
+                    }
+                }
+            }
+
+            return new DashboardSnapshot(totalActivos, totalConStock, productos, porVencer,
+                                         totalUsuarios, usuarios, ventasPorUsuario);
+        }
+    }
+
+    private ResultSet siguienteResultado(PreparedStatement consultaPreparada) throws SQLException {
+        if (!consultaPreparada.getMoreResults()) {
+            throw new SQLException("Faltan resultados en la consulta del Dashboard");
+        }
+        return consultaPreparada.getResultSet();
+    }
+
+    private List<Product> leerProductos(ResultSet resultadoConsulta) throws SQLException {
+        List<Product> productos = new ArrayList<>();
+        try (resultadoConsulta) {
+            while (resultadoConsulta.next()) {
+                productos.add(productDAO.mapearResultadoAProducto(resultadoConsulta));
+            }
+        }
+        return productos;
+    }
+}
@@ -0,0 +1,233 @@
+package com.novafarma.dao;
+
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.util.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DAO de la cola de documentos electrónicos (tabla documentos_electronicos)
+ *
+ * El trigger de comprobantes crea cada documento PENDIENTE; este DAO toma
+ * lotes para generarlos y enviarlos y guarda el resultado.
+ * Requiere database/migracion_documentos_electronicos.sql.
+ */
+public class ElectronicDocumentDAO {
+
+    public static final String ESTADO_PENDIENTE = "PENDIENTE";
+    public static final String ESTADO_ACEPTADO = "ACEPTADO";
+    public static final String ESTADO_RECHAZADO = "RECHAZADO";
+    public static final String ESTADO_ERROR = "ERROR";
+
+    /**
+     * Toma un lote de documentos pendientes para este hilo
+     *
+     * No cambia el estado: solo adelanta proximo_intento (arriendo). Otros hilos y
+     * cajas saltan las filas bloqueadas (SKIP LOCKED) y no ven el lote hasta que
+     * vence el arriendo, así que un lote abandonado vuelve solo a la cola.
+     *
+     * @param limite     Máximo de documentos
+     * @param arriendoMs Tiempo que el lote queda reservado
+     * @return IDs de los comprobantes tomados
+     * @throws SQLException Si hay error en la BD
+     */
+    public List<Integer> reclamarLote(int limite, long arriendoMs) throws SQLException {
+        String consultaSQL =
+            "UPDATE documentos_electronicos d " +
+            "SET proximo_intento = CURRENT_TIMESTAMP + ? * INTERVAL '1 millisecond' " +
+            "WHERE d.comprobante_id IN (" +
+            "  SELECT comprobante_id FROM documentos_electronicos " +
+            "  WHERE estado = 'PENDIENTE' AND proximo_intento <= CURRENT_TIMESTAMP " +
+            "  ORDER BY proximo_intento LIMIT ? FOR UPDATE SKIP LOCKED" +
+            ") RETURNING d.comprobante_id";
+        List<Integer> ids = new ArrayList<>();
+
+        try (Connection conexion = DatabaseConnection.getConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+
+            consultaPreparada.setLong(1, arriendoMs);
+            consultaPreparada.setInt(2, limite);
+
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                while (resultadoConsulta.next()) {
+                    ids.add(resultadoConsulta.getInt("comprobante_id"));
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Guarda el resultado de un lote (una sentencia para los finales y otra para los fallidos)
+     *
+     * - Aceptados y rechazados quedan en su estado final
+     * - Fallidos vuelven a PENDIENTE con espera exponencial
+     *   (DOCUMENTOS_REINTENTO_ESPERA_MS * 2^intentos); al llegar a
+     *   DOCUMENTOS_MAX_INTENTOS pasan a ERROR
+     *
+     * @param resultados Resultado de cada documento del lote
+     * @throws SQLException Si hay error en la BD (el lote se reintenta al vencer el arriendo)
+     */
+    public void guardarResultados(List<Resultado> resultados) throws SQLException {
+        List<Resultado> finales = new ArrayList<>();
+        List<Resultado> fallidos = new ArrayList<>();
+        for (Resultado resultado : resultados) {
+            (resultado.isFallido() ? fallidos : finales).add(resultado);
+        }
+
+        String consultaFinales =
+            "UPDATE documentos_electronicos d " +
+            "SET estado = r.estado, xml = r.xml, codigo_respuesta = r.codigo, mensaje = r.mensaje, " +
+            "    intentos = d.intentos + 1, fecha_actualizacion = CURRENT_TIMESTAMP " +
+            "FROM unnest(?::integer[], ?::varchar[], ?::text[], ?::varchar[], ?::text[]) " +
+            "     AS r(comprobante_id, estado, xml, codigo, mensaje) " +
+            "WHERE d.comprobante_id = r.comprobante_id";
+        String consultaFallidos =
+            "UPDATE documentos_electronicos d " +
+            "SET estado = CASE WHEN d.intentos + 1 >= ? THEN 'ERROR' ELSE 'PENDIENTE' END, " +
+            "    proximo_intento = CURRENT_TIMESTAMP + ? * power(2, d.intentos) * INTERVAL '1 millisecond', " +
+            "    xml = COALESCE(r.xml, d.xml), mensaje = r.mensaje, " +
+            "    intentos = d.intentos + 1, fecha_actualizacion = CURRENT_TIMESTAMP " +
+            "FROM unnest(?::integer[], ?::text[], ?::text[]) AS r(comprobante_id, xml, mensaje) " +
+            "WHERE d.comprobante_id = r.comprobante_id";
+
+        try (Connection conexion = DatabaseConnection.getConnection()) {
+            if (!finales.isEmpty()) {
+                int cantidad = finales.size();
+                Integer[] ids = new Integer[cantidad];
+                String[] estados = new String[cantidad];
+                String[] xmls = new String[cantidad];
+                String[] codigos = new String[cantidad];
+                String[] mensajes = new String[cantidad];
+                for (int i = 0; i < cantidad; i++) {
+                    Resultado resultado = finales.get(i);
+                    ids[i] = resultado.getComprobanteId();
+                    estados[i] = resultado.getEstado();
+                    xmls[i] = resultado.getXml();
+                    codigos[i] = resultado.getCodigo();
+                    mensajes[i] = resultado.getMensaje();
+                }
+                try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaFinales)) {
+                    consultaPreparada.setArray(1, conexion.createArrayOf("integer", ids));
+                    consultaPreparada.setArray(2, conexion.createArrayOf("varchar", estados));
+                    consultaPreparada.setArray(3, conexion.createArrayOf("text", xmls));
+                    consultaPreparada.setArray(4, conexion.createArrayOf("varchar", codigos));
+                    consultaPreparada.setArray(5, conexion.createArrayOf("text", mensajes));
+                    consultaPreparada.executeUpdate();
+                }
+            }
+
+            if (!fallidos.isEmpty()) {
+                int cantidad = fallidos.size();
+                Integer[] ids = new Integer[cantidad];
+                String[] xmls = new String[cantidad];
+                String[] mensajes = new String[cantidad];
+                for (int i = 0; i < cantidad; i++) {
+                    Resultado resultado = fallidos.get(i);
+                    ids[i] = resultado.getComprobanteId();
+                    xmls[i] = resultado.getXml();
+                    mensajes[i] = resultado.getMensaje();
+                }
+                try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaFallidos)) {
+                    consultaPreparada.setInt(1, DatabaseConfig.DOCUMENTOS_MAX_INTENTOS);
+                    consultaPreparada.setLong(2, DatabaseConfig.DOCUMENTOS_REINTENTO_ESPERA_MS);
+                    consultaPreparada.setArray(3, conexion.createArrayOf("integer", ids));
+                    consultaPreparada.setArray(4, conexion.createArrayOf("text", xmls));
+                    consultaPreparada.setArray(5, conexion.createArrayOf("text", mensajes));
+                    consultaPreparada.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuenta los documentos por estado
+     * Pendientes, rechazados y con error se cuentan todos; los aceptados, solo los de hoy
+     *
+     * @return Estado -> cantidad (los cuatro estados, aunque sea 0)
+     * @throws SQLException Si hay error en la consulta
+     */
+    public Map<String, Integer> contarPorEstado() throws SQLException {
+        String consultaSQL = "SELECT estado, COUNT(*) AS cantidad FROM documentos_electronicos " +
+                     "WHERE estado <> 'ACEPTADO' OR fecha_actualizacion >= CURRENT_DATE " +
+                     "GROUP BY estado";
+        Map<String, Integer> conteo = new LinkedHashMap<>();
+        conteo.put(ESTADO_PENDIENTE, 0);
+        conteo.put(ESTADO_ACEPTADO, 0);
+        conteo.put(ESTADO_RECHAZADO, 0);
+        conteo.put(ESTADO_ERROR, 0);
+
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+
+            while (resultadoConsulta.next()) {
+                conteo.put(resultadoConsulta.getString("estado"), resultadoConsulta.getInt("cantidad"));
+            }
+        }
+
+        return conteo;
+    }
+
+    /**
+     * Vuelve a poner en cola los documentos en ERROR (intentos en cero)
+     *
+     * @return Documentos reencolados
+     * @throws SQLException Si hay error en la BD
+     */
+    public int reintentarErrores() throws SQLException {
+        DatabaseConnection.registrarEscritura();
+        String consultaSQL = "UPDATE documentos_electronicos " +
+                     "SET estado = 'PENDIENTE', intentos = 0, proximo_intento = CURRENT_TIMESTAMP, " +
+                     "    fecha_actualizacion = CURRENT_TIMESTAMP " +
+                     "WHERE estado = 'ERROR'";
+
+        try (Connection conexion = DatabaseConnection.getConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+            return consultaPreparada.executeUpdate();
+        }
+    }
+
+    /** Resultado de generar y enviar un documento */
+    public static class Resultado {
+        private final int comprobanteId;
+        private final String estado;
+        private final String xml;
+        private final String codigo;
+        private final String mensaje;
+
+        private Resultado(int comprobanteId, String estado, String xml, String codigo, String mensaje) {
+            this.comprobanteId = comprobanteId;
+            this.estado = estado;
+            this.xml = xml;
+            this.codigo = codigo;
+            this.mensaje = mensaje;
+        }
+
+        public static Resultado aceptado(int comprobanteId, String xml, String codigo, String mensaje) {
+            return new Resultado(comprobanteId, ESTADO_ACEPTADO, xml, codigo, mensaje);
+        }
+
+        public static Resultado rechazado(int comprobanteId, String xml, String codigo, String mensaje) {
+            return new Resultado(comprobanteId, ESTADO_RECHAZADO, xml, codigo, mensaje);
+        }
+
+        /** Error transitorio (red, servicio caído): se reintenta más tarde */
+        public static Resultado fallido(int comprobanteId, String xml, String mensaje) {
+            return new Resultado(comprobanteId, null, xml, null, mensaje);
+        }
+
+        // Getters
+        public int getComprobanteId() { return comprobanteId; }
+        public String getEstado() { return estado; }
+        public String getXml() { return xml; }
+        public String getCodigo() { return codigo; }
+        public String getMensaje() { return mensaje; }
+        public boolean isFallido() { return estado == null; }
+    }
+}
@@ -1,23 +1,50 @@
 package com.novafarma.dao;
 
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.model.Money;
 import com.novafarma.model.Product;
 import com.novafarma.util.DatabaseConnection;
+import com.novafarma.util.QueryHandle;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /** DAO para operaciones CRUD en la tabla productos */
 public class ProductDAO {
     
+    /**
+     * Stock total en SQL. Con DatabaseConfig.STOCK_FRACCIONADO_HABILITADO, los productos
+     * con franjas suman productos_stock_franjas (database/migracion_stock_fraccionado.sql)
+     */
+    static final String STOCK = DatabaseConfig.STOCK_FRACCIONADO_HABILITADO
+        ? "(CASE WHEN stock_fraccionado THEN stock_franjas(id) ELSE stock END)"
+        : "stock";
+    
+    /** Columnas que lee mapearResultadoAProducto() */
+    static final String COLUMNAS = "id, nombre, descripcion, precio, " +
+        (DatabaseConfig.STOCK_FRACCIONADO_HABILITADO ? STOCK + " AS stock" : "stock") +
+        ", fecha_vencimiento, activo";
+    
+    /**
+     * Si la base tiene la columna stock_fraccionado (migración aplicada); se consulta
+     * una vez. Solo importa con STOCK_FRACCIONADO_HABILITADO en false: ver actualizarProducto()
+     */
+    private static volatile Boolean franjasInstaladas;
+    
     public List<Product> obtenerProductosActivos() throws SQLException {
         List<Product> productos = new ArrayList<>();
-        String consultaSQL = "SELECT id, nombre, descripcion, precio, stock, fecha_vencimiento, activo " +
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
                      "FROM productos WHERE activo = TRUE ORDER BY id ASC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             while (resultadoConsulta.next()) {
                 Product producto = mapearResultadoAProducto(resultadoConsulta);
@@ -28,13 +55,23 @@ public class ProductDAO {
         return productos;
     }
     
+    /** Recorre productos activos con un cursor del servidor (sin cargar la lista en memoria) */
+    public long recorrerProductosActivos(Consumer<Product> procesador) throws SQLException {
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
+                     "FROM productos WHERE activo = TRUE ORDER BY id ASC";
+        
+        try (Connection conexion = DatabaseConnection.getReadConnection()) {
+            return ConsultaCursor.recorrer(conexion, consultaSQL, null, this::mapearResultadoAProducto, procesador);
+        }
+    }
+    
     //** Obtiene productos activos con paginación */
     public List<Product> obtenerProductosActivos(int limit, int offset) throws SQLException {
         List<Product> productos = new ArrayList<>();
-        String consultaSQL = "SELECT id, nombre, descripcion, precio, stock, fecha_vencimiento, activo " +
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
                      "FROM productos WHERE activo = TRUE ORDER BY id ASC LIMIT ? OFFSET ?";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
+        try (Connection conexion = DatabaseConnection.getReadConnection();
              PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
             
             consultaPreparada.setInt(1, limit);
@@ -55,9 +92,9 @@ public class ProductDAO {
     public int contarProductosActivos() throws SQLException {
         String consultaSQL = "SELECT COUNT(*) as total FROM productos WHERE activo = TRUE";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             if (resultadoConsulta.next()) {
                 return resultadoConsulta.getInt("total");
@@ -69,11 +106,11 @@ public class ProductDAO {
     
     /** Cuenta productos activos con stock > 0 */
     public int contarProductosActivosConStock() throws SQLException {
-        String consultaSQL = "SELECT COUNT(*) as total FROM productos WHERE activo = TRUE AND stock > 0";
+        String consultaSQL = "SELECT COUNT(*) as total FROM productos WHERE activo = TRUE AND " + STOCK + " > 0";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             if (resultadoConsulta.next()) {
                 return resultadoConsulta.getInt("total");
@@ -85,7 +122,7 @@ public class ProductDAO {
     
     /** Busca un producto por ID */
     public Product buscarProductoPorId(int id) throws SQLException {
-        String consultaSQL = "SELECT id, nombre, descripcion, precio, stock, fecha_vencimiento, activo " +
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
                      "FROM productos WHERE id = ?";
         
         try (Connection conexion = DatabaseConnection.getConnection();
@@ -103,9 +140,95 @@ public class ProductDAO {
         return null;
     }
     
+    /**
+     * Busca varios productos por ID en una sola consulta (validación del carrito)
+     * 
+     * @param ids IDs a buscar (los repetidos se consultan una vez)
+     * @return Mapa id -> producto; los IDs que no existen no aparecen
+     */
+    public Map<Integer, Product> buscarProductosPorIds(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Product> productos = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return productos;
+        }
+        
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
+                     "FROM productos WHERE id = ANY(?)";
+        
+        try (Connection conexion = DatabaseConnection.getConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+            
+            // Un único parámetro de tipo arreglo: el texto SQL no cambia con el tamaño del carrito
+            Array arregloIds = conexion.createArrayOf("integer", new LinkedHashSet<>(ids).toArray());
+            consultaPreparada.setArray(1, arregloIds);
+            
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                while (resultadoConsulta.next()) {
+                    Product producto = mapearResultadoAProducto(resultadoConsulta);
+                    productos.put(producto.getId(), producto);
+                }
+            } finally {
+                arregloIds.free();
+            }
+        }
+        
+        return productos;
+    }
+
+    /**
+     * Bloquea (FOR UPDATE) y lee varios productos en orden de id
+     *
+     * Dos cajas con productos en común toman los bloqueos en el mismo orden:
+     * una espera a la otra en lugar de terminar en deadlock. Los bloqueos duran
+     * hasta el fin de la transacción, así que debe llamarse dentro de una UnitOfWork.
+     *
+     * Con stock fraccionado, los productos con franjas se bloquean FOR SHARE:
+     * el trigger descuenta de una franja y las cajas no se esperan en esa fila.
+     *
+     * @param ids IDs a bloquear (los repetidos se bloquean una vez)
+     * @return Mapa id -> producto; los IDs que no existen no aparecen
+     */
+    public Map<Integer, Product> bloquearProductosPorIds(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Product> productos = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return productos;
+        }
+
+        List<String> consultas = new ArrayList<>();
+        if (DatabaseConfig.STOCK_FRACCIONADO_HABILITADO) {
+            consultas.add("SELECT " + COLUMNAS + " FROM productos " +
+                          "WHERE id = ANY(?) AND NOT stock_fraccionado ORDER BY id FOR UPDATE");
+            consultas.add("SELECT " + COLUMNAS + " FROM productos " +
+                          "WHERE id = ANY(?) AND stock_fraccionado ORDER BY id FOR SHARE");
+        } else {
+            consultas.add("SELECT " + COLUMNAS + " FROM productos WHERE id = ANY(?) ORDER BY id FOR UPDATE");
+        }
+
+        try (Connection conexion = DatabaseConnection.getConnection()) {
+            Array arregloIds = conexion.createArrayOf("integer", new LinkedHashSet<>(ids).toArray());
+            try {
+                for (String consultaSQL : consultas) {
+                    try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+                        consultaPreparada.setArray(1, arregloIds);
+                        try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                            while (resultadoConsulta.next()) {
+                                Product producto = mapearResultadoAProducto(resultadoConsulta);
+                                productos.put(producto.getId(), producto);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                arregloIds.free();
+            }
+        }
+
+        return productos;
+    }
+
     /** Busca producto por nombre (incluye inactivos para detectar duplicados) */
     public Product buscarProductoPorNombre(String nombre) throws SQLException {
-        String consultaSQL = "SELECT id, nombre, descripcion, precio, stock, fecha_vencimiento, activo " +
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
                      "FROM productos " +
                      "WHERE LOWER(nombre) = LOWER(?) " +
                      "ORDER BY id DESC " +  // Ordenar por ID descendente para obtener el más reciente
@@ -128,6 +251,7 @@ public class ProductDAO {
     
     /** Inserta un nuevo producto */
     public boolean guardarProducto(Product producto) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "INSERT INTO productos (nombre, descripcion, precio, stock, fecha_vencimiento, activo) " +
                      "VALUES (?, ?, ?, ?, ?, ?)";
         
@@ -136,7 +260,7 @@ public class ProductDAO {
             
             consultaPreparada.setString(1, producto.getNombre());
             consultaPreparada.setString(2, producto.getDescripcion());
-            consultaPreparada.setDouble(3, producto.getPrecio());
+            consultaPreparada.setBigDecimal(3, producto.getPrecio().toBigDecimal());
             consultaPreparada.setInt(4, producto.getStock());
             consultaPreparada.setDate(5, producto.getFechaVencimiento());
             consultaPreparada.setBoolean(6, producto.isActivo());
@@ -145,28 +269,67 @@ public class ProductDAO {
         }
     }
     
-    /** Actualiza un producto existente */
+    /**
+     * Actualiza un producto existente
+     * 
+     * Con la migración de franjas aplicada pero STOCK_FRACCIONADO_HABILITADO en
+     * false, un producto con franjas se leyó con productos.stock (0). Su stock no
+     * se escribe: trigger_stock_fraccionado se dispara con solo nombrar la columna
+     * en el SET y repartiría 0 entre las franjas.
+     */
     public boolean actualizarProducto(Product producto) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "UPDATE productos SET nombre = ?, descripcion = ?, precio = ?, " +
-                     "stock = ?, fecha_vencimiento = ?, activo = ? WHERE id = ?";
+                     "fecha_vencimiento = ?, activo = ?, stock = ? WHERE id = ?";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getConnection()) {
+            if (DatabaseConfig.STOCK_FRACCIONADO_HABILITADO || !tieneFranjas(conexion)) {
+                return actualizarProducto(conexion, consultaSQL, producto, true);
+            }
             
-            consultaPreparada.setString(1, producto.getNombre());
-            consultaPreparada.setString(2, producto.getDescripcion());
-            consultaPreparada.setDouble(3, producto.getPrecio());
-            consultaPreparada.setInt(4, producto.getStock());
-            consultaPreparada.setDate(5, producto.getFechaVencimiento());
-            consultaPreparada.setBoolean(6, producto.isActivo());
-            consultaPreparada.setInt(7, producto.getId());
+            // Primero sin franjas; si no cambió ninguna fila, el producto tiene franjas
+            if (actualizarProducto(conexion, consultaSQL.replace("WHERE id = ?", "WHERE id = ? AND NOT stock_fraccionado"),
+                                   producto, true)) {
+                return true;
+            }
+            return actualizarProducto(conexion, consultaSQL.replace(", stock = ?", ""), producto, false);
+        }
+    }
+    
+    private boolean actualizarProducto(Connection conexion, String consultaSQL, Product producto,
+                                       boolean conStock) throws SQLException {
+        try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+            int parametro = 1;
+            consultaPreparada.setString(parametro++, producto.getNombre());
+            consultaPreparada.setString(parametro++, producto.getDescripcion());
+            consultaPreparada.setBigDecimal(parametro++, producto.getPrecio().toBigDecimal());
+            consultaPreparada.setDate(parametro++, producto.getFechaVencimiento());
+            consultaPreparada.setBoolean(parametro++, producto.isActivo());
+            if (conStock) {
+                consultaPreparada.setInt(parametro++, producto.getStock());
+            }
+            consultaPreparada.setInt(parametro, producto.getId());
             
             return consultaPreparada.executeUpdate() > 0;
         }
     }
     
+    /** Si productos tiene la columna stock_fraccionado (database/migracion_stock_fraccionado.sql) */
+    private static boolean tieneFranjas(Connection conexion) throws SQLException {
+        Boolean instaladas = franjasInstaladas;
+        if (instaladas == null) {
+            try (ResultSet resultadoConsulta = conexion.getMetaData()
+                     .getColumns(null, "public", "productos", "stock_fraccionado")) {
+                instaladas = resultadoConsulta.next();
+            }
+            franjasInstaladas = instaladas;
+        }
+        return instaladas;
+    }
+    
     /** Desactiva producto (soft delete: activo=FALSE, stock=0) */
     public boolean desactivarProducto(int id) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "UPDATE productos SET activo = FALSE, stock = 0 WHERE id = ?";
         
         try (Connection conexion = DatabaseConnection.getConnection();
@@ -180,6 +343,7 @@ public class ProductDAO {
     /** @deprecated No usado. Usar desactivarProducto() */
     @Deprecated
     public boolean eliminarProducto(int id) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "DELETE FROM productos WHERE id = ?";
         
         try (Connection conexion = DatabaseConnection.getConnection();
@@ -190,19 +354,50 @@ public class ProductDAO {
         }
     }
     
+    /**
+     * Busca productos vendibles (activos con stock) cuyo nombre contiene el texto
+     * Usa el timeout corto de búsqueda y se puede cancelar con el QueryHandle
+     */
+    public List<Product> buscarProductosVendibles(String texto, int limite, QueryHandle cancelacion) throws SQLException {
+        List<Product> productos = new ArrayList<>();
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
+                     "FROM productos " +
+                     "WHERE activo = TRUE AND " + STOCK + " > 0 AND nombre ILIKE ? " +
+                     "ORDER BY nombre ASC LIMIT ?";
+        
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+            
+            consultaPreparada.setString(1, "%" + escaparPatronLike(texto) + "%");
+            consultaPreparada.setInt(2, limite);
+            consultaPreparada.setQueryTimeout(DatabaseConfig.TIMEOUT_BUSQUEDA_S);
+            
+            cancelacion.registrar(consultaPreparada);
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                while (resultadoConsulta.next()) {
+                    productos.add(mapearResultadoAProducto(resultadoConsulta));
+                }
+            } finally {
+                cancelacion.liberar();
+            }
+        }
+        
+        return productos;
+    }
+    
     /** Obtiene productos que vencen en ≤30 días */
     public List<Product> obtenerProductosPorVencer() throws SQLException {
         List<Product> productos = new ArrayList<>();
-        String consultaSQL = "SELECT id, nombre, descripcion, precio, stock, fecha_vencimiento, activo " +
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
                      "FROM productos " +
                      "WHERE fecha_vencimiento IS NOT NULL " +
                      "  AND fecha_vencimiento <= CURRENT_DATE + INTERVAL '30 days' " +
                      "  AND activo = TRUE " +
                      "ORDER BY fecha_vencimiento ASC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             while (resultadoConsulta.next()) {
                 Product producto = mapearResultadoAProducto(resultadoConsulta);
@@ -216,15 +411,15 @@ public class ProductDAO {
     /** Obtiene productos vencidos */
     public List<Product> obtenerProductosVencidos() throws SQLException {
         List<Product> productos = new ArrayList<>();
-        String consultaSQL = "SELECT id, nombre, descripcion, precio, stock, fecha_vencimiento, activo " +
+        String consultaSQL = "SELECT " + COLUMNAS + " " +
                      "FROM productos " +
                      "WHERE fecha_vencimiento < CURRENT_DATE " +
                      "  AND activo = TRUE " +
                      "ORDER BY fecha_vencimiento ASC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             while (resultadoConsulta.next()) {
                 Product producto = mapearResultadoAProducto(resultadoConsulta);
@@ -237,22 +432,28 @@ public class ProductDAO {
     
     /** Desactiva todos los productos vencidos */
     public int desactivarProductosVencidos() throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "UPDATE productos " +
                      "SET activo = FALSE, stock = 0 " +
                      "WHERE fecha_vencimiento < CURRENT_DATE AND activo = TRUE";
         
         try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement()) {
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
             
-            return consulta.executeUpdate(consultaSQL);
+            return consultaPreparada.executeUpdate();
         }
     }
     
-    private Product mapearResultadoAProducto(ResultSet resultadoConsulta) throws SQLException {
+    /** Escapa los comodines de LIKE para buscar el texto literal */
+    private String escaparPatronLike(String texto) {
+        return texto.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+    
+    Product mapearResultadoAProducto(ResultSet resultadoConsulta) throws SQLException {
         int id = resultadoConsulta.getInt("id");
         String nombre = resultadoConsulta.getString("nombre");
         String descripcion = resultadoConsulta.getString("descripcion");
-        double precio = resultadoConsulta.getDouble("precio");
+        Money precio = Money.de(resultadoConsulta.getBigDecimal("precio"));
         int stock = resultadoConsulta.getInt("stock");
         Date fechaVencimiento = resultadoConsulta.getDate("fecha_vencimiento");
         boolean activo = resultadoConsulta.getBoolean("activo");
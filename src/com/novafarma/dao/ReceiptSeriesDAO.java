@@ -0,0 +1,104 @@
+package com.novafarma.dao;
+
+import com.novafarma.util.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DAO de las series de comprobantes (tablas series y series_bloques)
+ *
+ * Cada caja reserva bloques de números con reservar_numeros y los asigna en
+ * memoria; al arrancar devuelve con reconciliar_bloques los que no llegó a usar.
+ * Requiere database/migracion_numeracion_comprobantes.sql.
+ */
+public class ReceiptSeriesDAO {
+
+    /**
+     * Reserva números de una serie para una caja (se confirma al instante)
+     *
+     * Entrega primero los números devueltos por otras cajas; si no hay, un
+     * bloque nuevo de la cantidad pedida. Debe llamarse fuera de una UnitOfWork:
+     * si la transacción de quien llama se revierte, la caja tendría números
+     * que la base no le reservó.
+     *
+     * @param serie    Serie (B001, F001)
+     * @param terminal Identificador de la caja
+     * @param cantidad Tamaño del bloque nuevo
+     * @return Rangos reservados (uno o varios si eran números devueltos)
+     * @throws SQLException Si hay error en la BD o la serie no existe
+     */
+    public List<Bloque> reservarNumeros(String serie, String terminal, int cantidad) throws SQLException {
+        DatabaseConnection.registrarEscritura();
+        String consultaSQL = "SELECT numero_desde, numero_hasta FROM reservar_numeros(?, ?, ?)";
+        List<Bloque> bloques = new ArrayList<>();
+
+        try (Connection conexion = DatabaseConnection.getConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+
+            consultaPreparada.setString(1, serie);
+            consultaPreparada.setString(2, terminal);
+            consultaPreparada.setInt(3, cantidad);
+
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                while (resultadoConsulta.next()) {
+                    bloques.add(new Bloque(serie,
+                        resultadoConsulta.getInt("numero_desde"),
+                        resultadoConsulta.getInt("numero_hasta")));
+                }
+            }
+        }
+
+        return bloques;
+    }
+
+    /**
+     * Cierra los bloques abiertos de una caja y devuelve los números sin comprobante
+     *
+     * Solo es seguro cuando la caja no tiene números en memoria (al arrancar,
+     * antes de la primera reserva).
+     *
+     * @param terminal Identificador de la caja
+     * @return Cantidad de números devueltos a la serie
+     * @throws SQLException Si hay error en la BD
+     */
+    public int reconciliarBloques(String terminal) throws SQLException {
+        DatabaseConnection.registrarEscritura();
+        String consultaSQL = "SELECT reconciliar_bloques(?) AS devueltos";
+
+        try (Connection conexion = DatabaseConnection.getConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+
+            consultaPreparada.setString(1, terminal);
+
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                return resultadoConsulta.next() ? resultadoConsulta.getInt("devueltos") : 0;
+            }
+        }
+    }
+
+    /** Rango de números reservado (ambos extremos incluidos) */
+    public static class Bloque {
+        private final String serie;
+        private final int desde;
+        private final int hasta;
+
+        public Bloque(String serie, int desde, int hasta) {
+            this.serie = serie;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        // Getters
+        public String getSerie() { return serie; }
+        public int getDesde() { return desde; }
+        public int getHasta() { return hasta; }
+        public int getCantidad() { return hasta - desde + 1; }
+
+        @Override
+        public String toString() {
+            return serie + " " + desde + "-" + hasta;
+        }
+    }
+}
@@ -1,17 +1,33 @@
 package com.novafarma.dao;
 
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.model.Money;
+import com.novafarma.model.Receipt;
 import com.novafarma.model.Sale;
 import com.novafarma.util.DatabaseConnection;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
 
-/** DAO para operaciones CRUD en la tabla ventas (el trigger actualiza stock automáticamente) */
+/** DAO para operaciones CRUD en las tablas ventas y comprobantes (el trigger actualiza stock automáticamente, una vez por sentencia; los reportes leen de la réplica) */
 public class SaleDAO {
     
+    /** Serie y número del comprobante: solo existen con database/migracion_numeracion_comprobantes.sql */
+    private static final String COLUMNAS_NUMERACION = DatabaseConfig.NUMERACION_HABILITADA ? ", serie, numero" : "";
+    
+    /** Columnas de la cabecera de un comprobante (mapearResultadoAComprobante) */
+    private static final String COLUMNAS_COMPROBANTE =
+        "id, tipo, cliente, dni_ruc, usuario_id, lineas, unidades, total, fecha_emision" + COLUMNAS_NUMERACION;
+    
     /** Inserta una venta (el trigger actualiza stock automáticamente) */
     public boolean guardarVenta(Sale venta) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "INSERT INTO ventas (producto_id, usuario_id, cantidad, precio_unitario, total) " +
                      "VALUES (?, ?, ?, ?, ?)";
         
@@ -21,15 +37,23 @@ public class SaleDAO {
             consultaPreparada.setInt(1, venta.getProductoId());
             consultaPreparada.setInt(2, venta.getUsuarioId());
             consultaPreparada.setInt(3, venta.getCantidad());
-            consultaPreparada.setDouble(4, venta.getPrecioUnitario());
-            consultaPreparada.setDouble(5, venta.getTotal());
+            consultaPreparada.setBigDecimal(4, venta.getPrecioUnitario().toBigDecimal());
+            consultaPreparada.setBigDecimal(5, venta.getTotal().toBigDecimal());
             
             return consultaPreparada.executeUpdate() > 0;
         }
     }
     
-    /** Inserta múltiples ventas en transacción (si falla una, todas se revierten) */
+    /**
+     * Inserta múltiples ventas en transacción (si falla una, todas se revierten)
+     * 
+     * Todo el carrito va en UN solo INSERT (arreglos + unnest): el trigger de stock
+     * por sentencia se ejecuta una vez y descuenta todos los productos con un UPDATE.
+     * Con addBatch() serían N sentencias y N ejecuciones del trigger.
+     * Los importes viajan en céntimos (bigint[]) y se dividen en el servidor: exactos.
+     */
     public boolean guardarVentas(List<Sale> ventas) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         Connection conexion = null;
         PreparedStatement consultaPreparada = null;
         
@@ -38,19 +62,33 @@ public class SaleDAO {
             conexion.setAutoCommit(false);
             
             String consultaSQL = "INSERT INTO ventas (producto_id, usuario_id, cantidad, precio_unitario, total) " +
-                         "VALUES (?, ?, ?, ?, ?)";
+                         "SELECT l.producto_id, l.usuario_id, l.cantidad, l.precio_centimos / 100.0, l.total_centimos / 100.0 " +
+                         "FROM unnest(?::integer[], ?::integer[], ?::integer[], ?::bigint[], ?::bigint[]) " +
+                         "     AS l(producto_id, usuario_id, cantidad, precio_centimos, total_centimos)";
             consultaPreparada = conexion.prepareStatement(consultaSQL);
             
-            for (Sale venta : ventas) {
-                consultaPreparada.setInt(1, venta.getProductoId());
-                consultaPreparada.setInt(2, venta.getUsuarioId());
-                consultaPreparada.setInt(3, venta.getCantidad());
-                consultaPreparada.setDouble(4, venta.getPrecioUnitario());
-                consultaPreparada.setDouble(5, venta.getTotal());
-                consultaPreparada.addBatch();
+            int lineas = ventas.size();
+            Integer[] productosIds = new Integer[lineas];
+            Integer[] usuariosIds = new Integer[lineas];
+            Integer[] cantidades = new Integer[lineas];
+            Long[] preciosUnitarios = new Long[lineas];
+            Long[] totales = new Long[lineas];
+            for (int i = 0; i < lineas; i++) {
+                Sale venta = ventas.get(i);
+                productosIds[i] = venta.getProductoId();
+                usuariosIds[i] = venta.getUsuarioId();
+                cantidades[i] = venta.getCantidad();
+                preciosUnitarios[i] = venta.getPrecioUnitario().getCentimos();
+                totales[i] = venta.getTotal().getCentimos();
             }
             
-            consultaPreparada.executeBatch();
+            consultaPreparada.setArray(1, conexion.createArrayOf("integer", productosIds));
+            consultaPreparada.setArray(2, conexion.createArrayOf("integer", usuariosIds));
+            consultaPreparada.setArray(3, conexion.createArrayOf("integer", cantidades));
+            consultaPreparada.setArray(4, conexion.createArrayOf("bigint", preciosUnitarios));
+            consultaPreparada.setArray(5, conexion.createArrayOf("bigint", totales));
+            
+            consultaPreparada.executeUpdate();
             conexion.commit();
             return true;
             
@@ -73,6 +111,305 @@ public class SaleDAO {
         }
     }
     
+    /**
+     * Inserta un comprobante (cabecera + líneas) en UNA sola sentencia
+     * 
+     * La cabecera se inserta en un CTE y las líneas toman su id con unnest():
+     * un viaje de red y una ejecución del trigger de stock para todo el carrito.
+     * 
+     * Si ya existe un comprobante con la misma clave de idempotencia (reintento
+     * de una venta que sí se registró) no se inserta nada y se devuelve ese ID.
+     * 
+     * Con fecha de emisión (venta del diario local) cabecera y líneas guardan esa
+     * fecha; sin ella, la hora del servidor.
+     * 
+     * @param comprobante Comprobante con sus líneas; recibe el ID generado
+     * @return ID del comprobante
+     * @throws SQLException Si hay error en la BD (nada queda insertado)
+     */
+    public int guardarComprobante(Receipt comprobante) throws SQLException {
+        DatabaseConnection.registrarEscritura();
+        String consultaSQL =
+            "WITH cabecera AS (" +
+            "  INSERT INTO comprobantes (tipo, cliente, dni_ruc, usuario_id, lineas, unidades, total, clave_idempotencia" +
+            COLUMNAS_NUMERACION + ", fecha_emision) " +
+            "  VALUES (?, ?, ?, ?, ?, ?, ?, ?" + (DatabaseConfig.NUMERACION_HABILITADA ? ", ?, ?" : "") +
+            ", COALESCE(?::timestamp, CURRENT_TIMESTAMP)) " +
+            "  ON CONFLICT (clave_idempotencia) DO NOTHING RETURNING id, fecha_emision" +
+            "), insertadas AS (" +
+            "  INSERT INTO ventas (comprobante_id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta) " +
+            "  SELECT cabecera.id, l.producto_id, ?, l.cantidad, l.precio_centimos / 100.0, l.total_centimos / 100.0, " +
+            "         cabecera.fecha_emision " +
+            "  FROM cabecera, unnest(?::integer[], ?::integer[], ?::bigint[], ?::bigint[]) " +
+            "       AS l(producto_id, cantidad, precio_centimos, total_centimos)" +
+            ") SELECT id FROM cabecera";
+        
+        List<Sale> lineas = comprobante.getLineas();
+        int cantidadLineas = lineas.size();
+        Integer[] productosIds = new Integer[cantidadLineas];
+        Integer[] cantidades = new Integer[cantidadLineas];
+        Long[] preciosUnitarios = new Long[cantidadLineas];
+        Long[] totales = new Long[cantidadLineas];
+        for (int i = 0; i < cantidadLineas; i++) {
+            Sale venta = lineas.get(i);
+            productosIds[i] = venta.getProductoId();
+            cantidades[i] = venta.getCantidad();
+            preciosUnitarios[i] = venta.getPrecioUnitario().getCentimos();
+            totales[i] = venta.getTotal().getCentimos();
+        }
+        
+        try (Connection conexion = DatabaseConnection.getConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+            
+            consultaPreparada.setString(1, comprobante.getTipo());
+            consultaPreparada.setString(2, textoONulo(comprobante.getCliente()));
+            consultaPreparada.setString(3, textoONulo(comprobante.getDniRuc()));
+            consultaPreparada.setInt(4, comprobante.getUsuarioId());
+            consultaPreparada.setInt(5, comprobante.getCantidadLineas());
+            consultaPreparada.setInt(6, comprobante.getUnidades());
+            consultaPreparada.setBigDecimal(7, comprobante.getTotal().toBigDecimal());
+            consultaPreparada.setObject(8, comprobante.getClaveIdempotencia());
+            int parametro = 9;
+            if (DatabaseConfig.NUMERACION_HABILITADA) {
+                consultaPreparada.setString(parametro++, comprobante.getSerie());
+                consultaPreparada.setObject(parametro++, comprobante.getNumero(), Types.INTEGER);
+            }
+            consultaPreparada.setTimestamp(parametro++, comprobante.getFechaEmision());
+            consultaPreparada.setInt(parametro++, comprobante.getUsuarioId());
+            consultaPreparada.setArray(parametro++, conexion.createArrayOf("integer", productosIds));
+            consultaPreparada.setArray(parametro++, conexion.createArrayOf("integer", cantidades));
+            consultaPreparada.setArray(parametro++, conexion.createArrayOf("bigint", preciosUnitarios));
+            consultaPreparada.setArray(parametro, conexion.createArrayOf("bigint", totales));
+            
+            int comprobanteId;
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                comprobanteId = resultadoConsulta.next() ? resultadoConsulta.getInt("id") : 0;
+            }
+            
+            // Sin fila: la clave ya estaba registrada (no se insertó ninguna línea)
+            if (comprobanteId == 0) {
+                Integer existente = buscarIdComprobantePorClave(comprobante.getClaveIdempotencia());
+                if (existente == null) {
+                    throw new SQLException("No se obtuvo el ID del comprobante");
+                }
+                comprobanteId = existente;
+            }
+            comprobante.setId(comprobanteId);
+            return comprobanteId;
+        }
+    }
+    
+    /**
+     * Busca el comprobante registrado con una clave de idempotencia
+     * Lee del servidor principal: la réplica podría no tener aún la venta recién confirmada
+     * 
+     * @param clave Clave generada por la caja
+     * @return ID del comprobante, o null si la clave no está registrada
+     * @throws SQLException Si hay error en la consulta
+     */
+    public Integer buscarIdComprobantePorClave(UUID clave) throws SQLException {
+        if (clave == null) {
+            return null;
+        }
+        String consultaSQL = "SELECT id FROM comprobantes WHERE clave_idempotencia = ?";
+        
+        try (Connection conexion = DatabaseConnection.getConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+            
+            consultaPreparada.setObject(1, clave);
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                return resultadoConsulta.next() ? resultadoConsulta.getInt("id") : null;
+            }
+        }
+    }
+    
+    /**
+     * Valida y registra un comprobante completo con la función registrar_venta del servidor
+     * 
+     * UN solo viaje de red sin importar el tamaño del carrito: la función bloquea
+     * los productos, valida (activo, no vencido, stock) e inserta cabecera y líneas.
+     * Si alguna línea no es válida no se inserta nada. Con una clave de
+     * idempotencia ya registrada devuelve ese comprobante sin volver a validar.
+     * 
+     * Con fecha de emisión (venta del diario local) la envía como p_fecha
+     * (requiere database/migracion_fecha_venta_diario.sql).
+     * 
+     * @param comprobante Comprobante con sus líneas; recibe el ID generado si se registra
+     * @return Errores por línea; vacía si la venta quedó registrada
+     * @throws SQLException Si hay error en la BD (42883 si la función no está instalada)
+     */
+    public List<String> registrarVentaEnServidor(Receipt comprobante) throws SQLException {
+        DatabaseConnection.registrarEscritura();
+        String consultaSQL = "SELECT linea_carrito, id_producto, mensaje_error, id_comprobante " +
+                     "FROM registrar_venta(?, ?::integer[], ?::integer[], " +
+                     "ARRAY(SELECT u.c / 100.0 FROM unnest(?::bigint[]) WITH ORDINALITY AS u(c, n) ORDER BY u.n), " +
+                     "?, ?, ?, ?" + (DatabaseConfig.NUMERACION_HABILITADA ? ", ?, ?" : "") +
+                     (comprobante.getFechaEmision() != null ? ", p_fecha => ?" : "") + ")";
+        
+        List<Sale> lineas = comprobante.getLineas();
+        int cantidadLineas = lineas.size();
+        Integer[] productosIds = new Integer[cantidadLineas];
+        Integer[] cantidades = new Integer[cantidadLineas];
+        Long[] preciosUnitarios = new Long[cantidadLineas];
+        for (int i = 0; i < cantidadLineas; i++) {
+            Sale venta = lineas.get(i);
+            productosIds[i] = venta.getProductoId();
+            cantidades[i] = venta.getCantidad();
+            preciosUnitarios[i] = venta.getPrecioUnitario().getCentimos();
+        }
+        
+        List<String> errores = new ArrayList<>();
+        try (Connection conexion = DatabaseConnection.getConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
+            
+            consultaPreparada.setInt(1, comprobante.getUsuarioId());
+            consultaPreparada.setArray(2, conexion.createArrayOf("integer", productosIds));
+            consultaPreparada.setArray(3, conexion.createArrayOf("integer", cantidades));
+            consultaPreparada.setArray(4, conexion.createArrayOf("bigint", preciosUnitarios));
+            consultaPreparada.setString(5, comprobante.getTipo());
+            consultaPreparada.setString(6, textoONulo(comprobante.getCliente()));
+            consultaPreparada.setString(7, textoONulo(comprobante.getDniRuc()));
+            consultaPreparada.setObject(8, comprobante.getClaveIdempotencia());
+            int parametro = 9;
+            if (DatabaseConfig.NUMERACION_HABILITADA) {
+                consultaPreparada.setString(parametro++, comprobante.getSerie());
+                consultaPreparada.setObject(parametro++, comprobante.getNumero(), Types.INTEGER);
+            }
+            if (comprobante.getFechaEmision() != null) {
+                consultaPreparada.setTimestamp(parametro, comprobante.getFechaEmision());
+            }
+            
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                while (resultadoConsulta.next()) {
+                    String error = resultadoConsulta.getString("mensaje_error");
+                    if (error != null) {
+                        errores.add(error);
+                    } else {
+                        comprobante.setId(resultadoConsulta.getInt("id_comprobante"));
+                    }
+                }
+            }
+        }
+        
+        return errores;
+    }
+    
+    /**
+     * Obtiene un comprobante con sus líneas (por la clave de la cabecera)
+     * 
+     * @param comprobanteId ID del comprobante
+     * @return Comprobante con líneas, o null si no existe
+     * @throws SQLException Si hay error en la consulta
+     */
+    public Receipt obtenerComprobantePorId(int comprobanteId) throws SQLException {
+        String consultaCabecera = "SELECT " + COLUMNAS_COMPROBANTE + " " +
+                     "FROM comprobantes WHERE id = ?";
+        String consultaLineas = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
+                     "FROM ventas WHERE comprobante_id = ? ORDER BY id";
+        
+        try (Connection conexion = DatabaseConnection.getReadConnection()) {
+            Receipt comprobante;
+            try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaCabecera)) {
+                consultaPreparada.setInt(1, comprobanteId);
+                try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                    if (!resultadoConsulta.next()) {
+                        return null;
+                    }
+                    comprobante = mapearResultadoAComprobante(resultadoConsulta);
+                }
+            }
+            
+            List<Sale> lineas = new ArrayList<>();
+            try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaLineas)) {
+                consultaPreparada.setInt(1, comprobanteId);
+                try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                    while (resultadoConsulta.next()) {
+                        lineas.add(mapearResultadoAVenta(resultadoConsulta));
+                    }
+                }
+            }
+            comprobante.setLineas(lineas);
+            return comprobante;
+        }
+    }
+    
+    /**
+     * Obtiene varios comprobantes con sus líneas en dos consultas (cabeceras y líneas)
+     * Lee del servidor principal: se usa justo después de registrarlos
+     * 
+     * @param comprobantesIds IDs de los comprobantes
+     * @return Comprobantes en orden de id; los IDs que no existen no aparecen
+     * @throws SQLException Si hay error en la consulta
+     */
+    public List<Receipt> obtenerComprobantesPorIds(Collection<Integer> comprobantesIds) throws SQLException {
+        List<Receipt> comprobantes = new ArrayList<>();
+        if (comprobantesIds == null || comprobantesIds.isEmpty()) {
+            return comprobantes;
+        }
+        String consultaCabeceras = "SELECT " + COLUMNAS_COMPROBANTE + " " +
+                     "FROM comprobantes WHERE id = ANY(?) ORDER BY id";
+        String consultaLineas = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
+                     "FROM ventas WHERE comprobante_id = ANY(?) ORDER BY comprobante_id, id";
+        
+        try (Connection conexion = DatabaseConnection.getConnection()) {
+            Array arregloIds = conexion.createArrayOf("integer", comprobantesIds.toArray());
+            try {
+                Map<Integer, List<Sale>> lineasPorComprobante = new HashMap<>();
+                try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaCabeceras)) {
+                    consultaPreparada.setArray(1, arregloIds);
+                    try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                        while (resultadoConsulta.next()) {
+                            Receipt comprobante = mapearResultadoAComprobante(resultadoConsulta);
+                            comprobantes.add(comprobante);
+                            lineasPorComprobante.put(comprobante.getId(), new ArrayList<>());
+                        }
+                    }
+                }
+                
+                try (PreparedStatement consultaPreparada = conexion.prepareStatement(consultaLineas)) {
+                    consultaPreparada.setArray(1, arregloIds);
+                    try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                        while (resultadoConsulta.next()) {
+                            Sale venta = mapearResultadoAVenta(resultadoConsulta);
+                            lineasPorComprobante.get(venta.getComprobanteId()).add(venta);
+                        }
+                    }
+                }
+                
+                for (Receipt comprobante : comprobantes) {
+                    comprobante.setLineas(lineasPorComprobante.get(comprobante.getId()));
+                }
+            } finally {
+                arregloIds.free();
+            }
+        }
+        
+        return comprobantes;
+    }
+    
+    /**
+     * Obtiene las cabeceras de los comprobantes del día (sin líneas, más reciente primero)
+     * 
+     * @return Comprobantes emitidos hoy
+     * @throws SQLException Si hay error en la consulta
+     */
+    public List<Receipt> obtenerComprobantesDelDia() throws SQLException {
+        List<Receipt> comprobantes = new ArrayList<>();
+        String consultaSQL = "SELECT " + COLUMNAS_COMPROBANTE + " " +
+                     "FROM comprobantes WHERE fecha_emision >= CURRENT_DATE ORDER BY fecha_emision DESC";
+        
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+            
+            while (resultadoConsulta.next()) {
+                comprobantes.add(mapearResultadoAComprobante(resultadoConsulta));
+            }
+        }
+        
+        return comprobantes;
+    }
+    
     /**
      * Obtiene todas las ventas ordenadas por fecha (más reciente primero)
      * 
@@ -81,12 +418,12 @@ public class SaleDAO {
      */
     public List<Sale> obtenerTodasLasVentas() throws SQLException {
         List<Sale> ventas = new ArrayList<>();
-        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta " +
+        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
                      "FROM ventas ORDER BY fecha_venta DESC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             while (resultadoConsulta.next()) {
                 Sale venta = mapearResultadoAVenta(resultadoConsulta);
@@ -97,6 +434,24 @@ public class SaleDAO {
         return ventas;
     }
     
+    /**
+     * Recorre todas las ventas (más reciente primero) sin cargarlas en memoria
+     * Usa un cursor del servidor: para exportaciones y procesos que no guardan las filas
+     * (una tabla que las guarda crece igual; el historial de la UI usa obtenerVentasPaginadas)
+     * 
+     * @param procesador Recibe cada venta
+     * @return Número de ventas recorridas
+     * @throws SQLException Si hay error en la consulta
+     */
+    public long recorrerTodasLasVentas(Consumer<Sale> procesador) throws SQLException {
+        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
+                     "FROM ventas ORDER BY fecha_venta DESC";
+        
+        try (Connection conexion = DatabaseConnection.getReadConnection()) {
+            return ConsultaCursor.recorrer(conexion, consultaSQL, null, this::mapearResultadoAVenta, procesador);
+        }
+    }
+    
     /**
      * Obtiene ventas con paginación
      * OPTIMIZACIÓN: Para manejar grandes volúmenes de datos
@@ -108,10 +463,10 @@ public class SaleDAO {
      */
     public List<Sale> obtenerVentasPaginadas(int limit, int offset) throws SQLException {
         List<Sale> ventas = new ArrayList<>();
-        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta " +
+        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
                      "FROM ventas ORDER BY fecha_venta DESC LIMIT ? OFFSET ?";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
+        try (Connection conexion = DatabaseConnection.getReadConnection();
              PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
             
             consultaPreparada.setInt(1, limit);
@@ -137,7 +492,7 @@ public class SaleDAO {
      */
     public List<Sale> obtenerVentasPorUsuario(int usuarioId) throws SQLException {
         List<Sale> ventas = new ArrayList<>();
-        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta " +
+        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
                      "FROM ventas WHERE usuario_id = ? ORDER BY fecha_venta DESC";
         
         try (Connection conexion = DatabaseConnection.getConnection();
@@ -165,10 +520,10 @@ public class SaleDAO {
      */
     public List<Sale> obtenerVentasPorProducto(int productoId) throws SQLException {
         List<Sale> ventas = new ArrayList<>();
-        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta " +
+        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
                      "FROM ventas WHERE producto_id = ? ORDER BY fecha_venta DESC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
+        try (Connection conexion = DatabaseConnection.getReadConnection();
              PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
             
             consultaPreparada.setInt(1, productoId);
@@ -194,10 +549,10 @@ public class SaleDAO {
      */
     public List<Sale> obtenerVentasPorRangoFechas(Timestamp fechaInicio, Timestamp fechaFin) throws SQLException {
         List<Sale> ventas = new ArrayList<>();
-        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta " +
+        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
                      "FROM ventas WHERE fecha_venta BETWEEN ? AND ? ORDER BY fecha_venta DESC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
+        try (Connection conexion = DatabaseConnection.getReadConnection();
              PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
             
             consultaPreparada.setTimestamp(1, fechaInicio);
@@ -214,6 +569,30 @@ public class SaleDAO {
         return ventas;
     }
     
+    /**
+     * Recorre las ventas de un rango de fechas sin cargarlas en memoria
+     * 
+     * @param fechaInicio Fecha inicial
+     * @param fechaFin Fecha final
+     * @param procesador Recibe cada venta
+     * @return Número de ventas recorridas
+     * @throws SQLException Si hay error en la consulta
+     */
+    public long recorrerVentasPorRangoFechas(Timestamp fechaInicio, Timestamp fechaFin,
+                                             Consumer<Sale> procesador) throws SQLException {
+        String consultaSQL = "SELECT id, producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta, comprobante_id " +
+                     "FROM ventas WHERE fecha_venta BETWEEN ? AND ? ORDER BY fecha_venta DESC";
+        
+        try (Connection conexion = DatabaseConnection.getReadConnection()) {
+            return ConsultaCursor.recorrer(conexion, consultaSQL,
+                consultaPreparada -> {
+                    consultaPreparada.setTimestamp(1, fechaInicio);
+                    consultaPreparada.setTimestamp(2, fechaFin);
+                },
+                this::mapearResultadoAVenta, procesador);
+        }
+    }
+    
     /**
      * Cuenta el número total de ventas
      * 
@@ -223,9 +602,9 @@ public class SaleDAO {
     public int contarVentas() throws SQLException {
         String consultaSQL = "SELECT COUNT(*) as total FROM ventas";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             if (resultadoConsulta.next()) {
                 return resultadoConsulta.getInt("total");
@@ -241,19 +620,19 @@ public class SaleDAO {
      * @return Suma total de ventas
      * @throws SQLException Si hay error en la consulta
      */
-    public double calcularIngresosTotales() throws SQLException {
+    public Money calcularIngresosTotales() throws SQLException {
         String consultaSQL = "SELECT SUM(total) as ingresos FROM ventas";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             if (resultadoConsulta.next()) {
-                return resultadoConsulta.getDouble("ingresos");
+                return Money.de(resultadoConsulta.getBigDecimal("ingresos"));
             }
         }
         
-        return 0.0;
+        return Money.CERO;
     }
     
     /**
@@ -268,11 +647,40 @@ public class SaleDAO {
         int productoId = resultadoConsulta.getInt("producto_id");
         int usuarioId = resultadoConsulta.getInt("usuario_id");
         int cantidad = resultadoConsulta.getInt("cantidad");
-        double precioUnitario = resultadoConsulta.getDouble("precio_unitario");
-        double total = resultadoConsulta.getDouble("total");
+        Money precioUnitario = Money.de(resultadoConsulta.getBigDecimal("precio_unitario"));
+        Money total = Money.de(resultadoConsulta.getBigDecimal("total"));
         Timestamp fechaVenta = resultadoConsulta.getTimestamp("fecha_venta");
+        int comprobanteId = resultadoConsulta.getInt("comprobante_id");
         
-        return new Sale(id, productoId, usuarioId, cantidad, precioUnitario, total, fechaVenta);
+        Sale venta = new Sale(id, productoId, usuarioId, cantidad, precioUnitario, total, fechaVenta);
+        venta.setComprobanteId(resultadoConsulta.wasNull() ? null : comprobanteId);
+        return venta;
+    }
+    
+    /** Mapea la cabecera de un comprobante (sin líneas) */
+    private Receipt mapearResultadoAComprobante(ResultSet resultadoConsulta) throws SQLException {
+        Receipt comprobante = new Receipt(
+            resultadoConsulta.getInt("id"),
+            resultadoConsulta.getString("tipo"),
+            resultadoConsulta.getString("cliente"),
+            resultadoConsulta.getString("dni_ruc"),
+            resultadoConsulta.getInt("usuario_id"),
+            resultadoConsulta.getInt("lineas"),
+            resultadoConsulta.getInt("unidades"),
+            Money.de(resultadoConsulta.getBigDecimal("total")),
+            resultadoConsulta.getTimestamp("fecha_emision")
+        );
+        if (DatabaseConfig.NUMERACION_HABILITADA) {
+            comprobante.setSerie(resultadoConsulta.getString("serie"));
+            int numero = resultadoConsulta.getInt("numero");
+            comprobante.setNumero(resultadoConsulta.wasNull() ? null : numero);
+        }
+        return comprobante;
+    }
+    
+    /** Los campos de facturación vacíos se guardan como NULL */
+    private String textoONulo(String texto) {
+        return texto == null || texto.trim().isEmpty() ? null : texto.trim();
     }
     
     /** Obtiene todas las ventas del día actual */
@@ -280,9 +688,9 @@ public class SaleDAO {
         List<Sale> ventas = new ArrayList<>();
         String consultaSQL = "SELECT * FROM ventas WHERE DATE(fecha_venta) = CURRENT_DATE ORDER BY fecha_venta DESC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             while (resultadoConsulta.next()) {
                 Sale venta = mapearResultadoAVenta(resultadoConsulta);
@@ -293,33 +701,36 @@ public class SaleDAO {
         return ventas;
     }
     
-    /** Obtiene resumen de ventas del día agrupado por trabajador */
+    /**
+     * Obtiene resumen de ventas del día agrupado por trabajador
+     * Lee solo la tabla de cabeceras: una fila por venta con sus totales
+     */
     public List<ReporteVentasPorTrabajador> obtenerResumenVentasPorTrabajador() throws SQLException {
         List<ReporteVentasPorTrabajador> reporte = new ArrayList<>();
         String consultaSQL = """
             SELECT 
                 u.id as usuario_id,
                 u.username,
-                COUNT(v.id) as total_ventas,
-                SUM(v.cantidad) as total_productos,
-                SUM(v.total) as total_dinero
-            FROM usuarios u
-            LEFT JOIN ventas v ON u.id = v.usuario_id AND DATE(v.fecha_venta) = CURRENT_DATE
+                COUNT(c.id) as total_ventas,
+                SUM(c.unidades) as total_productos,
+                SUM(c.total) as total_dinero
+            FROM comprobantes c
+            JOIN usuarios u ON u.id = c.usuario_id
+            WHERE c.fecha_emision >= CURRENT_DATE
             GROUP BY u.id, u.username
-            HAVING COUNT(v.id) > 0
             ORDER BY total_dinero DESC
             """;
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             while (resultadoConsulta.next()) {
                 int usuarioId = resultadoConsulta.getInt("usuario_id");
                 String username = resultadoConsulta.getString("username");
                 int totalVentas = resultadoConsulta.getInt("total_ventas");
                 int totalProductos = resultadoConsulta.getInt("total_productos");
-                double totalDinero = resultadoConsulta.getDouble("total_dinero");
+                Money totalDinero = Money.de(resultadoConsulta.getBigDecimal("total_dinero"));
                 
                 ReporteVentasPorTrabajador reporteUsuario = new ReporteVentasPorTrabajador(
                     usuarioId, username, totalVentas, totalProductos, totalDinero
@@ -331,31 +742,36 @@ public class SaleDAO {
         return reporte;
     }
     
-    /** Obtiene el resumen total de ventas del día */
+    /**
+     * Obtiene el resumen total de ventas del día
+     * Transacciones = comprobantes emitidos (no líneas); incluye el ticket promedio
+     */
     public ResumenTotalDelDia obtenerResumenTotalDelDia() throws SQLException {
         String consultaSQL = """
             SELECT 
                 COUNT(*) as total_transacciones,
-                SUM(cantidad) as total_productos_vendidos,
-                SUM(total) as total_ingresos
-            FROM ventas 
-            WHERE DATE(fecha_venta) = CURRENT_DATE
+                COALESCE(SUM(unidades), 0) as total_productos_vendidos,
+                COALESCE(SUM(total), 0) as total_ingresos,
+                COALESCE(AVG(total), 0) as ticket_promedio
+            FROM comprobantes 
+            WHERE fecha_emision >= CURRENT_DATE
             """;
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             if (resultadoConsulta.next()) {
                 int totalTransacciones = resultadoConsulta.getInt("total_transacciones");
                 int totalProductos = resultadoConsulta.getInt("total_productos_vendidos");
-                double totalIngresos = resultadoConsulta.getDouble("total_ingresos");
+                Money totalIngresos = Money.de(resultadoConsulta.getBigDecimal("total_ingresos"));
+                Money ticketPromedio = Money.de(resultadoConsulta.getBigDecimal("ticket_promedio"));
                 
-                return new ResumenTotalDelDia(totalTransacciones, totalProductos, totalIngresos);
+                return new ResumenTotalDelDia(totalTransacciones, totalProductos, totalIngresos, ticketPromedio);
             }
         }
         
-        return new ResumenTotalDelDia(0, 0, 0.0);
+        return new ResumenTotalDelDia(0, 0, Money.CERO, Money.CERO);
     }
     
     /** Clase para el reporte de ventas por trabajador */
@@ -364,9 +780,9 @@ public class SaleDAO {
         private String username;
         private int totalVentas;
         private int totalProductos;
-        private double totalDinero;
+        private Money totalDinero;
         
-        public ReporteVentasPorTrabajador(int usuarioId, String username, int totalVentas, int totalProductos, double totalDinero) {
+        public ReporteVentasPorTrabajador(int usuarioId, String username, int totalVentas, int totalProductos, Money totalDinero) {
             this.usuarioId = usuarioId;
             this.username = username;
             this.totalVentas = totalVentas;
@@ -379,25 +795,29 @@ public class SaleDAO {
         public String getUsername() { return username; }
         public int getTotalVentas() { return totalVentas; }
         public int getTotalProductos() { return totalProductos; }
-        public double getTotalDinero() { return totalDinero; }
+        public Money getTotalDinero() { return totalDinero; }
     }
     
     /** Clase para el resumen total del día */
     public static class ResumenTotalDelDia {
         private int totalTransacciones;
         private int totalProductos;
-        private double totalIngresos;
+        private Money totalIngresos;
+        private Money ticketPromedio;
         
-        public ResumenTotalDelDia(int totalTransacciones, int totalProductos, double totalIngresos) {
+        public ResumenTotalDelDia(int totalTransacciones, int totalProductos, Money totalIngresos,
+                                  Money ticketPromedio) {
             this.totalTransacciones = totalTransacciones;
             this.totalProductos = totalProductos;
             this.totalIngresos = totalIngresos;
+            this.ticketPromedio = ticketPromedio;
         }
         
         // Getters
         public int getTotalTransacciones() { return totalTransacciones; }
         public int getTotalProductos() { return totalProductos; }
-        public double getTotalIngresos() { return totalIngresos; }
+        public Money getTotalIngresos() { return totalIngresos; }
+        public Money getTicketPromedio() { return ticketPromedio; }
     }
 }
 
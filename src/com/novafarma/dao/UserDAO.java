@@ -77,9 +77,9 @@ public class UserDAO {
         List<User> usuarios = new ArrayList<>();
         String consultaSQL = "SELECT id, username, password_hash, rol FROM usuarios ORDER BY id ASC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             while (resultadoConsulta.next()) {
                 User usuario = mapearResultadoAUsuario(resultadoConsulta);
@@ -95,7 +95,7 @@ public class UserDAO {
         List<User> usuarios = new ArrayList<>();
         String consultaSQL = "SELECT id, username, password_hash, rol FROM usuarios ORDER BY id ASC LIMIT ? OFFSET ?";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
+        try (Connection conexion = DatabaseConnection.getReadConnection();
              PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL)) {
             
             consultaPreparada.setInt(1, limit);
@@ -116,9 +116,9 @@ public class UserDAO {
     public int contarUsuarios() throws SQLException {
         String consultaSQL = "SELECT COUNT(*) as total FROM usuarios";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             if (resultadoConsulta.next()) {
                 return resultadoConsulta.getInt("total");
@@ -138,9 +138,9 @@ public class UserDAO {
                      "GROUP BY u.id, u.username, u.password_hash, u.rol " +
                      "ORDER BY u.id ASC";
         
-        try (Connection conexion = DatabaseConnection.getConnection();
-             Statement consulta = conexion.createStatement();
-             ResultSet resultadoConsulta = consulta.executeQuery(consultaSQL)) {
+        try (Connection conexion = DatabaseConnection.getReadConnection();
+             PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
             
             while (resultadoConsulta.next()) {
                 int idUsuario = resultadoConsulta.getInt("id");
@@ -154,6 +154,7 @@ public class UserDAO {
     
     /** Crea un nuevo usuario (password debe venir hasheado SHA-256) */
     public boolean guardarUsuario(User usuario) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "INSERT INTO usuarios (username, password_hash, rol) VALUES (?, ?, ?::user_role)";
         
         try (Connection conexion = DatabaseConnection.getConnection();
@@ -169,6 +170,7 @@ public class UserDAO {
     
     /** Actualiza contraseña de usuario */
     public boolean actualizarContrasena(String username, String newPasswordHash) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "UPDATE usuarios SET password_hash = ? WHERE username = ?";
         
         try (Connection conexion = DatabaseConnection.getConnection();
@@ -184,6 +186,7 @@ public class UserDAO {
     /** @deprecated No usado */
     @Deprecated
     public boolean actualizarRol(int userId, UserRole newRole) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "UPDATE usuarios SET rol = ?::user_role WHERE id = ?";
         
         try (Connection conexion = DatabaseConnection.getConnection();
@@ -198,6 +201,7 @@ public class UserDAO {
     
     /** Elimina usuario (solo si no tiene ventas) */
     public boolean eliminarUsuario(int id) throws SQLException {
+        DatabaseConnection.registrarEscritura();
         String consultaSQL = "DELETE FROM usuarios WHERE id = ?";
         
         try (Connection conexion = DatabaseConnection.getConnection();
@@ -247,7 +251,7 @@ public class UserDAO {
         return 0;
     }
     
-    private User mapearResultadoAUsuario(ResultSet resultadoConsulta) throws SQLException {
+    User mapearResultadoAUsuario(ResultSet resultadoConsulta) throws SQLException {
         int id = resultadoConsulta.getInt("id");
         String username = resultadoConsulta.getString("username");
         String passwordHash = resultadoConsulta.getString("password_hash");
@@ -0,0 +1,188 @@
+package com.novafarma.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Carrito de compras del punto de venta
+ *
+ * Una línea por producto, en el orden en que se agregaron. Reemplaza a las
+ * filas de la tabla como fuente de datos del carrito:
+ * - Índice producto → fila: saber si un producto ya está en el carrito no
+ *   recorre las líneas (carritos mayoristas de cientos de líneas)
+ * - Total y unidades se mantienen al agregar/quitar, en céntimos enteros
+ *   (sin volver a sumar todas las líneas en cada cambio)
+ * - Clave de venta: la clave de idempotencia del comprobante. Es la misma en
+ *   cada intento de registrar este carrito (un reintento tras una respuesta
+ *   perdida no duplica la venta) y cambia al limpiarlo (venta registrada o
+ *   carrito descartado)
+ *
+ * No es thread-safe: se usa solo desde el hilo de Swing.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class Cart {
+
+    /**
+     * Línea del carrito: un producto con su cantidad acumulada
+     */
+    public static class Linea {
+        private final int productoId;
+        private final String nombre;
+        private final Money precioUnitario;
+        private int cantidad;
+        private Money subtotal;
+
+        private Linea(int productoId, String nombre, Money precioUnitario) {
+            this.productoId = productoId;
+            this.nombre = nombre;
+            this.precioUnitario = precioUnitario;
+            this.subtotal = Money.CERO;
+        }
+
+        public int getProductoId() {
+            return productoId;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        public Money getPrecioUnitario() {
+            return precioUnitario;
+        }
+
+        public int getCantidad() {
+            return cantidad;
+        }
+
+        public Money getSubtotal() {
+            return subtotal;
+        }
+    }
+
+    private final List<Linea> lineas = new ArrayList<>();
+    private final Map<Integer, Integer> filaPorProducto = new HashMap<>();
+    private long totalCentimos;
+    private int unidades;
+    private UUID claveVenta = UUID.randomUUID();
+
+    // ==================== CONSULTAS ====================
+
+    /**
+     * @return Fila del producto en el carrito, o -1 si no está
+     */
+    public int buscarFila(int productoId) {
+        Integer fila = filaPorProducto.get(productoId);
+        return fila != null ? fila : -1;
+    }
+
+    /**
+     * @return Unidades del producto en el carrito (0 si no está)
+     */
+    public int obtenerCantidad(int productoId) {
+        Integer fila = filaPorProducto.get(productoId);
+        return fila != null ? lineas.get(fila).cantidad : 0;
+    }
+
+    public Linea getLinea(int fila) {
+        return lineas.get(fila);
+    }
+
+    public List<Linea> getLineas() {
+        return Collections.unmodifiableList(lineas);
+    }
+
+    public int getCantidadLineas() {
+        return lineas.size();
+    }
+
+    public int getUnidades() {
+        return unidades;
+    }
+
+    public Money getTotal() {
+        return Money.deCentimos(totalCentimos);
+    }
+
+    public boolean estaVacio() {
+        return lineas.isEmpty();
+    }
+
+    /**
+     * @return Clave de idempotencia para registrar este carrito
+     */
+    public UUID getClaveVenta() {
+        return claveVenta;
+    }
+
+    // ==================== MODIFICACIÓN ====================
+
+    /**
+     * Agrega unidades de un producto: si ya está en el carrito suma a su línea
+     *
+     * @return Fila de la línea agregada o actualizada
+     */
+    public int agregar(int productoId, String nombre, Money precioUnitario, int cantidad) {
+        Integer fila = filaPorProducto.get(productoId);
+        if (fila == null) {
+            fila = lineas.size();
+            lineas.add(new Linea(productoId, nombre, precioUnitario));
+            filaPorProducto.put(productoId, fila);
+        }
+        Linea linea = lineas.get(fila);
+        fijarCantidad(linea, linea.cantidad + cantidad);
+        return fila;
+    }
+
+    /**
+     * Quita una línea completa
+     *
+     * @return Línea quitada
+     */
+    public Linea quitar(int fila) {
+        Linea linea = lineas.remove(fila);
+        filaPorProducto.remove(linea.productoId);
+        totalCentimos -= linea.subtotal.getCentimos();
+        unidades -= linea.cantidad;
+
+        // Las líneas siguientes suben una fila
+        for (int i = fila; i < lineas.size(); i++) {
+            filaPorProducto.put(lineas.get(i).productoId, i);
+        }
+        return linea;
+    }
+
+    public void limpiar() {
+        lineas.clear();
+        filaPorProducto.clear();
+        totalCentimos = 0;
+        unidades = 0;
+        claveVenta = UUID.randomUUID();
+    }
+
+    /**
+     * Convierte las líneas en ventas para SaleService
+     */
+    public List<Sale> aVentas(int usuarioId) {
+        List<Sale> ventas = new ArrayList<>(lineas.size());
+        for (Linea linea : lineas) {
+            ventas.add(new Sale(linea.productoId, usuarioId, linea.cantidad, linea.precioUnitario));
+        }
+        return ventas;
+    }
+
+    /** Cambia la cantidad de una línea ajustando total y unidades por la diferencia */
+    private void fijarCantidad(Linea linea, int cantidad) {
+        Money subtotal = linea.precioUnitario.multiplicar(cantidad);
+        totalCentimos = Math.addExact(totalCentimos, subtotal.getCentimos() - linea.subtotal.getCentimos());
+        unidades += cantidad - linea.cantidad;
+        linea.cantidad = cantidad;
+        linea.subtotal = subtotal;
+    }
+}
@@ -0,0 +1,82 @@
+package com.novafarma.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Datos que necesita la pantalla inicial del Dashboard
+ *
+ * Se obtienen juntos en un solo viaje a la base de datos (ver DashboardDAO)
+ *
+ * - productos: primera página de productos activos (orden por id), o todos
+ *   si alguno de los paneles los muestra sin paginar
+ * - usuarios / ventasPorUsuario: solo si se pidieron (administrador)
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class DashboardSnapshot {
+
+    private final int totalProductosActivos;
+    private final int totalProductosConStock;
+    private final List<Product> productos;
+    private final List<Product> productosPorVencer;
+    private final int totalUsuarios;
+    private final List<User> usuarios;
+    private final Map<Integer, Integer> ventasPorUsuario;
+
+    public DashboardSnapshot(int totalProductosActivos, int totalProductosConStock,
+                             List<Product> productos, List<Product> productosPorVencer,
+                             int totalUsuarios, List<User> usuarios,
+                             Map<Integer, Integer> ventasPorUsuario) {
+        this.totalProductosActivos = totalProductosActivos;
+        this.totalProductosConStock = totalProductosConStock;
+        this.productos = Collections.unmodifiableList(productos);
+        this.productosPorVencer = Collections.unmodifiableList(productosPorVencer);
+        this.totalUsuarios = totalUsuarios;
+        this.usuarios = usuarios != null ? Collections.unmodifiableList(usuarios) : null;
+        this.ventasPorUsuario = ventasPorUsuario != null ? Collections.unmodifiableMap(ventasPorUsuario) : null;
+    }
+
+    public int getTotalProductosActivos() {
+        return totalProductosActivos;
+    }
+
+    public int getTotalProductosConStock() {
+        return totalProductosConStock;
+    }
+
+    /**
+     * Primeros productos activos, hasta 'limite' (la primera página de un panel paginado)
+     */
+    public List<Product> getPrimerosProductos(int limite) {
+        return productos.subList(0, Math.min(limite, productos.size()));
+    }
+
+    public List<Product> getProductos() {
+        return productos;
+    }
+
+    public List<Product> getProductosPorVencer() {
+        return productosPorVencer;
+    }
+
+    public int getTotalUsuarios() {
+        return totalUsuarios;
+    }
+
+    /** @return Usuarios de la primera página, o null si no se incluyeron */
+    public List<User> getUsuarios() {
+        return usuarios;
+    }
+
+    /** @return Ventas registradas por id de usuario, o null si no se incluyeron */
+    public Map<Integer, Integer> getVentasPorUsuario() {
+        return ventasPorUsuario;
+    }
+
+    public boolean incluyeUsuarios() {
+        return usuarios != null;
+    }
+}
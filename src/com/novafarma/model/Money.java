@@ -0,0 +1,153 @@
+package com.novafarma.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Importe en soles con dos decimales exactos (céntimos en un long)
+ *
+ * Reemplaza a double en precios y totales: las sumas del carrito son exactas
+ * (0.10 + 0.20 = 0.30) y coinciden con las columnas numeric(10,2) de la BD.
+ *
+ * - Inmutable: sumar() y multiplicar() devuelven un importe nuevo
+ * - toString() da el formato de pantalla "S/12.50" y lo guarda en el objeto:
+ *   las tablas de Swing lo piden en cada repintado
+ * - Los importes de 0 a 100 soles en céntimos enteros se reutilizan (caché)
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final String SIMBOLO = "S/";
+
+    /** Céntimos cacheados: de S/0.00 a S/100.00 */
+    private static final int MAX_CACHE_CENTIMOS = 10_000;
+    private static final Money[] CACHE = new Money[MAX_CACHE_CENTIMOS + 1];
+
+    static {
+        for (int i = 0; i <= MAX_CACHE_CENTIMOS; i++) {
+            CACHE[i] = new Money(i);
+        }
+    }
+
+    public static final Money CERO = CACHE[0];
+
+    private final long centimos;
+    private String texto;   // formato cacheado (carrera benigna: siempre el mismo valor)
+
+    private Money(long centimos) {
+        this.centimos = centimos;
+    }
+
+    // ==================== CREACIÓN ====================
+
+    public static Money deCentimos(long centimos) {
+        if (centimos >= 0 && centimos <= MAX_CACHE_CENTIMOS) {
+            return CACHE[(int) centimos];
+        }
+        return new Money(centimos);
+    }
+
+    /** Importe de una columna numeric (redondeo comercial a 2 decimales) */
+    public static Money de(BigDecimal importe) {
+        if (importe == null) {
+            return CERO;
+        }
+        return deCentimos(importe.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact());
+    }
+
+    /**
+     * Interpreta un importe escrito por el usuario ("12.5", "S/12.50", "12,50")
+     *
+     * @throws NumberFormatException Si el texto no es un importe válido
+     */
+    public static Money parse(String texto) {
+        if (texto == null) {
+            throw new NumberFormatException("Importe vacío");
+        }
+        String limpio = texto.trim();
+        if (limpio.startsWith(SIMBOLO)) {
+            limpio = limpio.substring(SIMBOLO.length()).trim();
+        }
+        limpio = limpio.replace(',', '.');
+        if (limpio.isEmpty()) {
+            throw new NumberFormatException("Importe vacío");
+        }
+        try {
+            return de(new BigDecimal(limpio));
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Importe fuera de rango: " + texto);
+        }
+    }
+
+    // ==================== OPERACIONES ====================
+
+    public Money sumar(Money otro) {
+        return deCentimos(Math.addExact(centimos, otro.centimos));
+    }
+
+    public Money restar(Money otro) {
+        return deCentimos(Math.subtractExact(centimos, otro.centimos));
+    }
+
+    public Money multiplicar(int cantidad) {
+        return deCentimos(Math.multiplyExact(centimos, (long) cantidad));
+    }
+
+    public boolean esPositivo() {
+        return centimos > 0;
+    }
+
+    public boolean esCero() {
+        return centimos == 0;
+    }
+
+    // ==================== CONVERSIÓN ====================
+
+    public long getCentimos() {
+        return centimos;
+    }
+
+    /** Valor para setBigDecimal() en columnas numeric */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(centimos, 2);
+    }
+
+    /** Formato de pantalla: "S/12.50" */
+    @Override
+    public String toString() {
+        String resultado = texto;
+        if (resultado == null) {
+            long absoluto = Math.abs(centimos);
+            long fraccion = absoluto % 100;
+            StringBuilder sb = new StringBuilder(16);
+            if (centimos < 0) {
+                sb.append('-');
+            }
+            sb.append(SIMBOLO).append(absoluto / 100).append('.');
+            if (fraccion < 10) {
+                sb.append('0');
+            }
+            sb.append(fraccion);
+            resultado = sb.toString();
+            texto = resultado;
+        }
+        return resultado;
+    }
+
+    @Override
+    public int compareTo(Money otro) {
+        return Long.compare(centimos, otro.centimos);
+    }
+
+    @Override
+    public boolean equals(Object otro) {
+        return otro instanceof Money && ((Money) otro).centimos == centimos;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(centimos);
+    }
+}
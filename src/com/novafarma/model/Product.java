@@ -20,7 +20,7 @@ public class Product {
     private int id;
     private String nombre;
     private String descripcion;
-    private double precio;
+    private Money precio;
     private int stock;
     private Date fechaVencimiento;
     private boolean activo;
@@ -37,7 +37,7 @@ public class Product {
     /**
      * Constructor completo
      */
-    public Product(int id, String nombre, String descripcion, double precio, 
+    public Product(int id, String nombre, String descripcion, Money precio, 
                    int stock, Date fechaVencimiento, boolean activo) {
         this.id = id;
         this.nombre = nombre;
@@ -51,7 +51,7 @@ public class Product {
     /**
      * Constructor sin ID (para inserciones)
      */
-    public Product(String nombre, String descripcion, double precio, 
+    public Product(String nombre, String descripcion, Money precio, 
                    int stock, Date fechaVencimiento) {
         this.nombre = nombre;
         this.descripcion = descripcion;
@@ -165,11 +165,11 @@ public class Product {
         this.descripcion = descripcion;
     }
     
-    public double getPrecio() {
+    public Money getPrecio() {
         return precio;
     }
     
-    public void setPrecio(double precio) {
+    public void setPrecio(Money precio) {
         this.precio = precio;
     }
     
@@ -0,0 +1,259 @@
+package com.novafarma.model;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Entidad que representa un Comprobante (cabecera de una venta)
+ *
+ * Agrupa las líneas del carrito (Sale) vendidas juntas y guarda los datos
+ * de facturación: tipo (BOLETA/FACTURA), cliente y DNI/RUC.
+ * Las líneas, unidades y total se guardan precalculados en la cabecera
+ * para que los reportes no tengan que recorrer todas las líneas.
+ *
+ * Cada comprobante nuevo lleva una clave de idempotencia (UUID generado en la
+ * caja): reintentar su registro nunca crea un segundo comprobante.
+ *
+ * Con la numeración activa lleva además serie y número correlativo
+ * (B001-00000123), asignados en la caja antes de registrarlo.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class Receipt {
+
+    public static final String TIPO_BOLETA = "BOLETA";
+    public static final String TIPO_FACTURA = "FACTURA";
+
+    private int id;
+    private String tipo;
+    private String cliente;
+    private String dniRuc;
+    private int usuarioId;
+    private int cantidadLineas;
+    private int unidades;
+    private Money total = Money.CERO;
+    private Timestamp fechaEmision;
+    private List<Sale> lineas;
+    private UUID claveIdempotencia;
+    private String serie;
+    private Integer numero;
+
+    /**
+     * Constructor vacío
+     */
+    public Receipt() {
+        this.tipo = TIPO_BOLETA;
+        this.lineas = new ArrayList<>();
+        this.claveIdempotencia = UUID.randomUUID();
+    }
+
+    /**
+     * Constructor para un comprobante nuevo a partir del carrito
+     * El ID y la fecha se generan automáticamente en la BD
+     */
+    public Receipt(String tipo, String cliente, String dniRuc, int usuarioId, List<Sale> lineas) {
+        this.tipo = tipo != null ? tipo : TIPO_BOLETA;
+        this.cliente = cliente;
+        this.dniRuc = dniRuc;
+        this.usuarioId = usuarioId;
+        this.lineas = new ArrayList<>(lineas);
+        this.claveIdempotencia = UUID.randomUUID();
+        actualizarTotales();
+    }
+
+    /**
+     * Constructor completo (cabecera leída de la BD, sin líneas)
+     */
+    public Receipt(int id, String tipo, String cliente, String dniRuc, int usuarioId,
+                   int cantidadLineas, int unidades, Money total, Timestamp fechaEmision) {
+        this.id = id;
+        this.tipo = tipo;
+        this.cliente = cliente;
+        this.dniRuc = dniRuc;
+        this.usuarioId = usuarioId;
+        this.cantidadLineas = cantidadLineas;
+        this.unidades = unidades;
+        this.total = total;
+        this.fechaEmision = fechaEmision;
+        this.lineas = new ArrayList<>();
+    }
+
+    /**
+     * Recalcula líneas, unidades y total a partir de las líneas
+     */
+    public void actualizarTotales() {
+        cantidadLineas = lineas.size();
+        unidades = 0;
+        long centimos = 0;
+        for (Sale linea : lineas) {
+            linea.actualizarTotal();
+            unidades += linea.getCantidad();
+            centimos += linea.getTotal().getCentimos();
+        }
+        total = Money.deCentimos(centimos);
+    }
+
+    /**
+     * Valida que el comprobante sea registrable
+     *
+     * @return true si tiene al menos una línea y todas son válidas
+     */
+    public boolean esValido() {
+        if (lineas.isEmpty() || usuarioId <= 0) {
+            return false;
+        }
+        if (!TIPO_BOLETA.equals(tipo) && !TIPO_FACTURA.equals(tipo)) {
+            return false;
+        }
+        // Límites de las columnas de la cabecera
+        if (cliente != null && cliente.trim().length() > 150) {
+            return false;
+        }
+        if (dniRuc != null && dniRuc.trim().length() > 11) {
+            return false;
+        }
+        for (Sale linea : lineas) {
+            if (!linea.esValida()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isFactura() {
+        return TIPO_FACTURA.equals(tipo);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /** Asigna el ID generado también a las líneas */
+    public void setId(int id) {
+        this.id = id;
+        for (Sale linea : lineas) {
+            linea.setComprobanteId(id);
+        }
+    }
+
+    public String getTipo() {
+        return tipo;
+    }
+
+    public void setTipo(String tipo) {
+        this.tipo = tipo;
+    }
+
+    public String getCliente() {
+        return cliente;
+    }
+
+    public void setCliente(String cliente) {
+        this.cliente = cliente;
+    }
+
+    public String getDniRuc() {
+        return dniRuc;
+    }
+
+    public void setDniRuc(String dniRuc) {
+        this.dniRuc = dniRuc;
+    }
+
+    public int getUsuarioId() {
+        return usuarioId;
+    }
+
+    public void setUsuarioId(int usuarioId) {
+        this.usuarioId = usuarioId;
+    }
+
+    public int getCantidadLineas() {
+        return cantidadLineas;
+    }
+
+    public int getUnidades() {
+        return unidades;
+    }
+
+    public Money getTotal() {
+        return total;
+    }
+
+    public Timestamp getFechaEmision() {
+        return fechaEmision;
+    }
+
+    public void setFechaEmision(Timestamp fechaEmision) {
+        this.fechaEmision = fechaEmision;
+    }
+
+    /** Clave única del carrito (null en comprobantes leídos de la BD) */
+    public UUID getClaveIdempotencia() {
+        return claveIdempotencia;
+    }
+
+    public void setClaveIdempotencia(UUID claveIdempotencia) {
+        this.claveIdempotencia = claveIdempotencia;
+    }
+
+    /** Serie del comprobante (null si no está numerado) */
+    public String getSerie() {
+        return serie;
+    }
+
+    public void setSerie(String serie) {
+        this.serie = serie;
+    }
+
+    /** Número correlativo dentro de la serie (null si no está numerado) */
+    public Integer getNumero() {
+        return numero;
+    }
+
+    public void setNumero(Integer numero) {
+        this.numero = numero;
+    }
+
+    public boolean isNumerado() {
+        return serie != null && numero != null;
+    }
+
+    /**
+     * Serie y número con el formato impreso (B001-00000123)
+     *
+     * @return Número formateado, o null si no está numerado
+     */
+    public String getNumeroFormateado() {
+        return isNumerado() ? String.format("%s-%08d", serie, numero) : null;
+    }
+
+    public List<Sale> getLineas() {
+        return Collections.unmodifiableList(lineas);
+    }
+
+    /** Reemplaza las líneas (al leer el detalle de la BD) */
+    public void setLineas(List<Sale> lineas) {
+        this.lineas = new ArrayList<>(lineas);
+    }
+
+    @Override
+    public String toString() {
+        return "Receipt{" +
+                "id=" + id +
+                ", tipo='" + tipo + '\'' +
+                ", numero=" + getNumeroFormateado() +
+                ", cliente='" + cliente + '\'' +
+                ", dniRuc='" + dniRuc + '\'' +
+                ", usuarioId=" + usuarioId +
+                ", lineas=" + cantidadLineas +
+                ", unidades=" + unidades +
+                ", total=" + total +
+                ", fechaEmision=" + fechaEmision +
+                '}';
+    }
+}
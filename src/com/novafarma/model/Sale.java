@@ -8,6 +8,9 @@ import java.sql.Timestamp;
  * Una venta registra la transacción de un producto específico,
  * incluyendo cantidad, precio unitario y total.
  * 
+ * Cada venta es una línea de un comprobante (Receipt); las ventas
+ * anteriores a los comprobantes no tienen cabecera (comprobanteId null).
+ * 
  * IMPORTANTE: El trigger de PostgreSQL actualiza automáticamente
  * el stock del producto al insertar una venta.
  * 
@@ -20,21 +23,24 @@ public class Sale {
     private int productoId;
     private int usuarioId;
     private int cantidad;
-    private double precioUnitario;
-    private double total;
+    private Money precioUnitario;
+    private Money total;
     private Timestamp fechaVenta;
+    private Integer comprobanteId;
     
     /**
      * Constructor vacío
      */
     public Sale() {
+        this.precioUnitario = Money.CERO;
+        this.total = Money.CERO;
     }
     
     /**
      * Constructor completo
      */
     public Sale(int id, int productoId, int usuarioId, int cantidad, 
-                double precioUnitario, double total, Timestamp fechaVenta) {
+                Money precioUnitario, Money total, Timestamp fechaVenta) {
         this.id = id;
         this.productoId = productoId;
         this.usuarioId = usuarioId;
@@ -48,21 +54,21 @@ public class Sale {
      * Constructor para nueva venta (sin ID ni fecha)
      * El ID y la fecha se generan automáticamente en la BD
      */
-    public Sale(int productoId, int usuarioId, int cantidad, double precioUnitario) {
+    public Sale(int productoId, int usuarioId, int cantidad, Money precioUnitario) {
         this.productoId = productoId;
         this.usuarioId = usuarioId;
         this.cantidad = cantidad;
         this.precioUnitario = precioUnitario;
-        this.total = cantidad * precioUnitario; // Cálculo automático
+        this.total = calcularTotal(); // Cálculo automático
     }
     
     /**
      * Calcula el total de la venta basado en cantidad y precio unitario
      * 
-     * @return Total calculado
+     * @return Total calculado (exacto, en céntimos)
      */
-    public double calcularTotal() {
-        return this.cantidad * this.precioUnitario;
+    public Money calcularTotal() {
+        return precioUnitario.multiplicar(cantidad);
     }
     
     /**
@@ -79,7 +85,7 @@ public class Sale {
      */
     public boolean esValida() {
         return cantidad > 0 && 
-               precioUnitario > 0 && 
+               precioUnitario.esPositivo() && 
                productoId > 0 && 
                usuarioId > 0;
     }
@@ -117,20 +123,20 @@ public class Sale {
         actualizarTotal(); // Recalcular total automáticamente
     }
     
-    public double getPrecioUnitario() {
+    public Money getPrecioUnitario() {
         return precioUnitario;
     }
     
-    public void setPrecioUnitario(double precioUnitario) {
+    public void setPrecioUnitario(Money precioUnitario) {
         this.precioUnitario = precioUnitario;
         actualizarTotal(); // Recalcular total automáticamente
     }
     
-    public double getTotal() {
+    public Money getTotal() {
         return total;
     }
     
-    public void setTotal(double total) {
+    public void setTotal(Money total) {
         this.total = total;
     }
     
@@ -142,6 +148,15 @@ public class Sale {
         this.fechaVenta = fechaVenta;
     }
     
+    /** @return ID del comprobante, o null si la venta no tiene cabecera */
+    public Integer getComprobanteId() {
+        return comprobanteId;
+    }
+    
+    public void setComprobanteId(Integer comprobanteId) {
+        this.comprobanteId = comprobanteId;
+    }
+    
     @Override
     public String toString() {
         return "Sale{" +
@@ -152,6 +167,7 @@ public class Sale {
                 ", precioUnitario=" + precioUnitario +
                 ", total=" + total +
                 ", fechaVenta=" + fechaVenta +
+                ", comprobanteId=" + comprobanteId +
                 '}';
     }
 }
@@ -0,0 +1,35 @@
+package com.novafarma.service;
+
+import com.novafarma.dao.DashboardDAO;
+import com.novafarma.model.DashboardSnapshot;
+import com.novafarma.util.AsyncExecutor;
+import com.novafarma.util.PaginationHelper;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+/** Servicio de la carga inicial del Dashboard (un solo viaje a la base de datos) */
+public class DashboardService {
+
+    private final DashboardDAO dashboardDAO;
+
+    public DashboardService() {
+        this.dashboardDAO = new DashboardDAO();
+    }
+
+    /**
+     * Obtiene conteos, primera página de productos, alertas y (opcional) usuarios
+     * con los mismos criterios de paginación que usan los paneles
+     */
+    public DashboardSnapshot obtenerSnapshot(boolean incluirUsuarios) throws SQLException {
+        return dashboardDAO.obtenerSnapshot(
+            PaginationHelper.DEFAULT_PAGINATION_THRESHOLD,
+            PaginationHelper.DEFAULT_PAGE_SIZE,
+            incluirUsuarios
+        );
+    }
+
+    public CompletableFuture<DashboardSnapshot> obtenerSnapshotAsync(boolean incluirUsuarios) {
+        return AsyncExecutor.ejecutar(() -> obtenerSnapshot(incluirUsuarios));
+    }
+}
@@ -0,0 +1,187 @@
+package com.novafarma.service;
+
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.dao.ElectronicDocumentDAO;
+import com.novafarma.dao.ProductDAO;
+import com.novafarma.dao.SaleDAO;
+import com.novafarma.model.Product;
+import com.novafarma.model.Receipt;
+import com.novafarma.model.Sale;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Genera y envía los documentos electrónicos de los comprobantes en segundo plano
+ *
+ * La cola es la tabla documentos_electronicos: el trigger de comprobantes
+ * encola cada venta en su misma transacción, así que la caja no espera ni la
+ * generación del XML ni el envío, y nada se pierde si la aplicación se cierra.
+ *
+ * DOCUMENTOS_HILOS hilos toman lotes de DOCUMENTOS_TAMANO_LOTE con SKIP LOCKED
+ * (varias cajas pueden procesar la misma cola sin repetir documentos). Por lote:
+ * una consulta para tomarlo, dos para leer comprobantes y líneas, una para los
+ * productos y una o dos para guardar el resultado.
+ *
+ * - Aceptado / rechazado: estado final (el rechazado requiere revisión)
+ * - Error de envío: se reintenta con espera exponencial hasta
+ *   DOCUMENTOS_MAX_INTENTOS; luego ERROR (se reencola desde el reporte del día)
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class ElectronicInvoiceQueue {
+
+    private static ElectronicInvoiceQueue instancia;
+
+    private final ElectronicDocumentDAO documentoDAO = new ElectronicDocumentDAO();
+    private final SaleDAO saleDAO = new SaleDAO();
+    private final ProductDAO productDAO = new ProductDAO();
+    private final ElectronicInvoiceXmlBuilder generador = new ElectronicInvoiceXmlBuilder();
+    private final InvoiceSubmitter enviador;
+    private final Object senal = new Object();
+    private boolean hayAviso;
+
+    private ElectronicInvoiceQueue(InvoiceSubmitter enviador) {
+        this.enviador = enviador;
+    }
+
+    /**
+     * Inicia los hilos con el envío local (LocalInvoiceSubmitter en DOCUMENTOS_DIRECTORIO)
+     * No hace nada si DatabaseConfig.DOCUMENTOS_ELECTRONICOS_HABILITADOS es false
+     */
+    public static void iniciar() {
+        iniciar(new LocalInvoiceSubmitter(Paths.get(DatabaseConfig.DOCUMENTOS_DIRECTORIO)));
+    }
+
+    /**
+     * Inicia los hilos con el envío indicado (solo la primera vez)
+     *
+     * @param enviador Envío a la autoridad tributaria (o uno de prueba)
+     */
+    public static synchronized void iniciar(InvoiceSubmitter enviador) {
+        if (!DatabaseConfig.DOCUMENTOS_ELECTRONICOS_HABILITADOS || instancia != null) {
+            return;
+        }
+        instancia = new ElectronicInvoiceQueue(enviador);
+        for (int i = 1; i <= DatabaseConfig.DOCUMENTOS_HILOS; i++) {
+            Thread hilo = new Thread(instancia::trabajar, "documentos-electronicos-" + i);
+            hilo.setDaemon(true);
+            hilo.start();
+        }
+    }
+
+    /**
+     * Avisa que hay comprobantes nuevos (no bloquea)
+     * Los hilos dormidos toman el lote sin esperar DOCUMENTOS_ESPERA_MS
+     */
+    public static void avisar() {
+        ElectronicInvoiceQueue actual;
+        synchronized (ElectronicInvoiceQueue.class) {
+            actual = instancia;
+        }
+        if (actual != null) {
+            actual.despertar();
+        }
+    }
+
+    private void despertar() {
+        synchronized (senal) {
+            hayAviso = true;
+            senal.notifyAll();
+        }
+    }
+
+    // ==================== HILOS ====================
+
+    private void trabajar() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Lote completo: probablemente hay más, seguir sin esperar
+                if (procesarLote() >= DatabaseConfig.DOCUMENTOS_TAMANO_LOTE) {
+                    continue;
+                }
+                esperarAviso();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException | RuntimeException e) {
+                // El lote tomado vuelve a la cola al vencer su arriendo
+                System.err.println("Error en la cola de documentos electrónicos: " + e.getMessage());
+                e.printStackTrace();
+                try {
+                    esperarAviso();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void esperarAviso() throws InterruptedException {
+        synchronized (senal) {
+            if (!hayAviso) {
+                senal.wait(DatabaseConfig.DOCUMENTOS_ESPERA_MS);
+            }
+            hayAviso = false;
+        }
+    }
+
+    /**
+     * Toma, genera, envía y guarda un lote
+     *
+     * @return Documentos tomados (0 si la cola estaba vacía)
+     */
+    private int procesarLote() throws SQLException {
+        List<Integer> ids = documentoDAO.reclamarLote(DatabaseConfig.DOCUMENTOS_TAMANO_LOTE,
+                                                      DatabaseConfig.DOCUMENTOS_ARRIENDO_MS);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        List<Receipt> comprobantes = saleDAO.obtenerComprobantesPorIds(ids);
+        Set<Integer> productosIds = new HashSet<>();
+        for (Receipt comprobante : comprobantes) {
+            for (Sale linea : comprobante.getLineas()) {
+                productosIds.add(linea.getProductoId());
+            }
+        }
+        Map<Integer, Product> productos = productDAO.buscarProductosPorIds(productosIds);
+
+        List<ElectronicDocumentDAO.Resultado> resultados = new ArrayList<>(comprobantes.size());
+        for (Receipt comprobante : comprobantes) {
+            resultados.add(generarYEnviar(comprobante, productos));
+        }
+        documentoDAO.guardarResultados(resultados);
+        return ids.size();
+    }
+
+    private ElectronicDocumentDAO.Resultado generarYEnviar(Receipt comprobante, Map<Integer, Product> productos) {
+        int comprobanteId = comprobante.getId();
+        String xml = null;
+        try {
+            xml = generador.generar(comprobante, productos);
+            InvoiceSubmitter.Respuesta respuesta = enviador.enviar(generador.nombreArchivo(comprobante), xml);
+            if (respuesta.isAceptado()) {
+                return ElectronicDocumentDAO.Resultado.aceptado(comprobanteId, xml,
+                    respuesta.getCodigo(), respuesta.getMensaje());
+            }
+            System.err.println("Documento electrónico rechazado (comprobante " + comprobanteId + "): " +
+                respuesta.getCodigo() + " " + respuesta.getMensaje());
+            return ElectronicDocumentDAO.Resultado.rechazado(comprobanteId, xml,
+                respuesta.getCodigo(), respuesta.getMensaje());
+
+        } catch (IOException | RuntimeException e) {
+            // Un documento que falla no detiene el resto del lote
+            System.err.println("No se pudo enviar el documento electrónico del comprobante " +
+                comprobanteId + ": " + e.getMessage());
+            return ElectronicDocumentDAO.Resultado.fallido(comprobanteId, xml, e.getMessage());
+        }
+    }
+}
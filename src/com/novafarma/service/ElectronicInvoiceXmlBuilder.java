@@ -0,0 +1,205 @@
+package com.novafarma.service;
+
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.model.Money;
+import com.novafarma.model.Product;
+import com.novafarma.model.Receipt;
+import com.novafarma.model.Sale;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Genera el XML (UBL 2.1) de una boleta o factura
+ *
+ * El documento lleva en UBLExtensions el resumen SHA-256 de su contenido
+ * (DigestValue). La firma con el certificado digital del emisor la agrega el
+ * InvoiceSubmitter que envía a SUNAT: el certificado no vive en la caja.
+ *
+ * Los precios de venta incluyen IGV: el impuesto se desglosa del total.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class ElectronicInvoiceXmlBuilder {
+
+    /** Tipo de documento SUNAT: factura */
+    private static final String TIPO_FACTURA = "01";
+
+    /** Tipo de documento SUNAT: boleta de venta */
+    private static final String TIPO_BOLETA = "03";
+
+    /** IGV incluido en los precios (%) */
+    private static final int IGV_PORCENTAJE = 18;
+
+    private static final String MONEDA = "PEN";
+
+    /**
+     * Nombre del documento según SUNAT: RUC-tipo-serie-numero
+     */
+    public String nombreArchivo(Receipt comprobante) {
+        return DatabaseConfig.EMISOR_RUC + "-" + tipoDocumento(comprobante) + "-" + identificador(comprobante);
+    }
+
+    /**
+     * Genera el XML de un comprobante
+     *
+     * @param comprobante Comprobante con sus líneas
+     * @param productos   Productos de las líneas (para la descripción)
+     * @return Documento XML
+     */
+    public String generar(Receipt comprobante, Map<Integer, Product> productos) {
+        String cuerpo = generarCuerpo(comprobante, productos);
+
+        StringBuilder xml = new StringBuilder(cuerpo.length() + 512);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+           .append("<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"")
+           .append(" xmlns:cac=\"urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2\"")
+           .append(" xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\"")
+           .append(" xmlns:ext=\"urn:oasis:names:specification:ubl:schema:xsd:CommonExtensionComponents-2\"")
+           .append(" xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\">\n")
+           .append("  <ext:UBLExtensions><ext:UBLExtension><ext:ExtensionContent>\n")
+           .append("    <ds:Signature Id=\"").append(DatabaseConfig.EMISOR_RUC).append("\"><ds:SignedInfo><ds:Reference URI=\"\">")
+           .append("<ds:DigestMethod Algorithm=\"http://www.w3.org/2001/04/xmlenc#sha256\"/>")
+           .append("<ds:DigestValue>").append(resumen(cuerpo)).append("</ds:DigestValue>")
+           .append("</ds:Reference></ds:SignedInfo></ds:Signature>\n")
+           .append("  </ext:ExtensionContent></ext:UBLExtension></ext:UBLExtensions>\n")
+           .append(cuerpo)
+           .append("</Invoice>\n");
+        return xml.toString();
+    }
+
+    private String generarCuerpo(Receipt comprobante, Map<Integer, Product> productos) {
+        long totalCentimos = comprobante.getTotal().getCentimos();
+        long baseCentimos = Math.round(totalCentimos * 100.0 / (100 + IGV_PORCENTAJE));
+        Money base = Money.deCentimos(baseCentimos);
+        Money igv = Money.deCentimos(totalCentimos - baseCentimos);
+
+        StringBuilder xml = new StringBuilder(1024);
+        xml.append("  <cbc:UBLVersionID>2.1</cbc:UBLVersionID>\n")
+           .append("  <cbc:CustomizationID>2.0</cbc:CustomizationID>\n");
+        elemento(xml, "cbc:ID", identificador(comprobante));
+        if (comprobante.getFechaEmision() != null) {
+            elemento(xml, "cbc:IssueDate", new SimpleDateFormat("yyyy-MM-dd").format(comprobante.getFechaEmision()));
+            elemento(xml, "cbc:IssueTime", new SimpleDateFormat("HH:mm:ss").format(comprobante.getFechaEmision()));
+        }
+        elemento(xml, "cbc:InvoiceTypeCode", tipoDocumento(comprobante));
+        elemento(xml, "cbc:DocumentCurrencyCode", MONEDA);
+        elemento(xml, "cbc:LineCountNumeric", String.valueOf(comprobante.getCantidadLineas()));
+
+        xml.append("  <cac:AccountingSupplierParty><cac:Party>\n");
+        xml.append("    <cac:PartyIdentification><cbc:ID schemeID=\"6\">")
+           .append(escapar(DatabaseConfig.EMISOR_RUC)).append("</cbc:ID></cac:PartyIdentification>\n");
+        xml.append("    <cac:PartyLegalEntity><cbc:RegistrationName>")
+           .append(escapar(DatabaseConfig.EMISOR_RAZON_SOCIAL)).append("</cbc:RegistrationName></cac:PartyLegalEntity>\n");
+        xml.append("  </cac:Party></cac:AccountingSupplierParty>\n");
+
+        String documentoCliente = comprobante.getDniRuc() != null ? comprobante.getDniRuc().trim() : "";
+        xml.append("  <cac:AccountingCustomerParty><cac:Party>\n");
+        xml.append("    <cac:PartyIdentification><cbc:ID schemeID=\"").append(tipoDocumentoCliente(documentoCliente))
+           .append("\">").append(documentoCliente.isEmpty() ? "-" : escapar(documentoCliente))
+           .append("</cbc:ID></cac:PartyIdentification>\n");
+        xml.append("    <cac:PartyLegalEntity><cbc:RegistrationName>")
+           .append(escapar(comprobante.getCliente() != null && !comprobante.getCliente().trim().isEmpty()
+               ? comprobante.getCliente().trim() : "CLIENTES VARIOS"))
+           .append("</cbc:RegistrationName></cac:PartyLegalEntity>\n");
+        xml.append("  </cac:Party></cac:AccountingCustomerParty>\n");
+
+        xml.append("  <cac:TaxTotal>\n");
+        importe(xml, "    ", "cbc:TaxAmount", igv);
+        xml.append("    <cac:TaxSubtotal>\n");
+        importe(xml, "      ", "cbc:TaxableAmount", base);
+        importe(xml, "      ", "cbc:TaxAmount", igv);
+        xml.append("      <cac:TaxCategory><cbc:Percent>").append(IGV_PORCENTAJE)
+           .append("</cbc:Percent><cac:TaxScheme><cbc:ID>1000</cbc:ID><cbc:Name>IGV</cbc:Name></cac:TaxScheme></cac:TaxCategory>\n");
+        xml.append("    </cac:TaxSubtotal>\n");
+        xml.append("  </cac:TaxTotal>\n");
+
+        xml.append("  <cac:LegalMonetaryTotal>\n");
+        importe(xml, "    ", "cbc:LineExtensionAmount", base);
+        importe(xml, "    ", "cbc:TaxInclusiveAmount", comprobante.getTotal());
+        importe(xml, "    ", "cbc:PayableAmount", comprobante.getTotal());
+        xml.append("  </cac:LegalMonetaryTotal>\n");
+
+        int numeroLinea = 1;
+        for (Sale linea : comprobante.getLineas()) {
+            Product producto = productos.get(linea.getProductoId());
+            String descripcion = producto != null ? producto.getNombre() : "Producto " + linea.getProductoId();
+
+            xml.append("  <cac:InvoiceLine>\n");
+            xml.append("    <cbc:ID>").append(numeroLinea++).append("</cbc:ID>\n");
+            xml.append("    <cbc:InvoicedQuantity unitCode=\"NIU\">").append(linea.getCantidad()).append("</cbc:InvoicedQuantity>\n");
+            importe(xml, "    ", "cbc:LineExtensionAmount", linea.getTotal());
+            xml.append("    <cac:Item><cbc:Description>").append(escapar(descripcion))
+               .append("</cbc:Description><cac:SellersItemIdentification><cbc:ID>").append(linea.getProductoId())
+               .append("</cbc:ID></cac:SellersItemIdentification></cac:Item>\n");
+            xml.append("    <cac:Price>");
+            xml.append("<cbc:PriceAmount currencyID=\"").append(MONEDA).append("\">")
+               .append(linea.getPrecioUnitario().toBigDecimal().toPlainString()).append("</cbc:PriceAmount>");
+            xml.append("</cac:Price>\n");
+            xml.append("  </cac:InvoiceLine>\n");
+        }
+        return xml.toString();
+    }
+
+    /** Serie-número del documento (el ID del comprobante si la numeración está desactivada) */
+    private String identificador(Receipt comprobante) {
+        if (comprobante.isNumerado()) {
+            return comprobante.getNumeroFormateado();
+        }
+        return String.format("%s-%08d", ReceiptNumberAllocator.obtenerSerie(comprobante.getTipo()), comprobante.getId());
+    }
+
+    private String tipoDocumento(Receipt comprobante) {
+        return comprobante.isFactura() ? TIPO_FACTURA : TIPO_BOLETA;
+    }
+
+    /** Catálogo 06 de SUNAT: 6 = RUC, 1 = DNI, 0 = sin documento */
+    private String tipoDocumentoCliente(String documento) {
+        if (documento.length() == 11) {
+            return "6";
+        }
+        return documento.length() == 8 ? "1" : "0";
+    }
+
+    private void elemento(StringBuilder xml, String nombre, String valor) {
+        xml.append("  <").append(nombre).append('>').append(escapar(valor))
+           .append("</").append(nombre).append(">\n");
+    }
+
+    private void importe(StringBuilder xml, String sangria, String nombre, Money valor) {
+        xml.append(sangria).append('<').append(nombre).append(" currencyID=\"").append(MONEDA).append("\">")
+           .append(valor.toBigDecimal().toPlainString())
+           .append("</").append(nombre).append(">\n");
+    }
+
+    private static String escapar(String texto) {
+        StringBuilder escapado = new StringBuilder(texto.length());
+        for (int i = 0; i < texto.length(); i++) {
+            char caracter = texto.charAt(i);
+            switch (caracter) {
+                case '&': escapado.append("&amp;"); break;
+                case '<': escapado.append("&lt;"); break;
+                case '>': escapado.append("&gt;"); break;
+                case '"': escapado.append("&quot;"); break;
+                case '\'': escapado.append("&apos;"); break;
+                default: escapado.append(caracter);
+            }
+        }
+        return escapado.toString();
+    }
+
+    /** SHA-256 del contenido en Base64 */
+    private static String resumen(String contenido) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(sha.digest(contenido.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error: SHA-256 no disponible en este sistema", e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.novafarma.service;
+
+import java.io.IOException;
+
+/**
+ * Envío de documentos electrónicos a la autoridad tributaria
+ *
+ * ElectronicInvoiceQueue llama a enviar() desde sus hilos, nunca desde la venta.
+ * Una implementación real (SUNAT u operador de servicios electrónicos) firma y
+ * envía el XML; LocalInvoiceSubmitter lo guarda en disco para pruebas.
+ *
+ * - Respuesta aceptada o rechazada: el documento queda en ese estado final
+ * - IOException: error transitorio (red, servicio caído), se reintenta más tarde
+ *
+ * Puede recibir el mismo documento más de una vez (reintento tras una respuesta
+ * perdida): la autoridad identifica el documento por RUC, tipo, serie y número.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public interface InvoiceSubmitter {
+
+    /**
+     * Envía un documento
+     *
+     * @param nombreArchivo Nombre del documento (RUC-tipo-serie-numero)
+     * @param xml           Documento generado
+     * @return Respuesta de la autoridad
+     * @throws IOException Si no se pudo enviar (se reintenta)
+     */
+    Respuesta enviar(String nombreArchivo, String xml) throws IOException;
+
+    /** Respuesta de la autoridad a un documento */
+    class Respuesta {
+        private final boolean aceptado;
+        private final String codigo;
+        private final String mensaje;
+
+        private Respuesta(boolean aceptado, String codigo, String mensaje) {
+            this.aceptado = aceptado;
+            this.codigo = codigo;
+            this.mensaje = mensaje;
+        }
+
+        public static Respuesta aceptado(String codigo, String mensaje) {
+            return new Respuesta(true, codigo, mensaje);
+        }
+
+        public static Respuesta rechazado(String codigo, String mensaje) {
+            return new Respuesta(false, codigo, mensaje);
+        }
+
+        // Getters
+        public boolean isAceptado() { return aceptado; }
+        public String getCodigo() { return codigo; }
+        public String getMensaje() { return mensaje; }
+    }
+}
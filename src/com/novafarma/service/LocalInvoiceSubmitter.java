@@ -0,0 +1,36 @@
+package com.novafarma.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Envío local de documentos electrónicos (sin autoridad tributaria)
+ *
+ * Guarda cada XML en una carpeta y lo acepta. Sirve para pruebas y para
+ * trabajar sin conexión con SUNAT; un error de disco se reintenta como
+ * cualquier error de envío.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class LocalInvoiceSubmitter implements InvoiceSubmitter {
+
+    /** Código de SUNAT para un comprobante aceptado */
+    private static final String CODIGO_ACEPTADO = "0";
+
+    private final Path directorio;
+
+    public LocalInvoiceSubmitter(Path directorio) {
+        this.directorio = directorio;
+    }
+
+    @Override
+    public Respuesta enviar(String nombreArchivo, String xml) throws IOException {
+        Files.createDirectories(directorio);
+        // Mismo nombre en un reintento: se sobrescribe, no se duplica
+        Files.write(directorio.resolve(nombreArchivo + ".xml"), xml.getBytes(StandardCharsets.UTF_8));
+        return Respuesta.aceptado(CODIGO_ACEPTADO, "Guardado localmente en " + directorio);
+    }
+}
@@ -0,0 +1,180 @@
+package com.novafarma.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas de contención de bloqueos sobre productos al registrar ventas
+ *
+ * Por producto acumula:
+ * - Espera por bloqueo: duración del SELECT ... FOR UPDATE ordenado del carrito.
+ *   La sentencia espera al producto más disputado, así que la espera se anota
+ *   a todos los productos del carrito (los más frecuentes destacan igual).
+ *   Con VENTA_EN_SERVIDOR el bloqueo ocurre dentro de registrar_venta y se anota
+ *   la llamada completa (incluye validación, inserts y el viaje de red)
+ * - Deadlocks (40P01) y conflictos de serialización (40001) que obligaron a
+ *   reintentar o cancelar una venta con ese producto
+ *
+ * Con el bloqueo ordenado los deadlocks deberían quedar en cero: la contención
+ * aparece como espera, no como ventas reintentadas.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class LockContentionMetrics {
+
+    /** SQLState de PostgreSQL: deadlock detectado */
+    static final String DEADLOCK = "40P01";
+
+    /** SQLState de PostgreSQL: conflicto de serialización */
+    static final String CONFLICTO_SERIALIZACION = "40001";
+
+    private static final LockContentionMetrics INSTANCIA = new LockContentionMetrics();
+
+    /** Contadores de un producto */
+    private static class Contadores {
+        final LongAdder bloqueos = new LongAdder();
+        final LongAdder esperaTotalNanos = new LongAdder();
+        final AtomicLong esperaMaximaNanos = new AtomicLong();
+        final LongAdder deadlocks = new LongAdder();
+        final LongAdder conflictosSerializacion = new LongAdder();
+    }
+
+    private final Map<Integer, Contadores> porProducto = new ConcurrentHashMap<>();
+
+    LockContentionMetrics() {
+    }
+
+    public static LockContentionMetrics getInstance() {
+        return INSTANCIA;
+    }
+
+    // ==================== REGISTRO ====================
+
+    /**
+     * Anota la espera del bloqueo ordenado de un carrito
+     *
+     * @param productosIds Productos bloqueados
+     * @param esperaNanos  Duración del SELECT ... FOR UPDATE
+     */
+    public void registrarEspera(Collection<Integer> productosIds, long esperaNanos) {
+        for (Integer productoId : productosIds) {
+            Contadores contadores = obtenerContadores(productoId);
+            contadores.bloqueos.increment();
+            contadores.esperaTotalNanos.add(esperaNanos);
+            contadores.esperaMaximaNanos.accumulateAndGet(esperaNanos, Math::max);
+        }
+    }
+
+    /**
+     * Anota un deadlock o conflicto de serialización de una venta
+     *
+     * @return true si el SQLState era uno de los dos (y se anotó)
+     */
+    public boolean registrarConflicto(Collection<Integer> productosIds, String estadoSql) {
+        boolean deadlock = DEADLOCK.equals(estadoSql);
+        if (!deadlock && !CONFLICTO_SERIALIZACION.equals(estadoSql)) {
+            return false;
+        }
+        for (Integer productoId : productosIds) {
+            Contadores contadores = obtenerContadores(productoId);
+            if (deadlock) {
+                contadores.deadlocks.increment();
+            } else {
+                contadores.conflictosSerializacion.increment();
+            }
+        }
+        return true;
+    }
+
+    private Contadores obtenerContadores(int productoId) {
+        return porProducto.computeIfAbsent(productoId, id -> new Contadores());
+    }
+
+    // ==================== CONSULTA ====================
+
+    /**
+     * Instantánea de los productos más disputados
+     *
+     * @param limite Máximo de productos a devolver
+     * @return Productos ordenados por espera total (y luego por reintentos), de mayor a menor
+     */
+    public List<EstadisticasProducto> obtenerEstadisticas(int limite) {
+        List<EstadisticasProducto> estadisticas = new ArrayList<>(porProducto.size());
+        for (Map.Entry<Integer, Contadores> entrada : porProducto.entrySet()) {
+            Contadores contadores = entrada.getValue();
+            long bloqueos = contadores.bloqueos.sum();
+            double esperaTotalMs = contadores.esperaTotalNanos.sum() / 1_000_000.0;
+            estadisticas.add(new EstadisticasProducto(
+                entrada.getKey(),
+                bloqueos,
+                esperaTotalMs,
+                bloqueos == 0 ? 0.0 : esperaTotalMs / bloqueos,
+                contadores.esperaMaximaNanos.get() / 1_000_000.0,
+                contadores.deadlocks.sum(),
+                contadores.conflictosSerializacion.sum()
+            ));
+        }
+        estadisticas.sort(Comparator.comparingDouble(EstadisticasProducto::getEsperaTotalMs)
+            .thenComparingLong(EstadisticasProducto::getReintentos)
+            .reversed());
+        return estadisticas.size() > limite ? new ArrayList<>(estadisticas.subList(0, limite)) : estadisticas;
+    }
+
+    /** Borra los contadores (p. ej. al empezar una medición) */
+    public void reiniciar() {
+        porProducto.clear();
+    }
+
+    /** Instantánea de métricas de un producto */
+    public static class EstadisticasProducto {
+        private final int productoId;
+        private final long bloqueos;
+        private final double esperaTotalMs;
+        private final double esperaPromedioMs;
+        private final double esperaMaximaMs;
+        private final long deadlocks;
+        private final long conflictosSerializacion;
+
+        public EstadisticasProducto(int productoId, long bloqueos, double esperaTotalMs,
+                                    double esperaPromedioMs, double esperaMaximaMs,
+                                    long deadlocks, long conflictosSerializacion) {
+            this.productoId = productoId;
+            this.bloqueos = bloqueos;
+            this.esperaTotalMs = esperaTotalMs;
+            this.esperaPromedioMs = esperaPromedioMs;
+            this.esperaMaximaMs = esperaMaximaMs;
+            this.deadlocks = deadlocks;
+            this.conflictosSerializacion = conflictosSerializacion;
+        }
+
+        // Getters
+        public int getProductoId() { return productoId; }
+        public long getBloqueos() { return bloqueos; }
+        public double getEsperaTotalMs() { return esperaTotalMs; }
+        public double getEsperaPromedioMs() { return esperaPromedioMs; }
+        public double getEsperaMaximaMs() { return esperaMaximaMs; }
+        public long getDeadlocks() { return deadlocks; }
+        public long getConflictosSerializacion() { return conflictosSerializacion; }
+
+        /** Ventas con este producto que hubo que reintentar o cancelar */
+        public long getReintentos() {
+            return deadlocks + conflictosSerializacion;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "Producto[%d] bloqueos=%d espera_total=%.2fms espera_prom=%.2fms espera_max=%.2fms " +
+                "deadlocks=%d serializacion=%d",
+                productoId, bloqueos, esperaTotalMs, esperaPromedioMs, esperaMaximaMs,
+                deadlocks, conflictosSerializacion);
+        }
+    }
+}
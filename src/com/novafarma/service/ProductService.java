@@ -2,9 +2,14 @@ package com.novafarma.service;
 
 import com.novafarma.dao.ProductDAO;
 import com.novafarma.model.Product;
+import com.novafarma.util.AsyncExecutor;
+import com.novafarma.util.QueryHandle;
+import com.novafarma.util.UnitOfWork;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /** Servicio de lógica de negocio para Productos */
 public class ProductService {
@@ -19,6 +24,11 @@ public class ProductService {
         return productDAO.obtenerProductosActivos();
     }
     
+    /** Recorre productos activos con cursor (sin cargar la lista completa) */
+    public long recorrerProductosActivos(Consumer<Product> procesador) throws SQLException {
+        return productDAO.recorrerProductosActivos(procesador);
+    }
+    
     public List<Product> obtenerProductosActivosPaginados(int limit, int offset) throws SQLException {
         return productDAO.obtenerProductosActivos(limit, offset);
     }
@@ -46,6 +56,11 @@ public class ProductService {
         return productDAO.buscarProductoPorNombre(nombre);
     }
     
+    /** Busca productos con stock por nombre (consulta cancelable) */
+    public List<Product> buscarProductosVendibles(String texto, int limite, QueryHandle cancelacion) throws SQLException {
+        return productDAO.buscarProductosVendibles(texto.trim(), limite, cancelacion);
+    }
+    
     /** Obtiene productos que vencen en ≤30 días */
     public List<Product> obtenerProductosPorVencer() throws SQLException {
         return productDAO.obtenerProductosPorVencer();
@@ -56,6 +71,41 @@ public class ProductService {
         return productDAO.obtenerProductosVencidos();
     }
     
+    // ==================== VERSIONES ASÍNCRONAS (LECTURA) ====================
+    // No bloquean el hilo de Swing; el resultado debe aplicarse con SwingUtilities.invokeLater
+    
+    public CompletableFuture<List<Product>> obtenerProductosActivosAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerProductosActivos);
+    }
+    
+    public CompletableFuture<List<Product>> obtenerProductosActivosPaginadosAsync(int limit, int offset) {
+        return AsyncExecutor.ejecutar(() -> obtenerProductosActivosPaginados(limit, offset));
+    }
+    
+    public CompletableFuture<Integer> contarProductosActivosAsync() {
+        return AsyncExecutor.ejecutar(this::contarProductosActivos);
+    }
+    
+    public CompletableFuture<Integer> contarProductosActivosConStockAsync() {
+        return AsyncExecutor.ejecutar(this::contarProductosActivosConStock);
+    }
+    
+    public CompletableFuture<Product> obtenerProductoPorIdAsync(int id) {
+        return AsyncExecutor.ejecutar(() -> obtenerProductoPorId(id));
+    }
+    
+    public CompletableFuture<List<Product>> buscarProductosVendiblesAsync(String texto, int limite, QueryHandle cancelacion) {
+        return AsyncExecutor.ejecutar(() -> buscarProductosVendibles(texto, limite, cancelacion));
+    }
+    
+    public CompletableFuture<List<Product>> obtenerProductosPorVencerAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerProductosPorVencer);
+    }
+    
+    public CompletableFuture<List<Product>> obtenerProductosVencidosAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerProductosVencidos);
+    }
+    
     /** Crea un nuevo producto con validaciones */
     public boolean crearProducto(Product producto) throws SQLException {
         validarProducto(producto);
@@ -74,6 +124,38 @@ public class ProductService {
         return productDAO.actualizarProducto(producto);
     }
     
+    /**
+     * Crea el producto y lo vuelve a leer (con su id) en la misma transacción
+     * 
+     * @return Producto guardado, o null si no se insertó
+     */
+    public Product crearYObtenerProducto(Product producto) throws SQLException {
+        try (UnitOfWork unidad = UnitOfWork.iniciar()) {
+            if (!crearProducto(producto)) {
+                return null;
+            }
+            Product creado = productDAO.buscarProductoPorNombre(producto.getNombre());
+            unidad.confirmar();
+            return creado;
+        }
+    }
+    
+    /**
+     * Actualiza el producto y lo vuelve a leer en la misma transacción
+     * 
+     * @return Producto actualizado, o null si no se modificó
+     */
+    public Product actualizarYObtenerProducto(Product producto) throws SQLException {
+        try (UnitOfWork unidad = UnitOfWork.iniciar()) {
+            if (!actualizarProducto(producto)) {
+                return null;
+            }
+            Product actualizado = productDAO.buscarProductoPorId(producto.getId());
+            unidad.confirmar();
+            return actualizado;
+        }
+    }
+    
     /** Desactiva producto (soft delete) */
     public boolean desactivarProducto(int productId) throws SQLException {
         return productDAO.desactivarProducto(productId);
@@ -93,7 +175,7 @@ public class ProductService {
             throw new IllegalArgumentException("El nombre del producto es obligatorio");
         }
         
-        if (producto.getPrecio() <= 0) {
+        if (producto.getPrecio() == null || !producto.getPrecio().esPositivo()) {
             throw new IllegalArgumentException("El precio debe ser mayor a 0");
         }
         
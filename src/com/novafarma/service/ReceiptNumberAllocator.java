@@ -0,0 +1,212 @@
+package com.novafarma.service;
+
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.dao.ReceiptSeriesDAO;
+import com.novafarma.model.Receipt;
+import com.novafarma.util.AsyncExecutor;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Asigna números correlativos a los comprobantes sin ir a la base en cada venta
+ *
+ * Cada serie tiene en memoria los números reservados por esta caja (bloques de
+ * NUMERACION_TAMANO_BLOQUE). Asignar un número solo toma el menor libre; con
+ * menos de NUMERACION_MINIMO_LIBRES se reserva otro bloque en segundo plano.
+ * Solo se espera a la base si la serie se quedó sin números.
+ *
+ * SIN HUECOS:
+ * - Validación fallida (no se insertó nada): el número vuelve a la serie
+ *   con devolver() y lo toma la siguiente venta
+ * - Error de base de datos: no se sabe si el comprobante quedó registrado,
+ *   así que el número no se reutiliza en esta sesión
+ * - Al arrancar, antes de la primera reserva, se devuelven a la base los números
+ *   de esta caja sin comprobante (reconciliar_bloques); otras cajas los usan
+ *   antes que números nuevos. Los números quedan sin huecos pero no en orden
+ *   cronológico
+ *
+ * Las reservas usan su propia conexión (hilo de AsyncExecutor), nunca la
+ * UnitOfWork de la venta: un rollback de la venta no deshace la reserva.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class ReceiptNumberAllocator {
+
+    private static final ReceiptNumberAllocator INSTANCIA =
+        new ReceiptNumberAllocator(new ReceiptSeriesDAO(), DatabaseConfig.TERMINAL_ID);
+
+    private final ReceiptSeriesDAO seriesDAO;
+    private final String terminal;
+
+    /** Números reservados y sin asignar, por serie */
+    private final Map<String, TreeSet<Integer>> libres = new HashMap<>();
+
+    /** Reserva en curso por serie (una a la vez) */
+    private final Map<String, CompletableFuture<Void>> reservasEnCurso = new HashMap<>();
+
+    private boolean reconciliado;
+
+    ReceiptNumberAllocator(ReceiptSeriesDAO seriesDAO, String terminal) {
+        this.seriesDAO = seriesDAO;
+        this.terminal = terminal;
+    }
+
+    public static ReceiptNumberAllocator getInstance() {
+        return INSTANCIA;
+    }
+
+    /**
+     * Reconcilia los bloques de esta caja y reserva números de ambas series en
+     * segundo plano, para que la primera venta no espere a la base
+     * No hace nada si DatabaseConfig.NUMERACION_HABILITADA es false
+     */
+    public static void iniciar() {
+        if (!DatabaseConfig.NUMERACION_HABILITADA) {
+            return;
+        }
+        INSTANCIA.reservar(DatabaseConfig.SERIE_BOLETA);
+        INSTANCIA.reservar(DatabaseConfig.SERIE_FACTURA);
+    }
+
+    /** Serie que corresponde al tipo de comprobante */
+    public static String obtenerSerie(String tipo) {
+        return Receipt.TIPO_FACTURA.equals(tipo) ? DatabaseConfig.SERIE_FACTURA : DatabaseConfig.SERIE_BOLETA;
+    }
+
+    // ==================== ASIGNACIÓN ====================
+
+    /**
+     * Asigna serie y número al comprobante (no hace nada si ya está numerado)
+     *
+     * @param comprobante Comprobante a numerar
+     * @throws SQLException Si la serie no tenía números y falló la reserva de otro bloque
+     */
+    public void asignar(Receipt comprobante) throws SQLException {
+        if (comprobante.isNumerado()) {
+            return;
+        }
+        String serie = obtenerSerie(comprobante.getTipo());
+        Integer numero = tomarLibre(serie);
+        // Sin números: esperar la reserva (la que está en curso o una nueva).
+        // Otras ventas pueden agotar el bloque recién llegado: se vuelve a esperar
+        while (numero == null) {
+            esperar(reservar(serie));
+            numero = tomarLibre(serie);
+        }
+        comprobante.setSerie(serie);
+        comprobante.setNumero(numero);
+    }
+
+    /**
+     * Devuelve el número de un comprobante que NO se registró (validación fallida)
+     * La siguiente venta de la serie lo reutiliza
+     */
+    public void devolver(Receipt comprobante) {
+        if (!comprobante.isNumerado()) {
+            return;
+        }
+        synchronized (this) {
+            libres.computeIfAbsent(comprobante.getSerie(), s -> new TreeSet<>()).add(comprobante.getNumero());
+        }
+        comprobante.setSerie(null);
+        comprobante.setNumero(null);
+    }
+
+    /** Toma el menor número libre; pide otro bloque si quedan pocos */
+    private Integer tomarLibre(String serie) {
+        Integer numero;
+        boolean pocos;
+        synchronized (this) {
+            TreeSet<Integer> numeros = libres.get(serie);
+            numero = numeros == null ? null : numeros.pollFirst();
+            pocos = numeros == null || numeros.size() < DatabaseConfig.NUMERACION_MINIMO_LIBRES;
+        }
+        if (numero != null && pocos) {
+            reservar(serie);
+        }
+        return numero;
+    }
+
+    /** Números libres de una serie (para diagnóstico) */
+    public synchronized int contarLibres(String serie) {
+        TreeSet<Integer> numeros = libres.get(serie);
+        return numeros == null ? 0 : numeros.size();
+    }
+
+    // ==================== RESERVA ====================
+
+    /**
+     * Reserva otro bloque en segundo plano (si ya hay una reserva en curso de la serie, la devuelve)
+     */
+    private synchronized CompletableFuture<Void> reservar(String serie) {
+        CompletableFuture<Void> enCurso = reservasEnCurso.get(serie);
+        if (enCurso != null) {
+            return enCurso;
+        }
+        CompletableFuture<Void> reserva = AsyncExecutor.ejecutar(() -> {
+            reservarAhora(serie);
+            return (Void) null;
+        });
+        reservasEnCurso.put(serie, reserva);
+        reserva.whenComplete((r, error) -> {
+            synchronized (this) {
+                reservasEnCurso.remove(serie, reserva);
+            }
+            if (error != null) {
+                System.err.println("No se pudieron reservar números de la serie " + serie + ": " +
+                    AsyncExecutor.obtenerCausa(error).getMessage());
+            }
+        });
+        return reserva;
+    }
+
+    private void reservarAhora(String serie) throws SQLException {
+        reconciliarSiHaceFalta();
+        for (ReceiptSeriesDAO.Bloque bloque : seriesDAO.reservarNumeros(serie, terminal,
+                DatabaseConfig.NUMERACION_TAMANO_BLOQUE)) {
+            synchronized (this) {
+                TreeSet<Integer> numeros = libres.computeIfAbsent(serie, s -> new TreeSet<>());
+                for (int numero = bloque.getDesde(); numero <= bloque.getHasta(); numero++) {
+                    numeros.add(numero);
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve los números sin usar de sesiones anteriores de esta caja
+     * Una sola vez y antes de la primera reserva: reconciliar después cerraría
+     * bloques que esta sesión todavía está usando
+     */
+    private void reconciliarSiHaceFalta() throws SQLException {
+        synchronized (seriesDAO) {
+            if (reconciliado) {
+                return;
+            }
+            int devueltos = seriesDAO.reconciliarBloques(terminal);
+            if (devueltos > 0) {
+                System.out.println("Numeración: " + devueltos + " números sin usar de " + terminal +
+                    " devueltos a sus series");
+            }
+            reconciliado = true;
+        }
+    }
+
+    private static void esperar(CompletableFuture<Void> reserva) throws SQLException {
+        try {
+            reserva.join();
+        } catch (CompletionException e) {
+            Throwable causa = AsyncExecutor.obtenerCausa(e);
+            if (causa instanceof SQLException) {
+                throw (SQLException) causa;
+            }
+            throw new SQLException("No se pudieron reservar números: " + causa.getMessage(), causa);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.novafarma.service;
+
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.model.Receipt;
+import com.novafarma.model.Sale;
+import com.novafarma.util.DatabaseConnection;
+import com.novafarma.util.UnitOfWork;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cola de registro de ventas con confirmación agrupada (group commit)
+ *
+ * PROBLEMA: en horas pico varias cajas confirman carritos pequeños a la vez;
+ * cada uno hace su propio commit y espera el fsync del servidor.
+ *
+ * FUNCIONAMIENTO:
+ * - Un único hilo escritor toma el primer comprobante de la cola y espera
+ *   hasta VENTA_AGRUPADA_ESPERA_MS por más (máximo VENTA_AGRUPADA_MAX_LOTE)
+ * - Todos se registran en UNA transacción y UN commit
+ * - Cada comprobante va dentro de su propio SAVEPOINT: si uno falla
+ *   (stock, producto vencido, error SQL) solo se revierte ese
+ * - Cada llamador recibe su propio resultado cuando el commit terminó
+ * - Errores transitorios (conexión perdida, commit sin respuesta, deadlock):
+ *   el futuro del comprobante afectado (o de todo el grupo, si falló el
+ *   commit) termina con la SQLException y SaleService reintenta ese
+ *   comprobante solo, con su misma clave de idempotencia (si el commit sí
+ *   llegó, el reintento devuelve el comprobante ya registrado)
+ * - Otros errores del commit: todos los del grupo reciben el error
+ *
+ * Mientras el escritor confirma un grupo, las ventas nuevas se acumulan
+ * para el siguiente: con más cajas, más ventas por commit.
+ *
+ * Se activa con DatabaseConfig.VENTA_AGRUPADA_HABILITADA.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class SaleIngestionQueue {
+
+    private static final SaleIngestionQueue INSTANCIA = new SaleIngestionQueue(
+        DatabaseConfig.VENTA_AGRUPADA_ESPERA_MS,
+        DatabaseConfig.VENTA_AGRUPADA_MAX_LOTE
+    );
+
+    /** Comprobante en espera y el futuro que recibe su resultado */
+    private static class Pedido {
+        final Receipt comprobante;
+        final CompletableFuture<SaleService.SaleResult> resultado = new CompletableFuture<>();
+        SaleService.SaleResult resultadoRegistro;
+        SQLException errorTransitorio;
+
+        Pedido(Receipt comprobante) {
+            this.comprobante = comprobante;
+        }
+    }
+
+    private final long esperaMs;
+    private final int maxLote;
+    private final BlockingQueue<Pedido> cola = new LinkedBlockingQueue<>();
+    private final SaleService saleService = new SaleService();
+    private Thread escritor;
+
+    // Métricas
+    private final LongAdder gruposConfirmados = new LongAdder();
+    private final LongAdder comprobantesProcesados = new LongAdder();
+
+    SaleIngestionQueue(long esperaMs, int maxLote) {
+        this.esperaMs = esperaMs;
+        this.maxLote = maxLote;
+    }
+
+    public static SaleIngestionQueue getInstance() {
+        return INSTANCIA;
+    }
+
+    /**
+     * Encola un comprobante ya validado en sus datos básicos
+     *
+     * @return Futuro con el resultado, completado después del commit del grupo;
+     *         termina con la SQLException si el error es transitorio (reintentar)
+     */
+    public CompletableFuture<SaleService.SaleResult> enviar(Receipt comprobante) {
+        Pedido pedido = new Pedido(comprobante);
+        iniciarEscritorSiHaceFalta();
+        cola.add(pedido);
+        return pedido.resultado;
+    }
+
+    /** Promedio de comprobantes por commit (1.0 = sin agrupación) */
+    public double obtenerPromedioPorGrupo() {
+        long grupos = gruposConfirmados.sum();
+        return grupos == 0 ? 0.0 : (double) comprobantesProcesados.sum() / grupos;
+    }
+
+    private synchronized void iniciarEscritorSiHaceFalta() {
+        if (escritor != null) {
+            return;
+        }
+        escritor = new Thread(this::procesarCola, "ventas-agrupadas");
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    private void procesarCola() {
+        while (true) {
+            List<Pedido> grupo = new ArrayList<>();
+            try {
+                grupo.add(cola.take());
+
+                // Esperar un poco a otras cajas que estén confirmando a la vez
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+                while (grupo.size() < maxLote) {
+                    long restante = limite - System.nanoTime();
+                    Pedido siguiente = restante > 0
+                        ? cola.poll(restante, TimeUnit.NANOSECONDS)
+                        : cola.poll();
+                    if (siguiente == null) {
+                        break;
+                    }
+                    grupo.add(siguiente);
+                }
+
+                registrarGrupo(grupo);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Pedido pedido : grupo) {
+                    pedido.resultado.completeExceptionally(e);
+                }
+                return;
+            } catch (RuntimeException e) {
+                // Nunca dejar un llamador esperando para siempre
+                e.printStackTrace();
+                for (Pedido pedido : grupo) {
+                    pedido.resultado.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registra todos los comprobantes del grupo en una transacción y un commit
+     */
+    private void registrarGrupo(List<Pedido> grupo) {
+        try (UnitOfWork unidad = UnitOfWork.iniciar()) {
+            Connection conexion = DatabaseConnection.getConnection();
+
+            if (DatabaseConfig.VENTA_BLOQUEO_ORDENADO) {
+                // Todos los productos del grupo en orden de id, antes del primer comprobante:
+                // bloquear carrito por carrito no sigue un orden global dentro de la transacción
+                Set<Integer> ids = new HashSet<>();
+                for (Pedido pedido : grupo) {
+                    for (Sale venta : pedido.comprobante.getLineas()) {
+                        ids.add(venta.getProductoId());
+                    }
+                }
+                saleService.bloquearProductos(ids);
+            }
+
+            for (Pedido pedido : grupo) {
+                registrarConSavepoint(conexion, pedido);
+            }
+
+            unidad.confirmar();
+            gruposConfirmados.increment();
+            comprobantesProcesados.add(grupo.size());
+
+            for (Pedido pedido : grupo) {
+                if (pedido.errorTransitorio != null) {
+                    pedido.resultado.completeExceptionally(pedido.errorTransitorio);
+                } else {
+                    pedido.resultado.complete(pedido.resultadoRegistro);
+                }
+            }
+
+        } catch (SQLException e) {
+            // Falló la conexión o el commit: el grupo no quedó registrado (o el
+            // commit llegó y se perdió su respuesta; la clave de cada comprobante lo resuelve)
+            System.err.println("Error al confirmar un grupo de " + grupo.size() + " ventas: " + e.getMessage());
+            boolean transitorio = SaleService.esErrorTransitorio(e);
+            for (Pedido pedido : grupo) {
+                if (transitorio) {
+                    pedido.resultado.completeExceptionally(e);
+                } else {
+                    pedido.resultado.complete(SaleService.resultadoDeError(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Registra un comprobante dentro de su propio savepoint
+     * Si falla, solo se revierte ese comprobante; el resto del grupo sigue.
+     * Deja el resultado en el pedido (o el error, si es transitorio)
+     */
+    private void registrarConSavepoint(Connection conexion, Pedido pedido) throws SQLException {
+        Receipt comprobante = pedido.comprobante;
+        // Un reintento si registrar_venta no está instalada (se valida desde el cliente)
+        for (int intento = 0; ; intento++) {
+            Savepoint savepoint = conexion.setSavepoint();
+            try {
+                SaleService.SaleResult resultado = saleService.registrarEnTransaccion(comprobante);
+                if (resultado.isSuccess()) {
+                    conexion.releaseSavepoint(savepoint);
+                } else {
+                    conexion.rollback(savepoint);
+                }
+                pedido.resultadoRegistro = resultado;
+                return;
+
+            } catch (SQLException e) {
+                conexion.rollback(savepoint);
+                SaleService.registrarConflicto(comprobante, e);
+                if (intento == 0 && SaleService.desactivarSiFaltaFuncion(e)) {
+                    continue;
+                }
+                // Deadlock o conflicto de serialización: se reintenta fuera del grupo
+                if (SaleService.esErrorTransitorio(e)) {
+                    pedido.errorTransitorio = e;
+                } else {
+                    pedido.resultadoRegistro = SaleService.resultadoDeError(e);
+                }
+                return;
+            }
+        }
+    }
+}
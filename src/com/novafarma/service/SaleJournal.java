@@ -0,0 +1,408 @@
+package com.novafarma.service;
+
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.model.Money;
+import com.novafarma.model.Receipt;
+import com.novafarma.model.Sale;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Diario local de ventas (solo se agrega al final)
+ *
+ * Registra cada comprobante en el disco local ANTES de enviarlo a la base de
+ * datos; SaleJournalReplayer lo aplica después en orden. La venta no espera
+ * a PostgreSQL y un reinicio no pierde ventas.
+ *
+ * FORMATO: archivos de segmento de tamaño fijo (diario-000001.log, ...);
+ * el segmento activo está mapeado en memoria. Cada registro:
+ * <pre>
+ *   int  longitud del contenido (0 = fin de los datos del segmento)
+ *   int  CRC32 del contenido
+ *   long secuencia
+ *   byte estado (PENDIENTE / APLICADO / CONFLICTO)
+ *   byte[] contenido (comprobante serializado)
+ * </pre>
+ *
+ * RECUPERACIÓN: al abrir se recorren los segmentos; un registro con CRC
+ * incorrecto es una escritura cortada (caída durante el append): ahí termina
+ * el diario. Los segmentos sin pendientes se borran.
+ *
+ * FECHA: el comprobante guarda la hora de la caja al registrarse en el diario
+ * (fecha de emisión) y se aplica con esa fecha, no con la de la sincronización.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class SaleJournal {
+
+    public static final byte PENDIENTE = 0;
+    public static final byte APLICADO = 1;
+    public static final byte CONFLICTO = 2;
+
+    private static final int TAMANO_CABECERA = 4 + 4 + 8 + 1;
+    private static final int POSICION_ESTADO = 16;
+    private static final String PREFIJO = "diario-";
+    private static final String EXTENSION = ".log";
+
+    private static SaleJournal instancia;
+
+    /** Registro del diario aún no aplicado en la base de datos */
+    public static class Entrada {
+        private final Segmento segmento;
+        private final int posicion;
+        private final long secuencia;
+        private final String clave;
+        private final Receipt comprobante;
+
+        private Entrada(Segmento segmento, int posicion, long secuencia, String clave, Receipt comprobante) {
+            this.segmento = segmento;
+            this.posicion = posicion;
+            this.secuencia = secuencia;
+            this.clave = clave;
+            this.comprobante = comprobante;
+        }
+
+        public long getSecuencia() {
+            return secuencia;
+        }
+
+        /** Clave de idempotencia del comprobante */
+        public String getClave() {
+            return clave;
+        }
+
+        public Receipt getComprobante() {
+            return comprobante;
+        }
+    }
+
+    /** Archivo de segmento */
+    private static class Segmento {
+        final int numero;
+        final Path archivo;
+        final FileChannel canal;
+        MappedByteBuffer mapa;      // solo el segmento activo
+        int pendientes;
+
+        Segmento(int numero, Path archivo, FileChannel canal) {
+            this.numero = numero;
+            this.archivo = archivo;
+            this.canal = canal;
+        }
+    }
+
+    private final Path directorio;
+    private final int tamanoSegmento;
+    private final Deque<Entrada> pendientes = new ArrayDeque<>();
+    private Segmento activo;
+    private int posicionEscritura;
+    private long ultimaSecuencia;
+
+    SaleJournal(Path directorio, int tamanoSegmento) throws IOException {
+        this.directorio = directorio;
+        this.tamanoSegmento = tamanoSegmento;
+        Files.createDirectories(directorio);
+        recuperar();
+    }
+
+    /**
+     * Diario configurado en DatabaseConfig (se abre y recupera la primera vez)
+     */
+    public static synchronized SaleJournal getInstance() throws IOException {
+        if (instancia == null) {
+            instancia = new SaleJournal(Paths.get(DatabaseConfig.DIARIO_VENTAS_DIRECTORIO),
+                                        DatabaseConfig.DIARIO_TAMANO_SEGMENTO_BYTES);
+        }
+        return instancia;
+    }
+
+    /**
+     * Agrega un comprobante al diario y lo fuerza al disco
+     *
+     * @return Entrada registrada (pendiente de aplicar)
+     * @throws IOException Si no se pudo escribir: la venta NO quedó registrada
+     */
+    public synchronized Entrada registrar(Receipt comprobante) throws IOException {
+        if (comprobante.getClaveIdempotencia() == null) {
+            comprobante.setClaveIdempotencia(UUID.randomUUID());
+        }
+        // La fecha de la venta es la de la caja, no la de la sincronización
+        if (comprobante.getFechaEmision() == null) {
+            comprobante.setFechaEmision(new Timestamp(System.currentTimeMillis()));
+        }
+        String clave = comprobante.getClaveIdempotencia().toString();
+        byte[] contenido = serializar(clave, comprobante);
+        int tamanoRegistro = TAMANO_CABECERA + contenido.length;
+
+        if (tamanoRegistro + 4 > tamanoSegmento) {
+            throw new IOException("Comprobante demasiado grande para el diario (" + tamanoRegistro + " bytes)");
+        }
+        // Se deja siempre espacio para el 0 que marca el fin de los datos
+        if (posicionEscritura + tamanoRegistro + 4 > tamanoSegmento) {
+            abrirSegmentoNuevo(activo.numero + 1);
+        }
+
+        long secuencia = ultimaSecuencia + 1;
+        CRC32 crc = new CRC32();
+        crc.update(contenido);
+
+        MappedByteBuffer mapa = activo.mapa;
+        int posicion = posicionEscritura;
+        mapa.putInt(posicion + 4, (int) crc.getValue());
+        mapa.putLong(posicion + 8, secuencia);
+        mapa.put(posicion + POSICION_ESTADO, PENDIENTE);
+        mapa.put(posicion + TAMANO_CABECERA, contenido);
+        mapa.putInt(posicion, contenido.length);
+        mapa.force(posicion, tamanoRegistro);
+
+        ultimaSecuencia = secuencia;
+        posicionEscritura += tamanoRegistro;
+
+        Entrada entrada = new Entrada(activo, posicion, secuencia, clave, comprobante);
+        pendientes.addLast(entrada);
+        activo.pendientes++;
+        notifyAll();
+        return entrada;
+    }
+
+    /** Primer registro pendiente (en orden), o null si no hay */
+    public synchronized Entrada siguientePendiente() {
+        return pendientes.peekFirst();
+    }
+
+    /**
+     * Espera hasta que haya un registro pendiente o pase el tiempo
+     *
+     * @return Primer pendiente, o null si no llegó ninguno
+     */
+    public synchronized Entrada esperarPendiente(long esperaMs) throws InterruptedException {
+        if (pendientes.isEmpty()) {
+            wait(esperaMs);
+        }
+        return pendientes.peekFirst();
+    }
+
+    public synchronized int contarPendientes() {
+        return pendientes.size();
+    }
+
+    /**
+     * Marca el primer pendiente como aplicado o en conflicto
+     * Un segmento viejo sin pendientes se borra
+     */
+    public synchronized void marcar(Entrada entrada, byte estado) throws IOException {
+        if (pendientes.peekFirst() != entrada) {
+            throw new IllegalStateException("Los registros del diario se marcan en orden");
+        }
+
+        Segmento segmento = entrada.segmento;
+        int posicionEstado = entrada.posicion + POSICION_ESTADO;
+        if (segmento.mapa != null) {
+            segmento.mapa.put(posicionEstado, estado);
+            segmento.mapa.force(posicionEstado, 1);
+        } else {
+            segmento.canal.write(ByteBuffer.wrap(new byte[]{estado}), posicionEstado);
+            segmento.canal.force(false);
+        }
+
+        pendientes.removeFirst();
+        segmento.pendientes--;
+        if (segmento.pendientes == 0 && segmento != activo) {
+            borrarSegmento(segmento);
+        }
+    }
+
+    // ==================== SEGMENTOS ====================
+
+    /**
+     * Recorre los segmentos existentes, descarta el final cortado y
+     * carga los registros pendientes
+     */
+    private void recuperar() throws IOException {
+        List<Path> archivos = new ArrayList<>();
+        try (DirectoryStream<Path> listado = Files.newDirectoryStream(directorio, PREFIJO + "*" + EXTENSION)) {
+            for (Path archivo : listado) {
+                archivos.add(archivo);
+            }
+        }
+        archivos.sort(null);
+
+        Segmento ultimo = null;
+        int finUltimo = 0;
+        for (Path archivo : archivos) {
+            int numero = Integer.parseInt(archivo.getFileName().toString()
+                .substring(PREFIJO.length(), archivo.getFileName().toString().length() - EXTENSION.length()));
+            FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segmento segmento = new Segmento(numero, archivo, canal);
+
+            ByteBuffer datos = ByteBuffer.allocate((int) canal.size());
+            while (datos.hasRemaining() && canal.read(datos, datos.position()) > 0) {
+                // leer el segmento completo
+            }
+            int fin = leerRegistros(segmento, datos);
+
+            if (ultimo != null && ultimo.pendientes == 0) {
+                borrarSegmento(ultimo);
+            }
+            ultimo = segmento;
+            finUltimo = fin;
+        }
+
+        if (ultimo == null) {
+            abrirSegmentoNuevo(1);
+            return;
+        }
+
+        // El último segmento sigue siendo el activo
+        activo = ultimo;
+        activo.mapa = activo.canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanoSegmento);
+        posicionEscritura = finUltimo;
+        if (posicionEscritura + 4 <= tamanoSegmento) {
+            // Borrar el resto de una escritura cortada
+            activo.mapa.putInt(posicionEscritura, 0);
+            activo.mapa.force(posicionEscritura, 4);
+        }
+        System.out.println("Diario de ventas: " + pendientes.size() + " ventas pendientes de sincronizar");
+    }
+
+    /**
+     * Lee los registros válidos de un segmento
+     *
+     * @return Posición donde terminan los datos válidos
+     */
+    private int leerRegistros(Segmento segmento, ByteBuffer datos) {
+        int posicion = 0;
+        while (posicion + TAMANO_CABECERA <= datos.capacity()) {
+            int longitud = datos.getInt(posicion);
+            if (longitud <= 0 || posicion + TAMANO_CABECERA + longitud > datos.capacity()) {
+                break;
+            }
+
+            byte[] contenido = new byte[longitud];
+            datos.get(posicion + TAMANO_CABECERA, contenido);
+            CRC32 crc = new CRC32();
+            crc.update(contenido);
+            if ((int) crc.getValue() != datos.getInt(posicion + 4)) {
+                System.err.println("Diario de ventas: registro incompleto en " + segmento.archivo +
+                    " (posición " + posicion + "), se descarta");
+                break;
+            }
+
+            long secuencia = datos.getLong(posicion + 8);
+            ultimaSecuencia = Math.max(ultimaSecuencia, secuencia);
+            if (datos.get(posicion + POSICION_ESTADO) == PENDIENTE) {
+                try {
+                    Entrada entrada = deserializar(segmento, posicion, secuencia, contenido);
+                    pendientes.addLast(entrada);
+                    segmento.pendientes++;
+                } catch (IOException e) {
+                    System.err.println("Diario de ventas: registro ilegible (secuencia " + secuencia + ")");
+                    e.printStackTrace();
+                }
+            }
+            posicion += TAMANO_CABECERA + longitud;
+        }
+        return posicion;
+    }
+
+    private void abrirSegmentoNuevo(int numero) throws IOException {
+        Segmento anterior = activo;
+
+        Path archivo = directorio.resolve(String.format("%s%06d%s", PREFIJO, numero, EXTENSION));
+        FileChannel canal = FileChannel.open(archivo, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segmento segmento = new Segmento(numero, archivo, canal);
+        segmento.mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanoSegmento);
+        canal.force(true);
+
+        activo = segmento;
+        posicionEscritura = 0;
+
+        if (anterior != null) {
+            anterior.mapa.force();
+            anterior.mapa = null;   // los cambios de estado van por el canal
+            if (anterior.pendientes == 0) {
+                borrarSegmento(anterior);
+            }
+        }
+    }
+
+    private void borrarSegmento(Segmento segmento) {
+        try {
+            segmento.canal.close();
+            Files.deleteIfExists(segmento.archivo);
+        } catch (IOException e) {
+            // En Windows un archivo que estuvo mapeado puede seguir bloqueado:
+            // se borra al recuperar en el próximo inicio
+            System.err.println("Diario de ventas: no se pudo borrar " + segmento.archivo + ": " + e.getMessage());
+        }
+    }
+
+    // ==================== SERIALIZACIÓN ====================
+
+    private static byte[] serializar(String clave, Receipt comprobante) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeUTF(clave);
+            salida.writeLong(comprobante.getFechaEmision().getTime());
+            salida.writeInt(comprobante.getUsuarioId());
+            salida.writeUTF(comprobante.getTipo());
+            salida.writeUTF(comprobante.getCliente() != null ? comprobante.getCliente() : "");
+            salida.writeUTF(comprobante.getDniRuc() != null ? comprobante.getDniRuc() : "");
+            salida.writeInt(comprobante.getLineas().size());
+            for (Sale linea : comprobante.getLineas()) {
+                salida.writeInt(linea.getProductoId());
+                salida.writeInt(linea.getCantidad());
+                salida.writeLong(linea.getPrecioUnitario().getCentimos());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entrada deserializar(Segmento segmento, int posicion, long secuencia,
+                                        byte[] contenido) throws IOException {
+        try (DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(contenido))) {
+            String clave = entrada.readUTF();
+            long fechaVenta = entrada.readLong();
+            int usuarioId = entrada.readInt();
+            String tipo = entrada.readUTF();
+            String cliente = entrada.readUTF();
+            String dniRuc = entrada.readUTF();
+            int cantidadLineas = entrada.readInt();
+
+            List<Sale> lineas = new ArrayList<>(cantidadLineas);
+            for (int i = 0; i < cantidadLineas; i++) {
+                int productoId = entrada.readInt();
+                int cantidad = entrada.readInt();
+                Money precioUnitario = Money.deCentimos(entrada.readLong());
+                lineas.add(new Sale(productoId, usuarioId, cantidad, precioUnitario));
+            }
+
+            Receipt comprobante = new Receipt(tipo, cliente.isEmpty() ? null : cliente,
+                                              dniRuc.isEmpty() ? null : dniRuc, usuarioId, lineas);
+            comprobante.setClaveIdempotencia(UUID.fromString(clave));
+            comprobante.setFechaEmision(new Timestamp(fechaVenta));
+            return new Entrada(segmento, posicion, secuencia, clave, comprobante);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.novafarma.service;
+
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.util.CircuitBreaker;
+import com.novafarma.util.DatabaseConnection;
+import com.novafarma.util.UnitOfWork;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.LocalDateTime;
+
+/**
+ * Sincroniza el diario local de ventas con la base de datos
+ *
+ * Un único hilo en segundo plano aplica los registros pendientes EN ORDEN,
+ * cada uno en su propia transacción (misma validación que una venta normal).
+ *
+ * - Error transitorio (conexión, deadlock): se espera DIARIO_REINTENTO_MS (o a que el circuito de
+ *   DatabaseConnection vuelva a CERRADO) y se reintenta el mismo registro
+ * - Validación fallida u otro error SQL (p. ej. ya no hay stock): el registro
+ *   se marca CONFLICTO y se anota en conflictos.log para revisión manual
+ *
+ * ENTREGA: al menos una vez. Si la aplicación se cierra después del commit y
+ * antes de marcar el registro, la venta se vuelve a enviar al reiniciar; la
+ * clave de idempotencia del comprobante evita que se registre dos veces.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class SaleJournalReplayer {
+
+    private static final String ARCHIVO_CONFLICTOS = "conflictos.log";
+
+    private static SaleJournalReplayer instancia;
+
+    private final SaleJournal diario;
+    private final SaleService saleService = new SaleService();
+    private final Object senal = new Object();
+    private Thread hilo;
+
+    private SaleJournalReplayer(SaleJournal diario) {
+        this.diario = diario;
+    }
+
+    /**
+     * Abre el diario e inicia la sincronización (solo la primera vez)
+     * No hace nada si DatabaseConfig.DIARIO_VENTAS_HABILITADO es false
+     */
+    public static synchronized void iniciar() {
+        if (!DatabaseConfig.DIARIO_VENTAS_HABILITADO || instancia != null) {
+            return;
+        }
+        try {
+            instancia = new SaleJournalReplayer(SaleJournal.getInstance());
+            instancia.arrancar();
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir el diario de ventas: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void arrancar() {
+        // Reintentar en cuanto la base vuelva, sin esperar el siguiente ciclo
+        DatabaseConnection.agregarObservadorSalud(estado -> {
+            if (estado == CircuitBreaker.Estado.CERRADO) {
+                despertar();
+            }
+        });
+
+        hilo = new Thread(this::sincronizar, "diario-ventas");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    private void despertar() {
+        synchronized (senal) {
+            senal.notifyAll();
+        }
+    }
+
+    private void sincronizar() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                SaleJournal.Entrada entrada = diario.esperarPendiente(DatabaseConfig.DIARIO_REINTENTO_MS);
+                if (entrada == null) {
+                    continue;
+                }
+                if (!aplicar(entrada)) {
+                    synchronized (senal) {
+                        senal.wait(DatabaseConfig.DIARIO_REINTENTO_MS);
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error en la sincronización del diario de ventas: " + e.getMessage());
+                e.printStackTrace();
+                try {
+                    Thread.sleep(DatabaseConfig.DIARIO_REINTENTO_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Aplica un registro en su propia transacción
+     *
+     * @return false si la base no está disponible (reintentar más tarde)
+     */
+    private boolean aplicar(SaleJournal.Entrada entrada) throws IOException {
+        SaleService.SaleResult resultado;
+        try {
+            // Numerada al aplicarse; si hay que reintentar conserva el mismo número
+            SaleService.asignarNumero(entrada.getComprobante());
+        } catch (SQLException e) {
+            System.err.println("No se pudo numerar la venta del diario: " + e.getMessage());
+            return false;
+        }
+        try (UnitOfWork unidad = UnitOfWork.iniciar()) {
+            resultado = registrarConReintento(entrada);
+            if (resultado.isSuccess()) {
+                unidad.confirmar();
+            }
+        } catch (SQLException e) {
+            SaleService.registrarConflicto(entrada.getComprobante(), e);
+            if (SaleService.esErrorTransitorio(e)) {
+                return false;
+            }
+            resultado = SaleService.resultadoDeError(e);
+        }
+
+        if (resultado.isSuccess()) {
+            diario.marcar(entrada, SaleJournal.APLICADO);
+            ElectronicInvoiceQueue.avisar();
+        } else {
+            registrarConflicto(entrada, resultado);
+            diario.marcar(entrada, SaleJournal.CONFLICTO);
+        }
+        return true;
+    }
+
+    private SaleService.SaleResult registrarConReintento(SaleJournal.Entrada entrada) throws SQLException {
+        try {
+            return saleService.registrarEnTransaccion(entrada.getComprobante());
+        } catch (SQLException e) {
+            if (!SaleService.desactivarSiFaltaFuncion(e)) {
+                throw e;
+            }
+            // La transacción quedó abortada: se reintenta en una nueva
+            throw new SQLTransientConnectionException("registrar_venta no disponible, se reintenta", "08000", e);
+        }
+    }
+
+    /** Anota un registro que no se pudo aplicar en conflictos.log */
+    private void registrarConflicto(SaleJournal.Entrada entrada, SaleService.SaleResult resultado) {
+        StringBuilder linea = new StringBuilder();
+        linea.append(LocalDateTime.now())
+             .append(" | secuencia=").append(entrada.getSecuencia())
+             .append(" | clave=").append(entrada.getClave())
+             .append(" | ").append(entrada.getComprobante())
+             .append(" | ").append(resultado.getMessage());
+        for (String error : resultado.getErrors()) {
+            linea.append(" | ").append(error);
+        }
+        linea.append(System.lineSeparator());
+
+        System.err.println("Venta del diario en conflicto: " + linea.toString().trim());
+        try {
+            Files.write(Paths.get(DatabaseConfig.DIARIO_VENTAS_DIRECTORIO, ARCHIVO_CONFLICTOS),
+                linea.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("No se pudo escribir " + ARCHIVO_CONFLICTOS + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,25 +1,54 @@
 package com.novafarma.service;
 
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.dao.ElectronicDocumentDAO;
 import com.novafarma.dao.ProductDAO;
 import com.novafarma.dao.SaleDAO;
+import com.novafarma.model.Money;
 import com.novafarma.model.Product;
+import com.novafarma.model.Receipt;
 import com.novafarma.model.Sale;
+import com.novafarma.util.AsyncExecutor;
+import com.novafarma.util.UnitOfWork;
 
+import java.io.IOException;
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 /** Servicio de lógica de negocio para Ventas (el trigger actualiza stock automáticamente) */
 public class SaleService {
     
+    /** SQLState de PostgreSQL: la función no existe */
+    private static final String FUNCION_NO_EXISTE = "42883";
+    
+    /** SQLState de PostgreSQL: conflicto de serialización, deadlock, servidor reiniciándose */
+    private static final Set<String> ESTADOS_TRANSITORIOS = Set.of("40001", "40P01", "57P01", "57P03");
+    
+    /** Pasa a false si registrar_venta no está instalada (para no reintentar en cada venta) */
+    private static volatile boolean ventaEnServidorDisponible = true;
+    
     private final SaleDAO saleDAO;
     private final ProductDAO productDAO;
     private final ProductService productService;
+    private final ElectronicDocumentDAO documentoDAO;
     
     public SaleService() {
         this.saleDAO = new SaleDAO();
         this.productDAO = new ProductDAO();
         this.productService = new ProductService();
+        this.documentoDAO = new ElectronicDocumentDAO();
     }
     
     /** Obtiene todas las ventas */
@@ -27,6 +56,17 @@ public class SaleService {
         return saleDAO.obtenerTodasLasVentas();
     }
     
+    /** Recorre todas las ventas con cursor (exportaciones; no para llenar tablas) */
+    public long recorrerTodasLasVentas(Consumer<Sale> procesador) throws SQLException {
+        return saleDAO.recorrerTodasLasVentas(procesador);
+    }
+    
+    /** Recorre las ventas de un rango de fechas con cursor */
+    public long recorrerVentasPorRangoFechas(Timestamp fechaInicio, Timestamp fechaFin,
+                                             Consumer<Sale> procesador) throws SQLException {
+        return saleDAO.recorrerVentasPorRangoFechas(fechaInicio, fechaFin, procesador);
+    }
+    
     /** Obtiene ventas con paginación */
     public List<Sale> obtenerVentasPaginadas(int limit, int offset) throws SQLException {
         return saleDAO.obtenerVentasPaginadas(limit, offset);
@@ -43,12 +83,43 @@ public class SaleService {
     }
     
     /** Obtiene total de ingresos */
-    public double obtenerIngresosTotales() throws SQLException {
+    public Money obtenerIngresosTotales() throws SQLException {
         return saleDAO.calcularIngresosTotales();
     }
     
+    // ==================== VERSIONES ASÍNCRONAS (LECTURA) ====================
+    // No bloquean el hilo de Swing; el resultado debe aplicarse con SwingUtilities.invokeLater
+    
+    public CompletableFuture<List<Sale>> obtenerTodasLasVentasAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerTodasLasVentas);
+    }
+    
+    public CompletableFuture<List<Sale>> obtenerVentasPaginadasAsync(int limit, int offset) {
+        return AsyncExecutor.ejecutar(() -> obtenerVentasPaginadas(limit, offset));
+    }
+    
+    public CompletableFuture<Integer> contarVentasAsync() {
+        return AsyncExecutor.ejecutar(this::contarVentas);
+    }
+    
+    public CompletableFuture<Money> obtenerIngresosTotalesAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerIngresosTotales);
+    }
+    
+    public CompletableFuture<List<Sale>> obtenerVentasDelDiaActualAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerVentasDelDiaActual);
+    }
+    
+    public CompletableFuture<List<SaleDAO.ReporteVentasPorTrabajador>> obtenerResumenVentasPorTrabajadorAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerResumenVentasPorTrabajador);
+    }
+    
+    public CompletableFuture<SaleDAO.ResumenTotalDelDia> obtenerResumenTotalDelDiaAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerResumenTotalDelDia);
+    }
+    
     /**
-     * Procesa una venta individual
+     * Procesa una venta individual (comprobante BOLETA de una línea)
      * 
      * @param sale Venta a procesar
      * @return true si la venta fue exitosa
@@ -61,72 +132,391 @@ public class SaleService {
             throw new IllegalStateException("Datos de venta inválidos");
         }
         
-        // Obtener producto y validar
-        Product producto = productDAO.buscarProductoPorId(venta.getProductoId());
-        productService.validarProductoVendible(producto, venta.getCantidad());
-        
-        // Asegurar que el total esté actualizado
-        venta.actualizarTotal();
-        
-        // Registrar venta (el trigger actualiza el stock automáticamente)
-        return saleDAO.guardarVenta(venta);
+        // Validación e inserción en la misma conexión y transacción
+        try (UnitOfWork unidad = UnitOfWork.iniciar()) {
+            // Obtener producto y validar
+            Product producto = productDAO.buscarProductoPorId(venta.getProductoId());
+            productService.validarProductoVendible(producto, venta.getCantidad());
+            
+            // Registrar comprobante + línea (el trigger actualiza el stock automáticamente)
+            Receipt comprobante = new Receipt(Receipt.TIPO_BOLETA, null, null,
+                                              venta.getUsuarioId(), List.of(venta));
+            asignarNumero(comprobante);
+            saleDAO.guardarComprobante(comprobante);
+            unidad.confirmar();
+            return true;
+        }
     }
     
     /**
-     * Procesa múltiples ventas en una transacción atómica
-     * Si una venta falla, todas se revierten
+     * Procesa múltiples ventas como un comprobante BOLETA sin datos de cliente
      * 
      * @param sales Lista de ventas a procesar
      * @return SaleResult con el resultado de la operación
      */
     public SaleResult procesarVentasMultiples(List<Sale> ventas) {
-        SaleResult resultado = new SaleResult();
-        List<String> errores = new ArrayList<>();
+        if (ventas == null || ventas.isEmpty()) {
+            SaleResult resultado = new SaleResult();
+            resultado.setSuccess(false);
+            resultado.setMessage("El carrito está vacío");
+            return resultado;
+        }
+        return procesarComprobante(new Receipt(Receipt.TIPO_BOLETA, null, null,
+                                               ventas.get(0).getUsuarioId(), ventas));
+    }
+    
+    /**
+     * Procesa un comprobante (cabecera + líneas) en una transacción atómica
+     * Si una línea falla, no se registra nada
+     * 
+     * Con DatabaseConfig.DIARIO_VENTAS_HABILITADO se registra en el diario local
+     * y se devuelve al instante como pendiente (SaleJournalReplayer la aplica).
+     * Con DatabaseConfig.VENTA_AGRUPADA_HABILITADA se envía a SaleIngestionQueue,
+     * que confirma varios comprobantes concurrentes en una sola transacción.
+     * Con DatabaseConfig.VENTA_EN_SERVIDOR usa la función registrar_venta
+     * (un viaje de red). Si no, la validación y el insert comparten conexión
+     * y transacción (UnitOfWork): un solo préstamo del pool para todo el carrito
+     * 
+     * Los errores transitorios se reintentan (VENTA_MAX_INTENTOS, espera
+     * exponencial). La clave de idempotencia del comprobante garantiza que un
+     * reintento tras un commit cuya respuesta se perdió no duplique la venta
+     * 
+     * Con DatabaseConfig.NUMERACION_HABILITADA el comprobante recibe serie y
+     * número antes de registrarse (en memoria, ver ReceiptNumberAllocator); las
+     * ventas del diario se numeran al sincronizarse
+     * 
+     * El documento electrónico no se genera aquí: el comprobante queda en cola
+     * (trigger) y ElectronicInvoiceQueue lo genera y envía en segundo plano
+     * 
+     * @param comprobante Comprobante con tipo, cliente y líneas del carrito
+     * @return SaleResult con el resultado (incluye el ID del comprobante)
+     */
+    public SaleResult procesarComprobante(Receipt comprobante) {
+        if (comprobante.getLineas().isEmpty()) {
+            return resultadoFallido("El carrito está vacío", new ArrayList<>());
+        }
+        if (!comprobante.esValido()) {
+            return resultadoFallido("Datos de venta inválidos", new ArrayList<>());
+        }
+        comprobante.actualizarTotales();
+        
+        if (DatabaseConfig.DIARIO_VENTAS_HABILITADO) {
+            try {
+                SaleJournal.getInstance().registrar(comprobante);
+                SaleJournalReplayer.iniciar();
+                return resultadoPendiente(comprobante);
+            } catch (IOException e) {
+                // Sin diario se registra directamente en la base
+                System.err.println("No se pudo escribir en el diario de ventas: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
         
         try {
-            // Validar todas las ventas ANTES de procesarlas
-            for (Sale venta : ventas) {
+            asignarNumero(comprobante);
+        } catch (SQLException e) {
+            return resultadoDeError(e);
+        }
+        
+        SaleResult resultado = DatabaseConfig.VENTA_AGRUPADA_HABILITADA
+            ? registrarAgrupado(comprobante)
+            : registrarConReintentos(comprobante);
+        if (resultado.isSuccess()) {
+            ElectronicInvoiceQueue.avisar();
+        }
+        return resultado;
+    }
+    
+    /**
+     * procesarComprobante en segundo plano: los reintentos y sus esperas no
+     * bloquean el hilo de Swing. El resultado debe aplicarse con SwingUtilities.invokeLater
+     */
+    public CompletableFuture<SaleResult> procesarComprobanteAsync(Receipt comprobante) {
+        return AsyncExecutor.ejecutar(() -> procesarComprobante(comprobante));
+    }
+    
+    /**
+     * Asigna serie y número al comprobante si la numeración está activa
+     * (los reintentos conservan el número ya asignado)
+     */
+    static void asignarNumero(Receipt comprobante) throws SQLException {
+        if (DatabaseConfig.NUMERACION_HABILITADA) {
+            ReceiptNumberAllocator.getInstance().asignar(comprobante);
+        }
+    }
+    
+    /**
+     * Registra el comprobante con SaleIngestionQueue (espera el commit de su grupo)
+     * Si el grupo o el comprobante fallan por un error transitorio, el comprobante
+     * se reintenta solo con registrarConReintentos y su misma clave de idempotencia
+     */
+    private SaleResult registrarAgrupado(Receipt comprobante) {
+        try {
+            return SaleIngestionQueue.getInstance().enviar(comprobante).join();
+        } catch (CompletionException e) {
+            Throwable causa = AsyncExecutor.obtenerCausa(e);
+            if (!(causa instanceof SQLException)) {
+                throw e;
+            }
+            System.err.println("Error transitorio en la venta agrupada, se reintenta por separado: " +
+                causa.getMessage());
+            return registrarConReintentos(comprobante);
+        }
+    }
+    
+    /**
+     * Registra el comprobante reintentando los errores transitorios
+     * Dentro de una UnitOfWork de quien llama no se reintenta (su transacción ya quedó abortada)
+     */
+    private SaleResult registrarConReintentos(Receipt comprobante) {
+        long espera = DatabaseConfig.VENTA_REINTENTO_ESPERA_MS;
+        for (int intento = 1; ; intento++) {
+            try {
+                return registrarUnaVez(comprobante);
+                
+            } catch (SQLException e) {
+                registrarConflicto(comprobante, e);
+                if (intento >= DatabaseConfig.VENTA_MAX_INTENTOS || !esErrorTransitorio(e)
+                        || UnitOfWork.hayUnidadActiva()) {
+                    return resultadoDeError(e);
+                }
+                System.err.println("Error transitorio al registrar la venta (intento " + intento +
+                    "), se reintenta en " + espera + " ms: " + e.getMessage());
                 try {
-                    Product producto = productDAO.buscarProductoPorId(venta.getProductoId());
-                    productService.validarProductoVendible(producto, venta.getCantidad());
-                    venta.actualizarTotal();
-                } catch (IllegalStateException | SQLException e) {
-                    errores.add("Producto ID " + venta.getProductoId() + ": " + e.getMessage());
+                    // Variación aleatoria: las cajas afectadas no reintentan todas a la vez
+                    Thread.sleep(espera + ThreadLocalRandom.current().nextLong(espera / 2 + 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return resultadoDeError(e);
                 }
+                espera *= 2;
             }
-            
-            // Si hay errores de validación, no procesar ninguna venta
-            if (!errores.isEmpty()) {
-                resultado.setSuccess(false);
-                resultado.setErrors(errores);
-                resultado.setMessage("Validación fallida. No se procesó ninguna venta.");
-                return resultado;
+        }
+    }
+    
+    /** Un intento de registro: función del servidor o validación desde el cliente */
+    private SaleResult registrarUnaVez(Receipt comprobante) throws SQLException {
+        if (DatabaseConfig.VENTA_EN_SERVIDOR && ventaEnServidorDisponible) {
+            try {
+                return registrarEnServidor(comprobante);
+            } catch (SQLException e) {
+                if (!desactivarSiFaltaFuncion(e)) {
+                    throw e;
+                }
             }
-            
-            // Todas las validaciones pasaron, procesar ventas en transacción
-            boolean exito = saleDAO.guardarVentas(ventas);
-            
-            if (exito) {
-                resultado.setSuccess(true);
-                resultado.setSuccessfulSales(ventas.size());
-                resultado.setTotalAmount(calcularMontoTotal(ventas));
-                resultado.setTotalUnits(calcularUnidadesTotales(ventas));
-                resultado.setMessage("Venta completada exitosamente");
-            } else {
-                resultado.setSuccess(false);
-                resultado.setMessage("Error al procesar las ventas en la base de datos");
+        }
+        
+        try (UnitOfWork unidad = UnitOfWork.iniciar()) {
+            SaleResult resultado = validarYGuardarEnCliente(comprobante);
+            if (resultado.isSuccess()) {
+                unidad.confirmar();
+            }
+            // Con errores de validación la unidad se revierte al cerrarse
+            return resultado;
+        }
+    }
+    
+    /**
+     * Valida e inserta un comprobante en la transacción actual SIN confirmarla
+     * (la confirma quien llama; lo usa SaleIngestionQueue para agrupar commits)
+     * 
+     * @return Resultado de la validación; si no tuvo éxito no se insertó nada
+     * @throws SQLException Si hay error en la BD (la transacción queda abortada)
+     */
+    SaleResult registrarEnTransaccion(Receipt comprobante) throws SQLException {
+        if (DatabaseConfig.VENTA_EN_SERVIDOR && ventaEnServidorDisponible) {
+            return registrarEnServidor(comprobante);
+        }
+        return validarYGuardarEnCliente(comprobante);
+    }
+    
+    /**
+     * Validación + insert con la función registrar_venta (un viaje de red)
+     * El bloqueo ordenado ocurre dentro de la función: se anota como espera la
+     * duración de la llamada completa (cota superior de la espera por bloqueo)
+     */
+    private SaleResult registrarEnServidor(Receipt comprobante) throws SQLException {
+        long inicio = System.nanoTime();
+        List<String> errores = saleDAO.registrarVentaEnServidor(comprobante);
+        LockContentionMetrics.getInstance().registrarEspera(
+            obtenerIdsProductos(comprobante.getLineas()), System.nanoTime() - inicio);
+        if (!errores.isEmpty()) {
+            return resultadoValidacionFallida(comprobante, errores);
+        }
+        return resultadoExitoso(comprobante);
+    }
+    
+    /** Validación desde el cliente + insert de cabecera y líneas en una sola sentencia */
+    private SaleResult validarYGuardarEnCliente(Receipt comprobante) throws SQLException {
+        List<String> errores = new ArrayList<>();
+        List<Sale> ventas = comprobante.getLineas();
+        
+        // Validar todas las ventas ANTES de procesarlas (una consulta para todo el carrito)
+        Set<Integer> ids = obtenerIdsProductos(ventas);
+        Map<Integer, Product> productos = DatabaseConfig.VENTA_BLOQUEO_ORDENADO
+            ? bloquearProductos(ids)
+            : productDAO.buscarProductosPorIds(ids);
+        for (Sale venta : ventas) {
+            try {
+                Product producto = productos.get(venta.getProductoId());
+                productService.validarProductoVendible(producto, venta.getCantidad());
+            } catch (IllegalStateException e) {
+                errores.add("Producto ID " + venta.getProductoId() + ": " + e.getMessage());
             }
-            
-        } catch (SQLException e) {
-            resultado.setSuccess(false);
-            resultado.setMessage("Error de base de datos: " + e.getMessage());
-            errores.add(e.getMessage());
-            resultado.setErrors(errores);
         }
         
+        // Si hay errores de validación, no procesar ninguna venta
+        if (!errores.isEmpty()) {
+            // Reintento de una venta que sí se registró: el stock ya se descontó
+            Integer existente = saleDAO.buscarIdComprobantePorClave(comprobante.getClaveIdempotencia());
+            if (existente != null) {
+                comprobante.setId(existente);
+                return resultadoExitoso(comprobante);
+            }
+            return resultadoValidacionFallida(comprobante, errores);
+        }
+        
+        saleDAO.guardarComprobante(comprobante);
+        return resultadoExitoso(comprobante);
+    }
+    
+    /**
+     * Bloquea los productos en orden de id hasta el fin de la transacción actual
+     * y anota la espera en LockContentionMetrics
+     * 
+     * @return Productos bloqueados (leídos con el stock ya protegido)
+     */
+    Map<Integer, Product> bloquearProductos(Collection<Integer> ids) throws SQLException {
+        long inicio = System.nanoTime();
+        Map<Integer, Product> productos = productDAO.bloquearProductosPorIds(ids);
+        LockContentionMetrics.getInstance().registrarEspera(productos.keySet(), System.nanoTime() - inicio);
+        return productos;
+    }
+    
+    /** Anota en LockContentionMetrics un deadlock o conflicto de serialización del comprobante */
+    static void registrarConflicto(Receipt comprobante, SQLException e) {
+        Set<Integer> ids = new HashSet<>();
+        for (Sale venta : comprobante.getLineas()) {
+            ids.add(venta.getProductoId());
+        }
+        if (LockContentionMetrics.getInstance().registrarConflicto(ids, e.getSQLState())) {
+            System.err.println("Conflicto de bloqueo (" + e.getSQLState() + ") en una venta con los productos " + ids);
+        }
+    }
+    
+    /**
+     * Si el error indica que registrar_venta no está instalada, desactiva ese modo
+     * 
+     * @return true si se desactivó (reintentar validando desde el cliente)
+     */
+    static boolean desactivarSiFaltaFuncion(SQLException e) {
+        if (!FUNCION_NO_EXISTE.equals(e.getSQLState())) {
+            return false;
+        }
+        if (ventaEnServidorDisponible) {
+            System.err.println("registrar_venta no está instalada en la base de datos " +
+                "o no acepta esta llamada (database/migracion_clave_idempotencia.sql; con NUMERACION_HABILITADA " +
+                "database/migracion_numeracion_comprobantes.sql; con el diario de ventas " +
+                "database/migracion_fecha_venta_diario.sql). Se valida la venta desde el cliente.");
+            ventaEnServidorDisponible = false;
+        }
+        return true;
+    }
+    
+    /**
+     * Errores en los que reintentar puede funcionar: conexión perdida o rechazada,
+     * pool agotado, deadlock o conflicto de serialización
+     */
+    static boolean esErrorTransitorio(SQLException e) {
+        if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        String estado = e.getSQLState();
+        return estado != null && (estado.startsWith("08") || ESTADOS_TRANSITORIOS.contains(estado));
+    }
+    
+    private SaleResult resultadoExitoso(Receipt comprobante) {
+        SaleResult resultado = new SaleResult();
+        resultado.setSuccess(true);
+        resultado.setComprobanteId(comprobante.getId());
+        resultado.setSuccessfulSales(comprobante.getCantidadLineas());
+        resultado.setTotalAmount(comprobante.getTotal());
+        resultado.setTotalUnits(comprobante.getUnidades());
+        resultado.setMessage("Venta completada exitosamente");
         return resultado;
     }
     
+    /** Venta guardada en el diario local, aún sin ID de comprobante */
+    private SaleResult resultadoPendiente(Receipt comprobante) {
+        SaleResult resultado = new SaleResult();
+        resultado.setSuccess(true);
+        resultado.setPendiente(true);
+        resultado.setSuccessfulSales(comprobante.getCantidadLineas());
+        resultado.setTotalAmount(comprobante.getTotal());
+        resultado.setTotalUnits(comprobante.getUnidades());
+        resultado.setMessage("Venta registrada, pendiente de sincronizar con la base de datos");
+        return resultado;
+    }
+    
+    /** No se insertó nada: el número del comprobante vuelve a su serie */
+    private static SaleResult resultadoValidacionFallida(Receipt comprobante, List<String> errores) {
+        ReceiptNumberAllocator.getInstance().devolver(comprobante);
+        SaleResult resultado = resultadoFallido("Validación fallida. No se procesó ninguna venta.", errores);
+        resultado.setValidacionFallida(true);
+        return resultado;
+    }
+    
+    private static SaleResult resultadoFallido(String mensaje, List<String> errores) {
+        SaleResult resultado = new SaleResult();
+        resultado.setSuccess(false);
+        resultado.setMessage(mensaje);
+        resultado.setErrors(errores);
+        return resultado;
+    }
+    
+    static SaleResult resultadoDeError(SQLException e) {
+        List<String> errores = new ArrayList<>();
+        errores.add(e.getMessage());
+        return resultadoFallido("Error de base de datos: " + e.getMessage(), errores);
+    }
+    
+    /** Obtiene un comprobante con sus líneas */
+    public Receipt obtenerComprobante(int comprobanteId) throws SQLException {
+        return saleDAO.obtenerComprobantePorId(comprobanteId);
+    }
+    
+    /** Obtiene las cabeceras de los comprobantes emitidos hoy */
+    public List<Receipt> obtenerComprobantesDelDia() throws SQLException {
+        return saleDAO.obtenerComprobantesDelDia();
+    }
+    
+    /** Documentos electrónicos por estado (aceptados: solo los de hoy) */
+    public Map<String, Integer> obtenerEstadoDocumentosElectronicos() throws SQLException {
+        return documentoDAO.contarPorEstado();
+    }
+    
+    /** Vuelve a poner en cola los documentos electrónicos en ERROR */
+    public int reintentarDocumentosConError() throws SQLException {
+        int reencolados = documentoDAO.reintentarErrores();
+        if (reencolados > 0) {
+            ElectronicInvoiceQueue.avisar();
+        }
+        return reencolados;
+    }
+    
+    /**
+     * Indica si procesarComprobante valida el carrito en el mismo viaje que lo
+     * registra (registrar_venta): entonces validarCarrito antes de procesar sobra
+     * y los errores por línea llegan en el resultado (isValidacionFallida)
+     * 
+     * Con el diario de ventas la venta no se valida al registrarse: ahí sí
+     * hay que validar el carrito antes
+     */
+    public boolean validaEnServidor() {
+        return DatabaseConfig.VENTA_EN_SERVIDOR && ventaEnServidorDisponible
+            && !DatabaseConfig.DIARIO_VENTAS_HABILITADO;
+    }
+    
     /**
      * Valida que un carrito de compras sea procesable
      * Verifica:
@@ -145,9 +535,11 @@ public class SaleService {
             return errores;
         }
         
+        // Todos los productos del carrito en una sola consulta
         try {
+            Map<Integer, Product> productos = productDAO.buscarProductosPorIds(obtenerIdsProductos(ventas));
             for (Sale venta : ventas) {
-                Product producto = productDAO.buscarProductoPorId(venta.getProductoId());
+                Product producto = productos.get(venta.getProductoId());
                 
                 if (producto == null) {
                     errores.add("Producto ID " + venta.getProductoId() + " no existe");
@@ -171,34 +563,22 @@ public class SaleService {
                 }
             }
         } catch (SQLException e) {
-            errores.add("Error al validar carrito: " + e.getMessage());
+            // Con el diario activo se vende sin conexión: el stock se valida al sincronizar
+            if (!DatabaseConfig.DIARIO_VENTAS_HABILITADO || !esErrorTransitorio(e)) {
+                errores.add("Error al validar carrito: " + e.getMessage());
+            }
         }
         
         return errores;
     }
     
-    /**
-     * Calcula el monto total de una lista de ventas
-     * 
-     * @param ventas Lista de ventas
-     * @return Suma total
-     */
-    private double calcularMontoTotal(List<Sale> ventas) {
-        return ventas.stream()
-                    .mapToDouble(Sale::getTotal)
-                    .sum();
-    }
-    
-    /**
-     * Calcula el total de unidades vendidas
-     * 
-     * @param ventas Lista de ventas
-     * @return Suma de unidades
-     */
-    private int calcularUnidadesTotales(List<Sale> ventas) {
-        return ventas.stream()
-                    .mapToInt(Sale::getCantidad)
-                    .sum();
+    /** IDs de producto de un carrito, sin repetir */
+    private Set<Integer> obtenerIdsProductos(List<Sale> ventas) {
+        Set<Integer> ids = new HashSet<>();
+        for (Sale venta : ventas) {
+            ids.add(venta.getProductoId());
+        }
+        return ids;
     }
     
     /**
@@ -206,9 +586,12 @@ public class SaleService {
      */
     public static class SaleResult {
         private boolean success;
+        private boolean pendiente;
+        private boolean validacionFallida;
+        private int comprobanteId;
         private int successfulSales;
         private int failedSales;
-        private double totalAmount;
+        private Money totalAmount = Money.CERO;
         private int totalUnits;
         private String message;
         private List<String> errors;
@@ -227,6 +610,32 @@ public class SaleService {
             this.success = success;
         }
         
+        /** true si la venta quedó en el diario local y aún no está en la base */
+        public boolean isPendiente() {
+            return pendiente;
+        }
+        
+        public void setPendiente(boolean pendiente) {
+            this.pendiente = pendiente;
+        }
+        
+        /** true si el carrito no pasó la validación (errores por línea en getErrors) */
+        public boolean isValidacionFallida() {
+            return validacionFallida;
+        }
+        
+        public void setValidacionFallida(boolean validacionFallida) {
+            this.validacionFallida = validacionFallida;
+        }
+        
+        public int getComprobanteId() {
+            return comprobanteId;
+        }
+        
+        public void setComprobanteId(int comprobanteId) {
+            this.comprobanteId = comprobanteId;
+        }
+        
         public int getSuccessfulSales() {
             return successfulSales;
         }
@@ -243,11 +652,11 @@ public class SaleService {
             this.failedSales = failedSales;
         }
         
-        public double getTotalAmount() {
+        public Money getTotalAmount() {
             return totalAmount;
         }
         
-        public void setTotalAmount(double totalAmount) {
+        public void setTotalAmount(Money totalAmount) {
             this.totalAmount = totalAmount;
         }
         
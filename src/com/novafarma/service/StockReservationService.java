@@ -0,0 +1,222 @@
+package com.novafarma.service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reservas de stock en memoria para los carritos abiertos
+ *
+ * PROBLEMA: el carrito valida contra el stock mostrado en el catálogo; dos cajas
+ * pueden prometer las mismas unidades y una de las ventas se revierte completa
+ * al registrarse.
+ *
+ * FUNCIONAMIENTO:
+ * - Al agregar una línea, el carrito reserva sus unidades del producto
+ * - Disponible para un carrito = stock - unidades reservadas por OTROS carritos
+ * - Quitar la línea, limpiar el carrito o registrar la venta libera la reserva
+ * - Una reserva sin actividad durante TTL_RESERVA_MS caduca (carrito abandonado)
+ *
+ * CONCURRENCIA: bloqueo por franjas (lock striping). Cada producto cae en una
+ * de NUM_FRANJAS franjas según su id; reservar productos distintos casi nunca
+ * compite por el mismo candado.
+ *
+ * ALCANCE: SOLO ESTE PROCESO. Las reservas viven en memoria y protegen entre sí
+ * a las ventanas de venta de una misma aplicación; dos cajas en equipos (o JVM)
+ * distintos NO ven las reservas de la otra y pueden prometer las mismas
+ * unidades. La validación definitiva sigue siendo la de la base de datos al
+ * registrar la venta. Quien reserva debe pasar el stock recién leído de la
+ * base, no el mostrado en el catálogo.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class StockReservationService {
+
+    /** Tiempo sin actividad tras el cual caduca la reserva de un carrito (ms) */
+    public static final long TTL_RESERVA_MS = 15 * 60_000;
+
+    /** Número de franjas (potencia de 2) */
+    private static final int NUM_FRANJAS = 16;
+
+    private static final StockReservationService INSTANCIA = new StockReservationService(TTL_RESERVA_MS);
+
+    private final long ttlMs;
+    private final Franja[] franjas = new Franja[NUM_FRANJAS];
+
+    /** Productos reservados por cada carrito (para liberarlo completo) */
+    private final Map<String, Set<Integer>> productosPorCarrito = new ConcurrentHashMap<>();
+
+    /** Unidades de un producto reservadas por un carrito */
+    private static class Reserva {
+        int cantidad;
+        long expiraEnMs;
+    }
+
+    /** Reservas de los productos de una franja, protegidas por su candado */
+    private static class Franja {
+        final ReentrantLock candado = new ReentrantLock();
+        final Map<Integer, Map<String, Reserva>> reservasPorProducto = new HashMap<>();
+    }
+
+    StockReservationService(long ttlMs) {
+        this.ttlMs = ttlMs;
+        for (int i = 0; i < NUM_FRANJAS; i++) {
+            franjas[i] = new Franja();
+        }
+    }
+
+    public static StockReservationService getInstance() {
+        return INSTANCIA;
+    }
+
+    /**
+     * Fija las unidades que un carrito tiene reservadas de un producto
+     *
+     * @param carritoId Identificador del carrito
+     * @param productoId Producto
+     * @param cantidadTotal Unidades del producto en el carrito (no el incremento)
+     * @param stockActual Stock del producto según la base de datos
+     * @return true si se reservó; false si otros carritos ya reservaron esas unidades
+     */
+    public boolean reservar(String carritoId, int productoId, int cantidadTotal, int stockActual) {
+        if (cantidadTotal <= 0) {
+            liberar(carritoId, productoId);
+            return true;
+        }
+
+        Franja franja = franjaDe(productoId);
+        long ahora = System.currentTimeMillis();
+        franja.candado.lock();
+        try {
+            Map<String, Reserva> reservas = franja.reservasPorProducto
+                .computeIfAbsent(productoId, id -> new HashMap<>());
+            int reservadoPorOtros = sumarReservasVigentes(reservas, carritoId, ahora);
+
+            if (cantidadTotal > stockActual - reservadoPorOtros) {
+                if (reservas.isEmpty()) {
+                    franja.reservasPorProducto.remove(productoId);
+                }
+                return false;
+            }
+
+            Reserva reserva = reservas.computeIfAbsent(carritoId, id -> new Reserva());
+            reserva.cantidad = cantidadTotal;
+            reserva.expiraEnMs = ahora + ttlMs;
+        } finally {
+            franja.candado.unlock();
+        }
+
+        productosPorCarrito.computeIfAbsent(carritoId, id -> ConcurrentHashMap.newKeySet()).add(productoId);
+        renovar(carritoId);
+        return true;
+    }
+
+    /**
+     * Unidades que un carrito puede tomar de un producto
+     *
+     * @return stockActual menos lo reservado por otros carritos (nunca negativo)
+     */
+    public int obtenerDisponible(String carritoId, int productoId, int stockActual) {
+        Franja franja = franjaDe(productoId);
+        franja.candado.lock();
+        try {
+            Map<String, Reserva> reservas = franja.reservasPorProducto.get(productoId);
+            if (reservas == null) {
+                return stockActual;
+            }
+            int reservadoPorOtros = sumarReservasVigentes(reservas, carritoId, System.currentTimeMillis());
+            if (reservas.isEmpty()) {
+                franja.reservasPorProducto.remove(productoId);
+            }
+            return Math.max(0, stockActual - reservadoPorOtros);
+        } finally {
+            franja.candado.unlock();
+        }
+    }
+
+    /** Libera la reserva de un producto (línea quitada del carrito) */
+    public void liberar(String carritoId, int productoId) {
+        quitarReserva(carritoId, productoId);
+        Set<Integer> productos = productosPorCarrito.get(carritoId);
+        if (productos != null) {
+            productos.remove(productoId);
+        }
+    }
+
+    /** Libera todas las reservas de un carrito (limpiado, vendido o cerrado) */
+    public void liberarCarrito(String carritoId) {
+        Set<Integer> productos = productosPorCarrito.remove(carritoId);
+        if (productos == null) {
+            return;
+        }
+        for (int productoId : productos) {
+            quitarReserva(carritoId, productoId);
+        }
+    }
+
+    /** Extiende el vencimiento de todas las reservas del carrito (hay actividad) */
+    public void renovar(String carritoId) {
+        Set<Integer> productos = productosPorCarrito.get(carritoId);
+        if (productos == null) {
+            return;
+        }
+        long expiraEnMs = System.currentTimeMillis() + ttlMs;
+        for (int productoId : productos) {
+            Franja franja = franjaDe(productoId);
+            franja.candado.lock();
+            try {
+                Map<String, Reserva> reservas = franja.reservasPorProducto.get(productoId);
+                Reserva reserva = reservas != null ? reservas.get(carritoId) : null;
+                if (reserva != null) {
+                    reserva.expiraEnMs = expiraEnMs;
+                }
+            } finally {
+                franja.candado.unlock();
+            }
+        }
+    }
+
+    private void quitarReserva(String carritoId, int productoId) {
+        Franja franja = franjaDe(productoId);
+        franja.candado.lock();
+        try {
+            Map<String, Reserva> reservas = franja.reservasPorProducto.get(productoId);
+            if (reservas != null) {
+                reservas.remove(carritoId);
+                if (reservas.isEmpty()) {
+                    franja.reservasPorProducto.remove(productoId);
+                }
+            }
+        } finally {
+            franja.candado.unlock();
+        }
+    }
+
+    /**
+     * Suma lo reservado por otros carritos y descarta las reservas caducadas
+     * Se llama con el candado de la franja tomado
+     */
+    private int sumarReservasVigentes(Map<String, Reserva> reservas, String carritoId, long ahora) {
+        int total = 0;
+        Iterator<Map.Entry<String, Reserva>> iterador = reservas.entrySet().iterator();
+        while (iterador.hasNext()) {
+            Map.Entry<String, Reserva> entrada = iterador.next();
+            if (entrada.getValue().expiraEnMs <= ahora) {
+                iterador.remove();
+                continue;
+            }
+            if (!entrada.getKey().equals(carritoId)) {
+                total += entrada.getValue().cantidad;
+            }
+        }
+        return total;
+    }
+
+    private Franja franjaDe(int productoId) {
+        return franjas[productoId & (NUM_FRANJAS - 1)];
+    }
+}
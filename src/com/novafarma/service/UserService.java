@@ -3,10 +3,13 @@ package com.novafarma.service;
 import com.novafarma.dao.SaleDAO;
 import com.novafarma.dao.UserDAO;
 import com.novafarma.model.User;
+import com.novafarma.util.AsyncExecutor;
+import com.novafarma.util.UnitOfWork;
 
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /** Servicio de lógica de negocio para Usuarios */
 public class UserService {
@@ -19,6 +22,21 @@ public class UserService {
         this.saleDAO = new SaleDAO();
     }
     
+    /** Autentica usuario (password debe venir hasheado); null si no coincide */
+    public User autenticarUsuario(String username, String passwordHash) throws SQLException {
+        return userDAO.autenticarUsuario(username, passwordHash);
+    }
+    
+    /** Verifica si existe un usuario con ese nombre */
+    public boolean existeUsuario(String username) throws SQLException {
+        return userDAO.existeUsuarioPorNombre(username);
+    }
+    
+    /** Cambia la contraseña (password debe venir hasheado) */
+    public boolean actualizarContrasena(String username, String newPasswordHash) throws SQLException {
+        return userDAO.actualizarContrasena(username, newPasswordHash);
+    }
+    
     /** Obtiene todos los usuarios */
     public List<User> obtenerTodosLosUsuarios() throws SQLException {
         return userDAO.obtenerTodosLosUsuarios();
@@ -44,6 +62,33 @@ public class UserService {
         return userDAO.buscarPorNombreUsuario(username);
     }
     
+    // ==================== VERSIONES ASÍNCRONAS (LECTURA) ====================
+    // No bloquean el hilo de Swing; el resultado debe aplicarse con SwingUtilities.invokeLater
+    
+    public CompletableFuture<User> autenticarUsuarioAsync(String username, String passwordHash) {
+        return AsyncExecutor.ejecutar(() -> autenticarUsuario(username, passwordHash));
+    }
+    
+    public CompletableFuture<Boolean> existeUsuarioAsync(String username) {
+        return AsyncExecutor.ejecutar(() -> existeUsuario(username));
+    }
+    
+    public CompletableFuture<List<User>> obtenerTodosLosUsuariosAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerTodosLosUsuarios);
+    }
+    
+    public CompletableFuture<List<User>> obtenerUsuariosPaginadosAsync(int limit, int offset) {
+        return AsyncExecutor.ejecutar(() -> obtenerUsuariosPaginados(limit, offset));
+    }
+    
+    public CompletableFuture<Integer> contarUsuariosAsync() {
+        return AsyncExecutor.ejecutar(this::contarUsuarios);
+    }
+    
+    public CompletableFuture<Map<Integer, Integer>> obtenerUsuariosConVentasAsync() {
+        return AsyncExecutor.ejecutar(this::obtenerUsuariosConVentas);
+    }
+    
     /** Crea un nuevo usuario (password debe venir hasheado) */
     public boolean crearUsuario(User user) throws SQLException {
         return userDAO.guardarUsuario(user);
@@ -66,35 +111,42 @@ public class UserService {
         return userDAO.obtenerUsuariosConConteoVentas();
     }
     
-    /** Elimina usuario (valida que no tenga ventas) */
+    /**
+     * Elimina usuario (valida que no tenga ventas)
+     * Búsqueda, validación y borrado en una sola transacción (UnitOfWork)
+     */
     public DeleteUserResult eliminarUsuario(int userId) throws SQLException {
         DeleteUserResult result = new DeleteUserResult();
-        User user = userDAO.buscarUsuarioPorId(userId);
-        if (user == null) {
-            result.setSuccess(false);
-            result.setMessage("El usuario no existe");
-            return result;
-        }
         
-        if (tieneVentas(userId)) {
+        try (UnitOfWork unidad = UnitOfWork.iniciar()) {
+            User user = userDAO.buscarUsuarioPorId(userId);
+            if (user == null) {
+                result.setSuccess(false);
+                result.setMessage("El usuario no existe");
+                return result;
+            }
+            
             int salesCount = obtenerTotalVentasUsuario(userId);
-            result.setSuccess(false);
-            result.setMessage("No se puede eliminar el usuario '" + user.getUsername() + "' porque tiene " + 
-                            salesCount + " venta(s) registrada(s).\n\n" +
-                            "Las ventas deben conservarse para el historial del negocio.\n" +
-                            "Si el trabajador ya no trabaja, simplemente no le permitas iniciar sesión.");
-            result.setSalesCount(salesCount);
-            return result;
-        }
-        
-        boolean deleted = userDAO.eliminarUsuario(userId);
-        
-        if (deleted) {
-            result.setSuccess(true);
-            result.setMessage("Usuario '" + user.getUsername() + "' eliminado exitosamente");
-        } else {
-            result.setSuccess(false);
-            result.setMessage("No se pudo eliminar el usuario");
+            if (salesCount > 0) {
+                result.setSuccess(false);
+                result.setMessage("No se puede eliminar el usuario '" + user.getUsername() + "' porque tiene " + 
+                                salesCount + " venta(s) registrada(s).\n\n" +
+                                "Las ventas deben conservarse para el historial del negocio.\n" +
+                                "Si el trabajador ya no trabaja, simplemente no le permitas iniciar sesión.");
+                result.setSalesCount(salesCount);
+                return result;
+            }
+            
+            boolean deleted = userDAO.eliminarUsuario(userId);
+            
+            if (deleted) {
+                unidad.confirmar();
+                result.setSuccess(true);
+                result.setMessage("Usuario '" + user.getUsername() + "' eliminado exitosamente");
+            } else {
+                result.setSuccess(false);
+                result.setMessage("No se pudo eliminar el usuario");
+            }
         }
         
         return result;
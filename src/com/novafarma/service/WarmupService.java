@@ -0,0 +1,75 @@
+package com.novafarma.service;
+
+import com.novafarma.util.AsyncExecutor;
+import com.novafarma.util.DatabaseConnection;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Precalentamiento de la base de datos al arrancar
+ *
+ * Se lanza desde MainApp mientras se muestra la ventana de login:
+ * 1. Abre las conexiones mínimas del pool (handshake + autenticación)
+ * 2. Ejecuta una vez las consultas del login y de la carga inicial del
+ *    Dashboard: quedan en la caché de sentencias de las conexiones y
+ *    las tablas pasan a la memoria del servidor
+ *
+ * Nunca falla: si la base no responde, solo se registra el error y el
+ * login muestra el problema como siempre.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class WarmupService {
+
+    private static volatile CompletableFuture<Void> precalentamiento;
+
+    private WarmupService() {
+    }
+
+    /**
+     * Inicia el precalentamiento en segundo plano (solo la primera vez)
+     *
+     * @return Future que termina al completar el precalentamiento
+     */
+    public static synchronized CompletableFuture<Void> iniciar() {
+        if (precalentamiento == null) {
+            long inicio = System.currentTimeMillis();
+            precalentamiento = AsyncExecutor.ejecutar(() -> {
+                    DatabaseConnection.precalentarPools();
+                    return null;
+                })
+                .thenCompose(ignorado -> ejecutarConsultasFrecuentes())
+                .handle((ignorado, error) -> {
+                    if (error != null) {
+                        System.err.println("Precalentamiento incompleto: " +
+                            AsyncExecutor.obtenerCausa(error).getMessage());
+                    } else {
+                        System.out.println("Base de datos precalentada en " +
+                            (System.currentTimeMillis() - inicio) + " ms");
+                    }
+                    return null;
+                });
+        }
+        return precalentamiento;
+    }
+
+    /**
+     * Ejecuta en paralelo (conexiones distintas del pool) las mismas consultas
+     * que usan el login y la carga inicial del Dashboard
+     */
+    private static CompletableFuture<Void> ejecutarConsultasFrecuentes() {
+        UserService userService = new UserService();
+        DashboardService dashboardService = new DashboardService();
+
+        // Login: el usuario vacío no existe, solo se prepara la sentencia
+        CompletableFuture<?> login = userService.autenticarUsuarioAsync("", "");
+
+        // Carga inicial del Dashboard (trabajador y administrador): lleva
+        // productos, alertas y usuarios a la memoria del servidor
+        CompletableFuture<?> dashboardTrabajador = dashboardService.obtenerSnapshotAsync(false);
+        CompletableFuture<?> dashboardAdministrador = dashboardService.obtenerSnapshotAsync(true);
+
+        return CompletableFuture.allOf(login, dashboardTrabajador, dashboardAdministrador);
+    }
+}
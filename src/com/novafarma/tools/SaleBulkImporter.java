@@ -0,0 +1,281 @@
+package com.novafarma.tools;
+
+import com.novafarma.util.DatabaseConnection;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Importación masiva de ventas históricas con COPY
+ *
+ * Al migrar una sucursal desde su sistema anterior hay que cargar millones de
+ * ventas pasadas. Con INSERT (SaleDAO) cada sentencia es un viaje de red y una
+ * ejecución del trigger de stock; COPY envía el archivo completo como un flujo.
+ *
+ * FORMATO CSV (con fila de encabezado, separador coma, UTF-8):
+ * <pre>
+ *   producto_id,usuario_id,cantidad,precio_unitario,total,fecha_venta
+ *   7,1,2,4.20,8.40,2024-03-15 10:22:01
+ * </pre>
+ *
+ * MODOS:
+ * - sin-stock:   (por defecto) COPY sin trigger y sin tocar el stock. Es el caso
+ *                normal de una migración: el stock actual de la sucursal ya
+ *                refleja esas ventas
+ * - trigger:     COPY con el trigger de stock activo (una ejecución por COPY,
+ *                valida y descuenta el stock como una venta normal)
+ * - reconciliar: COPY sin trigger + un único UPDATE de productos con las
+ *                cantidades totales por producto (misma regla de stock suficiente)
+ *
+ * trigger y reconciliar descuentan las ventas del stock ACTUAL: solo sirven para
+ * ventas que el stock todavía no refleja. Con un historial completo fallan por
+ * "Stock insuficiente" (o dejarían el stock descontado dos veces).
+ *
+ * SIN COMPROBANTES: las ventas importadas no tienen cabecera en comprobantes
+ * (comprobante_id NULL). No cuentan en los reportes que leen comprobantes
+ * (transacciones, ticket promedio, ventas por trabajador), no tienen serie ni
+ * número y no generan documento electrónico. Los reportes por líneas (ventas)
+ * sí las incluyen.
+ *
+ * Todo corre en UNA transacción: si algo falla no queda ninguna venta importada.
+ * Desactivar el trigger (ALTER TABLE) bloquea la tabla ventas hasta el commit y
+ * requiere ser dueño de la tabla: ejecutar fuera del horario de atención.
+ *
+ * Herramienta de línea de comandos: no la usa la aplicación.
+ *
+ * USO: java com.novafarma.tools.SaleBulkImporter archivo.csv [sin-stock|trigger|reconciliar]
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class SaleBulkImporter {
+
+    private static final String SQL_COPY =
+        "COPY ventas (producto_id, usuario_id, cantidad, precio_unitario, total, fecha_venta) " +
+        "FROM STDIN WITH (FORMAT csv, HEADER true)";
+
+    private static final String TRIGGER_STOCK = "trigger_actualizar_stock_sentencia";
+
+    /** Descuenta las cantidades totales por producto donde alcanza el stock */
+    private static final String SQL_RECONCILIAR_STOCK =
+        "WITH cantidades AS (" +
+        "    SELECT * FROM unnest(?::integer[], ?::bigint[]) AS c(producto_id, cantidad)" +
+        "), actualizados AS (" +
+        "    UPDATE productos p SET stock = p.stock - c.cantidad" +
+        "    FROM cantidades c" +
+        "    WHERE p.id = c.producto_id AND p.stock >= c.cantidad" +
+        "    RETURNING p.id" +
+        ") " +
+        "SELECT c.producto_id, c.cantidad FROM cantidades c " +
+        "WHERE c.producto_id NOT IN (SELECT id FROM actualizados) ORDER BY c.producto_id";
+
+    /** Filas entre cada reporte de avance */
+    private static final int FILAS_POR_REPORTE = 100_000;
+
+    /** Tamaño del bloque enviado al servidor */
+    private static final int TAMANO_BLOQUE = 64 * 1024;
+
+    private enum Modo {
+        TRIGGER("trigger"),
+        RECONCILIAR("reconciliar"),
+        SIN_STOCK("sin-stock");
+
+        private final String nombre;
+
+        Modo(String nombre) {
+            this.nombre = nombre;
+        }
+
+        static Modo desde(String nombre) {
+            for (Modo modo : values()) {
+                if (modo.nombre.equalsIgnoreCase(nombre)) {
+                    return modo;
+                }
+            }
+            throw new IllegalArgumentException("Modo desconocido: " + nombre +
+                " (use trigger, reconciliar o sin-stock)");
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("USO: java com.novafarma.tools.SaleBulkImporter archivo.csv [sin-stock|trigger|reconciliar]");
+            return;
+        }
+
+        Path archivo = Paths.get(args[0]);
+        Modo modo = args.length > 1 ? Modo.desde(args[1]) : Modo.SIN_STOCK;
+
+        System.out.println("=== IMPORTACIÓN MASIVA DE VENTAS ===");
+        System.out.println("Archivo: " + archivo + " | Modo: " + modo.nombre + "\n");
+
+        try (Connection conexion = DatabaseConnection.getConnection()) {
+            long inicio = System.nanoTime();
+            long filas = importar(conexion, archivo, modo);
+            double segundos = (System.nanoTime() - inicio) / 1_000_000_000.0;
+            System.out.printf("%nImportadas %,d ventas en %.1f s (%,.0f filas/s)%n",
+                filas, segundos, filas / Math.max(segundos, 0.001));
+
+        } catch (SQLException | IOException | IllegalArgumentException e) {
+            System.err.println("Importación cancelada, no se registró ninguna venta: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DatabaseConnection.closeConnection();
+        }
+    }
+
+    /**
+     * Importa el archivo en una transacción
+     *
+     * @return Filas importadas
+     */
+    private static long importar(Connection conexion, Path archivo, Modo modo) throws SQLException, IOException {
+        conexion.setAutoCommit(false);
+        try {
+            if (modo != Modo.TRIGGER) {
+                try (Statement sentencia = conexion.createStatement()) {
+                    sentencia.execute("ALTER TABLE ventas DISABLE TRIGGER " + TRIGGER_STOCK);
+                }
+            }
+
+            Map<Integer, Long> cantidadesPorProducto = new HashMap<>();
+            long filas = copiar(conexion, archivo, modo == Modo.RECONCILIAR ? cantidadesPorProducto : null);
+
+            if (modo == Modo.RECONCILIAR) {
+                reconciliarStock(conexion, cantidadesPorProducto);
+            }
+            if (modo != Modo.TRIGGER) {
+                try (Statement sentencia = conexion.createStatement()) {
+                    sentencia.execute("ALTER TABLE ventas ENABLE TRIGGER " + TRIGGER_STOCK);
+                }
+            }
+
+            conexion.commit();
+            return filas;
+
+        } catch (SQLException | IOException | RuntimeException e) {
+            // También revierte el DISABLE TRIGGER
+            conexion.rollback();
+            throw e;
+        } finally {
+            conexion.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Envía el archivo con COPY en bloques y reporta el avance
+     *
+     * @param cantidadesPorProducto Si no es null, acumula cantidad por producto
+     * @return Filas enviadas (sin el encabezado)
+     */
+    private static long copiar(Connection conexion, Path archivo,
+                               Map<Integer, Long> cantidadesPorProducto) throws SQLException, IOException {
+        CopyIn copia = conexion.unwrap(PGConnection.class).getCopyAPI().copyIn(SQL_COPY);
+        long filas = 0;
+        try (BufferedReader lector = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            StringBuilder bloque = new StringBuilder(TAMANO_BLOQUE + 1024);
+            long inicio = System.nanoTime();
+
+            String encabezado = lector.readLine();   // COPY lo descarta con HEADER true
+            if (encabezado == null) {
+                throw new IOException("El archivo está vacío");
+            }
+            bloque.append(encabezado).append('\n');
+
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                if (linea.isEmpty()) {
+                    continue;
+                }
+                bloque.append(linea).append('\n');
+                filas++;
+
+                if (cantidadesPorProducto != null) {
+                    acumular(cantidadesPorProducto, linea, filas);
+                }
+                if (bloque.length() >= TAMANO_BLOQUE) {
+                    enviar(copia, bloque);
+                }
+                if (filas % FILAS_POR_REPORTE == 0) {
+                    double segundos = (System.nanoTime() - inicio) / 1_000_000_000.0;
+                    System.out.printf("  %,d filas enviadas (%,.0f filas/s)%n", filas, filas / segundos);
+                }
+            }
+            enviar(copia, bloque);
+
+            long filasServidor = copia.endCopy();
+            if (filasServidor != filas) {
+                System.out.println("  Aviso: el servidor registró " + filasServidor + " filas (leídas: " + filas + ")");
+            }
+            return filasServidor;
+
+        } finally {
+            if (copia.isActive()) {
+                copia.cancelCopy();
+            }
+        }
+    }
+
+    private static void enviar(CopyIn copia, StringBuilder bloque) throws SQLException {
+        if (bloque.length() == 0) {
+            return;
+        }
+        byte[] bytes = bloque.toString().getBytes(StandardCharsets.UTF_8);
+        copia.writeToCopy(bytes, 0, bytes.length);
+        bloque.setLength(0);
+    }
+
+    /** Suma la cantidad de una fila CSV (columnas 1 y 3, numéricas) a su producto */
+    private static void acumular(Map<Integer, Long> cantidadesPorProducto, String linea, long numeroFila) {
+        String[] campos = linea.split(",", 4);
+        try {
+            int productoId = Integer.parseInt(campos[0].trim());
+            long cantidad = Long.parseLong(campos[2].trim());
+            cantidadesPorProducto.merge(productoId, cantidad, Long::sum);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Fila " + numeroFila + " inválida: " + linea, e);
+        }
+    }
+
+    /**
+     * Descuenta el stock de todos los productos importados con un solo UPDATE
+     * Si a algún producto no le alcanza, cancela la importación completa
+     */
+    private static void reconciliarStock(Connection conexion, Map<Integer, Long> cantidadesPorProducto)
+            throws SQLException {
+        Integer[] productos = cantidadesPorProducto.keySet().toArray(new Integer[0]);
+        Long[] cantidades = new Long[productos.length];
+        for (int i = 0; i < productos.length; i++) {
+            cantidades[i] = cantidadesPorProducto.get(productos[i]);
+        }
+
+        List<String> faltantes = new ArrayList<>();
+        try (PreparedStatement consultaPreparada = conexion.prepareStatement(SQL_RECONCILIAR_STOCK)) {
+            consultaPreparada.setArray(1, conexion.createArrayOf("integer", productos));
+            consultaPreparada.setArray(2, conexion.createArrayOf("bigint", cantidades));
+            try (ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+                while (resultadoConsulta.next()) {
+                    faltantes.add("producto " + resultadoConsulta.getInt("producto_id") +
+                                  " (vendido: " + resultadoConsulta.getLong("cantidad") + ")");
+                }
+            }
+        }
+
+        if (!faltantes.isEmpty()) {
+            throw new SQLException("Stock insuficiente para reconciliar: " + String.join(", ", faltantes));
+        }
+        System.out.println("  Stock reconciliado para " + productos.length + " productos");
+    }
+}
@@ -0,0 +1,200 @@
+package com.novafarma.tools;
+
+import com.novafarma.util.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compara el descuento de stock por fila (trigger anterior) con el descuento por sentencia
+ *
+ * CAMINOS MEDIDOS (mismo carrito, mismos productos):
+ * - FILA + LOTE:      addBatch() de N INSERT + trigger FOR EACH ROW (implementación anterior)
+ * - FILA + UNNEST:    un solo INSERT ... unnest() + trigger FOR EACH ROW
+ * - SENTENCIA+UNNEST: un solo INSERT ... unnest() + trigger FOR EACH STATEMENT (actual)
+ *
+ * Cada medición corre en su propia transacción que se revierte: no deja ventas
+ * ni cambios de stock. Los cambios de trigger (ALTER TABLE) también se revierten,
+ * pero bloquean la tabla ventas mientras dura la medición: usar en una base de pruebas.
+ *
+ * Mide solo productos activos (los que se venden en caja).
+ * Herramienta de desarrollo: no la usa la aplicación.
+ *
+ * Requiere database/migracion_stock_por_sentencia.sql aplicada.
+ *
+ * USO: java com.novafarma.tools.StockTriggerBenchmark [lineas...]   (por defecto 1 10 50 200 1000)
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class StockTriggerBenchmark {
+
+    private static final int REPETICIONES = 7;
+    private static final int CALENTAMIENTO = 2;
+    private static final int MAX_PRODUCTOS = 50;
+
+    private static final String SQL_INSERT_FILA =
+        "INSERT INTO ventas (producto_id, usuario_id, cantidad, precio_unitario, total) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SQL_INSERT_UNNEST =
+        "INSERT INTO ventas (producto_id, usuario_id, cantidad, precio_unitario, total) " +
+        "SELECT * FROM unnest(?::integer[], ?::integer[], ?::integer[], ?::float8[], ?::float8[])";
+
+    private enum Camino {
+        FILA_LOTE("FILA + LOTE", true),
+        FILA_UNNEST("FILA + UNNEST", true),
+        SENTENCIA_UNNEST("SENTENCIA + UNNEST", false);
+
+        private final String descripcion;
+        private final boolean triggerPorFila;
+
+        Camino(String descripcion, boolean triggerPorFila) {
+            this.descripcion = descripcion;
+            this.triggerPorFila = triggerPorFila;
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] tamanos = args.length > 0
+            ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+            : new int[]{1, 10, 50, 200, 1000};
+
+        System.out.println("=== DESCUENTO DE STOCK: TRIGGER POR FILA vs POR SENTENCIA ===\n");
+
+        try (Connection conexion = DatabaseConnection.getConnection()) {
+            List<Integer> productos = obtenerProductos(conexion);
+            int usuarioId = obtenerUsuario(conexion);
+            if (productos.isEmpty() || usuarioId <= 0) {
+                System.err.println("Se necesita al menos un producto y un usuario en la base de datos");
+                return;
+            }
+
+            System.out.printf("%8s  %-20s %12s %12s%n", "Líneas", "Camino", "Mediana ms", "Mínimo ms");
+            for (int lineas : tamanos) {
+                for (Camino camino : Camino.values()) {
+                    double[] tiempos = new double[REPETICIONES];
+                    for (int i = 0; i < CALENTAMIENTO + REPETICIONES; i++) {
+                        double ms = medir(conexion, camino, productos, usuarioId, lineas);
+                        if (i >= CALENTAMIENTO) {
+                            tiempos[i - CALENTAMIENTO] = ms;
+                        }
+                    }
+                    Arrays.sort(tiempos);
+                    System.out.printf("%8d  %-20s %12.2f %12.2f%n",
+                        lineas, camino.descripcion, tiempos[REPETICIONES / 2], tiempos[0]);
+                }
+                System.out.println();
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error en el benchmark: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DatabaseConnection.closeConnection();
+        }
+    }
+
+    /**
+     * Inserta un carrito de 'lineas' ventas por el camino indicado y revierte
+     *
+     * @return Milisegundos que tardó solo el INSERT (incluye el trigger)
+     */
+    private static double medir(Connection conexion, Camino camino, List<Integer> productos,
+                                int usuarioId, int lineas) throws SQLException {
+        conexion.setAutoCommit(false);
+        try {
+            prepararTriggers(conexion, camino);
+
+            // Stock de sobra para que ninguna medición falle por stock insuficiente
+            try (PreparedStatement consultaPreparada = conexion.prepareStatement(
+                    "UPDATE productos SET stock = stock + ? WHERE id = ANY(?)")) {
+                consultaPreparada.setInt(1, lineas * 10);
+                consultaPreparada.setArray(2, conexion.createArrayOf("integer", productos.toArray()));
+                consultaPreparada.executeUpdate();
+            }
+
+            long inicio = System.nanoTime();
+            if (camino == Camino.FILA_LOTE) {
+                insertarConLote(conexion, productos, usuarioId, lineas);
+            } else {
+                insertarConUnnest(conexion, productos, usuarioId, lineas);
+            }
+            return (System.nanoTime() - inicio) / 1_000_000.0;
+
+        } finally {
+            conexion.rollback();
+            conexion.setAutoCommit(true);
+        }
+    }
+
+    /** Activa el trigger que corresponde al camino (dentro de la transacción de la medición) */
+    private static void prepararTriggers(Connection conexion, Camino camino) throws SQLException {
+        if (!camino.triggerPorFila) {
+            return;
+        }
+        try (Statement sentencia = conexion.createStatement()) {
+            sentencia.execute("ALTER TABLE ventas DISABLE TRIGGER trigger_actualizar_stock_sentencia");
+            sentencia.execute("CREATE TRIGGER trigger_benchmark_por_fila AFTER INSERT ON ventas " +
+                              "FOR EACH ROW EXECUTE FUNCTION actualizar_stock_venta()");
+        }
+    }
+
+    private static void insertarConLote(Connection conexion, List<Integer> productos,
+                                        int usuarioId, int lineas) throws SQLException {
+        try (PreparedStatement consultaPreparada = conexion.prepareStatement(SQL_INSERT_FILA)) {
+            for (int i = 0; i < lineas; i++) {
+                consultaPreparada.setInt(1, productos.get(i % productos.size()));
+                consultaPreparada.setInt(2, usuarioId);
+                consultaPreparada.setInt(3, 1);
+                consultaPreparada.setDouble(4, 1.0);
+                consultaPreparada.setDouble(5, 1.0);
+                consultaPreparada.addBatch();
+            }
+            consultaPreparada.executeBatch();
+        }
+    }
+
+    private static void insertarConUnnest(Connection conexion, List<Integer> productos,
+                                          int usuarioId, int lineas) throws SQLException {
+        Integer[] productosIds = new Integer[lineas];
+        Integer[] usuariosIds = new Integer[lineas];
+        Integer[] cantidades = new Integer[lineas];
+        Double[] precios = new Double[lineas];
+        for (int i = 0; i < lineas; i++) {
+            productosIds[i] = productos.get(i % productos.size());
+            usuariosIds[i] = usuarioId;
+            cantidades[i] = 1;
+            precios[i] = 1.0;
+        }
+
+        try (PreparedStatement consultaPreparada = conexion.prepareStatement(SQL_INSERT_UNNEST)) {
+            consultaPreparada.setArray(1, conexion.createArrayOf("integer", productosIds));
+            consultaPreparada.setArray(2, conexion.createArrayOf("integer", usuariosIds));
+            consultaPreparada.setArray(3, conexion.createArrayOf("integer", cantidades));
+            consultaPreparada.setArray(4, conexion.createArrayOf("float8", precios));
+            consultaPreparada.setArray(5, conexion.createArrayOf("float8", precios));
+            consultaPreparada.executeUpdate();
+        }
+    }
+
+    private static List<Integer> obtenerProductos(Connection conexion) throws SQLException {
+        List<Integer> productos = new ArrayList<>();
+        try (PreparedStatement consultaPreparada = conexion.prepareStatement(
+                "SELECT id FROM productos WHERE activo = TRUE ORDER BY id LIMIT " + MAX_PRODUCTOS);
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+            while (resultadoConsulta.next()) {
+                productos.add(resultadoConsulta.getInt("id"));
+            }
+        }
+        return productos;
+    }
+
+    private static int obtenerUsuario(Connection conexion) throws SQLException {
+        try (PreparedStatement consultaPreparada = conexion.prepareStatement("SELECT MIN(id) AS id FROM usuarios");
+             ResultSet resultadoConsulta = consultaPreparada.executeQuery()) {
+            return resultadoConsulta.next() ? resultadoConsulta.getInt("id") : 0;
+        }
+    }
+}
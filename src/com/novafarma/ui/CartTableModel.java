@@ -0,0 +1,97 @@
+package com.novafarma.ui;
+
+import com.novafarma.model.Cart;
+import com.novafarma.model.Money;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Modelo de tabla del carrito de ventas
+ *
+ * Vista de solo lectura sobre un Cart: las celdas se leen directamente de las
+ * líneas (sin copiar filas) y cada cambio avisa solo la fila afectada, así que
+ * la tabla no se redibuja completa al agregar un producto.
+ *
+ * Los cambios al carrito deben pasar por este modelo para que la tabla se entere.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class CartTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMNAS = {"ID", "Producto", "Cant.", "Precio U.", "Subtotal"};
+
+    private final Cart carrito;
+
+    public CartTableModel(Cart carrito) {
+        this.carrito = carrito;
+    }
+
+    public Cart getCarrito() {
+        return carrito;
+    }
+
+    // ==================== CAMBIOS AL CARRITO ====================
+
+    /**
+     * Agrega unidades de un producto y avisa la fila insertada o actualizada
+     */
+    public void agregar(int productoId, String nombre, Money precioUnitario, int cantidad) {
+        int lineasAntes = carrito.getCantidadLineas();
+        int fila = carrito.agregar(productoId, nombre, precioUnitario, cantidad);
+        if (carrito.getCantidadLineas() > lineasAntes) {
+            fireTableRowsInserted(fila, fila);
+        } else {
+            fireTableRowsUpdated(fila, fila);
+        }
+    }
+
+    /**
+     * Quita una línea y avisa la fila eliminada
+     *
+     * @return Línea quitada
+     */
+    public Cart.Linea quitar(int fila) {
+        Cart.Linea linea = carrito.quitar(fila);
+        fireTableRowsDeleted(fila, fila);
+        return linea;
+    }
+
+    public void limpiar() {
+        int filas = carrito.getCantidadLineas();
+        carrito.limpiar();
+        if (filas > 0) {
+            fireTableRowsDeleted(0, filas - 1);
+        }
+    }
+
+    // ==================== ABSTRACTTABLEMODEL ====================
+
+    @Override
+    public int getRowCount() {
+        return carrito.getCantidadLineas();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNAS.length;
+    }
+
+    @Override
+    public String getColumnName(int columna) {
+        return COLUMNAS[columna];
+    }
+
+    @Override
+    public Object getValueAt(int fila, int columna) {
+        Cart.Linea linea = carrito.getLinea(fila);
+        switch (columna) {
+            case 0: return linea.getProductoId();
+            case 1: return linea.getNombre();
+            case 2: return linea.getCantidad();
+            case 3: return linea.getPrecioUnitario();
+            case 4: return linea.getSubtotal();
+            default: return null;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.novafarma.ui;
 
+import com.novafarma.model.Sale;
 import com.novafarma.model.User;
+import com.novafarma.service.DashboardService;
 import com.novafarma.service.ProductService;
 import com.novafarma.service.SaleService;
 import com.novafarma.service.UserService;
@@ -10,12 +12,17 @@ import com.novafarma.ui.panels.SalesPanel;
 import com.novafarma.ui.panels.DailySalesReportPanel;
 import com.novafarma.ui.handlers.ProductHandler;
 import com.novafarma.ui.handlers.UserHandler;
+import com.novafarma.util.AsyncExecutor;
+import com.novafarma.util.CircuitBreaker;
+import com.novafarma.util.DatabaseConnection;
+import com.novafarma.util.PaginationHelper;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /** Dashboard principal con control de roles (Administrador/Trabajador) */
 public class Dashboard extends JFrame {
@@ -24,6 +31,7 @@ public class Dashboard extends JFrame {
     private ProductService productService;
     private SaleService saleService;
     private UserService userService;
+    private DashboardService dashboardService;
     private InventoryPanel inventoryPanel;
     private AlertsPanel alertsPanel;
     private SalesPanel salesPanel;
@@ -33,12 +41,18 @@ public class Dashboard extends JFrame {
     private JLabel lblWelcome;
     private JLabel lblRole;
     private JTabbedPane tabbedPane;
+    private JLabel lblEstadoBD;
+    
+    // Los cambios llegan desde hilos de fondo
+    private final Consumer<CircuitBreaker.Estado> observadorSalud =
+        estado -> SwingUtilities.invokeLater(() -> actualizarIndicadorBD(estado));
     
     public Dashboard(User user) {
         this.currentUser = user;
         this.productService = new ProductService();
         this.saleService = new SaleService();
         this.userService = new UserService();
+        this.dashboardService = new DashboardService();
         
         inicializarPaneles();
         inicializarManejadores();
@@ -46,9 +60,37 @@ public class Dashboard extends JFrame {
         inicializarInterfaz();
         aplicarPermisosPorRol();
         
-        inventoryPanel.cargarProductos();
-        salesPanel.cargarCatalogo();
-        alertsPanel.cargarAlertas();
+        cargarDatosIniciales();
+    }
+    
+    /**
+     * Carga inicial de todos los paneles con una sola consulta (DashboardSnapshot)
+     * Si falla, cada panel vuelve a su carga individual (que muestra el error)
+     */
+    private void cargarDatosIniciales() {
+        boolean incluirUsuarios = currentUser.isAdministrador();
+        
+        dashboardService.obtenerSnapshotAsync(incluirUsuarios)
+            .whenComplete((snapshot, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    System.err.println("Carga inicial agrupada falló, se usan cargas individuales: " +
+                        AsyncExecutor.obtenerCausa(error).getMessage());
+                    inventoryPanel.cargarProductos();
+                    salesPanel.cargarCatalogo();
+                    alertsPanel.cargarAlertas();
+                    if (incluirUsuarios) {
+                        userHandler.cargarDatos();
+                    }
+                    return;
+                }
+                
+                inventoryPanel.mostrarSnapshot(snapshot);
+                salesPanel.mostrarSnapshot(snapshot);
+                alertsPanel.mostrarSnapshot(snapshot);
+                if (snapshot.incluyeUsuarios()) {
+                    userHandler.mostrarSnapshot(snapshot);
+                }
+            }));
     }
     
     private void inicializarPaneles() {
@@ -241,11 +283,21 @@ private JPanel crearPanelUsuarios() {
         
         userHandler.setTable(usersTable, usersTableModel);
         userHandler.setPaginationControls(btnFirstPage, btnPrevPage, btnNextPage, btnLastPage, lblPageInfo);
-        userHandler.cargarDatos();
+        // Los datos llegan con la carga inicial (cargarDatosIniciales)
         
         return panel;
     }
     
+    // Historial de ventas: una página a la vez (el historial completo no cabe en memoria)
+    private static final int HISTORIAL_PAGE_SIZE = PaginationHelper.DEFAULT_PAGE_SIZE;
+    private int historialPaginaActual = 1;
+    private int historialTotalVentas = 0;
+    private JButton btnHistorialPrimera;
+    private JButton btnHistorialAnterior;
+    private JButton btnHistorialSiguiente;
+    private JButton btnHistorialUltima;
+    private JLabel lblHistorialPagina;
+    
     private JPanel crearPanelHistorialVentas() {
         JPanel panel = new JPanel(new BorderLayout(10, 10));
         panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -289,16 +341,51 @@ private JPanel crearPanelUsuarios() {
         
         panel.add(scrollPane, BorderLayout.CENTER);
         
+        JPanel bottomPanel = new JPanel(new BorderLayout(5, 5));
+        JPanel paginationPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 5));
+        paginationPanel.setBorder(BorderFactory.createEmptyBorder(5, 0, 0, 0));
+        
+        btnHistorialPrimera = new JButton("<< Primera");
+        styleButton(btnHistorialPrimera);
+        btnHistorialPrimera.addActionListener(e -> irAPaginaHistorial(panel, 1));
+        
+        btnHistorialAnterior = new JButton("< Anterior");
+        styleButton(btnHistorialAnterior);
+        btnHistorialAnterior.addActionListener(e -> irAPaginaHistorial(panel, historialPaginaActual - 1));
+        
+        lblHistorialPagina = new JLabel("Cargando...");
+        lblHistorialPagina.setFont(new Font("Arial", Font.PLAIN, 12));
+        
+        btnHistorialSiguiente = new JButton("Siguiente >");
+        styleButton(btnHistorialSiguiente);
+        btnHistorialSiguiente.addActionListener(e -> irAPaginaHistorial(panel, historialPaginaActual + 1));
+        
+        btnHistorialUltima = new JButton("Última >>");
+        styleButton(btnHistorialUltima);
+        btnHistorialUltima.addActionListener(e -> irAPaginaHistorial(panel,
+            PaginationHelper.calculateTotalPages(historialTotalVentas, HISTORIAL_PAGE_SIZE)));
+        
+        paginationPanel.add(btnHistorialPrimera);
+        paginationPanel.add(btnHistorialAnterior);
+        paginationPanel.add(lblHistorialPagina);
+        paginationPanel.add(btnHistorialSiguiente);
+        paginationPanel.add(btnHistorialUltima);
+        
+        bottomPanel.add(paginationPanel, BorderLayout.NORTH);
+        
         JLabel lblInfo = new JLabel(
             "<html><body style='padding: 10px;'>" +
             "<b>Nota:</b> Este historial muestra todas las ventas realizadas en el negocio.<br>" +
-            "Las ventas se ordenan por fecha (más recientes primero)." +
+            "Las ventas se ordenan por fecha (más recientes primero), de " + HISTORIAL_PAGE_SIZE + " en " +
+            HISTORIAL_PAGE_SIZE + "." +
             "</body></html>"
         );
         lblInfo.setFont(new Font("Arial", Font.PLAIN, 11));
         lblInfo.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
         
-        panel.add(lblInfo, BorderLayout.SOUTH);
+        bottomPanel.add(lblInfo, BorderLayout.SOUTH);
+        
+        panel.add(bottomPanel, BorderLayout.SOUTH);
         
         panel.putClientProperty("salesTable", salesTable);
         panel.putClientProperty("salesTableModel", salesTableModel);
@@ -322,36 +409,80 @@ private JPanel crearPanelUsuarios() {
         }
     }
     
+    /**
+     * Vuelve a contar las ventas y carga la primera página del historial
+     * 
+     * ASÍNCRONO: el conteo y la página corren fuera del hilo de Swing. La tabla
+     * solo guarda una página: la memoria no crece con el tamaño de ventas
+     */
     private void cargarHistorialVentas(JPanel panel) {
-        JTable salesTable = (JTable) panel.getClientProperty("salesTable");
+        historialPaginaActual = 1;
+        int offset = PaginationHelper.calculateOffset(historialPaginaActual, HISTORIAL_PAGE_SIZE);
+        
+        saleService.contarVentasAsync()
+            .thenCompose(total -> saleService.obtenerVentasPaginadasAsync(HISTORIAL_PAGE_SIZE, offset)
+                .thenApply(ventas -> Map.entry(total, ventas)))
+            .whenComplete((resultado, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    mostrarErrorHistorial(error);
+                    return;
+                }
+                historialTotalVentas = resultado.getKey();
+                mostrarPaginaHistorial(panel, resultado.getValue());
+            }));
+    }
+    
+    /**
+     * Carga una página del historial (con el total del último conteo)
+     */
+    private void irAPaginaHistorial(JPanel panel, int pagina) {
+        int totalPaginas = PaginationHelper.calculateTotalPages(historialTotalVentas, HISTORIAL_PAGE_SIZE);
+        int paginaValida = PaginationHelper.validatePageNumber(pagina, totalPaginas);
+        int offset = PaginationHelper.calculateOffset(paginaValida, HISTORIAL_PAGE_SIZE);
+        
+        saleService.obtenerVentasPaginadasAsync(HISTORIAL_PAGE_SIZE, offset)
+            .whenComplete((ventas, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    mostrarErrorHistorial(error);
+                    return;
+                }
+                historialPaginaActual = paginaValida;
+                mostrarPaginaHistorial(panel, ventas);
+            }));
+    }
+    
+    private void mostrarPaginaHistorial(JPanel panel, List<Sale> ventas) {
         DefaultTableModel salesTableModel = (DefaultTableModel) panel.getClientProperty("salesTableModel");
-        
-        if (salesTable == null || salesTableModel == null) return;
-        
-        try {
-            salesTableModel.setRowCount(0);
-            
-            List<com.novafarma.model.Sale> ventas = saleService.obtenerTodasLasVentas();
-            
-            for (com.novafarma.model.Sale venta : ventas) {
-                Object[] fila = {
-                    venta.getId(),
-                    venta.getProductoId(),
-                    venta.getUsuarioId(),
-                    venta.getCantidad(),
-                    String.format("S/%.2f", venta.getPrecioUnitario()),
-                    String.format("S/%.2f", venta.getTotal()),
-                    formatFecha(venta.getFechaVenta())
-                };
-                salesTableModel.addRow(fila);
-            }
-            
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this,
-                "Error al cargar el historial de ventas:\n" + e.getMessage(),
-                "Error de Base de Datos",
-                JOptionPane.ERROR_MESSAGE);
+        if (salesTableModel == null) return;
+        
+        salesTableModel.setRowCount(0);
+        for (Sale venta : ventas) {
+            Object[] fila = {
+                venta.getId(),
+                venta.getProductoId(),
+                venta.getUsuarioId(),
+                venta.getCantidad(),
+                venta.getPrecioUnitario(),
+                venta.getTotal(),
+                formatFecha(venta.getFechaVenta())
+            };
+            salesTableModel.addRow(fila);
         }
+        
+        int totalPaginas = PaginationHelper.calculateTotalPages(historialTotalVentas, HISTORIAL_PAGE_SIZE);
+        String rango = PaginationHelper.getDisplayRange(historialPaginaActual, HISTORIAL_PAGE_SIZE, historialTotalVentas);
+        lblHistorialPagina.setText(String.format("Página %d de %d (%s)", historialPaginaActual, totalPaginas, rango));
+        btnHistorialPrimera.setEnabled(historialPaginaActual > 1);
+        btnHistorialAnterior.setEnabled(historialPaginaActual > 1);
+        btnHistorialSiguiente.setEnabled(historialPaginaActual < totalPaginas);
+        btnHistorialUltima.setEnabled(historialPaginaActual < totalPaginas);
+    }
+    
+    private void mostrarErrorHistorial(Throwable error) {
+        JOptionPane.showMessageDialog(this,
+            "Error al cargar el historial de ventas:\n" + AsyncExecutor.obtenerCausa(error).getMessage(),
+            "Error de Base de Datos",
+            JOptionPane.ERROR_MESSAGE);
     }
     
     private String formatFecha(java.sql.Timestamp fecha) {
@@ -370,9 +501,37 @@ private JPanel crearPanelUsuarios() {
         
         panel.add(lblFooter);
         
+        // Indicador de conexión con la base de datos
+        lblEstadoBD = new JLabel();
+        lblEstadoBD.setFont(new Font("Arial", Font.BOLD, 10));
+        panel.add(Box.createHorizontalStrut(20));
+        panel.add(lblEstadoBD);
+        actualizarIndicadorBD(DatabaseConnection.obtenerEstadoSalud());
+        DatabaseConnection.agregarObservadorSalud(observadorSalud);
+        
         return panel;
     }
     
+    private void actualizarIndicadorBD(CircuitBreaker.Estado estado) {
+        String texto = "● BD: " + estado.getDescripcion();
+        if (estado == CircuitBreaker.Estado.ABIERTO) {
+            long segundos = (DatabaseConnection.obtenerMsHastaReintento() + 999) / 1000;
+            texto += " (reintento en " + segundos + " s)";
+        }
+        lblEstadoBD.setText(texto);
+        lblEstadoBD.setForeground(estado == CircuitBreaker.Estado.CERRADO ? new Color(46, 204, 113)
+            : estado == CircuitBreaker.Estado.SEMIABIERTO ? new Color(230, 126, 34) : Color.RED);
+    }
+    
+    @Override
+    public void dispose() {
+        DatabaseConnection.quitarObservadorSalud(observadorSalud);
+        if (salesPanel != null) {
+            salesPanel.liberarReservas();
+        }
+        super.dispose();
+    }
+    
     private void aplicarPermisosPorRol() {
         inventoryPanel.aplicarPermisosPorRol();
         alertsPanel.aplicarPermisosPorRol();
@@ -1,16 +1,16 @@
 package com.novafarma.ui;
 
 import com.novafarma.model.User;
-import com.novafarma.model.User.UserRole;
-import com.novafarma.util.DatabaseConnection;
+import com.novafarma.service.ElectronicInvoiceQueue;
+import com.novafarma.service.ReceiptNumberAllocator;
+import com.novafarma.service.SaleJournalReplayer;
+import com.novafarma.service.UserService;
+import com.novafarma.service.WarmupService;
+import com.novafarma.util.AsyncExecutor;
 import com.novafarma.util.SecurityHelper;
 
 import javax.swing.*;
 import java.awt.*;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 
 /** Ventana de Login con autenticación SHA-256 y recuperación de contraseña */
 public class LoginFrame extends JFrame {
@@ -21,7 +21,10 @@ public class LoginFrame extends JFrame {
     private JButton btnForgotPassword;
     private JLabel lblStatus;
     
+    private final UserService userService;
+    
     public LoginFrame() {
+        this.userService = new UserService();
         inicializarInterfaz();
     }
     
@@ -141,132 +144,120 @@ public class LoginFrame extends JFrame {
             return;
         }
         
-        try {
-            String passwordHash = SecurityHelper.encryptPassword(password);
-            Connection conexion = DatabaseConnection.getConnection();
-            String consultaSQL = "SELECT id, username, password_hash, rol FROM usuarios WHERE username = ? AND password_hash = ?";
-            
-            PreparedStatement consultaPreparada = conexion.prepareStatement(consultaSQL);
-            consultaPreparada.setString(1, username);
-            consultaPreparada.setString(2, passwordHash);
-            
-            ResultSet resultadoConsulta = consultaPreparada.executeQuery();
-            
-            if (resultadoConsulta.next()) {
-                int id = resultadoConsulta.getInt("id");
-                String rolString = resultadoConsulta.getString("rol");
-                UserRole rol = UserRole.fromString(rolString);
-                
-                User usuarioLogueado = new User(id, username, passwordHash, rol);
-                mostrarEstado("¡Bienvenido, " + username + "!", new Color(46, 204, 113));
+        String passwordHash = SecurityHelper.encryptPassword(password);
+        btnLogin.setEnabled(false);
+        
+        // La consulta corre fuera del hilo de Swing (la ventana no se congela)
+        userService.autenticarUsuarioAsync(username, passwordHash)
+            .whenComplete((usuarioLogueado, error) -> SwingUtilities.invokeLater(() -> {
+                btnLogin.setEnabled(true);
                 
-                Timer temporizador = new Timer(500, e -> {
-                    abrirDashboard(usuarioLogueado);
-                    dispose();
-                });
-                temporizador.setRepeats(false);
-                temporizador.start();
+                if (error != null) {
+                    mostrarEstado("Error de conexión a la base de datos", Color.RED);
+                    AsyncExecutor.obtenerCausa(error).printStackTrace();
+                    return;
+                }
                 
-            } else {
-                mostrarEstado("Usuario o contraseña incorrectos", Color.RED);
-                txtPassword.setText("");
-                txtPassword.requestFocus();
-            }
-            
-            resultadoConsulta.close();
-            consultaPreparada.close();
-            
-        } catch (SQLException e) {
-            mostrarEstado("Error de conexión a la base de datos", Color.RED);
-            e.printStackTrace();
-        }
+                if (usuarioLogueado != null) {
+                    mostrarEstado("¡Bienvenido, " + username + "!", new Color(46, 204, 113));
+                    
+                    Timer temporizador = new Timer(500, e -> {
+                        abrirDashboard(usuarioLogueado);
+                        dispose();
+                    });
+                    temporizador.setRepeats(false);
+                    temporizador.start();
+                    
+                } else {
+                    mostrarEstado("Usuario o contraseña incorrectos", Color.RED);
+                    txtPassword.setText("");
+                    txtPassword.requestFocus();
+                }
+            }));
     }
     
     private void mostrarRecuperacionContrasena() {
-        String username = JOptionPane.showInputDialog(
+        String ingresado = JOptionPane.showInputDialog(
             this,
             "Ingresa tu nombre de usuario:",
             "Recuperación de Contraseña",
             JOptionPane.PLAIN_MESSAGE
         );
         
-        if (username == null || username.trim().isEmpty()) {
+        if (ingresado == null || ingresado.trim().isEmpty()) {
             return;
         }
         
-        username = username.trim();
+        String username = ingresado.trim();
         
-        try {
-            Connection conexion = DatabaseConnection.getConnection();
-            String consultaVerificacion = "SELECT id FROM usuarios WHERE username = ?";
-            PreparedStatement consultaVerificar = conexion.prepareStatement(consultaVerificacion);
-            consultaVerificar.setString(1, username);
-            ResultSet resultadoVerificacion = consultaVerificar.executeQuery();
-            
-            if (!resultadoVerificacion.next()) {
-                JOptionPane.showMessageDialog(
-                    this,
-                    "El usuario '" + username + "' no existe en el sistema.",
-                    "Usuario No Encontrado",
-                    JOptionPane.ERROR_MESSAGE
-                );
-                resultadoVerificacion.close();
-                consultaVerificar.close();
-                return;
-            }
-            
-            resultadoVerificacion.close();
-            consultaVerificar.close();
-            
-            JPasswordField newPasswordField = new JPasswordField();
-            JPasswordField confirmPasswordField = new JPasswordField();
-            
-            Object[] message = {
-                "Nueva contraseña:", newPasswordField,
-                "Confirmar contraseña:", confirmPasswordField
-            };
-            
-            int option = JOptionPane.showConfirmDialog(
-                this,
-                message,
-                "Establecer Nueva Contraseña",
-                JOptionPane.OK_CANCEL_OPTION,
-                JOptionPane.PLAIN_MESSAGE
-            );
-            
-            if (option == JOptionPane.OK_OPTION) {
-                String newPassword = new String(newPasswordField.getPassword());
-                String confirmPassword = new String(confirmPasswordField.getPassword());
-                
-                if (!newPassword.equals(confirmPassword)) {
+        userService.existeUsuarioAsync(username)
+            .whenComplete((usuarioExiste, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    mostrarErrorConexion(AsyncExecutor.obtenerCausa(error));
+                } else if (!usuarioExiste) {
                     JOptionPane.showMessageDialog(
                         this,
-                        "Las contraseñas no coinciden. Intenta nuevamente.",
-                        "Error",
+                        "El usuario '" + username + "' no existe en el sistema.",
+                        "Usuario No Encontrado",
                         JOptionPane.ERROR_MESSAGE
                     );
-                    return;
-                }
-                
-                if (newPassword.length() < 4) {
-                    JOptionPane.showMessageDialog(
-                        this,
-                        "La contraseña debe tener al menos 4 caracteres.",
-                        "Contraseña Débil",
-                        JOptionPane.WARNING_MESSAGE
-                    );
-                    return;
+                } else {
+                    solicitarNuevaContrasena(username);
                 }
-                
-                String newPasswordHash = SecurityHelper.encryptPassword(newPassword);
-                String consultaActualizacion = "UPDATE usuarios SET password_hash = ? WHERE username = ?";
-                PreparedStatement consultaActualizar = conexion.prepareStatement(consultaActualizacion);
-                consultaActualizar.setString(1, newPasswordHash);
-                consultaActualizar.setString(2, username);
-                
-                int filasAfectadas = consultaActualizar.executeUpdate();
-                
-                if (filasAfectadas > 0) {
+            }));
+    }
+    
+    private void solicitarNuevaContrasena(String username) {
+        JPasswordField newPasswordField = new JPasswordField();
+        JPasswordField confirmPasswordField = new JPasswordField();
+        
+        Object[] message = {
+            "Nueva contraseña:", newPasswordField,
+            "Confirmar contraseña:", confirmPasswordField
+        };
+        
+        int option = JOptionPane.showConfirmDialog(
+            this,
+            message,
+            "Establecer Nueva Contraseña",
+            JOptionPane.OK_CANCEL_OPTION,
+            JOptionPane.PLAIN_MESSAGE
+        );
+        
+        if (option != JOptionPane.OK_OPTION) {
+            return;
+        }
+        
+        String newPassword = new String(newPasswordField.getPassword());
+        String confirmPassword = new String(confirmPasswordField.getPassword());
+        
+        if (!newPassword.equals(confirmPassword)) {
+            JOptionPane.showMessageDialog(
+                this,
+                "Las contraseñas no coinciden. Intenta nuevamente.",
+                "Error",
+                JOptionPane.ERROR_MESSAGE
+            );
+            return;
+        }
+        
+        if (newPassword.length() < 4) {
+            JOptionPane.showMessageDialog(
+                this,
+                "La contraseña debe tener al menos 4 caracteres.",
+                "Contraseña Débil",
+                JOptionPane.WARNING_MESSAGE
+            );
+            return;
+        }
+        
+        String newPasswordHash = SecurityHelper.encryptPassword(newPassword);
+        
+        AsyncExecutor.ejecutar(() -> userService.actualizarContrasena(username, newPasswordHash))
+            .whenComplete((actualizada, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    mostrarErrorConexion(AsyncExecutor.obtenerCausa(error));
+                } else if (actualizada) {
                     JOptionPane.showMessageDialog(
                         this,
                         "¡Contraseña actualizada exitosamente!\nYa puedes iniciar sesión con tu nueva contraseña.",
@@ -274,19 +265,17 @@ public class LoginFrame extends JFrame {
                         JOptionPane.INFORMATION_MESSAGE
                     );
                 }
-                
-                consultaActualizar.close();
-            }
-            
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(
-                this,
-                "Error al conectar con la base de datos.\n" + e.getMessage(),
-                "Error de Conexión",
-                JOptionPane.ERROR_MESSAGE
-            );
-            e.printStackTrace();
-        }
+            }));
+    }
+    
+    private void mostrarErrorConexion(Throwable causa) {
+        JOptionPane.showMessageDialog(
+            this,
+            "Error al conectar con la base de datos.\n" + causa.getMessage(),
+            "Error de Conexión",
+            JOptionPane.ERROR_MESSAGE
+        );
+        causa.printStackTrace();
     }
     
     private void mostrarEstado(String message, Color color) {
@@ -312,6 +301,17 @@ public class LoginFrame extends JFrame {
             e.printStackTrace();
         }
         
+        WarmupService.iniciar();
+        
+        // Sincronizar las ventas que quedaron en el diario local (si está activo)
+        SaleJournalReplayer.iniciar();
+        
+        // Devolver los números no usados de la sesión anterior y reservar un bloque por serie
+        ReceiptNumberAllocator.iniciar();
+        
+        // Generar y enviar en segundo plano los documentos electrónicos pendientes
+        ElectronicInvoiceQueue.iniciar();
+        
         SwingUtilities.invokeLater(() -> {
             LoginFrame loginFrame = new LoginFrame();
             loginFrame.setVisible(true);
@@ -1,5 +1,6 @@
 package com.novafarma.ui;
 
+import com.novafarma.model.Money;
 import com.novafarma.model.Product;
 
 import javax.swing.*;
@@ -94,7 +95,7 @@ public class ProductDialog extends JDialog {
         // Campo: Precio
         JLabel lblPrecio = new JLabel("Precio:");
         lblPrecio.setFont(new Font("Arial", Font.BOLD, 12));
-        txtPrecio = new JTextField(product != null ? String.valueOf(product.getPrecio()) : "");
+        txtPrecio = new JTextField(product != null ? product.getPrecio().toBigDecimal().toPlainString() : "");
         txtPrecio.setMaximumSize(new Dimension(Integer.MAX_VALUE, 25));
         
         mainPanel.add(lblPrecio);
@@ -180,11 +181,11 @@ public class ProductDialog extends JDialog {
         try {
             String nombre = txtNombre.getText().trim();
             String descripcion = txtDescripcion.getText().trim();
-            double precio = Double.parseDouble(txtPrecio.getText().trim());
+            Money precio = Money.parse(txtPrecio.getText());
             int stock = Integer.parseInt(txtStock.getText().trim());
             
             // Validar precio y stock
-            if (precio <= 0) {
+            if (!precio.esPositivo()) {
                 JOptionPane.showMessageDialog(this,
                     "El precio debe ser mayor a 0",
                     "Error de Validación",
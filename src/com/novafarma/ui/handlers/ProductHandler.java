@@ -67,11 +67,10 @@ public class ProductHandler {
                 }
             }
             
-            boolean exito = productService.crearProducto(nuevo);
+            Product creado = productService.crearYObtenerProducto(nuevo);
             
-            if (exito) {
-                Product creado = productService.buscarProductoPorNombre(nuevo.getNombre());
-                if (creado != null && creado.isActivo()) {
+            if (creado != null) {
+                if (creado.isActivo()) {
                     inventoryPanel.agregarFilaProducto(creado);
                 }
                 JOptionPane.showMessageDialog(parent, Mensajes.PRODUCTO_AGREGADO, Mensajes.TITULO_EXITO, JOptionPane.INFORMATION_MESSAGE);
@@ -109,10 +108,9 @@ public class ProductHandler {
                 return;
             }
             
-            boolean exito = productService.actualizarProducto(editado);
-            if (exito) {
-                Product actualizado = productService.obtenerProductoPorId(productId);
-                if (actualizado != null && actualizado.isActivo()) {
+            Product actualizado = productService.actualizarYObtenerProducto(editado);
+            if (actualizado != null) {
+                if (actualizado.isActivo()) {
                     inventoryPanel.actualizarFilaProducto(actualizado);
                 } else {
                     inventoryPanel.eliminarFilaProducto(productId);
@@ -170,7 +168,7 @@ public class ProductHandler {
             "ID: %d\n" +
             "Estado: %s\n" +
             "Stock: %d\n" +
-            "Precio: S/%.2f\n\n" +
+            "Precio: %s\n\n" +
             "¿Qué deseas hacer?",
             nombre, existente.getId(), estado, existente.getStock(), existente.getPrecio()
         );
@@ -182,10 +180,9 @@ public class ProductHandler {
     
     private void actualizarExistente(Product existente) {
         try {
-            boolean exito = productService.actualizarProducto(existente);
-            if (exito) {
-                Product actualizado = productService.obtenerProductoPorId(existente.getId());
-                if (actualizado != null && actualizado.isActivo()) {
+            Product actualizado = productService.actualizarYObtenerProducto(existente);
+            if (actualizado != null) {
+                if (actualizado.isActivo()) {
                     inventoryPanel.actualizarFilaProducto(actualizado);
                 } else {
                     inventoryPanel.eliminarFilaProducto(existente.getId());
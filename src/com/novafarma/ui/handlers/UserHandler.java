@@ -1,5 +1,6 @@
 package com.novafarma.ui.handlers;
 
+import com.novafarma.model.DashboardSnapshot;
 import com.novafarma.model.User;
 import com.novafarma.service.UserService;
 import com.novafarma.ui.UserCreationDialog;
@@ -22,7 +23,7 @@ public class UserHandler {
     private DefaultTableModel usersTableModel;
     
     private static final int PAGE_SIZE = PaginationHelper.DEFAULT_PAGE_SIZE;
-    private static final int PAGINATION_THRESHOLD = 100;
+    private static final int PAGINATION_THRESHOLD = PaginationHelper.DEFAULT_PAGINATION_THRESHOLD;
     private int currentPage = 1;
     private int totalRecords = 0;
     private boolean paginationEnabled = false;
@@ -89,16 +90,7 @@ public class UserHandler {
             List<User> usuarios = userService.obtenerTodosLosUsuarios();
             Map<Integer, Integer> ventasPorUsuario = userService.obtenerUsuariosConVentas();
             
-            for (User usuario : usuarios) {
-                int ventas = ventasPorUsuario.getOrDefault(usuario.getId(), 0);
-                Object[] fila = {
-                    usuario.getId(),
-                    usuario.getUsername(),
-                    usuario.getRol().getDisplayName(),
-                    ventas + " venta(s)"
-                };
-                usersTableModel.addRow(fila);
-            }
+            mostrarUsuarios(usuarios, ventasPorUsuario);
             
         } catch (SQLException e) {
             e.printStackTrace();
@@ -113,22 +105,39 @@ public class UserHandler {
             List<User> usuarios = userService.obtenerUsuariosPaginados(PAGE_SIZE, offset);
             Map<Integer, Integer> ventasPorUsuario = userService.obtenerUsuariosConVentas();
             
-            for (User usuario : usuarios) {
-                int ventas = ventasPorUsuario.getOrDefault(usuario.getId(), 0);
-                Object[] fila = {
-                    usuario.getId(),
-                    usuario.getUsername(),
-                    usuario.getRol().getDisplayName(),
-                    ventas + " venta(s)"
-                };
-                usersTableModel.addRow(fila);
-            }
+            mostrarUsuarios(usuarios, ventasPorUsuario);
             
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
     
+    /**
+     * Llena la tabla con los datos de la carga inicial del Dashboard (sin consultar)
+     */
+    public void mostrarSnapshot(DashboardSnapshot snapshot) {
+        currentPage = 1;
+        totalRecords = snapshot.getTotalUsuarios();
+        paginationEnabled = totalRecords > PAGINATION_THRESHOLD;
+        
+        usersTableModel.setRowCount(0);
+        mostrarUsuarios(snapshot.getUsuarios(), snapshot.getVentasPorUsuario());
+        actualizarControlesPaginacion();
+    }
+    
+    private void mostrarUsuarios(List<User> usuarios, Map<Integer, Integer> ventasPorUsuario) {
+        for (User usuario : usuarios) {
+            int ventas = ventasPorUsuario.getOrDefault(usuario.getId(), 0);
+            Object[] fila = {
+                usuario.getId(),
+                usuario.getUsername(),
+                usuario.getRol().getDisplayName(),
+                ventas + " venta(s)"
+            };
+            usersTableModel.addRow(fila);
+        }
+    }
+    
     private void actualizarControlesPaginacion() {
         if (lblPageInfo == null) return;
         
@@ -1,15 +1,16 @@
 package com.novafarma.ui.panels;
 
+import com.novafarma.model.DashboardSnapshot;
 import com.novafarma.model.Product;
 import com.novafarma.model.User;
 import com.novafarma.service.ProductService;
 import com.novafarma.ui.ProductExpirationRenderer;
+import com.novafarma.util.AsyncExecutor;
 import com.novafarma.util.TableStyleHelper;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.List;
 
@@ -130,52 +131,68 @@ public class AlertsPanel extends JPanel {
      * Carga productos con alertas de vencimiento
      */
     public void cargarAlertas() {
-        try {
-            modelAlertas.setRowCount(0);
-            
-            List<Product> products = productService.obtenerProductosPorVencer();
-            SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-            
-            for (Product product : products) {
-                long diasRestantes = product.obtenerDiasHastaVencimiento();
-                
-                String estado;
-                if (diasRestantes < 0) {
-                    estado = "VENCIDO (" + Math.abs(diasRestantes) + " días atrás)";
-                } else if (diasRestantes == 0) {
-                    estado = "VENCE HOY";
-                } else {
-                    estado = "Por vencer";
+        // ASÍNCRONO: la consulta corre fuera del hilo de Swing
+        productService.obtenerProductosPorVencerAsync()
+            .whenComplete((products, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    Throwable causa = AsyncExecutor.obtenerCausa(error);
+                    JOptionPane.showMessageDialog(this,
+                        "Error al cargar alertas: " + causa.getMessage(),
+                        "Error de Base de Datos",
+                        JOptionPane.ERROR_MESSAGE);
+                    causa.printStackTrace();
+                    return;
                 }
-                
-                Object[] row = {
-                    product.getId(),
-                    product.getNombre(),
-                    product.getStock(),
-                    dateFormat.format(product.getFechaVencimiento()),
-                    diasRestantes + " días",
-                    estado
-                };
-                
-                modelAlertas.addRow(row);
-            }
+                mostrarAlertas(products);
+            }));
+    }
+    
+    /**
+     * Llena la tabla con los datos de la carga inicial del Dashboard (sin consultar)
+     */
+    public void mostrarSnapshot(DashboardSnapshot snapshot) {
+        mostrarAlertas(snapshot.getProductosPorVencer());
+    }
+    
+    /**
+     * Llena la tabla de alertas con los productos por vencer
+     */
+    private void mostrarAlertas(List<Product> products) {
+        modelAlertas.setRowCount(0);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        
+        for (Product product : products) {
+            long diasRestantes = product.obtenerDiasHastaVencimiento();
             
-            // Mostrar mensaje si no hay alertas
-            if (products.isEmpty()) {
-                JOptionPane.showMessageDialog(this,
-                    "¡Excelente!\n\n" +
-                    "No hay productos vencidos ni próximos a vencer\n" +
-                    "en los próximos 30 días.",
-                    "Sin Alertas",
-                    JOptionPane.INFORMATION_MESSAGE);
+            String estado;
+            if (diasRestantes < 0) {
+                estado = "VENCIDO (" + Math.abs(diasRestantes) + " días atrás)";
+            } else if (diasRestantes == 0) {
+                estado = "VENCE HOY";
+            } else {
+                estado = "Por vencer";
             }
             
-        } catch (SQLException e) {
+            Object[] row = {
+                product.getId(),
+                product.getNombre(),
+                product.getStock(),
+                dateFormat.format(product.getFechaVencimiento()),
+                diasRestantes + " días",
+                estado
+            };
+            
+            modelAlertas.addRow(row);
+        }
+        
+        // Mostrar mensaje si no hay alertas
+        if (products.isEmpty()) {
             JOptionPane.showMessageDialog(this,
-                "Error al cargar alertas: " + e.getMessage(),
-                "Error de Base de Datos",
-                JOptionPane.ERROR_MESSAGE);
-            e.printStackTrace();
+                "¡Excelente!\n\n" +
+                "No hay productos vencidos ni próximos a vencer\n" +
+                "en los próximos 30 días.",
+                "Sin Alertas",
+                JOptionPane.INFORMATION_MESSAGE);
         }
     }
     
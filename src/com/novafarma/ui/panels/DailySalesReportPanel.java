@@ -1,7 +1,12 @@
 package com.novafarma.ui.panels;
 
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.dao.ElectronicDocumentDAO;
 import com.novafarma.dao.SaleDAO;
 import com.novafarma.model.User;
+import com.novafarma.service.LockContentionMetrics;
+import com.novafarma.service.ReceiptNumberAllocator;
+import com.novafarma.service.SaleIngestionQueue;
 import com.novafarma.service.SaleService;
 
 import javax.swing.*;
@@ -11,6 +16,7 @@ import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Panel que muestra el reporte de ventas del día actual
@@ -27,7 +33,18 @@ public class DailySalesReportPanel extends JPanel {
     private JLabel lblTotalTransacciones;
     private JLabel lblTotalProductos;
     private JLabel lblTotalIngresos;
+    private JLabel lblTicketPromedio;
     private JLabel lblFechaReporte;
+    private JLabel lblDocumentosPendientes;
+    private JLabel lblDocumentosAceptados;
+    private JLabel lblDocumentosRechazados;
+    private JLabel lblDocumentosError;
+    private JLabel lblVentasPorCommit;
+    private JLabel lblNumerosLibres;
+    private JLabel lblProductosDisputados;
+    
+    /** Productos más disputados que muestra el diagnóstico */
+    private static final int PRODUCTOS_DISPUTADOS_MOSTRADOS = 3;
     
     public DailySalesReportPanel(User currentUser, SaleService saleService) {
         this.currentUser = currentUser;
@@ -76,7 +93,7 @@ public class DailySalesReportPanel extends JPanel {
     }
     
     private void crearTablaSummary() {
-        String[] columnNames = {"Trabajador", "Transacciones", "Productos Vendidos", "Total Recaudado"};
+        String[] columnNames = {"Trabajador", "Comprobantes", "Productos Vendidos", "Total Recaudado"};
         modelSummary = new DefaultTableModel(columnNames, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -93,7 +110,7 @@ public class DailySalesReportPanel extends JPanel {
         
         // Configurar ancho de columnas
         tableSummary.getColumnModel().getColumn(0).setPreferredWidth(200); // Trabajador
-        tableSummary.getColumnModel().getColumn(1).setPreferredWidth(120); // Transacciones
+        tableSummary.getColumnModel().getColumn(1).setPreferredWidth(120); // Comprobantes
         tableSummary.getColumnModel().getColumn(2).setPreferredWidth(150); // Productos
         tableSummary.getColumnModel().getColumn(3).setPreferredWidth(150); // Total
         
@@ -107,7 +124,7 @@ public class DailySalesReportPanel extends JPanel {
     }
     
     private void crearPanelTotales() {
-        JPanel panelTotales = new JPanel(new GridLayout(2, 3, 15, 10));
+        JPanel panelTotales = new JPanel(new GridLayout(2, 4, 15, 10));
         panelTotales.setBorder(BorderFactory.createCompoundBorder(
             BorderFactory.createTitledBorder("TOTALES DEL DÍA"),
             BorderFactory.createEmptyBorder(10, 15, 10, 15)
@@ -123,6 +140,9 @@ public class DailySalesReportPanel extends JPanel {
         JLabel lblTituloIngresos = new JLabel("Ingresos Totales:");
         lblTituloIngresos.setFont(new Font("Arial", Font.BOLD, 14));
         
+        JLabel lblTituloTicket = new JLabel("Ticket Promedio:");
+        lblTituloTicket.setFont(new Font("Arial", Font.BOLD, 14));
+        
         // Valores de los totales
         lblTotalTransacciones = new JLabel("0");
         lblTotalTransacciones.setFont(new Font("Arial", Font.PLAIN, 16));
@@ -136,15 +156,144 @@ public class DailySalesReportPanel extends JPanel {
         lblTotalIngresos.setFont(new Font("Arial", Font.BOLD, 18));
         lblTotalIngresos.setForeground(new Color(0, 120, 0));
         
+        lblTicketPromedio = new JLabel("S/0.00");
+        lblTicketPromedio.setFont(new Font("Arial", Font.PLAIN, 16));
+        lblTicketPromedio.setForeground(new Color(0, 100, 0));
+        
         // Agregar títulos y valores al panel
         panelTotales.add(lblTituloTransacciones);
         panelTotales.add(lblTituloProductos);
         panelTotales.add(lblTituloIngresos);
+        panelTotales.add(lblTituloTicket);
         panelTotales.add(lblTotalTransacciones);
         panelTotales.add(lblTotalProductos);
         panelTotales.add(lblTotalIngresos);
+        panelTotales.add(lblTicketPromedio);
+        
+        JPanel panelEstado = new JPanel(new BorderLayout(0, 10));
+        if (DatabaseConfig.DOCUMENTOS_ELECTRONICOS_HABILITADOS) {
+            panelEstado.add(crearPanelDocumentos(), BorderLayout.NORTH);
+        }
+        panelEstado.add(crearPanelDiagnostico(), BorderLayout.SOUTH);
+        
+        JPanel panelInferior = new JPanel(new BorderLayout(0, 10));
+        panelInferior.add(panelTotales, BorderLayout.CENTER);
+        panelInferior.add(panelEstado, BorderLayout.SOUTH);
+        add(panelInferior, BorderLayout.SOUTH);
+    }
+    
+    /**
+     * Métricas en memoria del registro de ventas de esta caja (desde que se abrió
+     * la aplicación): agrupación de commits, números de comprobante reservados y
+     * productos con más espera por bloqueo
+     */
+    private JPanel crearPanelDiagnostico() {
+        JPanel panelDiagnostico = new JPanel(new GridLayout(1, 3, 15, 10));
+        panelDiagnostico.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createTitledBorder("DIAGNÓSTICO DE ESTA CAJA"),
+            BorderFactory.createEmptyBorder(5, 15, 5, 15)
+        ));
+        
+        lblVentasPorCommit = new JLabel();
+        lblNumerosLibres = new JLabel();
+        lblProductosDisputados = new JLabel();
+        for (JLabel etiqueta : new JLabel[] {lblVentasPorCommit, lblNumerosLibres, lblProductosDisputados}) {
+            etiqueta.setFont(new Font("Arial", Font.PLAIN, 12));
+            etiqueta.setVerticalAlignment(SwingConstants.TOP);
+            panelDiagnostico.add(etiqueta);
+        }
         
-        add(panelTotales, BorderLayout.SOUTH);
+        return panelDiagnostico;
+    }
+    
+    private void cargarDiagnostico() {
+        if (DatabaseConfig.VENTA_AGRUPADA_HABILITADA) {
+            double promedio = SaleIngestionQueue.getInstance().obtenerPromedioPorGrupo();
+            lblVentasPorCommit.setText(String.format("Ventas por commit: %.2f", promedio));
+        } else {
+            lblVentasPorCommit.setText("Ventas por commit: sin agrupación");
+        }
+        
+        if (DatabaseConfig.NUMERACION_HABILITADA) {
+            ReceiptNumberAllocator numeracion = ReceiptNumberAllocator.getInstance();
+            lblNumerosLibres.setText("Números reservados libres: " +
+                DatabaseConfig.SERIE_BOLETA + " " + numeracion.contarLibres(DatabaseConfig.SERIE_BOLETA) + " / " +
+                DatabaseConfig.SERIE_FACTURA + " " + numeracion.contarLibres(DatabaseConfig.SERIE_FACTURA));
+        } else {
+            lblNumerosLibres.setText("Números reservados libres: sin numeración");
+        }
+        
+        List<LockContentionMetrics.EstadisticasProducto> disputados =
+            LockContentionMetrics.getInstance().obtenerEstadisticas(PRODUCTOS_DISPUTADOS_MOSTRADOS);
+        StringBuilder texto = new StringBuilder("<html>Espera por bloqueo:");
+        if (disputados.isEmpty()) {
+            texto.append(" sin ventas registradas");
+        }
+        for (LockContentionMetrics.EstadisticasProducto producto : disputados) {
+            texto.append(String.format("<br>Producto #%d: prom %.1f ms, máx %.1f ms, reintentos %d",
+                producto.getProductoId(), producto.getEsperaPromedioMs(),
+                producto.getEsperaMaximaMs(), producto.getReintentos()));
+        }
+        lblProductosDisputados.setText(texto.append("</html>").toString());
+    }
+    
+    /** Estado de los documentos electrónicos (se generan y envían en segundo plano) */
+    private JPanel crearPanelDocumentos() {
+        JPanel panelDocumentos = new JPanel(new GridLayout(1, 5, 15, 10));
+        panelDocumentos.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createTitledBorder("DOCUMENTOS ELECTRÓNICOS"),
+            BorderFactory.createEmptyBorder(5, 15, 5, 15)
+        ));
+        
+        lblDocumentosPendientes = new JLabel("Pendientes: 0");
+        lblDocumentosAceptados = new JLabel("Aceptados hoy: 0");
+        lblDocumentosRechazados = new JLabel("Rechazados: 0");
+        lblDocumentosError = new JLabel("Con error: 0");
+        for (JLabel etiqueta : new JLabel[] {lblDocumentosPendientes, lblDocumentosAceptados,
+                                             lblDocumentosRechazados, lblDocumentosError}) {
+            etiqueta.setFont(new Font("Arial", Font.BOLD, 13));
+            panelDocumentos.add(etiqueta);
+        }
+        lblDocumentosAceptados.setForeground(new Color(0, 120, 0));
+        
+        JButton btnReintentar = new JButton("Reintentar con error");
+        btnReintentar.setFont(new Font("Arial", Font.PLAIN, 12));
+        btnReintentar.setCursor(new Cursor(Cursor.HAND_CURSOR));
+        btnReintentar.addActionListener(e -> reintentarDocumentos());
+        panelDocumentos.add(btnReintentar);
+        
+        return panelDocumentos;
+    }
+    
+    private void cargarEstadoDocumentos() throws SQLException {
+        Map<String, Integer> conteo = saleService.obtenerEstadoDocumentosElectronicos();
+        int rechazados = conteo.get(ElectronicDocumentDAO.ESTADO_RECHAZADO);
+        int conError = conteo.get(ElectronicDocumentDAO.ESTADO_ERROR);
+        
+        lblDocumentosPendientes.setText("Pendientes: " + conteo.get(ElectronicDocumentDAO.ESTADO_PENDIENTE));
+        lblDocumentosAceptados.setText("Aceptados hoy: " + conteo.get(ElectronicDocumentDAO.ESTADO_ACEPTADO));
+        lblDocumentosRechazados.setText("Rechazados: " + rechazados);
+        lblDocumentosRechazados.setForeground(rechazados > 0 ? Color.RED : Color.BLACK);
+        lblDocumentosError.setText("Con error: " + conError);
+        lblDocumentosError.setForeground(conError > 0 ? new Color(230, 126, 34) : Color.BLACK);
+    }
+    
+    /** Vuelve a poner en cola los documentos que agotaron sus reintentos */
+    private void reintentarDocumentos() {
+        try {
+            int reencolados = saleService.reintentarDocumentosConError();
+            JOptionPane.showMessageDialog(this,
+                reencolados + " documento(s) vuelven a la cola de envío.",
+                "Documentos electrónicos",
+                JOptionPane.INFORMATION_MESSAGE);
+            cargarReporteDelDia();
+        } catch (SQLException e) {
+            JOptionPane.showMessageDialog(this,
+                "Error al reencolar los documentos:\n" + e.getMessage(),
+                "Error de Base de Datos",
+                JOptionPane.ERROR_MESSAGE);
+            e.printStackTrace();
+        }
     }
     
     /** Carga los datos del reporte desde la base de datos */
@@ -161,7 +310,7 @@ public class DailySalesReportPanel extends JPanel {
                     reporte.getUsername(),
                     reporte.getTotalVentas(),
                     reporte.getTotalProductos(),
-                    String.format("S/%.2f", reporte.getTotalDinero())
+                    reporte.getTotalDinero()
                 };
                 modelSummary.addRow(fila);
             }
@@ -171,7 +320,13 @@ public class DailySalesReportPanel extends JPanel {
             
             lblTotalTransacciones.setText(String.valueOf(totales.getTotalTransacciones()));
             lblTotalProductos.setText(String.valueOf(totales.getTotalProductos()));
-            lblTotalIngresos.setText(String.format("S/%.2f", totales.getTotalIngresos()));
+            lblTotalIngresos.setText(totales.getTotalIngresos().toString());
+            lblTicketPromedio.setText(totales.getTicketPromedio().toString());
+            
+            if (DatabaseConfig.DOCUMENTOS_ELECTRONICOS_HABILITADOS) {
+                cargarEstadoDocumentos();
+            }
+            cargarDiagnostico();
             
             // Mostrar cuándo se actualizó por última vez
             SimpleDateFormat dateFormat = new SimpleDateFormat("EEEE, dd 'de' MMMM 'de' yyyy - HH:mm:ss");
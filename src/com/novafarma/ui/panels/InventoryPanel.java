@@ -1,9 +1,11 @@
 package com.novafarma.ui.panels;
 
+import com.novafarma.model.DashboardSnapshot;
 import com.novafarma.model.Product;
 import com.novafarma.model.User;
 import com.novafarma.service.ProductService;
 import com.novafarma.ui.ProductExpirationRenderer;
+import com.novafarma.util.AsyncExecutor;
 import com.novafarma.util.Mensajes;
 import com.novafarma.util.PaginationHelper;
 import com.novafarma.util.TableStyleHelper;
@@ -15,6 +17,8 @@ import java.awt.*;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 public class InventoryPanel extends JPanel {
@@ -44,7 +48,7 @@ public class InventoryPanel extends JPanel {
     
     // Paginación
     private static final int PAGE_SIZE = PaginationHelper.DEFAULT_PAGE_SIZE;
-    private static final int PAGINATION_THRESHOLD = 100; // Activar paginación si hay más de 100 registros
+    private static final int PAGINATION_THRESHOLD = PaginationHelper.DEFAULT_PAGINATION_THRESHOLD;
     private int currentPage = 1;
     private int totalRecords = 0;
     private boolean paginationEnabled = false;
@@ -193,62 +197,50 @@ public class InventoryPanel extends JPanel {
     /**
      * Carga productos activos desde ProductService
      * OPTIMIZACIÓN: Usa paginación automática si hay más de PAGINATION_THRESHOLD registros
+     * 
+     * ASÍNCRONO: Las consultas corren fuera del hilo de Swing; la tabla se
+     * llena con SwingUtilities.invokeLater cuando llegan los datos
      */
     public void cargarProductos() {
-        try {
-            modelProducts.setRowCount(0);
-            
-            // Contar total de registros
-            totalRecords = productService.contarProductosActivos();
-            
-            // Decidir si usar paginación
-            if (totalRecords > PAGINATION_THRESHOLD) {
-                paginationEnabled = true;
-        cargarProductosPaginados();
-            cargarProductosPaginados();
-            cargarProductosPaginados();
-        cargarProductosPaginados();
-            } else {
-                paginationEnabled = false;
-                cargarProductosSinPaginacion();
-            }
-            
-            actualizarControlesPaginacion();
-            
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, 
-                Mensajes.ERROR_CARGAR + ": " + e.getMessage(),
-                Mensajes.ERROR_BD,
-                JOptionPane.ERROR_MESSAGE);
-        }
+        int offset = PaginationHelper.calculateOffset(currentPage, PAGE_SIZE);
+        
+        productService.contarProductosActivosAsync()
+            .thenCompose(total -> {
+                CompletableFuture<List<Product>> productos = total > PAGINATION_THRESHOLD
+                    ? productService.obtenerProductosActivosPaginadosAsync(PAGE_SIZE, offset)
+                    : productService.obtenerProductosActivosAsync();
+                return productos.thenApply(lista -> Map.entry(total, lista));
+            })
+            .whenComplete((resultado, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    JOptionPane.showMessageDialog(this, 
+                        Mensajes.ERROR_CARGAR + ": " + AsyncExecutor.obtenerCausa(error).getMessage(),
+                        Mensajes.ERROR_BD,
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                
+                // Decidir si usar paginación
+                totalRecords = resultado.getKey();
+                paginationEnabled = totalRecords > PAGINATION_THRESHOLD;
+                
+                modelProducts.setRowCount(0);
+                mostrarProductos(resultado.getValue());
+                actualizarControlesPaginacion();
+            }));
     }
     
     /**
-     * Carga todos los productos (sin paginación)
+     * Llena la tabla con los datos de la carga inicial del Dashboard (sin consultar)
      */
-    private void cargarProductosSinPaginacion() {
-        try {
-            List<Product> products = productService.obtenerProductosActivos(); // Obtener todos los productos activos
-            SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-            
-            for (Product product : products) {
-                Object[] row = {
-                    product.getId(),
-                    product.getNombre(),
-                    product.getDescripcion(),
-                    String.format("S/%.2f", product.getPrecio()),
-                    product.getStock(),
-                    product.getFechaVencimiento() != null ? 
-                        dateFormat.format(product.getFechaVencimiento()) : "N/A"
-                };
-                modelProducts.addRow(row);
-            }
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, 
-                Mensajes.ERROR_CARGAR + ": " + e.getMessage(),
-                Mensajes.ERROR_BD,
-                JOptionPane.ERROR_MESSAGE);
-        }
+    public void mostrarSnapshot(DashboardSnapshot snapshot) {
+        currentPage = 1;
+        totalRecords = snapshot.getTotalProductosActivos();
+        paginationEnabled = totalRecords > PAGINATION_THRESHOLD;
+        
+        modelProducts.setRowCount(0);
+        mostrarProductos(paginationEnabled ? snapshot.getPrimerosProductos(PAGE_SIZE) : snapshot.getProductos());
+        actualizarControlesPaginacion();
     }
     
     /**
@@ -258,20 +250,8 @@ public class InventoryPanel extends JPanel {
         try {
             int offset = PaginationHelper.calculateOffset(currentPage, PAGE_SIZE);
             List<Product> products = productService.obtenerProductosActivosPaginados(PAGE_SIZE, offset);
-            SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-            
-            for (Product product : products) {
-                Object[] row = {
-                    product.getId(),
-                    product.getNombre(),
-                    product.getDescripcion(),
-                    String.format("S/%.2f", product.getPrecio()),
-                    product.getStock(),
-                    product.getFechaVencimiento() != null ? 
-                        dateFormat.format(product.getFechaVencimiento()) : "N/A"
-                };
-                modelProducts.addRow(row);
-            }
+            modelProducts.setRowCount(0);
+            mostrarProductos(products);
         } catch (SQLException e) {
             JOptionPane.showMessageDialog(this, 
                 Mensajes.ERROR_CARGAR + ": " + e.getMessage(),
@@ -280,6 +260,26 @@ public class InventoryPanel extends JPanel {
         }
     }
     
+    /**
+     * Agrega los productos a la tabla
+     */
+    private void mostrarProductos(List<Product> products) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        
+        for (Product product : products) {
+            Object[] row = {
+                product.getId(),
+                product.getNombre(),
+                product.getDescripcion(),
+                product.getPrecio(),
+                product.getStock(),
+                product.getFechaVencimiento() != null ? 
+                    dateFormat.format(product.getFechaVencimiento()) : "N/A"
+            };
+            modelProducts.addRow(row);
+        }
+    }
+    
     /**
      * Actualiza los controles de paginación
      */
@@ -357,7 +357,7 @@ public class InventoryPanel extends JPanel {
                 modelProducts.setValueAt(product.getId(), i, 0);
                 modelProducts.setValueAt(product.getNombre(), i, 1);
                 modelProducts.setValueAt(product.getDescripcion(), i, 2);
-                modelProducts.setValueAt(String.format("S/%.2f", product.getPrecio()), i, 3);
+                modelProducts.setValueAt(product.getPrecio(), i, 3);
                 modelProducts.setValueAt(product.getStock(), i, 4);
                 modelProducts.setValueAt(
                     product.getFechaVencimiento() != null ? 
@@ -387,7 +387,7 @@ public class InventoryPanel extends JPanel {
             product.getId(),
             product.getNombre(),
             product.getDescripcion(),
-            String.format("S/%.2f", product.getPrecio()),
+            product.getPrecio(),
             product.getStock(),
             product.getFechaVencimiento() != null ? 
                 dateFormat.format(product.getFechaVencimiento()) : "N/A"
@@ -1,19 +1,30 @@
 package com.novafarma.ui.panels;
 
+import com.novafarma.config.DatabaseConfig;
+import com.novafarma.model.Cart;
+import com.novafarma.model.DashboardSnapshot;
+import com.novafarma.model.Money;
 import com.novafarma.model.Product;
+import com.novafarma.model.Receipt;
 import com.novafarma.model.Sale;
 import com.novafarma.model.User;
 import com.novafarma.service.ProductService;
 import com.novafarma.service.SaleService;
+import com.novafarma.service.StockReservationService;
+import com.novafarma.ui.CartTableModel;
+import com.novafarma.util.AsyncExecutor;
 import com.novafarma.util.PaginationHelper;
+import com.novafarma.util.QueryHandle;
 import com.novafarma.util.TableStyleHelper;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Panel de Ventas (Punto de Venta - POS)
@@ -54,13 +65,23 @@ public class SalesPanel extends JPanel {
     
     // Componentes UI - Carrito
     private JTable tableCarrito;
-    private DefaultTableModel modelCarrito;
+    private Cart carrito;
+    private CartTableModel modelCarrito;
     private JLabel lblTotal;
-    private double totalVenta;
+    private JButton btnAgregar;
+    private JButton btnEliminarItem;
+    private JButton btnLimpiar;
+    private JButton btnFinalizar;
+    
+    private static final String TEXTO_FINALIZAR = "Registrar Venta / Emitir Comprobante";
+    private static final String TEXTO_REINTENTAR = "Reintentar Registro de la Venta";
+    private static final String MENSAJE_REGISTRO_PENDIENTE =
+        "\n\nLa venta pudo haber quedado registrada. El carrito queda bloqueado hasta\n" +
+        "reintentar el registro (\"" + TEXTO_REINTENTAR + "\"): el reintento no la duplica.";
     
     // Paginación del catálogo
     private static final int PAGE_SIZE = PaginationHelper.DEFAULT_PAGE_SIZE;
-    private static final int PAGINATION_THRESHOLD = 100;
+    private static final int PAGINATION_THRESHOLD = PaginationHelper.DEFAULT_PAGINATION_THRESHOLD;
     private int currentPage = 1;
     private int totalRecords = 0;
     private boolean paginationEnabled = false;
@@ -76,14 +97,29 @@ public class SalesPanel extends JPanel {
     // Callback para notificar finalización de venta (para recargar inventario)
     private Runnable onVentaFinalizada;
     
+    // Búsqueda del catálogo pendiente (se cancela si llega otra)
+    private QueryHandle busquedaEnCurso;
+    
+    // Reservas de stock de este carrito (otras ventanas no pueden prometer esas unidades)
+    private final StockReservationService reservas = StockReservationService.getInstance();
+    private final String carritoId = UUID.randomUUID().toString();
+    
+    // Último comprobante enviado de este carrito sin éxito confirmado (se reintenta con su clave y número)
+    private Receipt ultimoIntento;
+    
+    // El último intento terminó en un error ambiguo (su commit pudo llegar): el carrito
+    // queda bloqueado hasta que un reintento con la misma clave lo resuelva
+    private boolean registroPendiente;
+    private boolean ventaEnCurso;
+    
     public SalesPanel(User currentUser, ProductService productService, SaleService saleService) {
         this.currentUser = currentUser;
         this.productService = productService;
         this.saleService = saleService;
-        this.totalVenta = 0.0;
+        this.carrito = new Cart();
         
         inicializarInterfaz();
-        cargarCatalogo();
+        // El catálogo lo carga Dashboard junto con los demás paneles
     }
     
     private void inicializarInterfaz() {
@@ -179,7 +215,7 @@ public class SalesPanel extends JPanel {
         
         // Botón Agregar al Carrito
         JPanel btnCatalogoPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-        JButton btnAgregar = new JButton("Agregar al Carrito");
+        btnAgregar = new JButton("Agregar al Carrito");
         btnAgregar.setFont(new Font("Arial", Font.PLAIN, 13));
         btnAgregar.setCursor(new Cursor(Cursor.HAND_CURSOR));
         btnAgregar.addActionListener(e -> agregarAlCarrito());
@@ -202,13 +238,7 @@ public class SalesPanel extends JPanel {
         ));
         
         // Tabla del carrito
-        String[] columnsCarrito = {"ID", "Producto", "Cant.", "Precio U.", "Subtotal"};
-        modelCarrito = new DefaultTableModel(columnsCarrito, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        modelCarrito = new CartTableModel(carrito);
         
         tableCarrito = new JTable(modelCarrito);
         TableStyleHelper.applyTableStyle(tableCarrito);
@@ -233,7 +263,7 @@ public class SalesPanel extends JPanel {
         JLabel lblTotalTexto = new JLabel("TOTAL:");
         lblTotalTexto.setFont(new Font("Arial", Font.BOLD, 16));
         
-        lblTotal = new JLabel("S/0.00");
+        lblTotal = new JLabel(Money.CERO.toString());
         lblTotal.setFont(new Font("Arial", Font.BOLD, 20));
         
         totalPanel.add(lblTotalTexto);
@@ -248,12 +278,12 @@ public class SalesPanel extends JPanel {
         // Primera fila: Quitar y Limpiar
         JPanel fila1 = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 5));
         
-        JButton btnEliminarItem = new JButton("Quitar");
+        btnEliminarItem = new JButton("Quitar");
         btnEliminarItem.setFont(new Font("Arial", Font.PLAIN, 11));
         btnEliminarItem.setCursor(new Cursor(Cursor.HAND_CURSOR));
         btnEliminarItem.addActionListener(e -> quitarDelCarrito());
         
-        JButton btnLimpiar = new JButton("Limpiar");
+        btnLimpiar = new JButton("Limpiar");
         btnLimpiar.setFont(new Font("Arial", Font.PLAIN, 11));
         btnLimpiar.setCursor(new Cursor(Cursor.HAND_CURSOR));
         btnLimpiar.addActionListener(e -> limpiarCarrito());
@@ -264,7 +294,7 @@ public class SalesPanel extends JPanel {
         // Segunda fila: Registrar Venta / Emitir Comprobante
         JPanel fila2 = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 5));
         
-        JButton btnFinalizar = new JButton("Registrar Venta / Emitir Comprobante");
+        btnFinalizar = new JButton(TEXTO_FINALIZAR);
         btnFinalizar.setFont(new Font("Arial", Font.BOLD, 13));
         btnFinalizar.setCursor(new Cursor(Cursor.HAND_CURSOR));
         btnFinalizar.addActionListener(e -> finalizarVenta());
@@ -326,56 +356,53 @@ public class SalesPanel extends JPanel {
     /**
      * Carga productos activos en el catálogo de ventas
      * OPTIMIZACIÓN: Usa paginación automática si hay más de PAGINATION_THRESHOLD registros
+     * 
+     * ASÍNCRONO: Las consultas corren fuera del hilo de Swing; la tabla se
+     * llena con SwingUtilities.invokeLater cuando llegan los datos
      */
     public void cargarCatalogo() {
-        try {
-            // Contar total de productos vendibles (con stock > 0)
-            int totalVendibles = productService.contarProductosActivosConStock();
-            
-            // Activar paginación si hay muchos registros
-            if (totalVendibles > PAGINATION_THRESHOLD) {
-                paginationEnabled = true;
-                totalRecords = totalVendibles;
-                cargarCatalogoPaginated();
-            } else {
-                paginationEnabled = false;
-                cargarCatalogoCompleto();
-            }
-            
-            actualizarControlesPaginacion();
-            
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this,
-                "Error al cargar catálogo: " + e.getMessage(),
-                "Error",
-                JOptionPane.ERROR_MESSAGE);
-        }
+        int offset = PaginationHelper.calculateOffset(currentPage, PAGE_SIZE);
+        
+        // Contar total de productos vendibles (con stock > 0)
+        productService.contarProductosActivosConStockAsync()
+            .thenCompose(totalVendibles -> {
+                CompletableFuture<List<Product>> productos = totalVendibles > PAGINATION_THRESHOLD
+                    ? productService.obtenerProductosActivosPaginadosAsync(PAGE_SIZE, offset)
+                    : productService.obtenerProductosActivosAsync();
+                return productos.thenApply(lista -> Map.entry(totalVendibles, lista));
+            })
+            .whenComplete((resultado, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    JOptionPane.showMessageDialog(this,
+                        "Error al cargar catálogo: " + AsyncExecutor.obtenerCausa(error).getMessage(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                
+                // Activar paginación si hay muchos registros
+                paginationEnabled = resultado.getKey() > PAGINATION_THRESHOLD;
+                if (paginationEnabled) {
+                    totalRecords = resultado.getKey();
+                }
+                
+                mostrarCatalogo(resultado.getValue());
+                actualizarControlesPaginacion();
+            }));
     }
     
     /**
-     * Carga todos los productos sin paginación
+     * Llena el catálogo con los datos de la carga inicial del Dashboard (sin consultar)
      */
-    private void cargarCatalogoCompleto() {
-        try {
-            modelCatalogo.setRowCount(0);
-            
-            List<Product> products = productService.obtenerProductosActivos();
-            
-            for (Product product : products) {
-                if (product.getStock() > 0) {
-                    Object[] row = {
-                        product.getId(),
-                        product.getNombre(),
-                        String.format("S/%.2f", product.getPrecio()),
-                        product.getStock()
-                    };
-                    modelCatalogo.addRow(row);
-                }
-            }
-            
-        } catch (SQLException e) {
-            e.printStackTrace();
+    public void mostrarSnapshot(DashboardSnapshot snapshot) {
+        currentPage = 1;
+        paginationEnabled = snapshot.getTotalProductosConStock() > PAGINATION_THRESHOLD;
+        if (paginationEnabled) {
+            totalRecords = snapshot.getTotalProductosConStock();
         }
+        
+        mostrarCatalogo(paginationEnabled ? snapshot.getPrimerosProductos(PAGE_SIZE) : snapshot.getProductos());
+        actualizarControlesPaginacion();
     }
     
     /**
@@ -383,28 +410,34 @@ public class SalesPanel extends JPanel {
      */
     private void cargarCatalogoPaginated() {
         try {
-            modelCatalogo.setRowCount(0);
-            
             int offset = PaginationHelper.calculateOffset(currentPage, PAGE_SIZE);
             List<Product> products = productService.obtenerProductosActivosPaginados(PAGE_SIZE, offset);
-            
-            for (Product product : products) {
-                if (product.getStock() > 0) {
-                    Object[] row = {
-                        product.getId(),
-                        product.getNombre(),
-                        String.format("S/%.2f", product.getPrecio()),
-                        product.getStock()
-                    };
-                    modelCatalogo.addRow(row);
-                }
-            }
+            mostrarCatalogo(products);
             
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
     
+    /**
+     * Reemplaza el contenido del catálogo (solo productos con stock)
+     */
+    private void mostrarCatalogo(List<Product> products) {
+        modelCatalogo.setRowCount(0);
+        
+        for (Product product : products) {
+            if (product.getStock() > 0) {
+                Object[] row = {
+                    product.getId(),
+                    product.getNombre(),
+                    product.getPrecio(),   // Money: la tabla muestra su texto cacheado
+                    product.getStock()
+                };
+                modelCatalogo.addRow(row);
+            }
+        }
+    }
+    
     /**
      * Actualiza los controles de paginación
      */
@@ -459,48 +492,47 @@ public class SalesPanel extends JPanel {
     }
     
     /**
-     * Filtra el catálogo según el texto del buscador
-     * NOTA: El filtro se aplica sobre los productos cargados en la página actual
+     * Filtra el catálogo por nombre (búsqueda en el servidor)
+     * 
+     * Cada tecla lanza una búsqueda nueva y cancela en el servidor la
+     * anterior si sigue en curso; solo se muestra el resultado de la última.
      */
     private void filtrarCatalogo() {
-        String filtro = txtBuscador.getText().toLowerCase().trim();
+        String filtro = txtBuscador.getText().trim();
+        
+        if (busquedaEnCurso != null) {
+            busquedaEnCurso.cancelar();
+            busquedaEnCurso = null;
+        }
         
         if (filtro.isEmpty()) {
             cargarCatalogo();
             return;
         }
         
-        // Filtrar sobre los productos ya cargados en la tabla
-        // Si hay paginación, solo filtra la página actual
-        modelCatalogo.setRowCount(0);
+        QueryHandle busqueda = new QueryHandle();
+        busquedaEnCurso = busqueda;
         
-        try {
-            List<Product> products;
-            
-            if (paginationEnabled) {
-                int offset = PaginationHelper.calculateOffset(currentPage, PAGE_SIZE);
-                products = productService.obtenerProductosActivosPaginados(PAGE_SIZE, offset);
-            } else {
-                products = productService.obtenerProductosActivos();
-            }
-            
-            // Filtrar por nombre (case-insensitive)
-            for (Product product : products) {
-                if (product.getStock() > 0 && 
-                    product.getNombre().toLowerCase().contains(filtro)) {
-                    Object[] row = {
-                        product.getId(),
-                        product.getNombre(),
-                        String.format("S/%.2f", product.getPrecio()),
-                        product.getStock()
-                    };
-                    modelCatalogo.addRow(row);
+        productService.buscarProductosVendiblesAsync(filtro, PAGE_SIZE, busqueda)
+            .whenComplete((products, error) -> SwingUtilities.invokeLater(() -> {
+                // Reemplazada por una búsqueda más reciente: descartar
+                if (busqueda != busquedaEnCurso) {
+                    return;
                 }
-            }
-            
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+                busquedaEnCurso = null;
+                
+                if (error != null) {
+                    if (QueryHandle.esCancelacion(error)) {
+                        System.err.println("Búsqueda '" + filtro + "' superó " +
+                            DatabaseConfig.TIMEOUT_BUSQUEDA_S + " s y fue cancelada");
+                    } else {
+                        AsyncExecutor.obtenerCausa(error).printStackTrace();
+                    }
+                    return;
+                }
+                
+                mostrarCatalogo(products);
+            }));
     }
     
     /**
@@ -520,16 +552,13 @@ public class SalesPanel extends JPanel {
         // Obtener datos del producto
         int productoId = (int) modelCatalogo.getValueAt(selectedRow, 0);
         String nombreProducto = (String) modelCatalogo.getValueAt(selectedRow, 1);
-        String precioStr = (String) modelCatalogo.getValueAt(selectedRow, 2);
+        Money precio = (Money) modelCatalogo.getValueAt(selectedRow, 2);
         int stockDisponible = (int) modelCatalogo.getValueAt(selectedRow, 3);
         
-        // Extraer el precio
-        double precio = Double.parseDouble(precioStr.replace("S/", ""));
-        
         // Pedir cantidad
         String cantidadStr = JOptionPane.showInputDialog(this,
             "Producto: " + nombreProducto + "\n" +
-            "Precio: " + precioStr + "\n" +
+            "Precio: " + precio + "\n" +
             "Stock disponible: " + stockDisponible + "\n\n" +
             "Ingresa la cantidad:",
             "Agregar al Carrito",
@@ -551,59 +580,19 @@ public class SalesPanel extends JPanel {
                 return;
             }
             
-            if (cantidad > stockDisponible) {
-                JOptionPane.showMessageDialog(this,
-                    "Stock insuficiente.\n" +
-                    "Disponible: " + stockDisponible + " unidades",
-                    "Stock Insuficiente",
-                    JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-            
-            // Calcular subtotal
-            double subtotal = cantidad * precio;
-            
-            // Verificar si el producto ya está en el carrito
-            boolean productoExiste = false;
-            for (int i = 0; i < modelCarrito.getRowCount(); i++) {
-                int idEnCarrito = (int) modelCarrito.getValueAt(i, 0);
-                if (idEnCarrito == productoId) {
-                    // Actualizar cantidad y subtotal
-                    int cantidadActual = (int) modelCarrito.getValueAt(i, 2);
-                    int nuevaCantidad = cantidadActual + cantidad;
-                    
-                    if (nuevaCantidad > stockDisponible) {
+            // Stock actual (el del catálogo puede haber cambiado desde que se cargó)
+            productService.obtenerProductoPorIdAsync(productoId)
+                .whenComplete((producto, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
                         JOptionPane.showMessageDialog(this,
-                            "No puedes agregar más unidades.\n" +
-                            "Ya tienes " + cantidadActual + " en el carrito.\n" +
-                            "Stock disponible: " + stockDisponible,
-                            "Stock Insuficiente",
+                            "Error al consultar el stock: " + AsyncExecutor.obtenerCausa(error).getMessage(),
+                            "Error",
                             JOptionPane.ERROR_MESSAGE);
                         return;
                     }
-                    
-                    double nuevoSubtotal = nuevaCantidad * precio;
-                    modelCarrito.setValueAt(nuevaCantidad, i, 2);
-                    modelCarrito.setValueAt(String.format("S/%.2f", nuevoSubtotal), i, 4);
-                    productoExiste = true;
-                    break;
-                }
-            }
-            
-            // Si no existe, agregar nueva fila
-            if (!productoExiste) {
-                Object[] row = {
-                    productoId,
-                    nombreProducto,
-                    cantidad,
-                    precioStr,
-                    String.format("S/%.2f", subtotal)
-                };
-                modelCarrito.addRow(row);
-            }
-            
-            // Actualizar total
-            actualizarTotal();
+                    int stockActual = producto != null ? producto.getStock() : 0;
+                    reservarYAgregar(productoId, nombreProducto, precio, cantidad, stockActual);
+                }));
             
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(this,
@@ -614,18 +603,68 @@ public class SalesPanel extends JPanel {
     }
     
     /**
-     * Actualiza el total de la venta
+     * Reserva las unidades contra el stock actual y agrega la línea al carrito
+     * 
+     * @param stockActual Stock del producto recién leído de la base de datos
      */
-    private void actualizarTotal() {
-        totalVenta = 0.0;
+    private void reservarYAgregar(int productoId, String nombreProducto, Money precio, int cantidad, int stockActual) {
+        // La lectura del stock terminó con el carrito ya bloqueado por una venta
+        if (ventaEnCurso || registroPendiente) {
+            JOptionPane.showMessageDialog(this,
+                "No se agregó " + nombreProducto + ": hay una venta en registro.",
+                "Carrito Bloqueado",
+                JOptionPane.WARNING_MESSAGE);
+            return;
+        }
         
-        for (int i = 0; i < modelCarrito.getRowCount(); i++) {
-            String subtotalStr = (String) modelCarrito.getValueAt(i, 4);
-            double subtotal = Double.parseDouble(subtotalStr.replace("S/", ""));
-            totalVenta += subtotal;
+        if (cantidad > stockActual) {
+            JOptionPane.showMessageDialog(this,
+                "Stock insuficiente.\n" +
+                "Disponible: " + stockActual + " unidades",
+                "Stock Insuficiente",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        // Unidades del producto que ya están en el carrito
+        int cantidadActual = carrito.obtenerCantidad(productoId);
+        int nuevaCantidad = cantidadActual + cantidad;
+        
+        if (cantidadActual > 0 && nuevaCantidad > stockActual) {
+            JOptionPane.showMessageDialog(this,
+                "No puedes agregar más unidades.\n" +
+                "Ya tienes " + cantidadActual + " en el carrito.\n" +
+                "Stock disponible: " + stockActual,
+                "Stock Insuficiente",
+                JOptionPane.ERROR_MESSAGE);
+            return;
         }
         
-        lblTotal.setText(String.format("S/%.2f", totalVenta));
+        // Reservar las unidades: otro carrito abierto puede haberlas tomado
+        if (!reservas.reservar(carritoId, productoId, nuevaCantidad, stockActual)) {
+            int libres = reservas.obtenerDisponible(carritoId, productoId, stockActual);
+            JOptionPane.showMessageDialog(this,
+                "Stock reservado en otros carritos.\n" +
+                "Stock: " + stockActual + " unidades\n" +
+                "Libres para este carrito: " + libres + " unidades" +
+                (cantidadActual > 0 ? "\nYa tienes " + cantidadActual + " en el carrito." : ""),
+                "Stock Insuficiente",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        // Suma a la línea del producto o crea una nueva
+        modelCarrito.agregar(productoId, nombreProducto, precio, cantidad);
+        
+        // Actualizar total
+        actualizarTotal();
+    }
+    
+    /**
+     * Actualiza el total de la venta (el carrito ya lo mantiene al día)
+     */
+    private void actualizarTotal() {
+        lblTotal.setText(carrito.getTotal().toString());
     }
     
     /**
@@ -642,7 +681,7 @@ public class SalesPanel extends JPanel {
             return;
         }
         
-        String nombreProducto = (String) modelCarrito.getValueAt(selectedRow, 1);
+        String nombreProducto = carrito.getLinea(selectedRow).getNombre();
         
         int confirm = JOptionPane.showConfirmDialog(this,
             "¿Quitar del carrito?\n\n" + nombreProducto,
@@ -650,21 +689,17 @@ public class SalesPanel extends JPanel {
             JOptionPane.YES_NO_OPTION);
         
         if (confirm == JOptionPane.YES_OPTION) {
-            modelCarrito.removeRow(selectedRow);
+            Cart.Linea linea = modelCarrito.quitar(selectedRow);
+            reservas.liberar(carritoId, linea.getProductoId());
             actualizarTotal();
             
             // Si aún hay productos, preguntar si desea finalizar
-            if (modelCarrito.getRowCount() > 0) {
-                int unidadesRestantes = 0;
-                for (int i = 0; i < modelCarrito.getRowCount(); i++) {
-                    unidadesRestantes += (int) modelCarrito.getValueAt(i, 2);
-                }
-                
+            if (!carrito.estaVacio()) {
                 int finalizarAhora = JOptionPane.showConfirmDialog(this,
                     "Producto removido del carrito.\n\n" +
                     "¿Deseas finalizar la venta ahora con los productos restantes?\n\n" +
-                    "Líneas: " + modelCarrito.getRowCount() + "\n" +
-                    "Unidades: " + unidadesRestantes + "\n" +
+                    "Líneas: " + carrito.getCantidadLineas() + "\n" +
+                    "Unidades: " + carrito.getUnidades() + "\n" +
                     "Total: " + lblTotal.getText(),
                     "Finalizar Venta",
                     JOptionPane.YES_NO_OPTION,
@@ -686,7 +721,7 @@ public class SalesPanel extends JPanel {
      * Limpia todos los items del carrito
      */
     private void limpiarCarrito() {
-        if (modelCarrito.getRowCount() == 0) {
+        if (carrito.estaVacio()) {
             return;
         }
         
@@ -696,9 +731,9 @@ public class SalesPanel extends JPanel {
             JOptionPane.YES_NO_OPTION);
         
         if (confirm == JOptionPane.YES_OPTION) {
-            modelCarrito.setRowCount(0);
-            totalVenta = 0.0;
-            lblTotal.setText("S/0.00");
+            reservas.liberarCarrito(carritoId);
+            modelCarrito.limpiar();
+            actualizarTotal();
             limpiarCamposFacturacion(); // Limpiar campos de facturación
         }
     }
@@ -707,10 +742,13 @@ public class SalesPanel extends JPanel {
      * Finaliza la venta procesando todos los productos del carrito
      * 
      * ARQUITECTURA: Usa SaleService para validación y procesamiento
+     * 
+     * ASÍNCRONO: la validación y el registro (con sus reintentos) corren fuera
+     * del hilo de Swing; mientras tanto el carrito queda bloqueado (setVentaEnCurso)
      */
     private void finalizarVenta() {
         // Validar que haya productos en el carrito
-        if (modelCarrito.getRowCount() == 0) {
+        if (carrito.estaVacio()) {
             JOptionPane.showMessageDialog(this,
                 "El carrito está vacío.\nAgrega productos antes de finalizar la venta.",
                 "Carrito Vacío",
@@ -719,64 +757,58 @@ public class SalesPanel extends JPanel {
         }
         
         // Convertir el carrito a lista de Sales
-        List<Sale> sales = new ArrayList<>();
         int usuarioId = currentUser.getId();
+        List<Sale> sales = carrito.aVentas(usuarioId);
         
-        for (int i = 0; i < modelCarrito.getRowCount(); i++) {
-            int productoId = (int) modelCarrito.getValueAt(i, 0);
-            int cantidad = (int) modelCarrito.getValueAt(i, 2);
-            String precioStr = (String) modelCarrito.getValueAt(i, 3);
-            double precioUnitario = Double.parseDouble(precioStr.replace("S/", ""));
-            
-            Sale sale = new Sale(productoId, usuarioId, cantidad, precioUnitario);
-            sales.add(sale);
+        // Con registrar_venta la validación viaja con el registro: no se consulta dos veces.
+        // Un reintento tampoco se pre-valida: si la venta ya quedó registrada, el
+        // stock descontado haría fallar la validación (el registro busca antes la clave)
+        if (saleService.validaEnServidor() || registroPendiente) {
+            confirmarYRegistrar(sales);
+            return;
         }
         
         // Validar carrito usando SaleService (ARQUITECTURA: Capa de Servicios)
-        List<String> errores = saleService.validarCarrito(sales);
-        
-        // Si hay errores, BLOQUEAR venta
-        if (!errores.isEmpty()) {
-            StringBuilder mensaje = new StringBuilder("NO SE PUEDE COMPLETAR LA VENTA\n\n");
-            mensaje.append("Se encontraron los siguientes problemas:\n\n");
-            for (String error : errores) {
-                mensaje.append(error).append("\n");
-            }
-            mensaje.append("\nVender productos vencidos es:\n");
-            mensaje.append("- Ilegal\n");
-            mensaje.append("- Peligroso para la salud del cliente\n");
-            mensaje.append("- Sujeto a sanciones legales\n\n");
-            mensaje.append("¿Deseas ir al carrito para quitar los productos problemáticos?");
-            
-            int opcion = JOptionPane.showOptionDialog(this,
-                mensaje.toString(),
-                "Validación de Carrito Fallida",
-                JOptionPane.YES_NO_OPTION,
-                JOptionPane.ERROR_MESSAGE,
-                null,
-                new Object[]{"Ir al Carrito", "Cancelar Venta"},
-                "Ir al Carrito");
-            
-            if (opcion == 0) {
-                // Ya estamos en el panel de ventas, solo mostrar instrucción
-                JOptionPane.showMessageDialog(this,
-                    "Selecciona los productos problemáticos en el carrito\n" +
-                    "y haz click en 'Quitar Seleccionado'.\n\n" +
-                    "Luego, intenta finalizar la venta de nuevo.",
-                    "Instrucciones",
-                    JOptionPane.INFORMATION_MESSAGE);
-            }
-            
-            return;
-        }
+        setVentaEnCurso(true);
+        AsyncExecutor.ejecutar(() -> saleService.validarCarrito(sales))
+            .whenComplete((errores, error) -> SwingUtilities.invokeLater(() -> {
+                setVentaEnCurso(false);
+                if (error != null) {
+                    JOptionPane.showMessageDialog(this,
+                        "Error al validar carrito: " + AsyncExecutor.obtenerCausa(error).getMessage(),
+                        "Error en la Venta",
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                
+                // Si hay errores, BLOQUEAR venta
+                if (!errores.isEmpty()) {
+                    mostrarErroresDeCarrito(errores);
+                    return;
+                }
+                
+                confirmarYRegistrar(sales);
+            }));
+    }
+    
+    /**
+     * Pide confirmación y registra el comprobante en segundo plano
+     * 
+     * El comprobante lleva la clave de venta del carrito: si la respuesta de un
+     * intento se pierde y el cajero vuelve a registrar, la venta no se duplica.
+     * También conserva la serie y número del intento anterior (el que pudo
+     * quedar registrado) para no saltar números
+     */
+    private void confirmarYRegistrar(List<Sale> sales) {
+        int usuarioId = currentUser.getId();
         
-        // Obtener datos de facturación (solo para mostrar, no afecta la lógica)
+        // Obtener datos de facturación (se guardan en la cabecera del comprobante)
         String tipoComprobante = (String) cmbTipoComprobante.getSelectedItem();
         String cliente = txtCliente.getText().trim();
         String dniRuc = txtDniRuc.getText().trim();
         
         // Confirmar venta con información de facturación
-        int unidadesTotales = sales.stream().mapToInt(Sale::getCantidad).sum();
+        int unidadesTotales = carrito.getUnidades();
         
         StringBuilder mensajeConfirmacion = new StringBuilder("¿Confirmar venta?\n\n");
         mensajeConfirmacion.append("Tipo de Comprobante: ").append(tipoComprobante).append("\n");
@@ -801,11 +833,55 @@ public class SalesPanel extends JPanel {
         }
         
         // Procesar venta con SaleService (ARQUITECTURA: Capa de Servicios)
-        SaleService.SaleResult result = saleService.procesarVentasMultiples(sales);
+        Receipt comprobante = new Receipt(tipoComprobante, cliente, dniRuc, usuarioId, sales);
+        comprobante.setClaveIdempotencia(carrito.getClaveVenta());
+        if (ultimoIntento != null && ultimoIntento.getClaveIdempotencia().equals(carrito.getClaveVenta())
+                && ultimoIntento.getTipo().equals(comprobante.getTipo())) {
+            comprobante.setSerie(ultimoIntento.getSerie());
+            comprobante.setNumero(ultimoIntento.getNumero());
+        }
+        ultimoIntento = comprobante;
+        
+        setVentaEnCurso(true);
+        saleService.procesarComprobanteAsync(comprobante)
+            .whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    registroPendiente = true;
+                    setVentaEnCurso(false);
+                    JOptionPane.showMessageDialog(this,
+                        "Error al registrar la venta: " + AsyncExecutor.obtenerCausa(error).getMessage() +
+                        MENSAJE_REGISTRO_PENDIENTE,
+                        "Error en la Venta",
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                // Éxito o validación fallida resuelven el intento; otro error lo deja pendiente
+                registroPendiente = !result.isSuccess() && !result.isValidacionFallida();
+                setVentaEnCurso(false);
+                mostrarResultadoVenta(comprobante, result);
+            }));
+    }
+    
+    /**
+     * Muestra el resultado del registro; si tuvo éxito limpia el carrito
+     * (nueva clave de venta) y recarga el catálogo
+     */
+    private void mostrarResultadoVenta(Receipt comprobante, SaleService.SaleResult result) {
+        String tipoComprobante = comprobante.getTipo();
+        String cliente = comprobante.getCliente();
+        String dniRuc = comprobante.getDniRuc();
         
         // Mostrar resultado con información de facturación
         if (result.isSuccess()) {
             StringBuilder mensajeExito = new StringBuilder("VENTA REGISTRADA EXITOSAMENTE\n\n");
+            if (result.isPendiente()) {
+                // Quedó en el diario local: el número se asigna al sincronizar
+                mensajeExito.append("Comprobante N°: pendiente de sincronizar\n");
+            } else if (comprobante.isNumerado()) {
+                mensajeExito.append("Comprobante N°: ").append(comprobante.getNumeroFormateado()).append("\n");
+            } else {
+                mensajeExito.append("Comprobante N°: ").append(result.getComprobanteId()).append("\n");
+            }
             mensajeExito.append("Tipo de Comprobante: ").append(tipoComprobante).append("\n");
             if (!cliente.isEmpty()) {
                 mensajeExito.append("Cliente: ").append(cliente).append("\n");
@@ -814,20 +890,24 @@ public class SalesPanel extends JPanel {
                 mensajeExito.append("DNI/RUC: ").append(dniRuc).append("\n");
             }
             mensajeExito.append("\n");
-            mensajeExito.append("Total: ").append(String.format("S/%.2f", result.getTotalAmount())).append("\n");
+            mensajeExito.append("Total: ").append(result.getTotalAmount()).append("\n");
             mensajeExito.append("Líneas de productos: ").append(result.getSuccessfulSales()).append("\n");
             mensajeExito.append("Unidades vendidas: ").append(result.getTotalUnits()).append("\n\n");
-            mensajeExito.append("El stock se actualizó automáticamente.");
+            mensajeExito.append(result.isPendiente()
+                ? "El stock se actualizará al sincronizar con la base de datos."
+                : "El stock se actualizó automáticamente.");
             
             JOptionPane.showMessageDialog(this,
                 mensajeExito.toString(),
                 "Venta Completada",
                 JOptionPane.INFORMATION_MESSAGE);
             
-            // Limpiar carrito, campos de facturación y recargar catálogo
-            modelCarrito.setRowCount(0);
-            totalVenta = 0.0;
-            lblTotal.setText("S/0.00");
+            // Limpiar carrito (el stock ya se descontó en la BD; nueva clave de venta),
+            // facturación y recargar catálogo
+            ultimoIntento = null;
+            reservas.liberarCarrito(carritoId);
+            modelCarrito.limpiar();
+            actualizarTotal();
             limpiarCamposFacturacion(); // Limpiar campos de facturación
             cargarCatalogo();
             
@@ -836,6 +916,9 @@ public class SalesPanel extends JPanel {
                 onVentaFinalizada.run();
             }
             
+        } else if (result.isValidacionFallida()) {
+            mostrarErroresDeCarrito(result.getErrors());
+            
         } else {
             StringBuilder errorMsg = new StringBuilder(result.getMessage());
             if (!result.getErrors().isEmpty()) {
@@ -844,6 +927,7 @@ public class SalesPanel extends JPanel {
                     errorMsg.append("• ").append(error).append("\n");
                 }
             }
+            errorMsg.append(MENSAJE_REGISTRO_PENDIENTE);
             
             JOptionPane.showMessageDialog(this,
                 errorMsg.toString(),
@@ -852,6 +936,65 @@ public class SalesPanel extends JPanel {
         }
     }
     
+    /**
+     * Bloquea el carrito mientras se valida o registra la venta
+     * (evita un segundo registro y cambios al carrito a medio camino)
+     * 
+     * Con un registro pendiente el carrito y la facturación siguen bloqueados y
+     * solo se puede reintentar: si el commit anterior llegó, registrar_venta
+     * devuelve ese comprobante, que debe coincidir con el carrito mostrado
+     */
+    private void setVentaEnCurso(boolean enCurso) {
+        ventaEnCurso = enCurso;
+        boolean editable = !enCurso && !registroPendiente;
+        btnAgregar.setEnabled(editable);
+        btnEliminarItem.setEnabled(editable);
+        btnLimpiar.setEnabled(editable);
+        cmbTipoComprobante.setEnabled(editable);
+        txtCliente.setEnabled(editable);
+        txtDniRuc.setEnabled(editable);
+        btnFinalizar.setEnabled(!enCurso);
+        btnFinalizar.setText(enCurso ? "Registrando venta..."
+            : registroPendiente ? TEXTO_REINTENTAR : TEXTO_FINALIZAR);
+        setCursor(enCurso ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null);
+    }
+    
+    /**
+     * Muestra los problemas del carrito que bloquean la venta
+     * (vencidos, inactivos, stock insuficiente)
+     */
+    private void mostrarErroresDeCarrito(List<String> errores) {
+        StringBuilder mensaje = new StringBuilder("NO SE PUEDE COMPLETAR LA VENTA\n\n");
+        mensaje.append("Se encontraron los siguientes problemas:\n\n");
+        for (String error : errores) {
+            mensaje.append(error).append("\n");
+        }
+        mensaje.append("\nVender productos vencidos es:\n");
+        mensaje.append("- Ilegal\n");
+        mensaje.append("- Peligroso para la salud del cliente\n");
+        mensaje.append("- Sujeto a sanciones legales\n\n");
+        mensaje.append("¿Deseas ir al carrito para quitar los productos problemáticos?");
+        
+        int opcion = JOptionPane.showOptionDialog(this,
+            mensaje.toString(),
+            "Validación de Carrito Fallida",
+            JOptionPane.YES_NO_OPTION,
+            JOptionPane.ERROR_MESSAGE,
+            null,
+            new Object[]{"Ir al Carrito", "Cancelar Venta"},
+            "Ir al Carrito");
+        
+        if (opcion == 0) {
+            // Ya estamos en el panel de ventas, solo mostrar instrucción
+            JOptionPane.showMessageDialog(this,
+                "Selecciona los productos problemáticos en el carrito\n" +
+                "y haz click en 'Quitar Seleccionado'.\n\n" +
+                "Luego, intenta finalizar la venta de nuevo.",
+                "Instrucciones",
+                JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+    
     /**
      * Limpia los campos de facturación
      */
@@ -861,6 +1004,13 @@ public class SalesPanel extends JPanel {
         txtDniRuc.setText("");
     }
     
+    /**
+     * Libera las reservas de stock del carrito (al cerrar la ventana)
+     */
+    public void liberarReservas() {
+        reservas.liberarCarrito(carritoId);
+    }
+    
     /**
      * Establece el callback que se ejecuta cuando se finaliza una venta
      * Útil para recargar el inventario en Dashboard
@@ -0,0 +1,82 @@
+package com.novafarma.util;
+
+import com.novafarma.config.DatabaseConfig;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ejecutor para las versiones asíncronas de los servicios
+ *
+ * - En Java 21+ usa hilos virtuales (un hilo por tarea)
+ * - En versiones anteriores usa hilos daemon acotados al tamaño del pool
+ *   de conexiones (más hilos solo esperarían una conexión libre)
+ *
+ * Las tareas lanzan SQLException; el CompletableFuture falla con ella
+ * como causa (ver obtenerCausa).
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class AsyncExecutor {
+
+    /** Tarea de base de datos que puede lanzar SQLException */
+    @FunctionalInterface
+    public interface TareaSQL<T> {
+        T ejecutar() throws SQLException;
+    }
+
+    private static final ExecutorService EJECUTOR = crearEjecutor();
+
+    private AsyncExecutor() {
+    }
+
+    /**
+     * Ejecuta la tarea en segundo plano
+     *
+     * @param tarea Consulta a ejecutar
+     * @return Future con el resultado
+     */
+    public static <T> CompletableFuture<T> ejecutar(TareaSQL<T> tarea) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return tarea.ejecutar();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, EJECUTOR);
+    }
+
+    /**
+     * Obtiene la excepción original de un future fallido
+     * (quita los envoltorios CompletionException / ExecutionException)
+     */
+    public static Throwable obtenerCausa(Throwable error) {
+        Throwable causa = error;
+        while ((causa instanceof CompletionException || causa instanceof ExecutionException)
+                && causa.getCause() != null) {
+            causa = causa.getCause();
+        }
+        return causa;
+    }
+
+    private static ExecutorService crearEjecutor() {
+        try {
+            Method hilosVirtuales = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) hilosVirtuales.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger contador = new AtomicInteger();
+            return Executors.newFixedThreadPool(DatabaseConfig.POOL_MAX_CONEXIONES, r -> {
+                Thread hilo = new Thread(r, "servicio-async-" + contador.incrementAndGet());
+                hilo.setDaemon(true);
+                return hilo;
+            });
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.novafarma.util;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Cortacircuito para la conexión a la base de datos
+ *
+ * ESTADOS:
+ * - CERRADO: funcionamiento normal
+ * - ABIERTO: tras 'umbralFallos' fallos seguidos al conectar. Las peticiones
+ *   fallan al instante (sin esperar el timeout del driver) hasta el reintento
+ * - SEMIABIERTO: pasó la espera; se permite una conexión de prueba.
+ *   Si funciona se cierra el circuito; si falla se vuelve a abrir con el
+ *   doble de espera (hasta 'esperaMaximaMs')
+ *
+ * Los observadores reciben cada cambio de estado (p. ej. el indicador de la UI).
+ * Se les llama desde el hilo que provocó el cambio: deben ser rápidos.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class CircuitBreaker {
+
+    /** Estado de salud de la conexión */
+    public enum Estado {
+        CERRADO("Conectado"),
+        ABIERTO("Sin conexión"),
+        SEMIABIERTO("Reconectando");
+
+        private final String descripcion;
+
+        Estado(String descripcion) {
+            this.descripcion = descripcion;
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+    }
+
+    /** SQLState estándar de "no se pudo establecer la conexión" */
+    public static final String ESTADO_SIN_CONEXION = "08001";
+
+    private final String nombre;
+    private final int umbralFallos;
+    private final long esperaInicialMs;
+    private final long esperaMaximaMs;
+
+    private volatile Estado estado = Estado.CERRADO;
+    private volatile int fallosConsecutivos = 0;
+    private long esperaActualMs;
+    private long reintentoEnMs = 0;
+    private long inicioSondaMs = 0;
+
+    private final List<Consumer<Estado>> observadores = new CopyOnWriteArrayList<>();
+    private final LongAdder rechazos = new LongAdder();
+
+    public CircuitBreaker(String nombre, int umbralFallos, long esperaInicialMs, long esperaMaximaMs) {
+        this.nombre = nombre;
+        this.umbralFallos = umbralFallos;
+        this.esperaInicialMs = esperaInicialMs;
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.esperaActualMs = esperaInicialMs;
+    }
+
+    /**
+     * Verifica si se puede intentar usar la base de datos
+     *
+     * @throws SQLTransientConnectionException al instante si el circuito está abierto
+     */
+    public void verificarPermiso() throws SQLTransientConnectionException {
+        if (estado == Estado.CERRADO) {
+            return;
+        }
+        if (intentarSonda()) {
+            return;
+        }
+
+        rechazos.increment();
+        throw new SQLTransientConnectionException(
+            "Base de datos '" + nombre + "' no disponible. Reintento en " +
+            Math.max(1, (getMsHastaReintento() + 999) / 1000) + " s",
+            ESTADO_SIN_CONEXION
+        );
+    }
+
+    /**
+     * Pasa a SEMIABIERTO si ya terminó la espera
+     *
+     * @return true si quien llama puede hacer el intento de prueba
+     */
+    public boolean intentarSonda() {
+        Estado nuevo;
+        synchronized (this) {
+            long ahora = System.currentTimeMillis();
+            if (estado == Estado.CERRADO) {
+                return true;
+            }
+            if (estado == Estado.SEMIABIERTO) {
+                // Si la prueba en curso no reportó resultado a tiempo, se permite otra
+                if (ahora - inicioSondaMs < esperaActualMs) {
+                    return false;
+                }
+                inicioSondaMs = ahora;
+                return true;
+            }
+            if (ahora < reintentoEnMs) {
+                return false;
+            }
+            inicioSondaMs = ahora;
+            estado = nuevo = Estado.SEMIABIERTO;
+        }
+        notificar(nuevo);
+        return true;
+    }
+
+    /** La base de datos respondió: cerrar el circuito */
+    public void registrarExito() {
+        if (estado == Estado.CERRADO && fallosConsecutivos == 0) {
+            return;
+        }
+
+        boolean cambio;
+        synchronized (this) {
+            fallosConsecutivos = 0;
+            esperaActualMs = esperaInicialMs;
+            cambio = estado != Estado.CERRADO;
+            estado = Estado.CERRADO;
+        }
+        if (cambio) {
+            System.out.println("Conexión con la base de datos '" + nombre + "' restablecida");
+            notificar(Estado.CERRADO);
+        }
+    }
+
+    /** Falló un intento de conexión */
+    public void registrarFallo() {
+        boolean abierto;
+        long espera;
+        synchronized (this) {
+            fallosConsecutivos++;
+            if (estado == Estado.SEMIABIERTO) {
+                // La prueba falló: duplicar la espera
+                esperaActualMs = Math.min(esperaActualMs * 2, esperaMaximaMs);
+            } else if (estado == Estado.ABIERTO || fallosConsecutivos < umbralFallos) {
+                return;
+            }
+            abierto = estado != Estado.ABIERTO;
+            estado = Estado.ABIERTO;
+            espera = esperaActualMs;
+            reintentoEnMs = System.currentTimeMillis() + espera;
+        }
+        if (abierto) {
+            System.err.println("Base de datos '" + nombre + "' no disponible: circuito abierto, reintento en " +
+                espera + " ms");
+            notificar(Estado.ABIERTO);
+        }
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    /** Milisegundos que faltan para el próximo intento (0 si ya se puede) */
+    public synchronized long getMsHastaReintento() {
+        return Math.max(0, reintentoEnMs - System.currentTimeMillis());
+    }
+
+    /** Peticiones rechazadas sin intentar conectar */
+    public long getRechazos() {
+        return rechazos.sum();
+    }
+
+    public void agregarObservador(Consumer<Estado> observador) {
+        observadores.add(observador);
+    }
+
+    public void quitarObservador(Consumer<Estado> observador) {
+        observadores.remove(observador);
+    }
+
+    private void notificar(Estado nuevo) {
+        for (Consumer<Estado> observador : observadores) {
+            try {
+                observador.accept(nuevo);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
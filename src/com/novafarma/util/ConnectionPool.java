@@ -0,0 +1,572 @@
+package com.novafarma.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool acotado de conexiones JDBC
+ *
+ * FUNCIONAMIENTO:
+ * - Mantiene entre 'minimo' y 'maximo' conexiones físicas abiertas
+ * - getConnection() entrega un proxy: al llamar close() la conexión vuelve al pool
+ *   (los DAOs siguen usando try-with-resources sin cambios)
+ * - Valida la conexión al prestarla si estuvo inactiva un tiempo
+ * - Cierra las conexiones inactivas por encima del mínimo
+ * - Reporta conexiones prestadas demasiado tiempo (posibles fugas)
+ * - Registra métricas de tiempo de espera
+ * - Cada conexión física tiene su caché de PreparedStatement (StatementCache)
+ * - Toda sentencia entregada lleva el tiempo máximo por defecto (setQueryTimeout);
+ *   el DAO puede cambiarlo para esa operación
+ * - Con un CircuitBreaker: si la base no responde, obtenerConexion() falla al
+ *   instante y el mantenimiento reintenta conectar con espera exponencial
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class ConnectionPool {
+
+    /** Conexiones devueltas hace menos de esto no se revalidan al prestarlas */
+    private static final long OMITIR_VALIDACION_MS = 500;
+
+    private final String nombre;
+    private final String url;
+    private final String usuario;
+    private final String contrasena;
+    private final int minimo;
+    private final int maximo;
+    private final long esperaMaximaMs;
+    private final long tiempoInactividadMs;
+    private final long umbralFugaMs;
+    private final int timeoutValidacionS;
+    private final int tamanoCacheSentencias;
+    private final int timeoutConsultaS;
+    private final CircuitBreaker circuito;
+    private final AtomicBoolean sondaProgramada = new AtomicBoolean();
+
+    // LIFO: las conexiones más usadas quedan al frente y las demás envejecen hasta expirar
+    private final LinkedBlockingDeque<ConexionFisica> inactivas = new LinkedBlockingDeque<>();
+    private final Set<ConexionFisica> prestadas = ConcurrentHashMap.newKeySet();
+    private final Semaphore permisos;
+    private final ScheduledExecutorService mantenimiento;
+    private volatile boolean cerrado = false;
+
+    // Métricas
+    private final AtomicInteger totalFisicas = new AtomicInteger();
+    private final LongAdder prestamos = new LongAdder();
+    private final LongAdder esperaTotalNanos = new LongAdder();
+    private final AtomicLong esperaMaximaNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder fugasDetectadas = new LongAdder();
+    private final LongAdder creadas = new LongAdder();
+    private final LongAdder destruidas = new LongAdder();
+    private final LongAdder aciertosCache = new LongAdder();
+    private final LongAdder fallosCache = new LongAdder();
+    private final LongAdder expulsionesCache = new LongAdder();
+
+    public ConnectionPool(String nombre, String url, String usuario, String contrasena,
+                          int minimo, int maximo, long esperaMaximaMs, long tiempoInactividadMs,
+                          long umbralFugaMs, int timeoutValidacionS, long intervaloMantenimientoMs,
+                          int tamanoCacheSentencias, int timeoutConsultaS, CircuitBreaker circuito) {
+        if (minimo < 0 || maximo < 1 || minimo > maximo) {
+            throw new IllegalArgumentException("Tamaño de pool inválido: min=" + minimo + ", max=" + maximo);
+        }
+        this.nombre = nombre;
+        this.url = url;
+        this.usuario = usuario;
+        this.contrasena = contrasena;
+        this.minimo = minimo;
+        this.maximo = maximo;
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.tiempoInactividadMs = tiempoInactividadMs;
+        this.umbralFugaMs = umbralFugaMs;
+        this.timeoutValidacionS = timeoutValidacionS;
+        this.tamanoCacheSentencias = tamanoCacheSentencias;
+        this.timeoutConsultaS = timeoutConsultaS;
+        this.circuito = circuito;
+        this.permisos = new Semaphore(maximo, true);
+
+        this.mantenimiento = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "pool-" + nombre + "-mantenimiento");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        this.mantenimiento.scheduleWithFixedDelay(this::ejecutarMantenimiento,
+            intervaloMantenimientoMs, intervaloMantenimientoMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Presta una conexión del pool
+     *
+     * @return Conexión; close() la devuelve al pool
+     * @throws SQLTimeoutException si no se libera ninguna conexión en esperaMaximaMs
+     * @throws SQLTransientConnectionException al instante si el circuito está abierto
+     * @throws SQLException si no se puede abrir una conexión nueva
+     */
+    public Connection obtenerConexion() throws SQLException {
+        if (cerrado) {
+            throw new SQLException("El pool '" + nombre + "' está cerrado");
+        }
+        if (circuito != null) {
+            circuito.verificarPermiso();
+        }
+
+        long inicio = System.nanoTime();
+        try {
+            if (!permisos.tryAcquire(esperaMaximaMs, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTimeoutException("Tiempo de espera agotado (" + esperaMaximaMs +
+                    " ms) obteniendo conexión del pool '" + nombre + "'. Activas: " + prestadas.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido mientras se esperaba una conexión", e);
+        }
+
+        try {
+            ConexionFisica fisica;
+            while ((fisica = inactivas.pollFirst()) != null) {
+                if (esValida(fisica)) {
+                    break;
+                }
+                destruir(fisica);
+            }
+            if (fisica == null) {
+                fisica = crearConexion();
+            } else if (circuito != null) {
+                // Conexión validada: la base responde (cierra una prueba SEMIABIERTO)
+                circuito.registrarExito();
+            }
+
+            registrarEspera(System.nanoTime() - inicio);
+            fisica.marcarPrestamo();
+            prestadas.add(fisica);
+            return fisica.crearProxy();
+
+        } catch (SQLException | RuntimeException e) {
+            permisos.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Abre ya las conexiones mínimas (sin esperar a la tarea de mantenimiento)
+     *
+     * @return Conexiones físicas abiertas al terminar
+     */
+    public int precalentar() {
+        completarMinimo();
+        return totalFisicas.get();
+    }
+
+    /**
+     * Cierra todas las conexiones y detiene el mantenimiento
+     * Las conexiones prestadas se cierran al ser devueltas
+     */
+    public void cerrar() {
+        cerrado = true;
+        mantenimiento.shutdownNow();
+        ConexionFisica fisica;
+        while ((fisica = inactivas.pollFirst()) != null) {
+            destruir(fisica);
+        }
+    }
+
+    public boolean estaCerrado() {
+        return cerrado;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    /** Obtiene una instantánea de las métricas del pool */
+    public EstadisticasPool obtenerEstadisticas() {
+        long totalPrestamos = prestamos.sum();
+        double esperaPromedioMs = totalPrestamos == 0 ? 0.0
+            : esperaTotalNanos.sum() / (double) totalPrestamos / 1_000_000.0;
+
+        return new EstadisticasPool(
+            nombre,
+            totalFisicas.get(),
+            prestadas.size(),
+            inactivas.size(),
+            permisos.getQueueLength(),
+            totalPrestamos,
+            esperaPromedioMs,
+            esperaMaximaNanos.get() / 1_000_000.0,
+            timeouts.sum(),
+            fugasDetectadas.sum(),
+            creadas.sum(),
+            destruidas.sum(),
+            aciertosCache.sum(),
+            fallosCache.sum(),
+            expulsionesCache.sum()
+        );
+    }
+
+    // ==================== CICLO DE VIDA DE CONEXIONES ====================
+
+    private ConexionFisica crearConexion() throws SQLException {
+        Connection conexion;
+        try {
+            conexion = DriverManager.getConnection(url, usuario, contrasena);
+        } catch (SQLException e) {
+            if (circuito != null) {
+                circuito.registrarFallo();
+                programarSonda();
+            }
+            throw e;
+        }
+        if (circuito != null) {
+            circuito.registrarExito();
+        }
+        totalFisicas.incrementAndGet();
+        creadas.increment();
+        return new ConexionFisica(conexion);
+    }
+
+    private boolean esValida(ConexionFisica fisica) {
+        if (System.currentTimeMillis() - fisica.ultimoUso < OMITIR_VALIDACION_MS) {
+            return true;
+        }
+        try {
+            return fisica.conexion.isValid(timeoutValidacionS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void destruir(ConexionFisica fisica) {
+        if (fisica.cache != null) {
+            fisica.cache.cerrar();
+        }
+        try {
+            fisica.conexion.close();
+        } catch (SQLException e) {
+            System.err.println("Error al cerrar conexión del pool '" + nombre + "': " + e.getMessage());
+        }
+        totalFisicas.decrementAndGet();
+        destruidas.increment();
+    }
+
+    /** Llamado por el proxy al cerrar la conexión prestada */
+    private void devolver(ConexionFisica fisica) {
+        if (!prestadas.remove(fisica)) {
+            return;
+        }
+
+        try {
+            if (cerrado || fisica.conexion.isClosed()) {
+                destruir(fisica);
+                return;
+            }
+
+            // No dejar transacciones abiertas para el siguiente usuario
+            if (!fisica.conexion.getAutoCommit()) {
+                fisica.conexion.rollback();
+                fisica.conexion.setAutoCommit(true);
+            }
+
+            fisica.ultimoUso = System.currentTimeMillis();
+            inactivas.offerFirst(fisica);
+
+        } catch (SQLException e) {
+            destruir(fisica);
+        } finally {
+            permisos.release();
+        }
+    }
+
+    private void registrarEspera(long nanos) {
+        prestamos.increment();
+        esperaTotalNanos.add(nanos);
+        esperaMaximaNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    // ==================== MANTENIMIENTO ====================
+
+    private void ejecutarMantenimiento() {
+        try {
+            expulsarInactivas();
+            detectarFugas();
+            completarMinimo();
+        } catch (RuntimeException e) {
+            System.err.println("Error en mantenimiento del pool '" + nombre + "': " + e.getMessage());
+        }
+    }
+
+    /** Cierra conexiones inactivas más allá del mínimo configurado */
+    private void expulsarInactivas() {
+        long limite = System.currentTimeMillis() - tiempoInactividadMs;
+        Iterator<ConexionFisica> it = inactivas.descendingIterator();
+
+        while (it.hasNext() && totalFisicas.get() > minimo) {
+            ConexionFisica fisica = it.next();
+            if (fisica.ultimoUso < limite && inactivas.removeFirstOccurrence(fisica)) {
+                destruir(fisica);
+            }
+        }
+    }
+
+    /** Reporta una sola vez cada conexión prestada por encima del umbral */
+    private void detectarFugas() {
+        if (umbralFugaMs <= 0) {
+            return;
+        }
+        long limite = System.currentTimeMillis() - umbralFugaMs;
+
+        for (ConexionFisica fisica : prestadas) {
+            if (!fisica.fugaReportada && fisica.inicioPrestamo < limite) {
+                fisica.fugaReportada = true;
+                fugasDetectadas.increment();
+                System.err.println("ADVERTENCIA: posible fuga de conexión en el pool '" + nombre +
+                    "' (prestada hace " + (System.currentTimeMillis() - fisica.inicioPrestamo) + " ms)");
+                if (fisica.origenPrestamo != null) {
+                    fisica.origenPrestamo.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /** Abre conexiones hasta llegar al mínimo (sin superar el máximo de permisos) */
+    private void completarMinimo() {
+        while (!cerrado && totalFisicas.get() < minimo && permisos.tryAcquire()) {
+            try {
+                ConexionFisica fisica = crearConexion();
+                fisica.ultimoUso = System.currentTimeMillis();
+                inactivas.offerLast(fisica);
+            } catch (SQLException e) {
+                System.err.println("No se pudo abrir conexión mínima en el pool '" + nombre + "': " + e.getMessage());
+                return;
+            } finally {
+                permisos.release();
+            }
+        }
+    }
+
+    // ==================== RECONEXIÓN ====================
+
+    /** Programa un intento de reconexión para cuando termine la espera del circuito */
+    private void programarSonda() {
+        if (cerrado || circuito.getEstado() == CircuitBreaker.Estado.CERRADO
+                || !sondaProgramada.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            mantenimiento.schedule(this::sondear, circuito.getMsHastaReintento(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            sondaProgramada.set(false);
+        }
+    }
+
+    /**
+     * Intenta abrir una conexión en segundo plano
+     * Si funciona, el circuito se cierra sin que el usuario tenga que reintentar
+     */
+    private void sondear() {
+        sondaProgramada.set(false);
+        if (cerrado) {
+            return;
+        }
+        if (!circuito.intentarSonda() || !permisos.tryAcquire()) {
+            programarSonda();
+            return;
+        }
+        try {
+            ConexionFisica fisica = crearConexion();
+            fisica.ultimoUso = System.currentTimeMillis();
+            inactivas.offerFirst(fisica);
+        } catch (SQLException e) {
+            // crearConexion() ya registró el fallo y programó el siguiente intento
+        } finally {
+            permisos.release();
+        }
+    }
+
+    // ==================== CLASES INTERNAS ====================
+
+    /** Conexión física con los datos de seguimiento del pool */
+    private class ConexionFisica {
+        private final Connection conexion;
+        private final StatementCache cache;
+        private volatile long ultimoUso = System.currentTimeMillis();
+        private volatile long inicioPrestamo;
+        private volatile Throwable origenPrestamo;
+        private volatile boolean fugaReportada;
+
+        ConexionFisica(Connection conexion) {
+            this.conexion = conexion;
+            this.cache = tamanoCacheSentencias > 0
+                ? new StatementCache(tamanoCacheSentencias, aciertosCache, fallosCache, expulsionesCache)
+                : null;
+        }
+
+        void marcarPrestamo() {
+            inicioPrestamo = System.currentTimeMillis();
+            // Capturar la pila solo si la detección de fugas está activa
+            origenPrestamo = umbralFugaMs > 0 ? new Throwable("Conexión prestada aquí") : null;
+            fugaReportada = false;
+        }
+
+        Connection crearProxy() {
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new ManejadorPrestamo(this)
+            );
+        }
+    }
+
+    /** Intercepta close() para devolver la conexión en lugar de cerrarla */
+    private class ManejadorPrestamo implements InvocationHandler {
+        private final ConexionFisica fisica;
+        private boolean devuelta = false;
+
+        ManejadorPrestamo(ConexionFisica fisica) {
+            this.fisica = fisica;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+            switch (metodo.getName()) {
+                case "close":
+                    if (!devuelta) {
+                        devuelta = true;
+                        devolver(fisica);
+                    }
+                    return null;
+                case "isClosed":
+                    return devuelta || fisica.conexion.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "ConexionPool[" + nombre + "]" + (devuelta ? " (devuelta)" : "");
+                default:
+                    break;
+            }
+
+            if (devuelta) {
+                throw new SQLException("La conexión ya fue devuelta al pool");
+            }
+
+            Object resultado;
+
+            // prepareStatement(sql) pasa por la caché de sentencias de la conexión
+            if (fisica.cache != null && "prepareStatement".equals(metodo.getName()) && args.length == 1) {
+                resultado = fisica.cache.preparar(fisica.conexion, (Connection) proxy, (String) args[0]);
+            } else {
+                try {
+                    resultado = metodo.invoke(fisica.conexion, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            // Se asigna en cada entrega: una sentencia cacheada no conserva el timeout de otra operación
+            if (resultado instanceof Statement && timeoutConsultaS > 0) {
+                ((Statement) resultado).setQueryTimeout(timeoutConsultaS);
+            }
+            return resultado;
+        }
+    }
+
+    /** Instantánea de métricas del pool */
+    public static class EstadisticasPool {
+        private final String nombre;
+        private final int totalConexiones;
+        private final int conexionesActivas;
+        private final int conexionesInactivas;
+        private final int hilosEsperando;
+        private final long totalPrestamos;
+        private final double esperaPromedioMs;
+        private final double esperaMaximaMs;
+        private final long timeouts;
+        private final long fugasDetectadas;
+        private final long conexionesCreadas;
+        private final long conexionesDestruidas;
+        private final long aciertosCacheSentencias;
+        private final long fallosCacheSentencias;
+        private final long expulsionesCacheSentencias;
+
+        public EstadisticasPool(String nombre, int totalConexiones, int conexionesActivas,
+                                int conexionesInactivas, int hilosEsperando, long totalPrestamos,
+                                double esperaPromedioMs, double esperaMaximaMs, long timeouts,
+                                long fugasDetectadas, long conexionesCreadas, long conexionesDestruidas,
+                                long aciertosCacheSentencias, long fallosCacheSentencias,
+                                long expulsionesCacheSentencias) {
+            this.nombre = nombre;
+            this.totalConexiones = totalConexiones;
+            this.conexionesActivas = conexionesActivas;
+            this.conexionesInactivas = conexionesInactivas;
+            this.hilosEsperando = hilosEsperando;
+            this.totalPrestamos = totalPrestamos;
+            this.esperaPromedioMs = esperaPromedioMs;
+            this.esperaMaximaMs = esperaMaximaMs;
+            this.timeouts = timeouts;
+            this.fugasDetectadas = fugasDetectadas;
+            this.conexionesCreadas = conexionesCreadas;
+            this.conexionesDestruidas = conexionesDestruidas;
+            this.aciertosCacheSentencias = aciertosCacheSentencias;
+            this.fallosCacheSentencias = fallosCacheSentencias;
+            this.expulsionesCacheSentencias = expulsionesCacheSentencias;
+        }
+
+        // Getters
+        public String getNombre() { return nombre; }
+        public int getTotalConexiones() { return totalConexiones; }
+        public int getConexionesActivas() { return conexionesActivas; }
+        public int getConexionesInactivas() { return conexionesInactivas; }
+        public int getHilosEsperando() { return hilosEsperando; }
+        public long getTotalPrestamos() { return totalPrestamos; }
+        public double getEsperaPromedioMs() { return esperaPromedioMs; }
+        public double getEsperaMaximaMs() { return esperaMaximaMs; }
+        public long getTimeouts() { return timeouts; }
+        public long getFugasDetectadas() { return fugasDetectadas; }
+        public long getConexionesCreadas() { return conexionesCreadas; }
+        public long getConexionesDestruidas() { return conexionesDestruidas; }
+        public long getAciertosCacheSentencias() { return aciertosCacheSentencias; }
+        public long getFallosCacheSentencias() { return fallosCacheSentencias; }
+        public long getExpulsionesCacheSentencias() { return expulsionesCacheSentencias; }
+        
+        /** Porcentaje de prepareStatement() servidos desde la caché */
+        public double getTasaAciertosCache() {
+            long total = aciertosCacheSentencias + fallosCacheSentencias;
+            return total == 0 ? 0.0 : aciertosCacheSentencias * 100.0 / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "Pool[%s] total=%d activas=%d inactivas=%d esperando=%d prestamos=%d " +
+                "espera_prom=%.2fms espera_max=%.2fms timeouts=%d fugas=%d creadas=%d destruidas=%d " +
+                "cache_sentencias[aciertos=%d fallos=%d expulsiones=%d tasa=%.1f%%]",
+                nombre, totalConexiones, conexionesActivas, conexionesInactivas, hilosEsperando,
+                totalPrestamos, esperaPromedioMs, esperaMaximaMs, timeouts, fugasDetectadas,
+                conexionesCreadas, conexionesDestruidas, aciertosCacheSentencias,
+                fallosCacheSentencias, expulsionesCacheSentencias, getTasaAciertosCache());
+        }
+    }
+}
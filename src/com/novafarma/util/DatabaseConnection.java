@@ -2,26 +2,56 @@ package com.novafarma.util;
 
 import com.novafarma.config.DatabaseConfig;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.function.Consumer;
 
 /**
  * Clase para gestionar la conexión a la base de datos PostgreSQL
  * 
- * PATRÓN DE DISEÑO: Singleton (una única instancia de conexión)
+ * PATRÓN DE DISEÑO: Singleton (un pool por servidor: primaria y réplica opcional)
+ * 
+ * POOL DE CONEXIONES:
+ * - getConnection() presta una conexión de ConnectionPool
+ * - close() sobre la conexión la devuelve al pool (no cierra el socket)
+ * - Los DAOs siguen usando try-with-resources sin cambios
+ * 
+ * ENRUTAMIENTO LECTURA/ESCRITURA:
+ * - getConnection(): primaria (escrituras y lecturas que deben estar al día)
+ * - getReadConnection(): réplica para reportes, listados y conteos
+ * - Tras registrarEscritura() las lecturas vuelven a la primaria durante
+ *   REPLICA_VENTANA_LECTURA_PROPIA_MS (leer lo que uno mismo escribió)
+ * - Si la réplica no está habilitada o falla, se usa la primaria
+ * 
+ * CAÍDAS DEL SERVIDOR:
+ * - Cada pool tiene un CircuitBreaker: tras varios fallos seguidos al conectar,
+ *   getConnection() falla al instante y el pool reintenta en segundo plano con
+ *   espera exponencial. obtenerEstadoSalud() / agregarObservadorSalud() para la UI
+ * 
+ * UNIDAD DE TRABAJO:
+ * - Con una UnitOfWork abierta en el hilo, ambos métodos devuelven su
+ *   conexión (misma transacción para todas las llamadas a DAOs)
  * 
  * CONFIGURACIÓN:
  * - La configuración de la base de datos está en DatabaseConfig.java
  * - Modifica los valores en DatabaseConfig.java según tu instalación local
  * 
  * @author Nova Farma Development Team
- * @version 2.0 (Refactorizado: configuración separada)
+ * @version 3.1 (Réplica de lectura)
  */
 public class DatabaseConnection {
     
     // ==================== PATRÓN SINGLETON ====================
     
-    private static Connection connection = null;
+    private static volatile ConnectionPool pool = null;
+    private static volatile ConnectionPool poolReplica = null;
+    private static boolean cierreRegistrado = false;
+    
+    // Un circuito por servidor; sobreviven a la recreación de los pools
+    private static final CircuitBreaker circuitoPrincipal = crearCircuito("principal");
+    private static final CircuitBreaker circuitoReplica = crearCircuito("replica");
+    
+    /** Momento (ms) de la última escritura hecha desde esta aplicación */
+    private static volatile long ultimaEscrituraMs = 0;
     
     /**
      * Constructor privado para evitar instanciación externa
@@ -32,67 +62,229 @@ public class DatabaseConnection {
     }
     
     /**
-     * Obtiene la conexión a la base de datos
+     * Obtiene una conexión a la base de datos primaria
      * 
-     * PATRÓN SINGLETON:
-     * - Si no existe conexión, la crea
-     * - Si existe pero está cerrada, la recrea
-     * - Si existe y está abierta, la reutiliza
+     * IMPORTANTE: Cerrar siempre la conexión (try-with-resources) para devolverla al pool
+     * Dentro de una UnitOfWork devuelve la conexión de la unidad
      * 
      * @return Connection objeto de conexión JDBC
-     * @throws SQLException si hay error de conexión
+     * @throws SQLException si hay error de conexión o el pool está agotado
      */
     public static Connection getConnection() throws SQLException {
+        Connection deUnidad = UnitOfWork.conexionActual();
+        if (deUnidad != null) {
+            return deUnidad;
+        }
+        return obtenerConexionDelPool();
+    }
+    
+    /** Presta una conexión del pool de la primaria ignorando la UnitOfWork del hilo */
+    static Connection obtenerConexionDelPool() throws SQLException {
+        return obtenerPool().obtenerConexion();
+    }
+    
+    /**
+     * Obtiene una conexión para consultas de solo lectura
+     * 
+     * Usa la réplica salvo que esté deshabilitada, no responda o haya
+     * una escritura reciente (en esos casos, la primaria)
+     * Dentro de una UnitOfWork lee con la conexión de la unidad
+     * 
+     * @return Connection objeto de conexión JDBC
+     * @throws SQLException si tampoco hay conexión a la primaria
+     */
+    public static Connection getReadConnection() throws SQLException {
+        if (!DatabaseConfig.REPLICA_HABILITADA || hayEscrituraReciente() || UnitOfWork.hayUnidadActiva()) {
+            return getConnection();
+        }
+        
         try {
-            // Verificar si la conexión está cerrada o es nula
-            if (connection == null || connection.isClosed()) {
-                // Cargar el driver de PostgreSQL (necesario en algunas versiones de Java)
-                Class.forName(DatabaseConfig.getDriverClass());
-                
-                // Establecer la conexión usando configuración desde DatabaseConfig
-                connection = DriverManager.getConnection(
-                    DatabaseConfig.getConnectionUrl(),
-                    DatabaseConfig.DB_USER,
-                    DatabaseConfig.DB_PASSWORD
-                );
+            return obtenerPoolReplica().obtenerConexion();
+        } catch (SQLException e) {
+            System.err.println("Réplica no disponible, se usa la primaria: " + e.getMessage());
+            return getConnection();
+        }
+    }
+    
+    /**
+     * Registra que se escribió en la primaria
+     * Las lecturas siguientes irán a la primaria durante la ventana configurada
+     */
+    public static void registrarEscritura() {
+        ultimaEscrituraMs = System.currentTimeMillis();
+    }
+    
+    private static boolean hayEscrituraReciente() {
+        return System.currentTimeMillis() - ultimaEscrituraMs < DatabaseConfig.REPLICA_VENTANA_LECTURA_PROPIA_MS;
+    }
+    
+    /**
+     * Obtiene el pool de la primaria, creándolo la primera vez (inicialización perezosa)
+     */
+    private static ConnectionPool obtenerPool() throws SQLException {
+        ConnectionPool actual = pool;
+        if (actual != null && !actual.estaCerrado()) {
+            return actual;
+        }
+        
+        synchronized (DatabaseConnection.class) {
+            if (pool == null || pool.estaCerrado()) {
+                pool = crearPool("principal", DatabaseConfig.getConnectionUrl(), circuitoPrincipal);
             }
-            
-            return connection;
-            
+            return pool;
+        }
+    }
+    
+    /**
+     * Obtiene el pool de la réplica, creándolo la primera vez
+     */
+    private static ConnectionPool obtenerPoolReplica() throws SQLException {
+        ConnectionPool actual = poolReplica;
+        if (actual != null && !actual.estaCerrado()) {
+            return actual;
+        }
+        
+        synchronized (DatabaseConnection.class) {
+            if (poolReplica == null || poolReplica.estaCerrado()) {
+                poolReplica = crearPool("replica", DatabaseConfig.getReplicaConnectionUrl(), circuitoReplica);
+            }
+            return poolReplica;
+        }
+    }
+    
+    private static CircuitBreaker crearCircuito(String nombre) {
+        return new CircuitBreaker(
+            nombre,
+            DatabaseConfig.CIRCUITO_UMBRAL_FALLOS,
+            DatabaseConfig.CIRCUITO_ESPERA_INICIAL_MS,
+            DatabaseConfig.CIRCUITO_ESPERA_MAXIMA_MS
+        );
+    }
+    
+    private static ConnectionPool crearPool(String nombre, String url, CircuitBreaker circuito) throws SQLException {
+        try {
+            // Cargar el driver de PostgreSQL (necesario en algunas versiones de Java)
+            Class.forName(DatabaseConfig.getDriverClass());
         } catch (ClassNotFoundException e) {
             throw new SQLException(
                 "Error: Driver de PostgreSQL no encontrado. " +
                 "Asegúrate de tener postgresql-XX.X.jar en el classpath", e
             );
         }
+        
+        ConnectionPool nuevo = new ConnectionPool(
+            nombre,
+            url,
+            DatabaseConfig.DB_USER,
+            DatabaseConfig.DB_PASSWORD,
+            DatabaseConfig.POOL_MIN_CONEXIONES,
+            DatabaseConfig.POOL_MAX_CONEXIONES,
+            DatabaseConfig.POOL_ESPERA_MAXIMA_MS,
+            DatabaseConfig.POOL_TIEMPO_INACTIVIDAD_MS,
+            DatabaseConfig.POOL_UMBRAL_FUGA_MS,
+            DatabaseConfig.POOL_TIMEOUT_VALIDACION_S,
+            DatabaseConfig.POOL_INTERVALO_MANTENIMIENTO_MS,
+            DatabaseConfig.CACHE_SENTENCIAS_POR_CONEXION,
+            DatabaseConfig.TIMEOUT_CONSULTA_S,
+            circuito
+        );
+        registrarCierreAlSalir();
+        return nuevo;
+    }
+    
+    /** Cierra los pools al terminar la JVM (EXIT_ON_CLOSE no pasa por closeConnection) */
+    private static void registrarCierreAlSalir() {
+        if (!cierreRegistrado) {
+            Runtime.getRuntime().addShutdownHook(new Thread(DatabaseConnection::closeConnection, "cierre-pool"));
+            cierreRegistrado = true;
+        }
     }
     
     /**
-     * Cierra la conexión a la base de datos
+     * Crea los pools y abre sus conexiones mínimas
+     * Se llama al arrancar para que el primer login no pague el handshake
+     * 
+     * @throws SQLException si no se puede crear el pool de la primaria
+     */
+    public static void precalentarPools() throws SQLException {
+        int abiertas = obtenerPool().precalentar();
+        System.out.println("Pool 'principal' precalentado: " + abiertas + " conexión(es)");
+        
+        if (DatabaseConfig.REPLICA_HABILITADA) {
+            try {
+                obtenerPoolReplica().precalentar();
+            } catch (SQLException e) {
+                System.err.println("No se pudo precalentar la réplica: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Cierra los pools y todas sus conexiones
      * Debe llamarse al cerrar la aplicación
      */
     public static void closeConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                System.out.println("Conexion cerrada correctamente");
-            }
-        } catch (SQLException e) {
-            System.err.println("Error al cerrar la conexión: " + e.getMessage());
+        cerrarPool(pool);
+        cerrarPool(poolReplica);
+    }
+    
+    private static void cerrarPool(ConnectionPool actual) {
+        if (actual != null && !actual.estaCerrado()) {
+            actual.cerrar();
+            System.out.println("Pool de conexiones '" + actual.getNombre() + "' cerrado correctamente");
         }
     }
     
     /**
-     * Verifica si la conexión está activa
+     * Verifica si el pool de la primaria está activo
      * 
-     * @return true si hay conexión activa, false en caso contrario
+     * @return true si el pool está abierto, false en caso contrario
      */
     public static boolean isConnected() {
-        try {
-            return connection != null && !connection.isClosed();
-        } catch (SQLException e) {
-            return false;
-        }
+        ConnectionPool actual = pool;
+        return actual != null && !actual.estaCerrado();
+    }
+    
+    // ==================== SALUD DE LA CONEXIÓN ====================
+    
+    /**
+     * Estado de la conexión con la primaria (para mostrarlo en la UI)
+     */
+    public static CircuitBreaker.Estado obtenerEstadoSalud() {
+        return circuitoPrincipal.getEstado();
+    }
+    
+    /** Milisegundos hasta el próximo intento de reconexión (0 si está conectada) */
+    public static long obtenerMsHastaReintento() {
+        return circuitoPrincipal.getMsHastaReintento();
+    }
+    
+    /**
+     * Registra un observador de los cambios de estado de la primaria
+     * Se llama desde hilos de fondo: en Swing usar SwingUtilities.invokeLater
+     */
+    public static void agregarObservadorSalud(Consumer<CircuitBreaker.Estado> observador) {
+        circuitoPrincipal.agregarObservador(observador);
+    }
+    
+    public static void quitarObservadorSalud(Consumer<CircuitBreaker.Estado> observador) {
+        circuitoPrincipal.quitarObservador(observador);
+    }
+    
+    /**
+     * Obtiene las métricas actuales del pool de la primaria (null si aún no se creó)
+     */
+    public static ConnectionPool.EstadisticasPool obtenerEstadisticasPool() {
+        ConnectionPool actual = pool;
+        return actual != null ? actual.obtenerEstadisticas() : null;
+    }
+    
+    /**
+     * Obtiene las métricas del pool de la réplica (null si no se usa)
+     */
+    public static ConnectionPool.EstadisticasPool obtenerEstadisticasPoolReplica() {
+        ConnectionPool actual = poolReplica;
+        return actual != null ? actual.obtenerEstadisticas() : null;
     }
     
     /**
@@ -102,12 +294,21 @@ public class DatabaseConnection {
         System.out.println("=== PRUEBA DE CONEXIÓN A POSTGRESQL ===\n");
         
         try {
-            getConnection();
-            System.out.println("Estado: Conectado exitosamente");
-            System.out.println("Base de datos: " + DatabaseConfig.DB_NAME);
-            System.out.println("URL: " + DatabaseConfig.getConnectionUrl());
+            try (Connection conexion = getConnection()) {
+                System.out.println("Estado: Conectado exitosamente");
+                System.out.println("Base de datos: " + DatabaseConfig.DB_NAME);
+                System.out.println("URL: " + conexion.getMetaData().getURL());
+            }
+            
+            if (DatabaseConfig.REPLICA_HABILITADA) {
+                try (Connection conexion = getReadConnection()) {
+                    System.out.println("Réplica: " + conexion.getMetaData().getURL());
+                }
+            }
+            
+            System.out.println(obtenerEstadisticasPool());
             
-            // Cerrar la conexión
+            // Cerrar el pool
             closeConnection();
             
         } catch (SQLException e) {
@@ -13,6 +13,9 @@ public class PaginationHelper {
     /** Tamaño de página por defecto */
     public static final int DEFAULT_PAGE_SIZE = 50;
     
+    /** Con más registros que esto las tablas se muestran paginadas */
+    public static final int DEFAULT_PAGINATION_THRESHOLD = 100;
+    
     /**
      * Calcula el offset basado en el número de página y el tamaño de página
      * 
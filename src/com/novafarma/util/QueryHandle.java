@@ -0,0 +1,84 @@
+package com.novafarma.util;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Permite cancelar una consulta en curso desde otro hilo
+ *
+ * USO:
+ * - El DAO registra la sentencia antes de ejecutarla y la libera al terminar
+ * - Quien lanzó la consulta llama cancelar() cuando ya no le sirve el resultado
+ *   (p. ej. una búsqueda nueva reemplaza a la anterior)
+ * - Statement.cancel() detiene la consulta en el servidor; el DAO recibe una
+ *   SQLException con SQLState 57014 (ver esCancelacion)
+ *
+ * Cada instancia sirve para una sola consulta.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class QueryHandle {
+
+    /** SQLState de PostgreSQL para "query_canceled" (cancelación o timeout) */
+    public static final String ESTADO_CANCELADA = "57014";
+
+    private Statement sentencia;
+    private boolean cancelada = false;
+
+    /**
+     * Asocia la sentencia que se va a ejecutar
+     *
+     * @throws SQLException si la consulta ya fue cancelada (no se llega a ejecutar)
+     */
+    public synchronized void registrar(Statement sentencia) throws SQLException {
+        if (cancelada) {
+            throw new SQLException("Consulta cancelada antes de ejecutarse", ESTADO_CANCELADA);
+        }
+        this.sentencia = sentencia;
+    }
+
+    /** Desasocia la sentencia (la consulta terminó) */
+    public synchronized void liberar() {
+        this.sentencia = null;
+    }
+
+    /**
+     * Cancela la consulta
+     *
+     * No bloquea: la petición de cancelación abre su propia conexión al
+     * servidor, así que se envía en segundo plano (se puede llamar desde Swing).
+     */
+    public void cancelar() {
+        Statement enCurso;
+        synchronized (this) {
+            if (cancelada) {
+                return;
+            }
+            cancelada = true;
+            enCurso = sentencia;
+        }
+
+        if (enCurso != null) {
+            AsyncExecutor.ejecutar(() -> {
+                try {
+                    enCurso.cancel();
+                } catch (SQLException e) {
+                    // La consulta ya terminó y la sentencia se cerró: nada que cancelar
+                }
+                return null;
+            });
+        }
+    }
+
+    public synchronized boolean isCancelada() {
+        return cancelada;
+    }
+
+    /** Indica si el error se debe a una cancelación o a un timeout de la consulta */
+    public static boolean esCancelacion(Throwable error) {
+        Throwable causa = AsyncExecutor.obtenerCausa(error);
+        return causa instanceof SQLException
+            && ESTADO_CANCELADA.equals(((SQLException) causa).getSQLState());
+    }
+}
@@ -0,0 +1,188 @@
+package com.novafarma.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché LRU de PreparedStatement de una conexión física del pool
+ *
+ * FUNCIONAMIENTO:
+ * - La clave es el texto SQL exacto
+ * - prepareStatement(sql) entrega un proxy; close() lo deja en la caché
+ *   (limpia parámetros) en lugar de cerrarlo
+ * - Al reutilizar el mismo objeto, el driver cuenta sus ejecuciones y pasa
+ *   la sentencia a un plan preparado en el servidor (prepareThreshold)
+ * - Si se supera el tamaño máximo se cierra la sentencia menos usada
+ *
+ * Una conexión la usa un solo hilo a la vez (mientras está prestada),
+ * pero los métodos son synchronized porque el mantenimiento del pool
+ * puede cerrarla desde otro hilo.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+class StatementCache {
+
+    private final int tamanoMaximo;
+    private final LongAdder aciertos;
+    private final LongAdder fallos;
+    private final LongAdder expulsiones;
+    private final Map<String, EntradaCache> entradas;
+
+    StatementCache(int tamanoMaximo, LongAdder aciertos, LongAdder fallos, LongAdder expulsiones) {
+        this.tamanoMaximo = tamanoMaximo;
+        this.aciertos = aciertos;
+        this.fallos = fallos;
+        this.expulsiones = expulsiones;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Obtiene una sentencia preparada para el SQL, reutilizando la cacheada si está libre
+     *
+     * @param conexion Conexión física dueña de la sentencia
+     * @param conexionVisible Proxy que ve el DAO (lo devuelve getConnection() de la sentencia)
+     * @param sql Texto SQL
+     * @return PreparedStatement cuyo close() lo devuelve a la caché
+     */
+    synchronized PreparedStatement preparar(Connection conexion, Connection conexionVisible, String sql) throws SQLException {
+        EntradaCache entrada = entradas.get(sql);
+
+        if (entrada != null && !entrada.enUso) {
+            aciertos.increment();
+            entrada.enUso = true;
+            return entrada.crearProxy(conexionVisible);
+        }
+
+        fallos.increment();
+        PreparedStatement sentencia = conexion.prepareStatement(sql);
+
+        // La misma sentencia ya está abierta (uso anidado): no se cachea esta copia
+        if (entrada != null) {
+            return sentencia;
+        }
+
+        EntradaCache nueva = new EntradaCache(sentencia);
+        nueva.enUso = true;
+        entradas.put(sql, nueva);
+        expulsarExcedente();
+        return nueva.crearProxy(conexionVisible);
+    }
+
+    /** Cierra todas las sentencias (al destruir la conexión física) */
+    synchronized void cerrar() {
+        for (EntradaCache entrada : entradas.values()) {
+            cerrarSilenciosamente(entrada.sentencia);
+        }
+        entradas.clear();
+    }
+
+    synchronized int tamano() {
+        return entradas.size();
+    }
+
+    private void expulsarExcedente() {
+        Iterator<EntradaCache> it = entradas.values().iterator();
+        while (entradas.size() > tamanoMaximo && it.hasNext()) {
+            EntradaCache masAntigua = it.next();
+            if (masAntigua.enUso) {
+                continue;
+            }
+            it.remove();
+            cerrarSilenciosamente(masAntigua.sentencia);
+            expulsiones.increment();
+        }
+    }
+
+    private synchronized void liberar(EntradaCache entrada) {
+        entrada.enUso = false;
+        try {
+            entrada.sentencia.clearParameters();
+            entrada.sentencia.clearBatch();
+        } catch (SQLException e) {
+            // Sentencia inutilizable: sacarla de la caché
+            entradas.values().remove(entrada);
+            cerrarSilenciosamente(entrada.sentencia);
+            expulsiones.increment();
+        }
+    }
+
+    private static void cerrarSilenciosamente(PreparedStatement sentencia) {
+        try {
+            sentencia.close();
+        } catch (SQLException e) {
+            // Ignorar: la conexión se está cerrando
+        }
+    }
+
+    /** Sentencia física cacheada */
+    private class EntradaCache {
+        private final PreparedStatement sentencia;
+        private boolean enUso;
+
+        EntradaCache(PreparedStatement sentencia) {
+            this.sentencia = sentencia;
+        }
+
+        PreparedStatement crearProxy(Connection conexionVisible) {
+            return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                new ManejadorSentencia(this, conexionVisible)
+            );
+        }
+    }
+
+    /** Intercepta close() para devolver la sentencia a la caché */
+    private class ManejadorSentencia implements InvocationHandler {
+        private final EntradaCache entrada;
+        private final Connection conexionVisible;
+        private boolean cerrada = false;
+
+        ManejadorSentencia(EntradaCache entrada, Connection conexionVisible) {
+            this.entrada = entrada;
+            this.conexionVisible = conexionVisible;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+            switch (metodo.getName()) {
+                case "close":
+                    if (!cerrada) {
+                        cerrada = true;
+                        liberar(entrada);
+                    }
+                    return null;
+                case "isClosed":
+                    return cerrada || entrada.sentencia.isClosed();
+                case "getConnection":
+                    return conexionVisible;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+
+            if (cerrada) {
+                throw new SQLException("La sentencia ya fue cerrada");
+            }
+
+            try {
+                return metodo.invoke(entrada.sentencia, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
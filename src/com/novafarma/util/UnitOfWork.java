@@ -0,0 +1,193 @@
+package com.novafarma.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Unidad de trabajo: una conexión y una transacción para varias llamadas a DAOs
+ *
+ * USO (en la capa de servicio):
+ * <pre>
+ * try (UnitOfWork unidad = UnitOfWork.iniciar()) {
+ *     Product p = productDAO.buscarProductoPorId(id);   // misma conexión
+ *     saleDAO.guardarVentas(ventas);                   // misma transacción
+ *     unidad.confirmar();
+ * }                                                    // sin confirmar = rollback
+ * </pre>
+ *
+ * FUNCIONAMIENTO:
+ * - La unidad queda asociada al hilo actual; mientras está abierta,
+ *   DatabaseConnection.getConnection() / getReadConnection() devuelven su conexión
+ *   (los DAOs no cambian)
+ * - Los DAOs siguen cerrando "su" conexión con try-with-resources: ese close()
+ *   no hace nada, la unidad la devuelve al pool al cerrarse
+ * - commit() / setAutoCommit() de un DAO dentro de la unidad se ignoran
+ *   (confirma la unidad); rollback() marca la unidad para revertirse
+ * - Una unidad iniciada dentro de otra participa en la exterior
+ *
+ * Las tareas de AsyncExecutor corren en otro hilo: no ven la unidad.
+ *
+ * @author Nova Farma Development Team
+ * @version 1.0
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private static final ThreadLocal<UnitOfWork> ACTUAL = new ThreadLocal<>();
+
+    private final Connection conexion;
+    private final Connection conexionCompartida;
+    private final UnitOfWork exterior;
+    private boolean soloRollback = false;
+    private boolean confirmada = false;
+    private boolean cerrada = false;
+
+    private UnitOfWork(Connection conexion, UnitOfWork exterior) {
+        this.conexion = conexion;
+        this.exterior = exterior;
+        this.conexionCompartida = conexion == null ? null : (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[]{Connection.class},
+            new ManejadorConexionCompartida()
+        );
+    }
+
+    /**
+     * Abre una unidad de trabajo en el hilo actual
+     * Si ya hay una abierta, la nueva participa en ella
+     *
+     * @return Unidad a cerrar con try-with-resources
+     * @throws SQLException si no se puede obtener la conexión
+     */
+    public static UnitOfWork iniciar() throws SQLException {
+        UnitOfWork exterior = ACTUAL.get();
+        if (exterior != null) {
+            return new UnitOfWork(null, exterior);
+        }
+
+        Connection conexion = DatabaseConnection.obtenerConexionDelPool();
+        try {
+            conexion.setAutoCommit(false);
+        } catch (SQLException e) {
+            conexion.close();
+            throw e;
+        }
+
+        UnitOfWork unidad = new UnitOfWork(conexion, null);
+        ACTUAL.set(unidad);
+        return unidad;
+    }
+
+    /**
+     * Conexión de la unidad abierta en este hilo (null si no hay ninguna)
+     * close() sobre ella no la devuelve al pool
+     */
+    static Connection conexionActual() {
+        UnitOfWork unidad = ACTUAL.get();
+        return unidad != null ? unidad.conexionCompartida : null;
+    }
+
+    /** Indica si el hilo actual está dentro de una unidad de trabajo */
+    public static boolean hayUnidadActiva() {
+        return ACTUAL.get() != null;
+    }
+
+    /**
+     * Confirma la transacción
+     * En una unidad anidada solo indica que su parte terminó bien
+     *
+     * @throws SQLException si la unidad fue marcada para rollback o falla el commit
+     */
+    public void confirmar() throws SQLException {
+        if (exterior != null) {
+            confirmada = true;
+            return;
+        }
+        if (soloRollback) {
+            throw new SQLException("La unidad de trabajo fue marcada para revertirse");
+        }
+        conexion.commit();
+        confirmada = true;
+    }
+
+    /** Marca la unidad (y la exterior, si la hay) para revertirse al cerrar */
+    public void marcarRollback() {
+        if (exterior != null) {
+            exterior.marcarRollback();
+        } else {
+            soloRollback = true;
+        }
+    }
+
+    /**
+     * Revierte si no se confirmó y devuelve la conexión al pool
+     */
+    @Override
+    public void close() throws SQLException {
+        if (cerrada) {
+            return;
+        }
+        cerrada = true;
+
+        if (exterior != null) {
+            // Una parte anidada que no confirmó invalida toda la unidad
+            if (!confirmada) {
+                exterior.marcarRollback();
+            }
+            return;
+        }
+
+        ACTUAL.remove();
+        try {
+            if (!confirmada) {
+                conexion.rollback();
+            }
+        } finally {
+            try {
+                conexion.setAutoCommit(true);
+            } finally {
+                conexion.close();
+            }
+        }
+    }
+
+    /** Vista de la conexión que reciben los DAOs dentro de la unidad */
+    private class ManejadorConexionCompartida implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+            switch (metodo.getName()) {
+                case "close":
+                case "commit":
+                case "setAutoCommit":
+                    // Lo controla la unidad
+                    return null;
+                case "rollback":
+                    if (args == null || args.length == 0) {
+                        soloRollback = true;
+                        return null;
+                    }
+                    break;
+                case "getAutoCommit":
+                    return false;
+                case "isClosed":
+                    return cerrada || conexion.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+
+            try {
+                return metodo.invoke(conexion, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}